@@ -0,0 +1,140 @@
+package co.luminositylabs.utils.orientdb.benchmark;
+
+
+import co.luminositylabs.utils.orientdb.EmbeddedServerBuilder;
+import co.luminositylabs.utils.orientdb.OrientDBUtil;
+import com.orientechnologies.orient.client.remote.OServerAdmin;
+import com.orientechnologies.orient.server.OServer;
+
+import java.io.File;
+
+
+/**
+ * An embedded server hosting a plocal database for benchmarks, reachable both in-process and over the network.
+ *
+ * @author Phillip Ross
+ */
+public final class BenchmarkServer implements AutoCloseable {
+
+    /** The username of the server user. */
+    public static final String USERNAME = "bench";
+
+    /** The password of the server user. */
+    public static final String PASSWORD = "benchpassword";
+
+    /** The port the server listens on. */
+    public static final String PORT = "7670";
+
+    /** The hostname the server is reached at. */
+    private static final String HOSTNAME = "127.0.0.1";
+
+    /** The storage type of the hosted database. */
+    private static final String STORAGE_TYPE = "plocal";
+
+    /** The location of databases hosted by the server. */
+    private static final String DATABASE_PATH = "target/benchdbs";
+
+    /** The embedded server. */
+    private final OServer oServer;
+
+    /** The name of the hosted database. */
+    private final String databaseName;
+
+    /** The absolute location of databases hosted by the server. */
+    private final String absoluteDatabasePath;
+
+
+    /**
+     * Starts the server and creates the database if it does not exist.
+     *
+     * @param databaseName the name of the hosted database
+     *
+     * @throws Exception when the server cannot be started or the database cannot be created
+     */
+    public BenchmarkServer(final String databaseName) throws Exception {
+        this(databaseName, false);
+    }
+
+
+    /**
+     * Starts the server and creates the database, optionally dropping the one left by a previous run.
+     *
+     * @param databaseName the name of the hosted database
+     * @param recreate whether or not an existing database is dropped so that the benchmark starts from an empty one
+     *
+     * @throws Exception when the server cannot be started or the database cannot be created
+     */
+    public BenchmarkServer(final String databaseName, final boolean recreate) throws Exception {
+        this.databaseName = databaseName;
+        this.absoluteDatabasePath = new File(DATABASE_PATH).getAbsolutePath();
+        oServer = new EmbeddedServerBuilder(USERNAME, PASSWORD)
+                .addListener(HOSTNAME, PORT)
+                .setDatabasePath(absoluteDatabasePath)
+                .start();
+        OServerAdmin oServerAdmin = new OServerAdmin(getRemoteUrl());
+        try {
+            oServerAdmin.connect(USERNAME, PASSWORD);
+            boolean exists = oServerAdmin.existsDatabase();
+            if (exists && recreate) {
+                oServerAdmin.dropDatabase(STORAGE_TYPE);
+                exists = false;
+            }
+            if (!exists) {
+                oServerAdmin.createDatabase("document", STORAGE_TYPE);
+            }
+        } finally {
+            oServerAdmin.close();
+        }
+    }
+
+
+    /**
+     * Returns the url of the database over the network.
+     *
+     * @return the remote url
+     */
+    public String getRemoteUrl() {
+        return OrientDBUtil.buildDatabaseUrl(databaseName, OrientDBUtil.Engine.REMOTE, HOSTNAME, PORT, null);
+    }
+
+
+    /**
+     * Returns the url of the database in-process, sharing the storage opened by the server.
+     *
+     * @return the plocal url
+     */
+    public String getLocalUrl() {
+        return OrientDBUtil.buildDatabaseUrl(
+                databaseName,
+                OrientDBUtil.Engine.PLOCAL,
+                null,
+                null,
+                absoluteDatabasePath
+        );
+    }
+
+
+    /**
+     * Returns the url of the database for the specified engine.
+     *
+     * @param engine the engine, either plocal or remote
+     * @return the url
+     */
+    public String getUrl(final OrientDBUtil.Engine engine) {
+        if (engine == OrientDBUtil.Engine.REMOTE) {
+            return getRemoteUrl();
+        }
+        return getLocalUrl();
+    }
+
+
+    /** Shuts down the server. */
+    @Override
+    public void close() {
+        if (oServer.isActive()) {
+            oServer.shutdown();
+        }
+    }
+
+
+}
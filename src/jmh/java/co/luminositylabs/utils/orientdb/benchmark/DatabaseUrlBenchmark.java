@@ -0,0 +1,64 @@
+package co.luminositylabs.utils.orientdb.benchmark;
+
+
+import co.luminositylabs.utils.orientdb.OrientDBUtil;
+import co.luminositylabs.utils.orientdb.RemoteDatabaseLocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures the throughput of building database urls.  Run with -prof gc to report allocation per operation.
+ *
+ * @author Phillip Ross
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DatabaseUrlBenchmark {
+
+    /** The engine of the url. */
+    @Param({"PLOCAL", "REMOTE"})
+    private OrientDBUtil.Engine engine;
+
+    /** The port range of the url. */
+    @Param({"2424", "2424-2430"})
+    private String portRange;
+
+
+    /**
+     * Builds a url with {@link OrientDBUtil#buildDatabaseUrl(String, OrientDBUtil.Engine, String, String, String)}.
+     *
+     * @return the url
+     */
+    @Benchmark
+    public String buildDatabaseUrl() {
+        return OrientDBUtil.buildDatabaseUrl("benchdb", engine, "localhost", portRange, "/databases");
+    }
+
+
+    /**
+     * Builds a multi-address url with {@link RemoteDatabaseLocator}.
+     *
+     * @return the url
+     */
+    @Benchmark
+    public String buildMultiAddressUrl() {
+        return RemoteDatabaseLocator.parse("host1,host2", portRange, "/databases", "benchdb").getDatabaseUrl();
+    }
+
+
+}
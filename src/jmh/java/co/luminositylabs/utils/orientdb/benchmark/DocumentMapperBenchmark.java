@@ -0,0 +1,310 @@
+package co.luminositylabs.utils.orientdb.benchmark;
+
+
+import co.luminositylabs.utils.orientdb.DocumentMapper;
+import co.luminositylabs.utils.orientdb.Link;
+import co.luminositylabs.utils.orientdb.OrientDBUtil;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.object.db.OObjectDatabaseTx;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Compares converting objects to and from documents with {@link DocumentMapper} against the proxies of the object
+ * database API, for an object with an embedded list and a linked object.  Reads convert a saved document and read
+ * every property, since the object database API loads properties lazily.
+ *
+ * @author Phillip Ross
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DocumentMapperBenchmark {
+
+    /** The database of the object database API, whose underlying document database the mapper uses. */
+    private OObjectDatabaseTx objectDatabase;
+
+    /** The mapper of people. */
+    private DocumentMapper<Person> mapper;
+
+    /** A saved person, with a linked address. */
+    private ODocument storedPerson;
+
+
+    /** A person, mapped by both APIs. */
+    public static class Person {
+
+        /** The name. */
+        private String name;
+
+        /** The age. */
+        private int age;
+
+        /** The tags. */
+        private List<String> tags = new ArrayList<>();
+
+        /** The linked address. */
+        @Link
+        private Address address;
+
+
+        /**
+         * Returns the name.
+         *
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+
+        /**
+         * Sets the name.
+         *
+         * @param name the name
+         */
+        public void setName(final String name) {
+            this.name = name;
+        }
+
+
+        /**
+         * Returns the age.
+         *
+         * @return the age
+         */
+        public int getAge() {
+            return age;
+        }
+
+
+        /**
+         * Sets the age.
+         *
+         * @param age the age
+         */
+        public void setAge(final int age) {
+            this.age = age;
+        }
+
+
+        /**
+         * Returns the tags.
+         *
+         * @return the tags
+         */
+        public List<String> getTags() {
+            return tags;
+        }
+
+
+        /**
+         * Sets the tags.
+         *
+         * @param tags the tags
+         */
+        public void setTags(final List<String> tags) {
+            this.tags = tags;
+        }
+
+
+        /**
+         * Returns the address.
+         *
+         * @return the address
+         */
+        public Address getAddress() {
+            return address;
+        }
+
+
+        /**
+         * Sets the address.
+         *
+         * @param address the address
+         */
+        public void setAddress(final Address address) {
+            this.address = address;
+        }
+
+    }
+
+
+    /** An address, linked to by people. */
+    public static class Address {
+
+        /** The street. */
+        private String street;
+
+        /** The city. */
+        private String city;
+
+
+        /**
+         * Returns the street.
+         *
+         * @return the street
+         */
+        public String getStreet() {
+            return street;
+        }
+
+
+        /**
+         * Sets the street.
+         *
+         * @param street the street
+         */
+        public void setStreet(final String street) {
+            this.street = street;
+        }
+
+
+        /**
+         * Returns the city.
+         *
+         * @return the city
+         */
+        public String getCity() {
+            return city;
+        }
+
+
+        /**
+         * Sets the city.
+         *
+         * @param city the city
+         */
+        public void setCity(final String city) {
+            this.city = city;
+        }
+
+    }
+
+
+    /**
+     * Creates an in-memory database, registers the classes with the object database API and saves a person.
+     */
+    @Setup
+    public void setUp() {
+        objectDatabase = new OObjectDatabaseTx(OrientDBUtil.buildDatabaseUrl(
+                "mapperbench" + System.identityHashCode(this),
+                OrientDBUtil.Engine.MEMORY,
+                null,
+                null,
+                null
+        ));
+        objectDatabase.create();
+        objectDatabase.getEntityManager().registerEntityClass(Person.class);
+        objectDatabase.getEntityManager().registerEntityClass(Address.class);
+        mapper = DocumentMapper.forClass(Person.class);
+        storedPerson = mapper.save((ODatabaseDocumentTx) objectDatabase.getUnderlying(), newPerson());
+    }
+
+
+    /** Drops the database. */
+    @TearDown
+    public void tearDown() {
+        objectDatabase.activateOnCurrentThread();
+        objectDatabase.drop();
+    }
+
+
+    /**
+     * Creates a person with an address.
+     *
+     * @return the person
+     */
+    private static Person newPerson() {
+        final Address address = new Address();
+        address.setStreet("1 Main Street");
+        address.setCity("Springfield");
+        final Person person = new Person();
+        person.setName("Jane");
+        person.setAge(42);
+        person.setTags(new ArrayList<>(Arrays.asList("alpha", "beta", "gamma")));
+        person.setAddress(address);
+        return person;
+    }
+
+
+    /**
+     * Reads every property of a person.
+     *
+     * @param person the person
+     * @param blackhole consumes the properties
+     */
+    private static void consume(final Person person, final Blackhole blackhole) {
+        blackhole.consume(person.getName());
+        blackhole.consume(person.getAge());
+        blackhole.consume(person.getTags().size());
+        blackhole.consume(person.getAddress().getCity());
+    }
+
+
+    /**
+     * Converts a person to documents with the mapper.
+     *
+     * @return the document
+     */
+    @Benchmark
+    public ODocument mapperToDocument() {
+        return mapper.toDocument(newPerson());
+    }
+
+
+    /**
+     * Converts a person to documents with the object database API.
+     *
+     * @return the document
+     */
+    @Benchmark
+    public ODocument objectToDocument() {
+        return objectDatabase.getRecordByUserObject(newPerson(), true);
+    }
+
+
+    /**
+     * Converts a saved document to a person with the mapper and reads its properties.
+     *
+     * @param blackhole consumes the properties
+     */
+    @Benchmark
+    public void mapperFromDocument(final Blackhole blackhole) {
+        consume(mapper.fromDocument(storedPerson), blackhole);
+    }
+
+
+    /**
+     * Converts a saved document to a person with the object database API and reads its properties.
+     *
+     * @param blackhole consumes the properties
+     */
+    @Benchmark
+    public void objectFromDocument(final Blackhole blackhole) {
+        final Person person = objectDatabase.getUserObjectByRecord(storedPerson, null);
+        consume(person, blackhole);
+    }
+
+
+}
@@ -0,0 +1,133 @@
+package co.luminositylabs.utils.orientdb.benchmark;
+
+
+import co.luminositylabs.utils.orientdb.OrientDBPool;
+import co.luminositylabs.utils.orientdb.OrientDBUtil;
+import co.luminositylabs.utils.orientdb.PooledSession;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures document insert and indexed query throughput against a database hosted by an embedded server, reached
+ * either in-process through plocal or over the network through remote.
+ *
+ * @author Phillip Ross
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class DocumentThroughputBenchmark {
+
+    /** The name of the class documents are written to. */
+    private static final String CLASS_NAME = "BenchDocument";
+
+    /** The number of documents loaded before measurement for queries to find. */
+    private static final int PRELOADED_DOCUMENTS = 10000;
+
+    /** The query finding a document by its indexed key. */
+    private static final String QUERY_BY_KEY = "select from " + CLASS_NAME + " where key = ?";
+
+    /** The engine used to reach the database. */
+    @Param({"PLOCAL", "REMOTE"})
+    private OrientDBUtil.Engine engine;
+
+    /** The server hosting the database. */
+    private BenchmarkServer server;
+
+    /** The pool sessions are acquired from. */
+    private OrientDBPool pool;
+
+
+    /**
+     * Starts the server with an empty database, creates the indexed class and loads the documents queries find, so
+     * that every trial starts with the same documents rather than those left by earlier trials.
+     *
+     * @throws Exception when the server cannot be started
+     */
+    @Setup
+    public void setUp() throws Exception {
+        server = new BenchmarkServer("docbench", true);
+        pool = new OrientDBPool(
+                server.getUrl(engine),
+                BenchmarkServer.USERNAME,
+                BenchmarkServer.PASSWORD,
+                OrientDBPool.DEFAULT_MAX_PARTITION_SIZE,
+                OrientDBPool.DEFAULT_MAX_SIZE,
+                OrientDBPool.DEFAULT_ACQUIRE_TIMEOUT_MILLIS
+        );
+        try (PooledSession session = pool.acquire()) {
+            ODatabaseDocumentTx database = session.getDatabase();
+            OSchema schema = database.getMetadata().getSchema();
+            OClass oClass = schema.createClass(CLASS_NAME);
+            oClass.createProperty("key", OType.INTEGER);
+            oClass.createIndex(CLASS_NAME + ".key", OClass.INDEX_TYPE.NOTUNIQUE_HASH_INDEX, "key");
+            for (int i = 0; i < PRELOADED_DOCUMENTS; i++) {
+                database.save(new ODocument(CLASS_NAME).field("key", i).field("value", "value" + i));
+            }
+        }
+    }
+
+
+    /** Closes the pool and shuts down the server. */
+    @TearDown
+    public void tearDown() {
+        pool.close();
+        server.close();
+    }
+
+
+    /**
+     * Inserts a document.
+     *
+     * @return the inserted document
+     */
+    @Benchmark
+    public ODocument insert() {
+        try (PooledSession session = pool.acquire()) {
+            final int key = PRELOADED_DOCUMENTS + ThreadLocalRandom.current().nextInt(PRELOADED_DOCUMENTS);
+            return session.getDatabase().save(new ODocument(CLASS_NAME).field("key", key).field("value", "new"));
+        }
+    }
+
+
+    /**
+     * Queries a document by its indexed key.
+     *
+     * @return the matching documents
+     */
+    @Benchmark
+    public List<ODocument> queryByKey() {
+        try (PooledSession session = pool.acquire()) {
+            final int key = ThreadLocalRandom.current().nextInt(PRELOADED_DOCUMENTS);
+            return session.getDatabase().query(new OSQLSynchQuery<ODocument>(QUERY_BY_KEY), key);
+        }
+    }
+
+
+}
@@ -0,0 +1,72 @@
+package co.luminositylabs.utils.orientdb.benchmark;
+
+
+import co.luminositylabs.utils.orientdb.OrientDBUtil;
+import com.orientechnologies.orient.server.OServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures the time taken to start an embedded server, with and without the network listener.  Each fork measures
+ * a cold start on its first invocation, and the following invocations measure restarts within the same JVM.
+ *
+ * @author Phillip Ross
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 10)
+@Fork(3)
+public class EmbeddedServerStartupBenchmark {
+
+    /** Whether the server is started with the network listener or in-memory without it. */
+    @Param({"network", "inMemory"})
+    private String mode;
+
+    /** The server started by the current invocation. */
+    private OServer oServer;
+
+
+    /**
+     * Starts an embedded server.
+     *
+     * @return the server
+     *
+     * @throws Exception when the server cannot be started
+     */
+    @Benchmark
+    public OServer startEmbeddedServer() throws Exception {
+        if ("network".equals(mode)) {
+            oServer = OrientDBUtil.startEmbeddedServer(BenchmarkServer.USERNAME, BenchmarkServer.PASSWORD, "7671");
+        } else {
+            oServer = OrientDBUtil.startInMemoryEmbeddedServer(BenchmarkServer.USERNAME, BenchmarkServer.PASSWORD);
+        }
+        return oServer;
+    }
+
+
+    /** Shuts down the server started by the invocation. */
+    @TearDown(Level.Invocation)
+    public void shutdownServer() {
+        if ((oServer != null) && (oServer.isActive())) {
+            oServer.shutdown();
+        }
+        oServer = null;
+    }
+
+
+}
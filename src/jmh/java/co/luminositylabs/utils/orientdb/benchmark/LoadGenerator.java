@@ -0,0 +1,513 @@
+package co.luminositylabs.utils.orientdb.benchmark;
+
+
+import co.luminositylabs.utils.orientdb.LatencyHistogram;
+import co.luminositylabs.utils.orientdb.OrientDBPool;
+import co.luminositylabs.utils.orientdb.OrientDBUtil;
+import co.luminositylabs.utils.orientdb.PooledSession;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Runs a mix of reads, writes and queries against a database from a number of client threads and reports throughput
+ * and latency percentiles.
+ *
+ * <p>Unless a url is given, an embedded {@link BenchmarkServer} is started and its database is reached over the
+ * network, or in-process with {@code --engine plocal}, so the generator needs nothing but the local machine.  A
+ * read finds a preloaded document by its unique key, a write inserts a new document, and a query selects a page of
+ * documents by a non-unique bucket.  In closed-loop mode, the default, each thread issues its next operation as soon
+ * as the previous one completes.  With {@code --rate} the threads together issue operations at a fixed rate, and
+ * latency is measured from the time each operation was due rather than the time it started, so that a stalled
+ * server is not hidden by the generator slowing down with it.  Operations during the warm-up are not reported.</p>
+ *
+ * <p>Options are given as {@code --name value} pairs, and an unknown option is rejected:</p>
+ * <pre>
+ * --url       the url of an existing database, instead of starting an embedded server
+ * --username  the database user, admin by default or the embedded server's user
+ * --password  the database password, admin by default or the embedded server's password
+ * --engine    remote or plocal, how the embedded server's database is reached, remote by default
+ * --threads   the number of client threads, 8 by default
+ * --mix       the read:write:query weights, 70:20:10 by default
+ * --rate      the total operations per second, 0 by default for closed-loop
+ * --duration  the seconds measured, 30 by default
+ * --warmup    the seconds run before measuring, 5 by default
+ * --records   the documents preloaded for reads and queries, 10000 by default
+ * </pre>
+ *
+ * <p>Run it with the benchmarks profile, e.g.
+ * {@code mvn -Pbenchmarks verify -Dbenchmark.mainClass=co.luminositylabs.utils.orientdb.benchmark.LoadGenerator
+ * -Djmh.args="--threads 16 --rate 5000"}.</p>
+ *
+ * @author Phillip Ross
+ */
+public final class LoadGenerator {
+
+    /** The name of the class documents are written to. */
+    private static final String CLASS_NAME = "LoadDocument";
+
+    /** The name of the database hosted by the embedded server. */
+    private static final String DATABASE_NAME = "loadgen";
+
+    /** The names of the options which may be given. */
+    private static final Set<String> OPTION_NAMES = Collections.unmodifiableSet(new TreeSet<>(Arrays.asList(
+            "url", "username", "password", "engine", "threads", "mix", "rate", "duration", "warmup", "records"
+    )));
+
+    /** The query finding the greatest key of the documents. */
+    private static final String QUERY_MAX_KEY = "select max(key) as maxKey from " + CLASS_NAME;
+
+    /** The query finding a document by its unique key. */
+    private static final String QUERY_BY_KEY = "select from " + CLASS_NAME + " where key = ?";
+
+    /** The query selecting a page of documents by bucket. */
+    private static final String QUERY_BY_BUCKET = "select from " + CLASS_NAME + " where bucket = ? limit 20";
+
+    /** The number of buckets documents are spread over. */
+    private static final int BUCKET_COUNT = 500;
+
+    /** The number of documents committed together while preloading. */
+    private static final int PRELOAD_BATCH_SIZE = 1000;
+
+    /** The percentiles reported. */
+    private static final double[] PERCENTILES = {50d, 90d, 99d, 99.9d};
+
+    /** The number of nanoseconds in a millisecond, as a floating point value for reporting. */
+    private static final double NANOS_PER_MILLI = 1_000_000d;
+
+    /** The option values, keyed by option name. */
+    private final Map<String, String> options;
+
+    /** The operations measured, with their latencies. */
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+
+    /** The operations which failed during measurement. */
+    private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+
+    /** The first failure, reported with the results. */
+    private final AtomicReference<Throwable> firstError = new AtomicReference<>();
+
+    /** The key of the next inserted document. */
+    private final AtomicLong nextKey = new AtomicLong();
+
+    /** The cumulative weights of reads, writes and queries. */
+    private final int[] cumulativeWeights = new int[Operation.values().length];
+
+    /** The pool sessions are acquired from. */
+    private OrientDBPool pool;
+
+    /** The number of preloaded documents. */
+    private int recordCount;
+
+
+    /** The operations of the workload. */
+    private enum Operation {
+
+        /** Finds a document by its unique key. */
+        READ,
+
+        /** Inserts a document. */
+        WRITE,
+
+        /** Selects a page of documents by bucket. */
+        QUERY
+
+    }
+
+
+    /**
+     * Constructor allowing the options to be specified.
+     *
+     * @param options the option values, keyed by option name
+     */
+    private LoadGenerator(final Map<String, String> options) {
+        this.options = options;
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            errors.put(operation, new LongAdder());
+        }
+        final String[] weights = option("mix", "70:20:10").split(":");
+        if (weights.length != cumulativeWeights.length) {
+            throw new IllegalArgumentException("mix must have read, write and query weights, e.g. 70:20:10");
+        }
+        int total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            total += Integer.parseInt(weights[i].trim());
+            cumulativeWeights[i] = total;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("mix must have a positive weight");
+        }
+    }
+
+
+    /**
+     * Runs the load generator.
+     *
+     * @param args the options as name and value pairs
+     *
+     * @throws Exception when the server cannot be started or the workload cannot run
+     */
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || (i + 1 == args.length)) {
+                throw new IllegalArgumentException("Options must be given as --name value pairs: " + args[i]);
+            }
+            final String name = args[i].substring(2);
+            if (!OPTION_NAMES.contains(name)) {
+                throw new IllegalArgumentException("Unknown option " + args[i] + ", expected one of " + OPTION_NAMES);
+            }
+            options.put(name, args[i + 1]);
+        }
+        new LoadGenerator(options).run();
+    }
+
+
+    /**
+     * Starts the server when no url is given, prepares the database, runs the workload and prints the results.
+     *
+     * @throws Exception when the server cannot be started or the workload cannot run
+     */
+    private void run() throws Exception {
+        BenchmarkServer server = null;
+        String url = options.get("url");
+        String username = option("username", "admin");
+        String password = option("password", "admin");
+        if (url == null) {
+            server = new BenchmarkServer(DATABASE_NAME);
+            url = server.getUrl(OrientDBUtil.Engine.valueOf(option("engine", "remote").toUpperCase(Locale.ROOT)));
+            username = option("username", BenchmarkServer.USERNAME);
+            password = option("password", BenchmarkServer.PASSWORD);
+        }
+        final int threadCount = intOption("threads", 8);
+        try {
+            pool = new OrientDBPool(
+                    url,
+                    username,
+                    password,
+                    threadCount,
+                    threadCount,
+                    OrientDBPool.DEFAULT_ACQUIRE_TIMEOUT_MILLIS
+            );
+            recordCount = intOption("records", 10000);
+            prepare();
+            System.out.printf("Running %s against %s with %d threads%n", options, url, threadCount);
+            final long durationSeconds = intOption("duration", 30);
+            final long warmupSeconds = intOption("warmup", 5);
+            final long startNanos = System.nanoTime();
+            final long measureFromNanos = startNanos + TimeUnit.SECONDS.toNanos(warmupSeconds);
+            final long endNanos = measureFromNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+            final int rate = intOption("rate", 0);
+            long intervalNanos = 0;
+            if (rate > 0) {
+                intervalNanos = TimeUnit.SECONDS.toNanos(threadCount) / rate;
+            }
+            final long threadIntervalNanos = intervalNanos;
+            final List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                final Thread thread = new Thread(
+                        () -> runClient(startNanos, measureFromNanos, endNanos, threadIntervalNanos),
+                        "load-client-" + i
+                );
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            report(durationSeconds, rate);
+        } finally {
+            if (pool != null) {
+                pool.close();
+            }
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+
+    /**
+     * Creates the indexed class and preloads the documents reads and queries find, unless they exist.
+     */
+    private void prepare() {
+        try (PooledSession session = pool.acquire()) {
+            final ODatabaseDocumentTx db = session.getDatabase();
+            final OSchema schema = db.getMetadata().getSchema();
+            if (!schema.existsClass(CLASS_NAME)) {
+                final OClass oClass = schema.createClass(CLASS_NAME);
+                oClass.createProperty("key", OType.LONG);
+                oClass.createProperty("bucket", OType.INTEGER);
+                oClass.createIndex(CLASS_NAME + ".key", OClass.INDEX_TYPE.UNIQUE_HASH_INDEX, "key");
+                oClass.createIndex(CLASS_NAME + ".bucket", OClass.INDEX_TYPE.NOTUNIQUE, "bucket");
+            }
+            final long firstKey = nextUnusedKey(db);
+            db.begin();
+            for (long key = firstKey; key < recordCount; key++) {
+                db.save(newDocument(key));
+                if ((key + 1) % PRELOAD_BATCH_SIZE == 0) {
+                    db.commit();
+                    db.begin();
+                }
+            }
+            db.commit();
+            nextKey.set(Math.max(firstKey, recordCount));
+        }
+    }
+
+
+    /**
+     * Returns the key following the greatest key of the existing documents.  Writes which failed in earlier runs
+     * leave gaps in the keys, so the number of documents is not necessarily an unused key.
+     *
+     * @param db the database
+     * @return the first unused key, 0 when there are no documents
+     */
+    private static long nextUnusedKey(final ODatabaseDocumentTx db) {
+        final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>(QUERY_MAX_KEY));
+        if (result.isEmpty()) {
+            return 0L;
+        }
+        final Number maxKey = result.get(0).field("maxKey");
+        if (maxKey == null) {
+            return 0L;
+        }
+        return maxKey.longValue() + 1L;
+    }
+
+
+    /**
+     * Issues operations until the end of the run, recording the latencies of those due after the warm-up.
+     *
+     * @param startNanos the time the run started
+     * @param measureFromNanos the time the warm-up ends
+     * @param endNanos the time the run ends
+     * @param intervalNanos the time between operations of this thread, or 0 for closed-loop
+     */
+    private void runClient(final long startNanos,
+                           final long measureFromNanos,
+                           final long endNanos,
+                           final long intervalNanos) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        long dueNanos = startNanos;
+        if (intervalNanos > 0) {
+            dueNanos += random.nextLong(intervalNanos);
+        }
+        while (true) {
+            final long scheduledNanos;
+            if (intervalNanos > 0) {
+                if (dueNanos - endNanos >= 0) {
+                    return;
+                }
+                final long waitNanos = dueNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    LockSupport.parkNanos(waitNanos);
+                }
+                scheduledNanos = dueNanos;
+                dueNanos += intervalNanos;
+            } else {
+                scheduledNanos = System.nanoTime();
+                if (scheduledNanos - endNanos >= 0) {
+                    return;
+                }
+            }
+            final Operation operation = nextOperation(random);
+            final boolean succeeded = execute(operation, random);
+            final long latencyNanos = System.nanoTime() - scheduledNanos;
+            if (scheduledNanos - measureFromNanos >= 0) {
+                latencies.get(operation).record(latencyNanos);
+                if (!succeeded) {
+                    errors.get(operation).increment();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Chooses the next operation according to the weights of the mix.
+     *
+     * @param random the random number generator of the thread
+     * @return the operation
+     */
+    private Operation nextOperation(final ThreadLocalRandom random) {
+        final int value = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (value < cumulativeWeights[i]) {
+                return Operation.values()[i];
+            }
+        }
+        return Operation.QUERY;
+    }
+
+
+    /**
+     * Executes an operation from a session of its own.
+     *
+     * @param operation the operation
+     * @param random the random number generator of the thread
+     * @return true if the operation succeeded
+     */
+    private boolean execute(final Operation operation, final ThreadLocalRandom random) {
+        try (PooledSession session = pool.acquire()) {
+            final ODatabaseDocumentTx db = session.getDatabase();
+            switch (operation) {
+                case READ:
+                    db.query(new OSQLSynchQuery<ODocument>(QUERY_BY_KEY), (long) random.nextInt(recordCount));
+                    break;
+                case WRITE:
+                    db.save(newDocument(nextKey.getAndIncrement()));
+                    break;
+                default:
+                    db.query(new OSQLSynchQuery<ODocument>(QUERY_BY_BUCKET), random.nextInt(BUCKET_COUNT));
+                    break;
+            }
+            return true;
+        } catch (RuntimeException re) {
+            firstError.compareAndSet(null, re);
+            return false;
+        }
+    }
+
+
+    /**
+     * Creates a document of the workload.
+     *
+     * @param key the unique key of the document
+     * @return the document
+     */
+    private static ODocument newDocument(final long key) {
+        return new ODocument(CLASS_NAME)
+                .field("key", key)
+                .field("bucket", (int) (key % BUCKET_COUNT))
+                .field("payload", "payload-" + key);
+    }
+
+
+    /**
+     * Prints the throughput and latency percentiles of each operation and of all operations together.
+     *
+     * @param durationSeconds the seconds measured
+     * @param rate the total operations per second, or 0 for closed-loop
+     */
+    private void report(final long durationSeconds, final int rate) {
+        final StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "%-6s %10s %10s %8s", "op", "count", "ops/s", "errors"));
+        for (double percentile : PERCENTILES) {
+            report.append(String.format(Locale.ROOT, " %9s", "p" + percentile));
+        }
+        report.append(String.format(Locale.ROOT, " %9s%n", "max"));
+        final LatencyHistogram all = new LatencyHistogram();
+        long allErrors = 0;
+        for (Operation operation : Operation.values()) {
+            final LatencyHistogram histogram = latencies.get(operation);
+            final long errorCount = errors.get(operation).sum();
+            appendRow(report, operation.name().toLowerCase(Locale.ROOT), histogram, errorCount, durationSeconds);
+            all.add(histogram);
+            allErrors += errorCount;
+        }
+        appendRow(report, "all", all, allErrors, durationSeconds);
+        report.append("Latencies in milliseconds");
+        if (rate > 0) {
+            report.append(", measured from the scheduled time at ").append(rate).append(" ops/s");
+        }
+        System.out.println(report);
+        final Throwable error = firstError.get();
+        if (error != null) {
+            System.out.println("First error: " + error);
+        }
+    }
+
+
+    /**
+     * Appends the throughput and latency percentiles of an operation to the report.
+     *
+     * @param report the report
+     * @param name the name of the operation
+     * @param histogram the latencies of the operation
+     * @param errorCount the number of failures of the operation
+     * @param durationSeconds the seconds measured
+     */
+    private static void appendRow(final StringBuilder report,
+                                  final String name,
+                                  final LatencyHistogram histogram,
+                                  final long errorCount,
+                                  final long durationSeconds) {
+        report.append(String.format(
+                Locale.ROOT,
+                "%-6s %10d %10.1f %8d",
+                name,
+                histogram.getCount(),
+                histogram.getCount() / (double) durationSeconds,
+                errorCount
+        ));
+        for (double percentile : PERCENTILES) {
+            report.append(String.format(
+                    Locale.ROOT,
+                    " %9.3f",
+                    histogram.getValueAtPercentile(percentile) / NANOS_PER_MILLI
+            ));
+        }
+        report.append(String.format(Locale.ROOT, " %9.3f%n", histogram.getMaxNanos() / NANOS_PER_MILLI));
+    }
+
+
+    /**
+     * Returns the value of an option.
+     *
+     * @param name the name of the option
+     * @param defaultValue the value when the option is not given
+     * @return the value
+     */
+    private String option(final String name, final String defaultValue) {
+        final String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        return value;
+    }
+
+
+    /**
+     * Returns the integer value of an option.
+     *
+     * @param name the name of the option
+     * @param defaultValue the value when the option is not given
+     * @return the value
+     */
+    private int intOption(final String name, final int defaultValue) {
+        final String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("Option " + name + " must be an integer: " + value, nfe);
+        }
+    }
+
+
+}
@@ -0,0 +1,94 @@
+package co.luminositylabs.utils.orientdb.benchmark;
+
+
+import co.luminositylabs.utils.orientdb.OrientDBPool;
+import co.luminositylabs.utils.orientdb.OrientDBUtil;
+import co.luminositylabs.utils.orientdb.PooledSession;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures acquiring and releasing sessions from an {@link OrientDBPool} shared by several threads.
+ *
+ * @author Phillip Ross
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class PoolBenchmark {
+
+    /** The engine used to reach the database. */
+    @Param({"PLOCAL", "REMOTE"})
+    private OrientDBUtil.Engine engine;
+
+    /** The maximum number of connections in the pool, non-positive meaning unbounded. */
+    @Param({"-1", "2"})
+    private int maxSize;
+
+    /** The server hosting the database. */
+    private BenchmarkServer server;
+
+    /** The pool being measured. */
+    private OrientDBPool pool;
+
+
+    /**
+     * Starts the server and creates the pool.
+     *
+     * @throws Exception when the server cannot be started
+     */
+    @Setup
+    public void setUp() throws Exception {
+        server = new BenchmarkServer("poolbench");
+        pool = new OrientDBPool(
+                server.getUrl(engine),
+                BenchmarkServer.USERNAME,
+                BenchmarkServer.PASSWORD,
+                OrientDBPool.DEFAULT_MAX_PARTITION_SIZE,
+                maxSize,
+                OrientDBPool.DEFAULT_ACQUIRE_TIMEOUT_MILLIS
+        );
+    }
+
+
+    /** Closes the pool and shuts down the server. */
+    @TearDown
+    public void tearDown() {
+        pool.close();
+        server.close();
+    }
+
+
+    /**
+     * Acquires a session and releases it.
+     *
+     * @return the database of the session
+     */
+    @Benchmark
+    public ODatabaseDocumentTx acquireRelease() {
+        try (PooledSession session = pool.acquire()) {
+            return session.getDatabase();
+        }
+    }
+
+
+}
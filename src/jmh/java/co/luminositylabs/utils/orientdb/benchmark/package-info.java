@@ -0,0 +1,6 @@
+/**
+ * JMH benchmarks and a load generator for the OrientDB utilities, built and run by the benchmarks profile.
+ *
+ * @author Phillip Ross
+ */
+package co.luminositylabs.utils.orientdb.benchmark;
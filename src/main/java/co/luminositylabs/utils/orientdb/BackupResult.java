@@ -0,0 +1,135 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * What a backup wrote and how long it took.
+ *
+ * @author Phillip Ross
+ */
+public final class BackupResult {
+
+    /** Whether the backup only contains what changed since the previous one. */
+    private final boolean incremental;
+
+    /** The number of clusters scanned. */
+    private final int clusterCount;
+
+    /** The number of records written. */
+    private final long recordCount;
+
+    /** The number of deleted records and dropped clusters written. */
+    private final long deletionCount;
+
+    /** The number of compressed bytes written. */
+    private final long byteCount;
+
+    /** The time in nanoseconds the backup took. */
+    private final long durationNanos;
+
+
+    /**
+     * Constructor allowing the counts and duration to be specified.
+     *
+     * @param incremental whether the backup only contains what changed since the previous one
+     * @param clusterCount the number of clusters scanned
+     * @param recordCount the number of records written
+     * @param deletionCount the number of deleted records and dropped clusters written
+     * @param byteCount the number of compressed bytes written
+     * @param durationNanos the time in nanoseconds the backup took
+     */
+    public BackupResult(final boolean incremental,
+                        final int clusterCount,
+                        final long recordCount,
+                        final long deletionCount,
+                        final long byteCount,
+                        final long durationNanos) {
+        this.incremental = incremental;
+        this.clusterCount = clusterCount;
+        this.recordCount = recordCount;
+        this.deletionCount = deletionCount;
+        this.byteCount = byteCount;
+        this.durationNanos = durationNanos;
+    }
+
+
+    /**
+     * Returns whether the backup only contains what changed since the previous one.
+     *
+     * @return true for an incremental backup, false for a full export
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+
+    /**
+     * Returns the number of clusters scanned for a manifest or incremental backup.
+     *
+     * @return the number of clusters, zero for a full export without a manifest
+     */
+    public int getClusterCount() {
+        return clusterCount;
+    }
+
+
+    /**
+     * Returns the number of records written by an incremental backup, or recorded in the manifest of a full export.
+     *
+     * @return the number of records
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+
+    /**
+     * Returns the number of deleted records and dropped clusters written by an incremental backup.
+     *
+     * @return the number of deletions
+     */
+    public long getDeletionCount() {
+        return deletionCount;
+    }
+
+
+    /**
+     * Returns the number of compressed bytes written.
+     *
+     * @return the number of bytes
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+
+    /**
+     * Returns the time the backup took.
+     *
+     * @return the duration in nanoseconds
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+
+    /**
+     * Returns a summary of the backup.
+     *
+     * @return the string representation of the result
+     */
+    @Override
+    public String toString() {
+        return "BackupResult{incremental=" + incremental
+                + ", clusters=" + clusterCount
+                + ", records=" + recordCount
+                + ", deletions=" + deletionCount
+                + ", bytes=" + byteCount
+                + ", durationMillis=" + TimeUnit.NANOSECONDS.toMillis(durationNanos)
+                + "}";
+    }
+
+
+}
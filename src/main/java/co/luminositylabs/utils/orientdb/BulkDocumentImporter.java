@@ -0,0 +1,613 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.intent.OIntentMassiveInsert;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+
+/**
+ * Streams JSON or CSV records from an input stream into the documents of a class.
+ *
+ * <p>Records are parsed one at a time on the calling thread and handed to worker threads through bounded queues, so
+ * the data set is never held in memory as a whole and the reader is slowed down when the workers fall behind.  Each
+ * worker owns a session of the {@link OrientDBPool}, saves into one of the clusters of the class and commits a
+ * transaction every {@code batchSize} records.  Giving each worker its own cluster keeps the workers from
+ * contending for the same pages.</p>
+ *
+ * <p>JSON input is either newline-delimited objects or an array of objects; fields starting with {@code @} are
+ * interpreted by OrientDB as usual.  CSV input starts with a header row naming the fields.  CSV values are stored as
+ * strings, converted by OrientDB when the class declares a property of another type, and empty values are left
+ * unset.</p>
+ *
+ * @author Phillip Ross
+ */
+public class BulkDocumentImporter {
+
+    /** The default number of records committed in a single transaction. */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /** The default number of parsed records waiting for each worker. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /** The default CSV field delimiter. */
+    public static final char DEFAULT_CSV_DELIMITER = ',';
+
+    /** The static logger instance. */
+    private static final Logger logger = LoggerFactory.getLogger(BulkDocumentImporter.class);
+
+    /** The time in milliseconds between checks for failed workers while a queue is full. */
+    private static final long OFFER_INTERVAL_MILLIS = 100L;
+
+    /** The marker telling a worker there are no more records. */
+    private static final Consumer<ODocument> END_OF_INPUT = document -> { };
+
+    /** The pool sessions are acquired from. */
+    private final OrientDBPool pool;
+
+    /** The name of the class documents are created in. */
+    private final String className;
+
+    /** The number of records committed in a single transaction. */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /** The number of worker threads, a non-positive value meaning one per cluster of the class. */
+    private int workerCount;
+
+    /** The number of parsed records waiting for each worker. */
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+    /** Whether the massive insert intent is declared on worker sessions. */
+    private boolean massiveInsert = true;
+
+
+    /**
+     * Constructor allowing the pool and target class to be specified.
+     *
+     * @param pool the pool sessions are acquired from
+     * @param className the name of the class documents are created in
+     */
+    public BulkDocumentImporter(final OrientDBPool pool, final String className) {
+        Objects.requireNonNull(pool, "A pool must be provided");
+        Objects.requireNonNull(className, "A class name must be provided");
+        this.pool = pool;
+        this.className = className;
+    }
+
+
+    /**
+     * Sets the number of records committed in a single transaction.
+     *
+     * @param batchSize the batch size
+     * @return this importer
+     */
+    public BulkDocumentImporter setBatchSize(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+
+    /**
+     * Sets the number of worker threads.  By default there is one worker for each cluster of the class, but no more
+     * than the maximum number of sessions of a bounded pool.
+     *
+     * @param workerCount the number of workers, a non-positive value meaning the default
+     * @return this importer
+     */
+    public BulkDocumentImporter setWorkerCount(final int workerCount) {
+        this.workerCount = workerCount;
+        return this;
+    }
+
+
+    /**
+     * Sets the number of parsed records waiting for each worker before the reader blocks.
+     *
+     * @param queueCapacity the queue capacity
+     * @return this importer
+     */
+    public BulkDocumentImporter setQueueCapacity(final int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be positive");
+        }
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+
+    /**
+     * Sets whether the massive insert intent is declared on worker sessions, which disables record caching and
+     * hooks for the duration of the import.
+     *
+     * @param massiveInsert whether the massive insert intent is declared
+     * @return this importer
+     */
+    public BulkDocumentImporter setMassiveInsert(final boolean massiveInsert) {
+        this.massiveInsert = massiveInsert;
+        return this;
+    }
+
+
+    /**
+     * Imports newline-delimited JSON objects, or a JSON array of objects, encoded in UTF-8.  The stream is not
+     * closed.
+     *
+     * @param inputStream the stream the records are read from
+     * @return the result of the import
+     *
+     * @throws IOException when the stream cannot be read
+     */
+    public BulkImportResult importJson(final InputStream inputStream) throws IOException {
+        Objects.requireNonNull(inputStream, "An input stream must be provided");
+        final JsonRecordReader jsonRecordReader = new JsonRecordReader(newReader(inputStream));
+        return importRecords(() -> {
+            final String json = jsonRecordReader.next();
+            if (json == null) {
+                return null;
+            }
+            return document -> document.fromJSON(json);
+        });
+    }
+
+
+    /**
+     * Imports comma separated records with a header row, encoded in UTF-8.  The stream is not closed.
+     *
+     * @param inputStream the stream the records are read from
+     * @return the result of the import
+     *
+     * @throws IOException when the stream cannot be read
+     */
+    public BulkImportResult importCsv(final InputStream inputStream) throws IOException {
+        return importCsv(inputStream, DEFAULT_CSV_DELIMITER);
+    }
+
+
+    /**
+     * Imports delimited records with a header row, encoded in UTF-8.  The stream is not closed.
+     *
+     * @param inputStream the stream the records are read from
+     * @param delimiter the field delimiter
+     * @return the result of the import
+     *
+     * @throws IOException when the stream cannot be read
+     */
+    public BulkImportResult importCsv(final InputStream inputStream, final char delimiter) throws IOException {
+        Objects.requireNonNull(inputStream, "An input stream must be provided");
+        final CsvRecordReader csvRecordReader = new CsvRecordReader(newReader(inputStream), delimiter);
+        final List<String> header = csvRecordReader.next();
+        if (header == null) {
+            return new BulkImportResult(0, 0, 0, 0);
+        }
+        final String[] fieldNames = header.toArray(new String[0]);
+        return importRecords(() -> {
+            final List<String> values = csvRecordReader.next();
+            if (values == null) {
+                return null;
+            }
+            if (values.size() != fieldNames.length) {
+                throw new IllegalArgumentException("CSV record on line " + csvRecordReader.getLineNumber()
+                        + " has " + values.size() + " values but the header has " + fieldNames.length);
+            }
+            return document -> {
+                for (int i = 0; i < fieldNames.length; i++) {
+                    if (!values.get(i).isEmpty()) {
+                        document.field(fieldNames[i], values.get(i));
+                    }
+                }
+            };
+        });
+    }
+
+
+    /**
+     * Creates a buffered UTF-8 reader for a stream.
+     *
+     * @param inputStream the stream
+     * @return the reader
+     */
+    private static BufferedReader newReader(final InputStream inputStream) {
+        return new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+    }
+
+
+    /**
+     * Distributes records to the workers until the source is exhausted, then waits for the workers to commit.
+     *
+     * @param source the source of records
+     * @return the result of the import
+     *
+     * @throws IOException when the source cannot be read
+     */
+    private BulkImportResult importRecords(final RecordSource source) throws IOException {
+        final long startNanos = System.nanoTime();
+        final List<String> clusterNames = getClusterNames();
+        int effectiveWorkerCount = workerCount;
+        if (effectiveWorkerCount < 1) {
+            effectiveWorkerCount = clusterNames.size();
+            if ((pool.getMaxSize() > 0) && (pool.getMaxSize() < effectiveWorkerCount)) {
+                // Each worker holds a session for the whole import.
+                effectiveWorkerCount = pool.getMaxSize();
+            }
+        }
+        logger.debug("Importing into {} with {} workers across clusters {}",
+                className, effectiveWorkerCount, clusterNames);
+
+        final List<BlockingQueue<Consumer<ODocument>>> queues = new ArrayList<>(effectiveWorkerCount);
+        final List<Future<long[]>> workers = new ArrayList<>(effectiveWorkerCount);
+        final ExecutorService executorService = Executors.newFixedThreadPool(effectiveWorkerCount);
+        long recordsRead = 0;
+        boolean completed = false;
+        try {
+            for (int i = 0; i < effectiveWorkerCount; i++) {
+                final BlockingQueue<Consumer<ODocument>> queue = new ArrayBlockingQueue<>(queueCapacity);
+                final String clusterName = clusterNames.get(i % clusterNames.size());
+                queues.add(queue);
+                workers.add(executorService.submit(() -> runWorker(queue, clusterName)));
+            }
+            Consumer<ODocument> record = source.next();
+            while (record != null) {
+                final int workerIndex = (int) (recordsRead % effectiveWorkerCount);
+                enqueue(queues.get(workerIndex), workers.get(workerIndex), record);
+                recordsRead++;
+                record = source.next();
+            }
+            for (int i = 0; i < effectiveWorkerCount; i++) {
+                enqueue(queues.get(i), workers.get(i), END_OF_INPUT);
+            }
+            long recordsImported = 0;
+            long batchesCommitted = 0;
+            for (Future<long[]> worker : workers) {
+                final long[] counts = worker.get();
+                recordsImported += counts[0];
+                batchesCommitted += counts[1];
+            }
+            completed = true;
+            return new BulkImportResult(recordsRead, recordsImported, batchesCommitted,
+                    System.nanoTime() - startNanos);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while importing into " + className, ie);
+        } catch (ExecutionException ee) {
+            throw new IllegalStateException("Unable to import into " + className, ee.getCause());
+        } finally {
+            if (completed) {
+                executorService.shutdown();
+            } else {
+                // Interrupting the workers rolls back their open transactions.
+                executorService.shutdownNow();
+            }
+        }
+    }
+
+
+    /**
+     * Hands a record to a worker, waiting while its queue is full.
+     *
+     * @param queue the queue of the worker
+     * @param worker the worker
+     * @param record the record
+     *
+     * @throws InterruptedException when interrupted while waiting
+     * @throws ExecutionException when the worker has failed
+     */
+    private static void enqueue(final BlockingQueue<Consumer<ODocument>> queue,
+                                final Future<long[]> worker,
+                                final Consumer<ODocument> record) throws InterruptedException, ExecutionException {
+        while (!queue.offer(record, OFFER_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (worker.isDone()) {
+                worker.get();
+                throw new IllegalStateException("An import worker stopped before the end of the input");
+            }
+        }
+    }
+
+
+    /**
+     * Returns the names of the clusters of the target class.
+     *
+     * @return the cluster names
+     */
+    private List<String> getClusterNames() {
+        try (PooledSession session = pool.acquire()) {
+            final ODatabaseDocumentTx db = session.getDatabase();
+            final OClass oClass = db.getMetadata().getSchema().getClass(className);
+            if (oClass == null) {
+                throw new IllegalStateException("Class " + className + " does not exist in " + db.getURL());
+            }
+            final List<String> clusterNames = new ArrayList<>();
+            for (int clusterId : oClass.getClusterIds()) {
+                clusterNames.add(db.getClusterNameById(clusterId));
+            }
+            return clusterNames;
+        }
+    }
+
+
+    /**
+     * Saves the records of a queue into a cluster, committing every batch.
+     *
+     * @param queue the queue records are taken from
+     * @param clusterName the name of the cluster records are saved into
+     * @return the number of records imported and the number of batches committed
+     *
+     * @throws InterruptedException when interrupted while waiting for a record
+     */
+    private long[] runWorker(final BlockingQueue<Consumer<ODocument>> queue,
+                             final String clusterName) throws InterruptedException {
+        long recordsImported = 0;
+        long batchesCommitted = 0;
+        int batchCount = 0;
+        try (PooledSession session = pool.acquire()) {
+            final ODatabaseDocumentTx db = session.getDatabase();
+            if (massiveInsert) {
+                db.declareIntent(new OIntentMassiveInsert());
+            }
+            try {
+                db.begin();
+                Consumer<ODocument> record = queue.take();
+                while (record != END_OF_INPUT) {
+                    final ODocument document = new ODocument(className);
+                    record.accept(document);
+                    db.save(document, clusterName);
+                    batchCount++;
+                    if (batchCount == batchSize) {
+                        OrientDBMetrics.getInstance().timeCommit(db::commit);
+                        recordsImported += batchCount;
+                        batchesCommitted++;
+                        batchCount = 0;
+                        db.begin();
+                    }
+                    record = queue.take();
+                }
+                if (batchCount > 0) {
+                    OrientDBMetrics.getInstance().timeCommit(db::commit);
+                    recordsImported += batchCount;
+                    batchesCommitted++;
+                } else {
+                    db.rollback();
+                }
+            } catch (RuntimeException | InterruptedException e) {
+                db.rollback();
+                throw e;
+            } finally {
+                if (massiveInsert) {
+                    db.declareIntent(null);
+                }
+            }
+        }
+        return new long[] {recordsImported, batchesCommitted};
+    }
+
+
+    /**
+     * A source of records, each record populating a new document.
+     */
+    @FunctionalInterface
+    private interface RecordSource {
+
+        /**
+         * Returns the next record.
+         *
+         * @return the next record, or null when the input is exhausted
+         *
+         * @throws IOException when the input cannot be read
+         */
+        Consumer<ODocument> next() throws IOException;
+
+    }
+
+
+    /**
+     * Reads the top-level JSON objects of a stream one at a time.
+     */
+    static final class JsonRecordReader {
+
+        /** The reader the objects are read from. */
+        private final Reader reader;
+
+        /** The buffer the current object is collected in. */
+        private final StringBuilder buffer = new StringBuilder();
+
+
+        /**
+         * Constructor allowing the reader to be specified.
+         *
+         * @param reader the reader the objects are read from
+         */
+        JsonRecordReader(final Reader reader) {
+            this.reader = reader;
+        }
+
+
+        /**
+         * Returns the text of the next top-level object, skipping whitespace, commas and array brackets between
+         * objects.
+         *
+         * @return the text of the object, or null when the input is exhausted
+         *
+         * @throws IOException when the input cannot be read
+         */
+        String next() throws IOException {
+            buffer.setLength(0);
+            int depth = 0;
+            boolean inString = false;
+            boolean escaped = false;
+            int c = reader.read();
+            while (c != -1) {
+                final char ch = (char) c;
+                if (depth == 0) {
+                    if (ch == '{') {
+                        buffer.append(ch);
+                        depth = 1;
+                    } else if (!Character.isWhitespace(ch) && (ch != ',') && (ch != '[') && (ch != ']')) {
+                        throw new IllegalArgumentException("Unexpected character '" + ch + "' between JSON records");
+                    }
+                } else {
+                    buffer.append(ch);
+                    if (inString) {
+                        if (escaped) {
+                            escaped = false;
+                        } else if (ch == '\\') {
+                            escaped = true;
+                        } else if (ch == '"') {
+                            inString = false;
+                        }
+                    } else if (ch == '"') {
+                        inString = true;
+                    } else if (ch == '{') {
+                        depth++;
+                    } else if (ch == '}') {
+                        depth--;
+                        if (depth == 0) {
+                            return buffer.toString();
+                        }
+                    }
+                }
+                c = reader.read();
+            }
+            if (depth > 0) {
+                throw new IllegalArgumentException("Unterminated JSON record at end of input");
+            }
+            return null;
+        }
+
+
+    }
+
+
+    /**
+     * Reads the records of a delimited stream one at a time, supporting quoted values containing delimiters, line
+     * breaks and doubled quotes.
+     */
+    static final class CsvRecordReader {
+
+        /** The reader the records are read from. */
+        private final BufferedReader reader;
+
+        /** The field delimiter. */
+        private final char delimiter;
+
+        /** The number of lines read so far. */
+        private long lineNumber;
+
+
+        /**
+         * Constructor allowing the reader and delimiter to be specified.
+         *
+         * @param reader the reader the records are read from
+         * @param delimiter the field delimiter
+         */
+        CsvRecordReader(final BufferedReader reader, final char delimiter) {
+            this.reader = reader;
+            this.delimiter = delimiter;
+        }
+
+
+        /**
+         * Returns the values of the next non-blank record.
+         *
+         * @return the values of the record, or null when the input is exhausted
+         *
+         * @throws IOException when the input cannot be read
+         */
+        List<String> next() throws IOException {
+            List<String> values = nextLine();
+            while ((values != null) && (values.size() == 1) && values.get(0).isEmpty()) {
+                values = nextLine();
+            }
+            return values;
+        }
+
+
+        /**
+         * Returns the values of the next record, which is blank for an empty line.
+         *
+         * @return the values of the record, or null when the input is exhausted
+         *
+         * @throws IOException when the input cannot be read
+         */
+        private List<String> nextLine() throws IOException {
+            final List<String> values = new ArrayList<>();
+            final StringBuilder value = new StringBuilder();
+            boolean quoted = false;
+            int c = reader.read();
+            if (c == -1) {
+                return null;
+            }
+            while (c != -1) {
+                final char ch = (char) c;
+                if (ch == '\n') {
+                    lineNumber++;
+                }
+                if (quoted) {
+                    if (ch == '"') {
+                        reader.mark(1);
+                        if (reader.read() == '"') {
+                            value.append(ch);
+                        } else {
+                            reader.reset();
+                            quoted = false;
+                        }
+                    } else {
+                        value.append(ch);
+                    }
+                } else if (ch == '"') {
+                    quoted = true;
+                } else if (ch == delimiter) {
+                    values.add(value.toString());
+                    value.setLength(0);
+                } else if (ch == '\n') {
+                    values.add(value.toString());
+                    return values;
+                } else if (ch != '\r') {
+                    value.append(ch);
+                }
+                c = reader.read();
+            }
+            if (quoted) {
+                throw new IllegalArgumentException("Unterminated quoted CSV value at end of input");
+            }
+            values.add(value.toString());
+            return values;
+        }
+
+
+        /**
+         * Returns the number of lines read so far.
+         *
+         * @return the line number
+         */
+        long getLineNumber() {
+            return lineNumber;
+        }
+
+
+    }
+
+
+}
@@ -0,0 +1,114 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * The outcome of a bulk import.
+ *
+ * @author Phillip Ross
+ */
+public final class BulkImportResult {
+
+    /** The number of records read from the input. */
+    private final long recordsRead;
+
+    /** The number of records saved to the database. */
+    private final long recordsImported;
+
+    /** The number of transactions committed. */
+    private final long batchesCommitted;
+
+    /** The time in nanoseconds the import took. */
+    private final long durationNanos;
+
+
+    /**
+     * Constructor allowing the counts and duration to be specified.
+     *
+     * @param recordsRead the number of records read from the input
+     * @param recordsImported the number of records saved to the database
+     * @param batchesCommitted the number of transactions committed
+     * @param durationNanos the time in nanoseconds the import took
+     */
+    public BulkImportResult(final long recordsRead,
+                            final long recordsImported,
+                            final long batchesCommitted,
+                            final long durationNanos) {
+        this.recordsRead = recordsRead;
+        this.recordsImported = recordsImported;
+        this.batchesCommitted = batchesCommitted;
+        this.durationNanos = durationNanos;
+    }
+
+
+    /**
+     * Returns the number of records read from the input.
+     *
+     * @return the number of records read
+     */
+    public long getRecordsRead() {
+        return recordsRead;
+    }
+
+
+    /**
+     * Returns the number of records saved to the database.
+     *
+     * @return the number of records imported
+     */
+    public long getRecordsImported() {
+        return recordsImported;
+    }
+
+
+    /**
+     * Returns the number of transactions committed.
+     *
+     * @return the number of batches committed
+     */
+    public long getBatchesCommitted() {
+        return batchesCommitted;
+    }
+
+
+    /**
+     * Returns the time the import took.
+     *
+     * @return the duration in nanoseconds
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+
+    /**
+     * Returns the number of records imported per second.
+     *
+     * @return the import rate
+     */
+    public double getRecordsPerSecond() {
+        if (durationNanos == 0) {
+            return 0;
+        }
+        return recordsImported / (durationNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+
+    /**
+     * Returns a summary of the import.
+     *
+     * @return the string representation of the result
+     */
+    @Override
+    public String toString() {
+        return "BulkImportResult{recordsRead=" + recordsRead
+                + ", recordsImported=" + recordsImported
+                + ", batchesCommitted=" + batchesCommitted
+                + ", durationMillis=" + TimeUnit.NANOSECONDS.toMillis(durationNanos)
+                + "}";
+    }
+
+
+}
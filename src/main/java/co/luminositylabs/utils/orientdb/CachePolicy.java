@@ -0,0 +1,81 @@
+package co.luminositylabs.utils.orientdb;
+
+
+/**
+ * Whether, and for how long, the documents of a class are kept in a {@link DocumentCache}.
+ *
+ * @author Phillip Ross
+ */
+public final class CachePolicy {
+
+    /** Documents are never cached. */
+    public static final CachePolicy NEVER = new CachePolicy(false, 0);
+
+    /** Documents are cached until they are evicted or invalidated. */
+    public static final CachePolicy NO_EXPIRY = new CachePolicy(true, 0);
+
+    /** Whether documents are cached. */
+    private final boolean cacheable;
+
+    /** The time in milliseconds documents are cached for, zero meaning no expiry. */
+    private final long ttlMillis;
+
+
+    /**
+     * Constructor allowing the attributes to be specified.
+     *
+     * @param cacheable whether documents are cached
+     * @param ttlMillis the time in milliseconds documents are cached for, zero meaning no expiry
+     */
+    private CachePolicy(final boolean cacheable, final long ttlMillis) {
+        this.cacheable = cacheable;
+        this.ttlMillis = ttlMillis;
+    }
+
+
+    /**
+     * Returns a policy caching documents for a limited time.
+     *
+     * @param ttlMillis the time in milliseconds documents are cached for
+     * @return the policy
+     */
+    public static CachePolicy expireAfter(final long ttlMillis) {
+        if (ttlMillis < 1) {
+            throw new IllegalArgumentException("ttlMillis must be positive");
+        }
+        return new CachePolicy(true, ttlMillis);
+    }
+
+
+    /**
+     * Returns whether documents are cached.
+     *
+     * @return true if documents are cached
+     */
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
+
+    /**
+     * Returns the time documents are cached for.
+     *
+     * @return the time in milliseconds, zero meaning no expiry
+     */
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+
+    /**
+     * Returns a description of the policy.
+     *
+     * @return the string representation of the policy
+     */
+    @Override
+    public String toString() {
+        return "CachePolicy{cacheable=" + cacheable + ", ttlMillis=" + ttlMillis + "}";
+    }
+
+
+}
@@ -0,0 +1,332 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.index.OIndexCursor;
+import com.orientechnologies.orient.server.OServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Loads the clusters and indexes of databases hosted by a server into the disk cache.
+ *
+ * <p>A freshly started server reads every page from disk the first time it is touched, so the first requests after
+ * a restart are much slower than the ones after them.  A warm-up reads the configured clusters record by record and
+ * the configured indexes entry by entry, which pulls their pages into the read cache, before traffic arrives.  Each
+ * cluster and index is read by its own task, from its own database instance, and the tasks run in parallel.  A
+ * warm-up never fails the startup it is part of: clusters and indexes which cannot be read are logged and listed
+ * in the {@link WarmUpReport}.</p>
+ *
+ * <p>Only as much as fits in the read cache stays there, so the clusters and indexes on the hot path are best
+ * listed explicitly for databases larger than the disk cache.</p>
+ *
+ * @author Phillip Ross
+ * @see EmbeddedServerBuilder#setCacheWarmer(CacheWarmer)
+ */
+public class CacheWarmer {
+
+    /** The default number of clusters and indexes read concurrently. */
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    /** The static logger instance. */
+    private static final Logger logger = LoggerFactory.getLogger(CacheWarmer.class);
+
+    /** The separator of database names from cluster and index names in the report. */
+    private static final String NAME_SEPARATOR = "/";
+
+    /** What is loaded from each database, keyed by database name. */
+    private final Map<String, WarmUpTarget> targets = new LinkedHashMap<>();
+
+    /** The maximum number of clusters and indexes read concurrently. */
+    private int parallelism = DEFAULT_PARALLELISM;
+
+
+    /**
+     * Loads every cluster and index of a database.
+     *
+     * @param databaseName the name of the database
+     * @return this warmer
+     */
+    public CacheWarmer addDatabase(final String databaseName) {
+        final WarmUpTarget target = target(databaseName);
+        target.allClusters = true;
+        target.allIndexes = true;
+        return this;
+    }
+
+
+    /**
+     * Loads clusters of a database.
+     *
+     * @param databaseName the name of the database
+     * @param clusterNames the names of the clusters
+     * @return this warmer
+     */
+    public CacheWarmer addClusters(final String databaseName, final String... clusterNames) {
+        Collections.addAll(target(databaseName).clusterNames, clusterNames);
+        return this;
+    }
+
+
+    /**
+     * Loads indexes of a database.
+     *
+     * @param databaseName the name of the database
+     * @param indexNames the names of the indexes
+     * @return this warmer
+     */
+    public CacheWarmer addIndexes(final String databaseName, final String... indexNames) {
+        Collections.addAll(target(databaseName).indexNames, indexNames);
+        return this;
+    }
+
+
+    /**
+     * Sets the maximum number of clusters and indexes read concurrently.
+     *
+     * @param parallelism the number of concurrent reads
+     * @return this warmer
+     */
+    public CacheWarmer setParallelism(final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+
+    /**
+     * Loads the configured clusters and indexes, waiting until all of them have been read.
+     *
+     * @param oServer the server hosting the databases
+     * @param username the name of a server user allowed to open the databases
+     * @param password the password of the server user
+     * @return what was loaded
+     */
+    public WarmUpReport warmUp(final OServer oServer, final String username, final String password) {
+        Objects.requireNonNull(oServer, "A server must be provided");
+        final long startNanos = System.nanoTime();
+        final List<String> failures = new ArrayList<>();
+        final List<WarmUpTask> tasks = new ArrayList<>();
+        for (Map.Entry<String, WarmUpTarget> target : targets.entrySet()) {
+            try {
+                tasks.addAll(resolveTasks(oServer, username, password, target.getKey(), target.getValue()));
+            } catch (RuntimeException re) {
+                logger.warn("Unable to open database {} for warm-up", target.getKey(), re);
+                failures.add(target.getKey() + ": " + re.getMessage());
+            }
+        }
+        final Map<String, Long> clusterRecordCounts = new LinkedHashMap<>();
+        final Map<String, Long> indexEntryCounts = new LinkedHashMap<>();
+        if (!tasks.isEmpty()) {
+            final ExecutorService executorService = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()));
+            try {
+                final List<Future<Long>> futures = new ArrayList<>();
+                for (WarmUpTask task : tasks) {
+                    futures.add(executorService.submit(() -> task.load(oServer, username, password)));
+                }
+                for (int i = 0; i < tasks.size(); i++) {
+                    final WarmUpTask task = tasks.get(i);
+                    try {
+                        final Long count = futures.get(i).get();
+                        if (task.index) {
+                            indexEntryCounts.put(task.getQualifiedName(), count);
+                        } else {
+                            clusterRecordCounts.put(task.getQualifiedName(), count);
+                        }
+                    } catch (ExecutionException ee) {
+                        logger.warn("Unable to warm up {}", task.getQualifiedName(), ee.getCause());
+                        failures.add(task.getQualifiedName() + ": " + ee.getCause().getMessage());
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        failures.add(task.getQualifiedName() + ": interrupted");
+                        break;
+                    }
+                }
+            } finally {
+                executorService.shutdownNow();
+            }
+        }
+        final WarmUpReport report = new WarmUpReport(
+                clusterRecordCounts,
+                indexEntryCounts,
+                failures,
+                System.nanoTime() - startNanos
+        );
+        logger.info("Warmed up disk cache: {}", report);
+        return report;
+    }
+
+
+    /**
+     * Lists the clusters and indexes of a database to load.
+     *
+     * @param oServer the server hosting the database
+     * @param username the name of a server user allowed to open the database
+     * @param password the password of the server user
+     * @param databaseName the name of the database
+     * @param target what is loaded from the database
+     * @return the tasks loading the clusters and indexes
+     */
+    private static List<WarmUpTask> resolveTasks(final OServer oServer,
+                                                 final String username,
+                                                 final String password,
+                                                 final String databaseName,
+                                                 final WarmUpTarget target) {
+        final Set<String> clusterNames = new LinkedHashSet<>(target.clusterNames);
+        final Set<String> indexNames = new LinkedHashSet<>(target.indexNames);
+        if (target.allClusters || target.allIndexes) {
+            final ODatabaseDocumentTx db = (ODatabaseDocumentTx) oServer.openDatabase(databaseName, username, password);
+            try {
+                if (target.allClusters) {
+                    clusterNames.addAll(db.getClusterNames());
+                }
+                if (target.allIndexes) {
+                    for (OIndex<?> index : db.getMetadata().getIndexManager().getIndexes()) {
+                        indexNames.add(index.getName());
+                    }
+                }
+            } finally {
+                db.close();
+            }
+        }
+        final List<WarmUpTask> tasks = new ArrayList<>();
+        for (String clusterName : clusterNames) {
+            tasks.add(new WarmUpTask(databaseName, clusterName, false));
+        }
+        for (String indexName : indexNames) {
+            tasks.add(new WarmUpTask(databaseName, indexName, true));
+        }
+        return tasks;
+    }
+
+
+    /**
+     * Returns what is loaded from a database, creating an empty target when there is none.
+     *
+     * @param databaseName the name of the database
+     * @return the target
+     */
+    private WarmUpTarget target(final String databaseName) {
+        Objects.requireNonNull(databaseName, "A database name must be provided");
+        return targets.computeIfAbsent(databaseName, name -> new WarmUpTarget());
+    }
+
+
+    /**
+     * What is loaded from a database.
+     */
+    private static final class WarmUpTarget {
+
+        /** The names of clusters to load. */
+        private final Set<String> clusterNames = new LinkedHashSet<>();
+
+        /** The names of indexes to load. */
+        private final Set<String> indexNames = new LinkedHashSet<>();
+
+        /** Whether every cluster is loaded. */
+        private boolean allClusters;
+
+        /** Whether every index is loaded. */
+        private boolean allIndexes;
+
+    }
+
+
+    /**
+     * The loading of a single cluster or index.
+     */
+    private static final class WarmUpTask {
+
+        /** The name of the database. */
+        private final String databaseName;
+
+        /** The name of the cluster or index. */
+        private final String name;
+
+        /** Whether an index rather than a cluster is loaded. */
+        private final boolean index;
+
+
+        /**
+         * Constructor allowing the loaded cluster or index to be specified.
+         *
+         * @param databaseName the name of the database
+         * @param name the name of the cluster or index
+         * @param index whether an index rather than a cluster is loaded
+         */
+        WarmUpTask(final String databaseName, final String name, final boolean index) {
+            this.databaseName = databaseName;
+            this.name = name;
+            this.index = index;
+        }
+
+
+        /**
+         * Returns the name of the cluster or index qualified by the name of the database.
+         *
+         * @return the qualified name
+         */
+        String getQualifiedName() {
+            return databaseName + NAME_SEPARATOR + name;
+        }
+
+
+        /**
+         * Reads every record of the cluster or entry of the index from a database instance of its own.
+         *
+         * @param oServer the server hosting the database
+         * @param username the name of a server user allowed to open the database
+         * @param password the password of the server user
+         * @return the number of records or entries read
+         */
+        long load(final OServer oServer, final String username, final String password) {
+            final ODatabaseDocumentTx db = (ODatabaseDocumentTx) oServer.openDatabase(databaseName, username, password);
+            try {
+                long count = 0;
+                if (index) {
+                    final OIndex<?> oIndex = db.getMetadata().getIndexManager().getIndex(name);
+                    if (oIndex == null) {
+                        throw new IllegalArgumentException("No index named " + name);
+                    }
+                    final OIndexCursor cursor = oIndex.cursor();
+                    for (Map.Entry<Object, OIdentifiable> entry = cursor.nextEntry();
+                         entry != null;
+                         entry = cursor.nextEntry()) {
+                        count++;
+                    }
+                } else {
+                    final Iterator<?> records = db.browseCluster(name);
+                    while (records.hasNext()) {
+                        records.next();
+                        count++;
+                    }
+                }
+                return count;
+            } finally {
+                db.close();
+            }
+        }
+
+    }
+
+
+}
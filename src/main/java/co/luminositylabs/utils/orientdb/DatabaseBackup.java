@@ -0,0 +1,975 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import com.orientechnologies.orient.core.command.OCommandOutputListener;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.tool.ODatabaseExport;
+import com.orientechnologies.orient.core.db.tool.ODatabaseImport;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.ORecord;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.storage.OPhysicalPosition;
+import com.orientechnologies.orient.core.storage.ORecordMetadata;
+import com.orientechnologies.orient.core.storage.OStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Streams compressed backups of a database while it serves traffic, in full or of what changed since the last one.
+ *
+ * <p>A full backup is a gzip compressed {@link ODatabaseExport}, which is restored with {@link ODatabaseImport}.
+ * Unlike the storage backup of a plocal database, an export does not freeze the database: it reads one record at a
+ * time, so writes continue while it runs and each record is exported as it was when it was read.  The export is
+ * written to a {@link WritableByteChannel} through a buffer, and its rate may be limited so that the backup does not
+ * starve live traffic of disk bandwidth.</p>
+ *
+ * <p>An incremental backup is a gzip compressed file of JSON lines: a header, then a line for every record created
+ * or updated since the previous backup, a line for every record deleted, and a line for every cluster dropped.
+ * Changes are found by comparing record versions with a manifest, a compact file listing the position and version
+ * of every record of every cluster.  Every backup given a manifest replaces it once the backup has been written, so
+ * each incremental backup holds the changes since the one before it.  A full backup records its manifest before it
+ * exports, so a record changed during the export is also written by the next incremental backup.  The first
+ * incremental backup without a manifest writes every record.  Incremental backups list the positions of every
+ * record and read the version of each from the storage, which is one lookup per record but neither reads nor
+ * deserializes the content of records which did not change; only changed records are loaded and written.</p>
+ *
+ * <p>{@link #restore(ODatabaseDocumentTx, Path, Path...)} imports a full backup into an empty database keeping the
+ * record ids, then applies incremental backups in the order they were taken.  Incremental backups hold records, not
+ * the schema: the schema records of the internal cluster are skipped when applied, so after classes, properties,
+ * indexes or clusters change a new full backup must be taken for later incremental backups to be restorable.</p>
+ *
+ * @author Phillip Ross
+ */
+public class DatabaseBackup {
+
+    /** The default size of the compression buffer. */
+    public static final int DEFAULT_BUFFER_SIZE = 65536;
+
+    /** The static logger instance. */
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseBackup.class);
+
+    /** The listener receiving the output of exports. */
+    private static final OCommandOutputListener OUTPUT_LISTENER = logger::trace;
+
+    /** The first bytes of a manifest. */
+    private static final int MANIFEST_MAGIC = 0x4f444249;
+
+    /** The version of the manifest format. */
+    private static final int MANIFEST_FORMAT_VERSION = 1;
+
+    /** The position marking the end of the records of a cluster in a manifest. */
+    private static final long END_OF_CLUSTER = -1L;
+
+    /** The suffix of the manifest written while a backup runs. */
+    private static final String MANIFEST_TEMPORARY_SUFFIX = ".tmp";
+
+    /** The format of records in incremental backups, keeping their class and field types. */
+    private static final String RECORD_JSON_FORMAT = "class,type,keepTypes";
+
+    /** The marker of the header of an incremental backup. */
+    private static final String INCREMENTAL_MARKER = "\"incremental\":true";
+
+    /** The start of the line of a created or updated record, followed by the name of its cluster. */
+    private static final String PUT_PREFIX = "{\"op\":\"put\",\"cluster\":\"";
+
+    /** The start of the line of a deleted record, followed by the name of its cluster. */
+    private static final String DELETE_PREFIX = "{\"op\":\"delete\",\"cluster\":\"";
+
+    /** The start of the line of a dropped cluster, followed by its name. */
+    private static final String DROP_CLUSTER_PREFIX = "{\"op\":\"dropCluster\",\"cluster\":\"";
+
+    /** The end of the line of a dropped cluster. */
+    private static final String DROP_CLUSTER_SUFFIX = "\"}";
+
+    /** The field following the cluster name of a record, holding the position of the record in the cluster. */
+    private static final String POSITION_FIELD = "\",\"position\":";
+
+    /** The field following the position of a created or updated record, holding the record. */
+    private static final String RECORD_FIELD = ",\"record\":";
+
+    /** The cluster holding the schema and index configuration, which incremental backups do not restore. */
+    private static final String INTERNAL_CLUSTER = "internal";
+
+    /** The number of nanoseconds in a second. */
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /** The pool sessions reading the database are acquired from. */
+    private final OrientDBPool pool;
+
+    /** The maximum number of compressed bytes written per second, zero or less for no limit. */
+    private long maxBytesPerSecond;
+
+    /** The size of the compression buffer. */
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+
+    /**
+     * Constructor allowing the pool of the backed up database to be specified.
+     *
+     * @param pool the pool sessions reading the database are acquired from
+     */
+    public DatabaseBackup(final OrientDBPool pool) {
+        Objects.requireNonNull(pool, "A pool must be provided");
+        this.pool = pool;
+    }
+
+
+    /**
+     * Sets the maximum rate backups are written at.
+     *
+     * @param maxBytesPerSecond the maximum number of compressed bytes written per second, zero or less for no limit
+     * @return this backup
+     */
+    public DatabaseBackup setMaxBytesPerSecond(final long maxBytesPerSecond) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        return this;
+    }
+
+
+    /**
+     * Sets the size of the compression buffer.
+     *
+     * @param bufferSize the buffer size in bytes
+     * @return this backup
+     */
+    public DatabaseBackup setBufferSize(final int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize must be a positive integer");
+        }
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+
+    /**
+     * Writes a full backup to a file, replacing it if it exists.
+     *
+     * @param file the backup file
+     * @param manifest the manifest to record for following incremental backups, or null for none
+     * @return what was written
+     *
+     * @throws IOException when the backup cannot be written
+     */
+    public BackupResult backup(final Path file, final Path manifest) throws IOException {
+        Objects.requireNonNull(file, "A file must be provided");
+        try (FileChannel channel = openFile(file)) {
+            return backup(channel, manifest);
+        }
+    }
+
+
+    /**
+     * Writes a full backup to a channel, which is left open.
+     *
+     * @param channel the channel
+     * @param manifest the manifest to record for following incremental backups, or null for none
+     * @return what was written
+     *
+     * @throws IOException when the backup cannot be written
+     */
+    public BackupResult backup(final WritableByteChannel channel, final Path manifest) throws IOException {
+        Objects.requireNonNull(channel, "A channel must be provided");
+        final long startNanos = System.nanoTime();
+        final MeteredChannel meteredChannel = new MeteredChannel(channel, maxBytesPerSecond);
+        final ScanCounts counts = new ScanCounts();
+        try (PooledSession session = pool.acquire()) {
+            final ODatabaseDocumentTx db = session.getDatabase();
+            Path temporaryManifest = null;
+            if (manifest != null) {
+                temporaryManifest = temporaryManifest(manifest);
+            }
+            try {
+                if (temporaryManifest != null) {
+                    try (ManifestWriter manifestWriter = new ManifestWriter(temporaryManifest, bufferSize)) {
+                        scan(db, null, manifestWriter, null, counts);
+                        manifestWriter.finish();
+                    }
+                }
+                try (OutputStream outputStream = new GZIPOutputStream(
+                        Channels.newOutputStream(meteredChannel),
+                        bufferSize
+                )) {
+                    final ODatabaseExport databaseExport = new ODatabaseExport(db, outputStream, OUTPUT_LISTENER);
+                    try {
+                        databaseExport.exportDatabase();
+                    } finally {
+                        databaseExport.close();
+                    }
+                }
+                if (temporaryManifest != null) {
+                    replaceManifest(temporaryManifest, manifest);
+                }
+            } finally {
+                if (temporaryManifest != null) {
+                    Files.deleteIfExists(temporaryManifest);
+                }
+            }
+            final BackupResult result = new BackupResult(
+                    false,
+                    counts.clusterCount,
+                    counts.recordCount,
+                    0L,
+                    meteredChannel.byteCount,
+                    System.nanoTime() - startNanos
+            );
+            logger.info("Backed up database {}: {}", db.getName(), result);
+            return result;
+        }
+    }
+
+
+    /**
+     * Writes an incremental backup of what changed since the backup which recorded a manifest to a file, replacing
+     * the file if it exists, and replaces the manifest.
+     *
+     * @param file the backup file
+     * @param manifest the manifest of the previous backup, which need not exist
+     * @return what was written
+     *
+     * @throws IOException when the manifest cannot be read or the backup cannot be written
+     */
+    public BackupResult backupIncremental(final Path file, final Path manifest) throws IOException {
+        Objects.requireNonNull(file, "A file must be provided");
+        try (FileChannel channel = openFile(file)) {
+            return backupIncremental(channel, manifest);
+        }
+    }
+
+
+    /**
+     * Writes an incremental backup of what changed since the backup which recorded a manifest to a channel, which is
+     * left open, and replaces the manifest.
+     *
+     * @param channel the channel
+     * @param manifest the manifest of the previous backup, which need not exist
+     * @return what was written
+     *
+     * @throws IOException when the manifest cannot be read or the backup cannot be written
+     */
+    public BackupResult backupIncremental(final WritableByteChannel channel, final Path manifest) throws IOException {
+        Objects.requireNonNull(channel, "A channel must be provided");
+        Objects.requireNonNull(manifest, "A manifest must be provided");
+        final long startNanos = System.nanoTime();
+        final MeteredChannel meteredChannel = new MeteredChannel(channel, maxBytesPerSecond);
+        final ScanCounts counts = new ScanCounts();
+        final Path temporaryManifest = temporaryManifest(manifest);
+        try (PooledSession session = pool.acquire()) {
+            final ODatabaseDocumentTx db = session.getDatabase();
+            try {
+                ManifestReader previousManifest = null;
+                if (Files.exists(manifest)) {
+                    previousManifest = new ManifestReader(manifest, bufferSize);
+                }
+                try (ManifestWriter manifestWriter = new ManifestWriter(temporaryManifest, bufferSize);
+                     Writer changes = new BufferedWriter(new OutputStreamWriter(
+                             new GZIPOutputStream(Channels.newOutputStream(meteredChannel), bufferSize),
+                             StandardCharsets.UTF_8
+                     ))) {
+                    changes.write("{\"database\":\"" + db.getName() + "\"," + INCREMENTAL_MARKER + ",\"timestamp\":"
+                            + System.currentTimeMillis() + "}\n");
+                    scan(db, previousManifest, manifestWriter, changes, counts);
+                    manifestWriter.finish();
+                } finally {
+                    if (previousManifest != null) {
+                        previousManifest.close();
+                    }
+                }
+                replaceManifest(temporaryManifest, manifest);
+            } finally {
+                Files.deleteIfExists(temporaryManifest);
+            }
+            final BackupResult result = new BackupResult(
+                    true,
+                    counts.clusterCount,
+                    counts.recordCount,
+                    counts.deletionCount,
+                    meteredChannel.byteCount,
+                    System.nanoTime() - startNanos
+            );
+            logger.info("Incrementally backed up database {}: {}", db.getName(), result);
+            return result;
+        }
+    }
+
+
+    /**
+     * Restores a full backup into an empty database, keeping the record ids, then applies incremental backups.
+     *
+     * @param db the empty database restored into
+     * @param fullBackup the full backup
+     * @param incrementalBackups the incremental backups taken after the full backup, in the order they were taken
+     *
+     * @throws IOException when a backup cannot be read
+     */
+    public void restore(final ODatabaseDocumentTx db,
+                        final Path fullBackup,
+                        final Path... incrementalBackups) throws IOException {
+        Objects.requireNonNull(db, "A database must be provided");
+        Objects.requireNonNull(fullBackup, "A full backup must be provided");
+        try (InputStream inputStream = new GZIPInputStream(Files.newInputStream(fullBackup), bufferSize)) {
+            final ODatabaseImport databaseImport = new ODatabaseImport(db, inputStream, OUTPUT_LISTENER);
+            try {
+                databaseImport.setPreserveRids(true);
+                databaseImport.importDatabase();
+            } finally {
+                databaseImport.close();
+            }
+        }
+        logger.info("Restored database {} from {}", db.getName(), fullBackup);
+        for (Path incrementalBackup : incrementalBackups) {
+            applyIncremental(db, incrementalBackup);
+        }
+    }
+
+
+    /**
+     * Applies the changes of an incremental backup to a database restored from the backups taken before it.
+     *
+     * @param db the database
+     * @param incrementalBackup the incremental backup
+     * @return the number of changes applied
+     *
+     * @throws IOException when the backup cannot be read or is not an incremental backup
+     */
+    public long applyIncremental(final ODatabaseDocumentTx db, final Path incrementalBackup) throws IOException {
+        Objects.requireNonNull(db, "A database must be provided");
+        Objects.requireNonNull(incrementalBackup, "An incremental backup must be provided");
+        long changeCount = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(incrementalBackup), bufferSize),
+                StandardCharsets.UTF_8
+        ))) {
+            final String header = reader.readLine();
+            if ((header == null) || (!header.contains(INCREMENTAL_MARKER))) {
+                throw new IOException("Not an incremental backup: " + incrementalBackup);
+            }
+            String line = reader.readLine();
+            while (line != null) {
+                applyChange(db, line);
+                changeCount++;
+                line = reader.readLine();
+            }
+        }
+        logger.info("Applied {} changes from {} to database {}", changeCount, incrementalBackup, db.getName());
+        return changeCount;
+    }
+
+
+    /**
+     * Applies a line of an incremental backup.
+     *
+     * @param db the database
+     * @param line the line
+     *
+     * @throws IOException when the line is not a change
+     */
+    private static void applyChange(final ODatabaseDocumentTx db, final String line) throws IOException {
+        try {
+            if (line.startsWith(PUT_PREFIX)) {
+                final int positionStart = line.indexOf(POSITION_FIELD, PUT_PREFIX.length());
+                final int recordStart = line.indexOf(RECORD_FIELD, positionStart);
+                if ((positionStart < 0) || (recordStart < 0)) {
+                    throw new IOException("Malformed change: " + line);
+                }
+                putRecord(
+                        db,
+                        line.substring(PUT_PREFIX.length(), positionStart),
+                        Long.parseLong(line.substring(positionStart + POSITION_FIELD.length(), recordStart)),
+                        line.substring(recordStart + RECORD_FIELD.length(), line.length() - 1)
+                );
+            } else if (line.startsWith(DELETE_PREFIX)) {
+                final int positionStart = line.indexOf(POSITION_FIELD, DELETE_PREFIX.length());
+                if (positionStart < 0) {
+                    throw new IOException("Malformed change: " + line);
+                }
+                deleteRecord(
+                        db,
+                        line.substring(DELETE_PREFIX.length(), positionStart),
+                        Long.parseLong(line.substring(positionStart + POSITION_FIELD.length(), line.length() - 1))
+                );
+            } else if (line.startsWith(DROP_CLUSTER_PREFIX) && line.endsWith(DROP_CLUSTER_SUFFIX)) {
+                final String clusterName = line.substring(
+                        DROP_CLUSTER_PREFIX.length(),
+                        line.length() - DROP_CLUSTER_SUFFIX.length()
+                );
+                if (db.existsCluster(clusterName)) {
+                    db.dropCluster(clusterName, true);
+                }
+            } else {
+                throw new IOException("Unknown change: " + line);
+            }
+        } catch (NumberFormatException nfe) {
+            throw new IOException("Malformed change: " + line, nfe);
+        }
+    }
+
+
+    /**
+     * Creates or updates a document at its position.  A missing record is created by saving placeholders in its
+     * cluster until one lands on its position, the others being deleted.
+     *
+     * @param db the database
+     * @param clusterName the name of the cluster of the record
+     * @param position the position of the record in its cluster
+     * @param json the record
+     */
+    private static void putRecord(final ODatabaseDocumentTx db,
+                                  final String clusterName,
+                                  final long position,
+                                  final String json) {
+        if (INTERNAL_CLUSTER.equals(clusterName)) {
+            logger.warn("Skipping a schema record of database {}, restore a newer full backup", db.getName());
+            return;
+        }
+        final ORecordId rid = new ORecordId(requireCluster(db, clusterName), position);
+        ODocument document = db.load(rid);
+        while (document == null) {
+            final ODocument placeholder = new ODocument();
+            db.save(placeholder, clusterName);
+            final long placeholderPosition = placeholder.getIdentity().getClusterPosition();
+            if (placeholderPosition == position) {
+                document = placeholder;
+            } else {
+                db.delete(placeholder.getIdentity());
+                if (placeholderPosition > position) {
+                    throw new IllegalStateException("Record " + rid + " was deleted and cannot be recreated");
+                }
+            }
+        }
+        document.clear();
+        document.fromJSON(json);
+        db.save(document);
+    }
+
+
+    /**
+     * Deletes a record, unless it does not exist.
+     *
+     * @param db the database
+     * @param clusterName the name of the cluster of the record
+     * @param position the position of the record in its cluster
+     */
+    private static void deleteRecord(final ODatabaseDocumentTx db, final String clusterName, final long position) {
+        final ORecordId rid = new ORecordId(requireCluster(db, clusterName), position);
+        if (db.load(rid) != null) {
+            db.delete(rid);
+        }
+    }
+
+
+    /**
+     * Returns the id of a cluster which must exist.
+     *
+     * @param db the database
+     * @param clusterName the name of the cluster
+     * @return the id of the cluster
+     */
+    private static int requireCluster(final ODatabaseDocumentTx db, final String clusterName) {
+        final int clusterId = db.getClusterIdByName(clusterName);
+        if (clusterId < 0) {
+            throw new IllegalStateException("Cluster " + clusterName + " does not exist, restore a newer full backup");
+        }
+        return clusterId;
+    }
+
+
+    /**
+     * Records the position and version of every record in a manifest, writing the records which changed since the
+     * previous manifest and the records and clusters which no longer exist.
+     *
+     * <p>Clusters are visited in order of name and records in order of position, the order of the manifests, so the
+     * previous manifest is merged with the database as both are read rather than held in memory.</p>
+     *
+     * @param db the database
+     * @param previousManifest the manifest of the previous backup, or null to write every record
+     * @param manifestWriter the manifest of this backup
+     * @param changes the writer of changes, or null to only record the manifest
+     * @param counts the counts of what was scanned and written
+     *
+     * @throws IOException when a manifest cannot be read or written, or the changes cannot be written
+     */
+    private static void scan(final ODatabaseDocumentTx db,
+                             final ManifestReader previousManifest,
+                             final ManifestWriter manifestWriter,
+                             final Writer changes,
+                             final ScanCounts counts) throws IOException {
+        final List<String> clusterNames = new ArrayList<>(db.getClusterNames());
+        Collections.sort(clusterNames);
+        String previousCluster = null;
+        if (previousManifest != null) {
+            previousCluster = previousManifest.nextCluster();
+        }
+        for (String clusterName : clusterNames) {
+            while ((previousCluster != null) && (previousCluster.compareTo(clusterName) < 0)) {
+                writeDroppedCluster(changes, previousCluster, counts);
+                previousManifest.skipCluster();
+                previousCluster = previousManifest.nextCluster();
+            }
+            ManifestReader previousEntries = null;
+            if (clusterName.equals(previousCluster)) {
+                previousEntries = previousManifest;
+            }
+            manifestWriter.startCluster(clusterName);
+            scanCluster(db, clusterName, previousEntries, manifestWriter, changes, counts);
+            manifestWriter.endCluster();
+            counts.clusterCount++;
+            if (previousEntries != null) {
+                previousCluster = previousManifest.nextCluster();
+            }
+        }
+        while (previousCluster != null) {
+            writeDroppedCluster(changes, previousCluster, counts);
+            previousManifest.skipCluster();
+            previousCluster = previousManifest.nextCluster();
+        }
+    }
+
+
+    /**
+     * Records the position and version of every record of a cluster, writing the records which changed since the
+     * previous manifest and the records which no longer exist.  Versions are read from the record metadata of the
+     * storage, so only records which changed are loaded.
+     *
+     * @param db the database
+     * @param clusterName the name of the cluster
+     * @param previousEntries the previous manifest positioned at the records of the cluster, or null
+     * @param manifestWriter the manifest of this backup
+     * @param changes the writer of changes, or null to only record the manifest
+     * @param counts the counts of what was scanned and written
+     *
+     * @throws IOException when a manifest cannot be read or written, or the changes cannot be written
+     */
+    private static void scanCluster(final ODatabaseDocumentTx db,
+                                    final String clusterName,
+                                    final ManifestReader previousEntries,
+                                    final ManifestWriter manifestWriter,
+                                    final Writer changes,
+                                    final ScanCounts counts) throws IOException {
+        final int clusterId = db.getClusterIdByName(clusterName);
+        final OStorage storage = db.getStorage();
+        boolean hasPrevious = (previousEntries != null) && previousEntries.nextEntry();
+        OPhysicalPosition[] positions = storage.ceilingPhysicalPositions(clusterId, new OPhysicalPosition(0L));
+        while (positions.length > 0) {
+            for (OPhysicalPosition physicalPosition : positions) {
+                final long position = physicalPosition.clusterPosition;
+                final ORecordId rid = new ORecordId(clusterId, position);
+                final ORecordMetadata metadata = db.getRecordMetadata(rid);
+                if (metadata == null) {
+                    // Deleted since the positions were listed; the next backup writes the deletion.
+                    continue;
+                }
+                while (hasPrevious && (previousEntries.position < position)) {
+                    writeDeletedRecord(changes, clusterName, previousEntries.position, counts);
+                    hasPrevious = previousEntries.nextEntry();
+                }
+                boolean inPrevious = false;
+                int previousVersion = 0;
+                if (hasPrevious && (previousEntries.position == position)) {
+                    inPrevious = true;
+                    previousVersion = previousEntries.version;
+                    hasPrevious = previousEntries.nextEntry();
+                }
+                if (changes == null) {
+                    counts.recordCount++;
+                    manifestWriter.write(position, metadata.getVersion());
+                } else if (inPrevious && (previousVersion == metadata.getVersion())) {
+                    manifestWriter.write(position, previousVersion);
+                } else {
+                    final ORecord record = db.load(rid);
+                    if (record == null) {
+                        if (inPrevious) {
+                            writeDeletedRecord(changes, clusterName, position, counts);
+                        }
+                    } else {
+                        if (INTERNAL_CLUSTER.equals(clusterName)) {
+                            logger.warn("The schema of {} changed, take a full backup so that it can be restored",
+                                    db.getName());
+                        }
+                        changes.write(PUT_PREFIX + clusterName + POSITION_FIELD + position + RECORD_FIELD
+                                + record.toJSON(RECORD_JSON_FORMAT) + "}\n");
+                        counts.recordCount++;
+                        manifestWriter.write(position, record.getVersion());
+                    }
+                }
+            }
+            positions = storage.higherPhysicalPositions(clusterId, positions[positions.length - 1]);
+        }
+        while (hasPrevious) {
+            writeDeletedRecord(changes, clusterName, previousEntries.position, counts);
+            hasPrevious = previousEntries.nextEntry();
+        }
+    }
+
+
+    /**
+     * Writes the deletion of a record.
+     *
+     * @param changes the writer of changes, or null when only the manifest is recorded
+     * @param clusterName the name of the cluster of the record
+     * @param position the position of the record in its cluster
+     * @param counts the counts of what was written
+     *
+     * @throws IOException when the deletion cannot be written
+     */
+    private static void writeDeletedRecord(final Writer changes,
+                                           final String clusterName,
+                                           final long position,
+                                           final ScanCounts counts) throws IOException {
+        if (changes != null) {
+            changes.write(DELETE_PREFIX + clusterName + POSITION_FIELD + position + "}\n");
+            counts.deletionCount++;
+        }
+    }
+
+
+    /**
+     * Writes the drop of a cluster.
+     *
+     * @param changes the writer of changes, or null when only the manifest is recorded
+     * @param clusterName the name of the cluster
+     * @param counts the counts of what was written
+     *
+     * @throws IOException when the drop cannot be written
+     */
+    private static void writeDroppedCluster(final Writer changes,
+                                            final String clusterName,
+                                            final ScanCounts counts) throws IOException {
+        if (changes != null) {
+            changes.write(DROP_CLUSTER_PREFIX + clusterName + DROP_CLUSTER_SUFFIX + "\n");
+            counts.deletionCount++;
+        }
+    }
+
+
+    /**
+     * Opens a backup file for writing, replacing it if it exists.
+     *
+     * @param file the backup file
+     * @return the channel of the file
+     *
+     * @throws IOException when the file cannot be opened
+     */
+    private static FileChannel openFile(final Path file) throws IOException {
+        return FileChannel.open(
+                file,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE
+        );
+    }
+
+
+    /**
+     * Returns the file a manifest is written to until its backup has been written.
+     *
+     * @param manifest the manifest
+     * @return the temporary file, next to the manifest
+     */
+    private static Path temporaryManifest(final Path manifest) {
+        return manifest.resolveSibling(manifest.getFileName() + MANIFEST_TEMPORARY_SUFFIX);
+    }
+
+
+    /**
+     * Replaces a manifest with the manifest of a backup which has been written.
+     *
+     * @param temporaryManifest the manifest of the backup
+     * @param manifest the manifest replaced
+     *
+     * @throws IOException when the manifest cannot be replaced
+     */
+    private static void replaceManifest(final Path temporaryManifest, final Path manifest) throws IOException {
+        Files.move(temporaryManifest, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    /**
+     * The counts of what a backup scanned and wrote.
+     */
+    private static final class ScanCounts {
+
+        /** The number of clusters scanned. */
+        private int clusterCount;
+
+        /** The number of records written, or recorded when no changes are written. */
+        private long recordCount;
+
+        /** The number of deleted records and dropped clusters written. */
+        private long deletionCount;
+
+    }
+
+
+    /**
+     * Writes a manifest: the name of each cluster followed by the position and version of each of its records.
+     */
+    private static final class ManifestWriter implements Closeable {
+
+        /** The compressed output. */
+        private final DataOutputStream output;
+
+
+        /**
+         * Constructor creating the manifest file.
+         *
+         * @param file the manifest file
+         * @param bufferSize the size of the compression buffer
+         *
+         * @throws IOException when the file cannot be created
+         */
+        ManifestWriter(final Path file, final int bufferSize) throws IOException {
+            output = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(file), bufferSize));
+            output.writeInt(MANIFEST_MAGIC);
+            output.writeInt(MANIFEST_FORMAT_VERSION);
+        }
+
+
+        /**
+         * Starts the records of a cluster.
+         *
+         * @param clusterName the name of the cluster
+         *
+         * @throws IOException when the manifest cannot be written
+         */
+        void startCluster(final String clusterName) throws IOException {
+            output.writeBoolean(true);
+            output.writeUTF(clusterName);
+        }
+
+
+        /**
+         * Records the position and version of a record.
+         *
+         * @param position the position of the record in its cluster
+         * @param version the version of the record
+         *
+         * @throws IOException when the manifest cannot be written
+         */
+        void write(final long position, final int version) throws IOException {
+            output.writeLong(position);
+            output.writeInt(version);
+        }
+
+
+        /**
+         * Ends the records of a cluster.
+         *
+         * @throws IOException when the manifest cannot be written
+         */
+        void endCluster() throws IOException {
+            output.writeLong(END_OF_CLUSTER);
+        }
+
+
+        /**
+         * Ends the manifest, which is incomplete unless it has been finished.
+         *
+         * @throws IOException when the manifest cannot be written
+         */
+        void finish() throws IOException {
+            output.writeBoolean(false);
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+
+    }
+
+
+    /**
+     * Reads a manifest one cluster and record at a time.
+     */
+    private static final class ManifestReader implements Closeable {
+
+        /** The decompressed input. */
+        private final DataInputStream input;
+
+        /** The position of the last record read. */
+        private long position;
+
+        /** The version of the last record read. */
+        private int version;
+
+
+        /**
+         * Constructor opening the manifest file.
+         *
+         * @param file the manifest file
+         * @param bufferSize the size of the decompression buffer
+         *
+         * @throws IOException when the file cannot be opened or is not a manifest
+         */
+        ManifestReader(final Path file, final int bufferSize) throws IOException {
+            input = new DataInputStream(new GZIPInputStream(Files.newInputStream(file), bufferSize));
+            if ((input.readInt() != MANIFEST_MAGIC) || (input.readInt() != MANIFEST_FORMAT_VERSION)) {
+                input.close();
+                throw new IOException("Not a backup manifest: " + file);
+            }
+        }
+
+
+        /**
+         * Reads the name of the next cluster, whose records must be read or skipped before the cluster after it.
+         *
+         * @return the name of the cluster, or null after the last cluster
+         *
+         * @throws IOException when the manifest cannot be read
+         */
+        String nextCluster() throws IOException {
+            if (!input.readBoolean()) {
+                return null;
+            }
+            return input.readUTF();
+        }
+
+
+        /**
+         * Reads the position and version of the next record of the current cluster.
+         *
+         * @return true if a record was read, false after the last record of the cluster
+         *
+         * @throws IOException when the manifest cannot be read
+         */
+        boolean nextEntry() throws IOException {
+            final long nextPosition = input.readLong();
+            if (nextPosition == END_OF_CLUSTER) {
+                return false;
+            }
+            position = nextPosition;
+            version = input.readInt();
+            return true;
+        }
+
+
+        /**
+         * Skips the remaining records of the current cluster.
+         *
+         * @throws IOException when the manifest cannot be read
+         */
+        void skipCluster() throws IOException {
+            boolean hasEntry = nextEntry();
+            while (hasEntry) {
+                hasEntry = nextEntry();
+            }
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+
+    }
+
+
+    /**
+     * Counts the bytes written to a channel and limits the rate they are written at.  Closing it leaves the channel
+     * open, so that the streams written through it can be closed without closing the channel of the caller.
+     */
+    private static final class MeteredChannel implements WritableByteChannel {
+
+        /** The channel written to. */
+        private final WritableByteChannel channel;
+
+        /** The maximum number of bytes written per second, zero or less for no limit. */
+        private final long maxBytesPerSecond;
+
+        /** The time writing started. */
+        private final long startNanos = System.nanoTime();
+
+        /** The number of bytes written. */
+        private long byteCount;
+
+        /** Whether this channel is open. */
+        private boolean open = true;
+
+
+        /**
+         * Constructor allowing the channel and rate to be specified.
+         *
+         * @param channel the channel written to
+         * @param maxBytesPerSecond the maximum number of bytes written per second, zero or less for no limit
+         */
+        MeteredChannel(final WritableByteChannel channel, final long maxBytesPerSecond) {
+            this.channel = channel;
+            this.maxBytesPerSecond = maxBytesPerSecond;
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public int write(final ByteBuffer source) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            final int written = channel.write(source);
+            byteCount += written;
+            if (maxBytesPerSecond > 0) {
+                final long aheadNanos = (long) (byteCount * NANOS_PER_SECOND / maxBytesPerSecond)
+                        - (System.nanoTime() - startNanos);
+                if (aheadNanos > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(aheadNanos);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while writing backup");
+                    }
+                }
+            }
+            return written;
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean isOpen() {
+            return open && channel.isOpen();
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void close() {
+            open = false;
+        }
+
+    }
+
+
+}
@@ -0,0 +1,837 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import com.orientechnologies.orient.core.Orient;
+import com.orientechnologies.orient.core.db.ODatabaseInternal;
+import com.orientechnologies.orient.core.db.ODatabaseLifecycleListener;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.hook.ORecordHook;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.record.ORecord;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+
+/**
+ * An application-side cache of documents keyed by database name and record id, read through on a miss.
+ *
+ * <p>Entries are evicted in least recently used order once the total weight of the cached documents exceeds the
+ * maximum weight.  By default every document weighs one, making the maximum weight a maximum number of documents.
+ * Large caches are split into segments by key, each with its own lock, share of the maximum weight and recency
+ * order, so that concurrent readers of different documents do not contend; eviction is then least recently used
+ * within a segment rather than across the whole cache.
+ * Whether and for how long documents are cached is decided by the {@link CachePolicy} of their class, falling back to
+ * the policy of the nearest superclass which has one and finally to the default policy.</p>
+ *
+ * <p>Cached documents are copies, and every hit returns a fresh copy, so callers may modify and save what they get
+ * without affecting the cache.  Entries are invalidated when their record is updated or deleted through a database
+ * the invalidation hook is registered on.  {@link #register(ODatabaseDocumentTx)} registers it on a single database,
+ * while {@link #attachToAllDatabases()} registers it on every database opened in this JVM from then on, which on an
+ * embedded server covers the changes made by remote clients as well.</p>
+ *
+ * @author Phillip Ross
+ */
+public class DocumentCache {
+
+    /** The static logger instance. */
+    private static final Logger logger = LoggerFactory.getLogger(DocumentCache.class);
+
+    /** The initial capacity of the entry map of a segment. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** The load factor of the entry map of a segment. */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** The maximum number of segments, a power of two. */
+    private static final int MAX_SEGMENT_COUNT = 16;
+
+    /** The smallest share of the maximum weight given to a segment, below which the cache is not split further. */
+    private static final long MIN_SEGMENT_WEIGHT = 64L;
+
+    /** The maximum total weight of the cached documents. */
+    private final long maxWeight;
+
+    /** The segments, selected by the hash of the key. */
+    private final Segment[] segments;
+
+    /** The policies set for classes. */
+    private final Map<String, CachePolicy> classPolicies = new ConcurrentHashMap<>();
+
+    /** The policies resolved for classes, including inherited and default policies. */
+    private final Map<String, CachePolicy> resolvedPolicies = new ConcurrentHashMap<>();
+
+    /** The listener registering the invalidation hook on opened databases. */
+    private final HookInstaller hookInstaller = new HookInstaller();
+
+    /** The number of hits. */
+    private final LongAdder hitCount = new LongAdder();
+
+    /** The number of misses. */
+    private final LongAdder missCount = new LongAdder();
+
+    /** The number of entries evicted to respect the maximum weight. */
+    private final LongAdder evictionCount = new LongAdder();
+
+    /** The number of entries invalidated. */
+    private final LongAdder invalidationCount = new LongAdder();
+
+    /** The policy of documents whose class has no policy. */
+    private volatile CachePolicy defaultPolicy = CachePolicy.NO_EXPIRY;
+
+    /** The function computing the weight of a document. */
+    private volatile ToLongFunction<ODocument> weigher = document -> 1L;
+
+    /** Whether registered invalidation hooks invalidate entries, cleared by {@link #detachFromAllDatabases()}. */
+    private volatile boolean hooksActive = true;
+
+
+    /**
+     * Constructor allowing the maximum total weight of the cached documents to be specified.
+     *
+     * @param maxWeight the maximum total weight
+     */
+    public DocumentCache(final long maxWeight) {
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("maxWeight must be positive");
+        }
+        this.maxWeight = maxWeight;
+        int segmentCount = 1;
+        while ((segmentCount < MAX_SEGMENT_COUNT) && (maxWeight / (segmentCount * 2L) >= MIN_SEGMENT_WEIGHT)) {
+            segmentCount *= 2;
+        }
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            long segmentMaxWeight = maxWeight / segmentCount;
+            if (i == 0) {
+                segmentMaxWeight += maxWeight % segmentCount;
+            }
+            segments[i] = new Segment(segmentMaxWeight);
+        }
+    }
+
+
+    /**
+     * Sets the policy of documents whose class has no policy.
+     *
+     * @param defaultPolicy the default policy
+     * @return this cache
+     */
+    public DocumentCache setDefaultPolicy(final CachePolicy defaultPolicy) {
+        Objects.requireNonNull(defaultPolicy, "A policy must be provided");
+        this.defaultPolicy = defaultPolicy;
+        resolvedPolicies.clear();
+        return this;
+    }
+
+
+    /**
+     * Sets the policy of the documents of a class and its subclasses.
+     *
+     * @param className the name of the class
+     * @param policy the policy
+     * @return this cache
+     */
+    public DocumentCache setClassPolicy(final String className, final CachePolicy policy) {
+        Objects.requireNonNull(className, "A class name must be provided");
+        Objects.requireNonNull(policy, "A policy must be provided");
+        classPolicies.put(className, policy);
+        resolvedPolicies.clear();
+        return this;
+    }
+
+
+    /**
+     * Sets the function computing the weight of a document, for example from its serialized size.
+     *
+     * @param weigher the function computing the weight of a document
+     * @return this cache
+     */
+    public DocumentCache setWeigher(final ToLongFunction<ODocument> weigher) {
+        Objects.requireNonNull(weigher, "A weigher must be provided");
+        this.weigher = weigher;
+        return this;
+    }
+
+
+    /**
+     * Returns a copy of a document, loading it through a database when it is not cached.
+     *
+     * @param db the database the document is loaded through on a miss
+     * @param rid the record id of the document
+     * @return the document, or null when the record does not exist or is not a document
+     */
+    public ODocument get(final ODatabaseDocumentTx db, final ORID rid) {
+        Objects.requireNonNull(db, "A database must be provided");
+        Objects.requireNonNull(rid, "A record id must be provided");
+        final CacheKey key = new CacheKey(db.getName(), rid);
+        final Segment segment = segmentFor(key);
+        final ODocument cached = segment.get(key);
+        if (cached != null) {
+            hitCount.increment();
+            return cached;
+        }
+        missCount.increment();
+        final long sequenceBeforeLoad = segment.getInvalidationSequence();
+        final ORecord record = db.load(rid);
+        if (!(record instanceof ODocument)) {
+            return null;
+        }
+        final ODocument document = (ODocument) record;
+        put(db.getName(), document, sequenceBeforeLoad);
+        return document.copy();
+    }
+
+
+    /**
+     * Returns a copy of a cached document without loading it.
+     *
+     * @param db the database the document belongs to
+     * @param rid the record id of the document
+     * @return the document, or null when it is not cached
+     */
+    public ODocument getIfPresent(final ODatabaseDocumentTx db, final ORID rid) {
+        Objects.requireNonNull(db, "A database must be provided");
+        return getIfPresent(db.getName(), rid);
+    }
+
+
+    /**
+     * Returns a copy of a cached document without loading it.
+     *
+     * @param databaseName the name of the database the document belongs to
+     * @param rid the record id of the document
+     * @return the document, or null when it is not cached
+     */
+    public ODocument getIfPresent(final String databaseName, final ORID rid) {
+        Objects.requireNonNull(databaseName, "A database name must be provided");
+        Objects.requireNonNull(rid, "A record id must be provided");
+        final CacheKey key = new CacheKey(databaseName, rid);
+        final ODocument document = segmentFor(key).get(key);
+        if (document != null) {
+            hitCount.increment();
+        }
+        return document;
+    }
+
+
+    /**
+     * Caches a copy of a document according to the policy of its class.
+     *
+     * @param db the database the document belongs to
+     * @param document the document, which must have been saved
+     */
+    public void put(final ODatabaseDocumentTx db, final ODocument document) {
+        Objects.requireNonNull(db, "A database must be provided");
+        Objects.requireNonNull(document, "A document must be provided");
+        final ORID identity = document.getIdentity();
+        if ((identity == null) || (!identity.isPersistent())) {
+            return;
+        }
+        put(db.getName(), document, segmentFor(new CacheKey(db.getName(), identity)).getInvalidationSequence());
+    }
+
+
+    /**
+     * Caches a copy of a document according to the policy of its class, unless its entry was invalidated since a
+     * point in time.
+     *
+     * @param databaseName the name of the database the document belongs to
+     * @param document the document, which must have been saved
+     * @param sequenceBeforeLoad the invalidation sequence of the entry's segment before the document was loaded
+     */
+    private void put(final String databaseName, final ODocument document, final long sequenceBeforeLoad) {
+        final ORID identity = document.getIdentity();
+        if ((identity == null) || (!identity.isPersistent())) {
+            return;
+        }
+        final CachePolicy policy = getPolicy(document);
+        if (!policy.isCacheable()) {
+            return;
+        }
+        // Deserializes every field so that copies do not depend on the session the document was loaded through.
+        document.fieldNames();
+        final ODocument copy = document.copy();
+        final long weight = weigher.applyAsLong(copy);
+        long expiresAtNanos = 0;
+        if (policy.getTtlMillis() > 0) {
+            expiresAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(policy.getTtlMillis());
+        }
+        final CacheKey key = new CacheKey(databaseName, identity);
+        segmentFor(key).put(key, new CacheEntry(copy, weight, expiresAtNanos), sequenceBeforeLoad);
+    }
+
+
+    /**
+     * Returns the segment holding the entry of a key.
+     *
+     * @param key the key
+     * @return the segment
+     */
+    private Segment segmentFor(final CacheKey key) {
+        final int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> Short.SIZE)) & (segments.length - 1)];
+    }
+
+
+    /**
+     * Returns the policy of a document.
+     *
+     * @param document the document
+     * @return the policy of its class, of its nearest superclass with a policy, or the default policy
+     */
+    private CachePolicy getPolicy(final ODocument document) {
+        final String className = document.getClassName();
+        if (className == null) {
+            return defaultPolicy;
+        }
+        final CachePolicy resolved = resolvedPolicies.get(className);
+        if (resolved != null) {
+            return resolved;
+        }
+        CachePolicy policy = classPolicies.get(className);
+        OClass oClass = document.getSchemaClass();
+        while ((policy == null) && (oClass != null)) {
+            oClass = oClass.getSuperClass();
+            if (oClass != null) {
+                policy = classPolicies.get(oClass.getName());
+            }
+        }
+        if (policy == null) {
+            policy = defaultPolicy;
+        }
+        resolvedPolicies.put(className, policy);
+        return policy;
+    }
+
+
+    /**
+     * Removes the entry of a record.
+     *
+     * @param databaseName the name of the database the record belongs to
+     * @param rid the record id
+     */
+    public void invalidate(final String databaseName, final ORID rid) {
+        final CacheKey key = new CacheKey(databaseName, rid);
+        segmentFor(key).invalidate(key);
+        invalidationCount.increment();
+    }
+
+
+    /**
+     * Removes every entry of a database.
+     *
+     * @param databaseName the name of the database
+     */
+    public void invalidateAll(final String databaseName) {
+        Objects.requireNonNull(databaseName, "A database name must be provided");
+        for (Segment segment : segments) {
+            segment.invalidateAll(databaseName);
+        }
+        invalidationCount.increment();
+    }
+
+
+    /** Removes every entry. */
+    public void invalidateAll() {
+        for (Segment segment : segments) {
+            segment.invalidateAll(null);
+        }
+        invalidationCount.increment();
+    }
+
+
+    /**
+     * Returns a hook invalidating the entries of a database's records updated or deleted through the database it is
+     * registered on.
+     *
+     * @param databaseName the name of the database the hook is registered on
+     * @return the invalidation hook
+     */
+    public ORecordHook getInvalidationHook(final String databaseName) {
+        Objects.requireNonNull(databaseName, "A database name must be provided");
+        return new InvalidationHook(databaseName);
+    }
+
+
+    /**
+     * Registers an invalidation hook on a database.
+     *
+     * @param db the database
+     */
+    public void register(final ODatabaseDocumentTx db) {
+        db.registerHook(getInvalidationHook(db.getName()));
+    }
+
+
+    /**
+     * Registers an invalidation hook on every database created or opened in this JVM from now on.  Pooled databases
+     * which are already open are not affected, so this should be called before pools are created.
+     */
+    public void attachToAllDatabases() {
+        hooksActive = true;
+        Orient.instance().addDbLifecycleListener(hookInstaller);
+    }
+
+
+    /** Stops registering invalidation hooks on opened databases, and stops hooks already registered. */
+    public void detachFromAllDatabases() {
+        Orient.instance().removeDbLifecycleListener(hookInstaller);
+        hooksActive = false;
+    }
+
+
+    /**
+     * Returns the number of cached documents.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+
+    /**
+     * Returns the total weight of the cached documents.
+     *
+     * @return the total weight
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (Segment segment : segments) {
+            weight += segment.getWeight();
+        }
+        return weight;
+    }
+
+
+    /**
+     * Returns the maximum total weight of the cached documents.
+     *
+     * @return the maximum weight
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+
+    /**
+     * Returns the number of lookups answered from the cache.
+     *
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+
+    /**
+     * Returns the number of read-through lookups not answered from the cache.
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+
+    /**
+     * Returns the number of entries evicted to respect the maximum weight.
+     *
+     * @return the eviction count
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+
+    /**
+     * Returns the number of invalidations.
+     *
+     * @return the invalidation count
+     */
+    public long getInvalidationCount() {
+        return invalidationCount.sum();
+    }
+
+
+    /**
+     * The key of an entry: the name of the database and the record id of the document.
+     */
+    private static final class CacheKey {
+
+        /** The name of the database. */
+        private final String databaseName;
+
+        /** The id of the cluster of the record. */
+        private final int clusterId;
+
+        /** The position of the record in its cluster. */
+        private final long clusterPosition;
+
+
+        /**
+         * Constructor copying the record id, which may change when a new record is committed.
+         *
+         * @param databaseName the name of the database
+         * @param rid the record id
+         */
+        CacheKey(final String databaseName, final ORID rid) {
+            this.databaseName = databaseName;
+            this.clusterId = rid.getClusterId();
+            this.clusterPosition = rid.getClusterPosition();
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof CacheKey)) {
+                return false;
+            }
+            final CacheKey that = (CacheKey) other;
+            return (clusterId == that.clusterId)
+                    && (clusterPosition == that.clusterPosition)
+                    && databaseName.equals(that.databaseName);
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            return Objects.hash(databaseName, clusterId, clusterPosition);
+        }
+
+
+    }
+
+
+    /**
+     * A share of the entries, in least recently used order, with its own lock and share of the maximum weight.
+     */
+    private final class Segment {
+
+        /** The entries, in least recently used order, guarded by the segment. */
+        private final LinkedHashMap<CacheKey, CacheEntry> entries = new LinkedHashMap<>(
+                INITIAL_CAPACITY,
+                LOAD_FACTOR,
+                true
+        );
+
+        /** The maximum total weight of the entries of the segment. */
+        private final long segmentMaxWeight;
+
+        /** The total weight of the entries, guarded by the segment. */
+        private long totalWeight;
+
+        /**
+         * The number of invalidations of the segment so far, guarded by the segment.  A document loaded while an
+         * invalidation happened may be stale and is not cached.
+         */
+        private long invalidationSequence;
+
+
+        /**
+         * Constructor allowing the share of the maximum weight to be specified.
+         *
+         * @param segmentMaxWeight the maximum total weight of the entries of the segment
+         */
+        Segment(final long segmentMaxWeight) {
+            this.segmentMaxWeight = segmentMaxWeight;
+        }
+
+
+        /**
+         * Returns a copy of a cached document, removing its entry when it has expired.
+         *
+         * @param key the key
+         * @return the document, or null when it is not cached
+         */
+        ODocument get(final CacheKey key) {
+            final ODocument document;
+            synchronized (this) {
+                final CacheEntry entry = entries.get(key);
+                if (entry == null) {
+                    return null;
+                }
+                if (entry.isExpired(System.nanoTime())) {
+                    removeEntry(key);
+                    return null;
+                }
+                document = entry.document;
+            }
+            return document.copy();
+        }
+
+
+        /**
+         * Adds an entry, unless an invalidation happened since a point in time, and evicts the least recently used
+         * entries until the total weight does not exceed the segment's maximum weight.
+         *
+         * @param key the key
+         * @param entry the entry
+         * @param sequenceBeforeLoad the invalidation sequence before the document was loaded
+         */
+        synchronized void put(final CacheKey key, final CacheEntry entry, final long sequenceBeforeLoad) {
+            if (invalidationSequence != sequenceBeforeLoad) {
+                return;
+            }
+            removeEntry(key);
+            entries.put(key, entry);
+            totalWeight += entry.weight;
+            final Iterator<CacheEntry> iterator = entries.values().iterator();
+            while ((totalWeight > segmentMaxWeight) && iterator.hasNext()) {
+                totalWeight -= iterator.next().weight;
+                iterator.remove();
+                evictionCount.increment();
+            }
+        }
+
+
+        /**
+         * Removes the entry of a key.
+         *
+         * @param key the key
+         */
+        synchronized void invalidate(final CacheKey key) {
+            invalidationSequence++;
+            removeEntry(key);
+        }
+
+
+        /**
+         * Removes every entry of a database, or every entry.
+         *
+         * @param databaseName the name of the database, or null for every entry
+         */
+        synchronized void invalidateAll(final String databaseName) {
+            invalidationSequence++;
+            final Iterator<Map.Entry<CacheKey, CacheEntry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Map.Entry<CacheKey, CacheEntry> entry = iterator.next();
+                if ((databaseName == null) || databaseName.equals(entry.getKey().databaseName)) {
+                    totalWeight -= entry.getValue().weight;
+                    iterator.remove();
+                }
+            }
+        }
+
+
+        /**
+         * Removes an entry, keeping the total weight current.  Must be called while holding the segment lock.
+         *
+         * @param key the key
+         */
+        private void removeEntry(final CacheKey key) {
+            final CacheEntry removed = entries.remove(key);
+            if (removed != null) {
+                totalWeight -= removed.weight;
+            }
+        }
+
+
+        /**
+         * Returns the number of invalidations of the segment so far.
+         *
+         * @return the invalidation sequence
+         */
+        synchronized long getInvalidationSequence() {
+            return invalidationSequence;
+        }
+
+
+        /**
+         * Returns the number of entries.
+         *
+         * @return the number of entries
+         */
+        synchronized int size() {
+            return entries.size();
+        }
+
+
+        /**
+         * Returns the total weight of the entries.
+         *
+         * @return the total weight
+         */
+        synchronized long getWeight() {
+            return totalWeight;
+        }
+
+
+    }
+
+
+    /**
+     * A cached document with its weight and expiry.
+     */
+    private static final class CacheEntry {
+
+        /** The cached copy of the document. */
+        private final ODocument document;
+
+        /** The weight of the document. */
+        private final long weight;
+
+        /** The value of {@link System#nanoTime()} at which the entry expires, zero meaning no expiry. */
+        private final long expiresAtNanos;
+
+
+        /**
+         * Constructor allowing the attributes to be specified.
+         *
+         * @param document the cached copy of the document
+         * @param weight the weight of the document
+         * @param expiresAtNanos the time at which the entry expires, zero meaning no expiry
+         */
+        CacheEntry(final ODocument document, final long weight, final long expiresAtNanos) {
+            this.document = document;
+            this.weight = weight;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+
+        /**
+         * Returns whether the entry has expired.
+         *
+         * @param nowNanos the current value of {@link System#nanoTime()}
+         * @return true if the entry has expired
+         */
+        boolean isExpired(final long nowNanos) {
+            return (expiresAtNanos != 0) && (nowNanos - expiresAtNanos >= 0);
+        }
+
+
+    }
+
+
+    /**
+     * Invalidates the entries of records updated or deleted through the database the hook is registered on.
+     */
+    private final class InvalidationHook implements ORecordHook {
+
+        /** The name of the database the hook is registered on. */
+        private final String databaseName;
+
+
+        /**
+         * Constructor allowing the database to be specified.
+         *
+         * @param databaseName the name of the database the hook is registered on
+         */
+        InvalidationHook(final String databaseName) {
+            this.databaseName = databaseName;
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onUnregister() {
+            logger.debug("Document cache invalidation hook unregistered");
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public RESULT onTrigger(final TYPE type, final ORecord record) {
+            if (hooksActive && ((type == TYPE.AFTER_UPDATE) || (type == TYPE.AFTER_DELETE))) {
+                invalidate(databaseName, record.getIdentity());
+            }
+            return RESULT.RECORD_NOT_CHANGED;
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public DISTRIBUTED_EXECUTION_MODE getDistributedExecutionMode() {
+            return DISTRIBUTED_EXECUTION_MODE.BOTH;
+        }
+
+
+    }
+
+
+    /**
+     * Registers the invalidation hook on every database created or opened.
+     */
+    private final class HookInstaller implements ODatabaseLifecycleListener {
+
+
+        /** {@inheritDoc} */
+        @Override
+        public PRIORITY getPriority() {
+            return PRIORITY.LAST;
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onCreate(final ODatabaseInternal database) {
+            database.registerHook(getInvalidationHook(database.getName()));
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onOpen(final ODatabaseInternal database) {
+            database.registerHook(getInvalidationHook(database.getName()));
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onClose(final ODatabaseInternal database) {
+            // Hooks are discarded with the database instance.
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onDrop(final ODatabaseInternal database) {
+            invalidateAll(database.getName());
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onCreateClass(final ODatabaseInternal database, final OClass oClass) {
+            // Class creation does not affect cached documents.
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onDropClass(final ODatabaseInternal database, final OClass oClass) {
+            invalidateAll(database.getName());
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onLocalNodeConfigurationRequest(final ODocument configuration) {
+            // Distributed configuration is not affected by the cache.
+        }
+
+
+    }
+
+
+}
@@ -0,0 +1,29 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * Names the document class the objects of a class mapped by {@link DocumentMapper} are stored as, in place of the
+ * simple name of the class.  Classes of different packages sharing a simple name must be given distinct names.
+ *
+ * @author Phillip Ross
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface DocumentClass {
+
+    /**
+     * Returns the name of the document class.
+     *
+     * @return the document class name
+     */
+    String value();
+
+}
@@ -0,0 +1,903 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+
+/**
+ * Converts plain Java objects to and from documents without reflection on the conversion path.
+ *
+ * <p>The object database API maps objects through javassist proxies and reflective field access on every read and
+ * write.  A mapper instead inspects its class once, when it is first requested, and binds a constructor and an
+ * accessor pair for every property: public getters, setters and no-argument constructors are bound through
+ * {@link LambdaMetafactory} into lambdas the JIT compiles like hand-written code, and fields without public
+ * accessors through {@link MethodHandle}s.  Converting an object is then a loop over its properties.</p>
+ *
+ * <p>Objects are stored as documents of the class named by the {@link DocumentClass} annotation of their class, or
+ * else by its simple name.  Two mapped classes may not share a document class name.</p>
+ *
+ * <p>Every non-static, non-transient field of the class and its superclasses is a property named after the field.
+ * Strings, numbers, booleans, characters, dates, byte arrays and records are stored as they are, enums by name, and
+ * other objects as embedded documents, or as linked documents when the field is annotated with {@link Link}.
+ * Lists, sets and maps with string keys of any of these are stored as embedded or link collections.  Objects are
+ * mapped by the declared type of their field, so subclass properties of embedded objects are not stored.  A field
+ * annotated with {@link RecordId} holds the identity of the document.  Objects reached more than once from the same
+ * object are mapped once, so links may form cycles; embedded objects must not.</p>
+ *
+ * <p>Mappers are immutable and may be shared by any number of threads.  Converting links and objects with a record
+ * id loads documents from the database of the current thread.</p>
+ *
+ * @param <T> the type of the mapped objects
+ * @author Phillip Ross
+ */
+public final class DocumentMapper<T> {
+
+    /** The lookup binding accessors. */
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    /** The type of the lambdas reading properties. */
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    /** The type of the lambdas writing properties. */
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    /** The type of the lambdas creating objects. */
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+
+    /** The mapper of each class, created on first use. */
+    private static final ClassValue<DocumentMapper<?>> MAPPERS = new ClassValue<DocumentMapper<?>>() {
+        @Override
+        protected DocumentMapper<?> computeValue(final Class<?> type) {
+            return new DocumentMapper<>(type);
+        }
+    };
+
+    /** The name of the mapped class of each document class name, so that no two classes share one. */
+    private static final ConcurrentMap<String, String> DOCUMENT_CLASS_NAMES = new ConcurrentHashMap<>();
+
+    /** The mapped class. */
+    private final Class<T> type;
+
+    /** The name of the document class objects are stored as. */
+    private final String className;
+
+    /** Creates new objects. */
+    private final Supplier<Object> constructor;
+
+    /** The mapped properties. */
+    private final List<PropertyMapping> properties;
+
+    /** The field holding the identity of the document, or null. */
+    private final PropertyMapping recordId;
+
+
+    /**
+     * Constructor inspecting the mapped class.
+     *
+     * @param type the mapped class
+     */
+    private DocumentMapper(final Class<T> type) {
+        if (type.isInterface() || type.isArray() || type.isPrimitive() || Modifier.isAbstract(type.getModifiers())) {
+            throw new IllegalArgumentException("Unable to map " + type.getName() + ", a concrete class is required");
+        }
+        this.type = type;
+        final DocumentClass documentClass = type.getAnnotation(DocumentClass.class);
+        if (documentClass == null) {
+            this.className = type.getSimpleName();
+        } else {
+            this.className = documentClass.value();
+        }
+        this.constructor = bindConstructor(type);
+        final List<PropertyMapping> mappings = new ArrayList<>();
+        PropertyMapping idMapping = null;
+        for (Class<?> declaringClass = type; declaringClass != Object.class;
+             declaringClass = declaringClass.getSuperclass()) {
+            for (Field field : declaringClass.getDeclaredFields()) {
+                final int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+                if (field.isAnnotationPresent(RecordId.class)) {
+                    if (!field.getType().isAssignableFrom(ORID.class)) {
+                        throw new IllegalArgumentException("Record id field " + field + " must be an ORID");
+                    }
+                    idMapping = new PropertyMapping(field, ValueConverter.forType(field.getType(), false));
+                } else {
+                    mappings.add(new PropertyMapping(
+                            field,
+                            ValueConverter.forType(field.getGenericType(), field.isAnnotationPresent(Link.class))
+                    ));
+                }
+            }
+        }
+        this.properties = Collections.unmodifiableList(mappings);
+        this.recordId = idMapping;
+        final String mappedClassName = DOCUMENT_CLASS_NAMES.putIfAbsent(className, type.getName());
+        if ((mappedClassName != null) && (!mappedClassName.equals(type.getName()))) {
+            throw new IllegalArgumentException("Unable to map " + type.getName() + " to document class " + className
+                    + ", which " + mappedClassName + " is mapped to; name one of them with @DocumentClass");
+        }
+    }
+
+
+    /**
+     * Returns the mapper of a class, inspecting the class the first time it is requested.
+     *
+     * @param type the mapped class, which must be concrete and have a no-argument constructor
+     * @param <T> the type of the mapped objects
+     * @return the mapper
+     * @throws IllegalArgumentException when the class or one of its properties cannot be mapped
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> DocumentMapper<T> forClass(final Class<T> type) {
+        Objects.requireNonNull(type, "A type must be provided");
+        return (DocumentMapper<T>) MAPPERS.get(type);
+    }
+
+
+    /**
+     * Returns the mapped class.
+     *
+     * @return the class
+     */
+    public Class<T> getType() {
+        return type;
+    }
+
+
+    /**
+     * Returns the name of the document class objects are stored as, the name given by {@link DocumentClass} or else
+     * the simple name of the mapped class.
+     *
+     * @return the document class name
+     */
+    public String getClassName() {
+        return className;
+    }
+
+
+    /**
+     * Converts an object to a document.  An object whose record id is persistent is written into its loaded
+     * document, other objects into new documents.
+     *
+     * @param object the object
+     * @return the document, which has not been saved
+     */
+    public ODocument toDocument(final T object) {
+        Objects.requireNonNull(object, "An object must be provided");
+        return write(object, new MappingContext(), false);
+    }
+
+
+    /**
+     * Converts a document to a new object.
+     *
+     * @param document the document
+     * @return the object
+     */
+    public T fromDocument(final ODocument document) {
+        Objects.requireNonNull(document, "A document must be provided");
+        return type.cast(read(document, new MappingContext()));
+    }
+
+
+    /**
+     * Converts an object to a document and saves it, along with the new documents of its linked objects, then sets
+     * the record ids of the object and of its linked objects.
+     *
+     * @param db the database the documents are saved in
+     * @param object the object
+     * @return the saved document
+     */
+    public ODocument save(final ODatabaseDocumentTx db, final T object) {
+        Objects.requireNonNull(db, "A db must be provided");
+        Objects.requireNonNull(object, "An object must be provided");
+        final MappingContext context = new MappingContext();
+        final ODocument document = write(object, context, false);
+        db.save(document);
+        for (Map.Entry<Object, PropertyMapping> identified : context.recordIds.entrySet()) {
+            final ORID identity = context.documents.get(identified.getKey()).getIdentity();
+            identified.getValue().setter.accept(identified.getKey(), identity);
+        }
+        return document;
+    }
+
+
+    /**
+     * Writes the properties of an object into a document, unless the object has already been written.
+     *
+     * @param object the object
+     * @param context the objects written so far
+     * @param embedded whether the document is embedded
+     * @return the document
+     */
+    private ODocument write(final Object object, final MappingContext context, final boolean embedded) {
+        ODocument document = context.documents.get(object);
+        if (document != null) {
+            return document;
+        }
+        if (!embedded && (recordId != null)) {
+            final Object identity = recordId.getter.apply(object);
+            if ((identity instanceof ORID) && ((ORID) identity).isPersistent()) {
+                document = ((ORID) identity).getRecord();
+            }
+            context.recordIds.put(object, recordId);
+        }
+        if (document == null) {
+            if (embedded) {
+                document = new ODocument();
+            } else {
+                document = new ODocument(className);
+            }
+        }
+        context.documents.put(object, document);
+        for (PropertyMapping property : properties) {
+            final Object value = property.converter.toStored(property.getter.apply(object), context);
+            if (value == null) {
+                document.field(property.name, (Object) null);
+            } else {
+                document.field(property.name, value, property.converter.storedType);
+            }
+        }
+        return document;
+    }
+
+
+    /**
+     * Reads a document into a new object, unless the document has already been read.
+     *
+     * @param document the document
+     * @param context the documents read so far
+     * @return the object
+     */
+    private Object read(final ODocument document, final MappingContext context) {
+        final ORID identity = document.getIdentity();
+        final boolean persistent = (identity != null) && identity.isPersistent();
+        if (persistent) {
+            final Object existing = context.objects.get(identity);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        final Object object = constructor.get();
+        if (persistent) {
+            context.objects.put(identity, object);
+            if (recordId != null) {
+                recordId.setter.accept(object, identity);
+            }
+        }
+        for (PropertyMapping property : properties) {
+            if (document.containsField(property.name)) {
+                final Object value = property.converter.fromStored(document.field(property.name), context);
+                if ((value != null) || !property.primitive) {
+                    property.setter.accept(object, value);
+                }
+            }
+        }
+        return object;
+    }
+
+
+    /**
+     * Binds the no-argument constructor of a class.
+     *
+     * @param type the class
+     * @return the constructor
+     */
+    static Supplier<Object> bindConstructor(final Class<?> type) {
+        final Constructor<?> declaredConstructor;
+        try {
+            declaredConstructor = type.getDeclaredConstructor();
+        } catch (NoSuchMethodException nsme) {
+            throw new IllegalArgumentException(
+                    "Unable to map " + type.getName() + " without a no-argument constructor",
+                    nsme
+            );
+        }
+        try {
+            if (isBindable(declaredConstructor)) {
+                final MethodHandle handle = LOOKUP.unreflectConstructor(declaredConstructor);
+                try {
+                    return (Supplier<Object>) LambdaMetafactory.metafactory(
+                            LOOKUP,
+                            "get",
+                            MethodType.methodType(Supplier.class),
+                            CONSTRUCTOR_TYPE,
+                            handle,
+                            handle.type()
+                    ).getTarget().invokeExact();
+                } catch (LambdaConversionException lce) {
+                    // Fall back to the method handle.
+                }
+            }
+            declaredConstructor.setAccessible(true);
+            final MethodHandle handle = LOOKUP.unreflectConstructor(declaredConstructor).asType(CONSTRUCTOR_TYPE);
+            return () -> {
+                try {
+                    return (Object) handle.invokeExact();
+                } catch (Throwable t) {
+                    throw propagate(t);
+                }
+            };
+        } catch (Throwable t) {
+            throw new IllegalArgumentException("Unable to bind the constructor of " + type.getName(), t);
+        }
+    }
+
+
+    /**
+     * Binds the reader of a field, its public getter when it has one.
+     *
+     * @param field the field
+     * @return the reader
+     */
+    static Function<Object, Object> bindGetter(final Field field) {
+        final String suffix = Character.toUpperCase(field.getName().charAt(0)) + field.getName().substring(1);
+        Method getter = findMethod(field.getDeclaringClass(), "get" + suffix, field.getType());
+        if ((getter == null) && (field.getType() == boolean.class)) {
+            getter = findMethod(field.getDeclaringClass(), "is" + suffix, field.getType());
+        }
+        try {
+            MethodHandle handle;
+            if (getter != null) {
+                handle = LOOKUP.unreflect(getter);
+                try {
+                    return (Function<Object, Object>) LambdaMetafactory.metafactory(
+                            LOOKUP,
+                            "apply",
+                            MethodType.methodType(Function.class),
+                            GETTER_TYPE,
+                            handle,
+                            handle.type().wrap()
+                    ).getTarget().invokeExact();
+                } catch (LambdaConversionException lce) {
+                    // Fall back to the method handle.
+                }
+            } else {
+                field.setAccessible(true);
+                handle = LOOKUP.unreflectGetter(field);
+            }
+            final MethodHandle getterHandle = handle.asType(GETTER_TYPE);
+            return object -> {
+                try {
+                    return (Object) getterHandle.invokeExact(object);
+                } catch (Throwable t) {
+                    throw propagate(t);
+                }
+            };
+        } catch (Throwable t) {
+            throw new IllegalArgumentException("Unable to bind the getter of " + field, t);
+        }
+    }
+
+
+    /**
+     * Binds the writer of a field, its public setter when it has one.
+     *
+     * @param field the field
+     * @return the writer
+     */
+    static BiConsumer<Object, Object> bindSetter(final Field field) {
+        final String suffix = Character.toUpperCase(field.getName().charAt(0)) + field.getName().substring(1);
+        final Method setter = findMethod(field.getDeclaringClass(), "set" + suffix, void.class, field.getType());
+        try {
+            MethodHandle handle;
+            if (setter != null) {
+                handle = LOOKUP.unreflect(setter);
+                try {
+                    return (BiConsumer<Object, Object>) LambdaMetafactory.metafactory(
+                            LOOKUP,
+                            "accept",
+                            MethodType.methodType(BiConsumer.class),
+                            SETTER_TYPE,
+                            handle,
+                            handle.type().wrap().changeReturnType(void.class)
+                    ).getTarget().invokeExact();
+                } catch (LambdaConversionException lce) {
+                    // Fall back to the method handle.
+                }
+            } else {
+                field.setAccessible(true);
+                handle = LOOKUP.unreflectSetter(field);
+            }
+            final MethodHandle setterHandle = handle.asType(SETTER_TYPE);
+            return (object, value) -> {
+                try {
+                    setterHandle.invokeExact(object, value);
+                } catch (Throwable t) {
+                    throw propagate(t);
+                }
+            };
+        } catch (Throwable t) {
+            throw new IllegalArgumentException("Unable to bind the setter of " + field, t);
+        }
+    }
+
+
+    /**
+     * Finds a public method of a class which can be bound into a lambda.
+     *
+     * @param declaringClass the class
+     * @param name the name of the method
+     * @param returnType the return type of the method
+     * @param parameterTypes the parameter types of the method
+     * @return the method, or null when there is no such method or it cannot be bound
+     */
+    private static Method findMethod(final Class<?> declaringClass,
+                                     final String name,
+                                     final Class<?> returnType,
+                                     final Class<?>... parameterTypes) {
+        try {
+            final Method method = declaringClass.getMethod(name, parameterTypes);
+            if ((method.getReturnType() == returnType) && !Modifier.isStatic(method.getModifiers())
+                    && isBindable(method.getDeclaringClass())) {
+                return method;
+            }
+        } catch (NoSuchMethodException nsme) {
+            // The field is accessed directly.
+        }
+        return null;
+    }
+
+
+    /**
+     * Returns whether a constructor can be bound into a lambda: it must be public, of a public class which is
+     * visible from the class loader of this class, where the lambda is defined.
+     *
+     * @param declaredConstructor the constructor
+     * @return true if the constructor can be bound
+     */
+    private static boolean isBindable(final Constructor<?> declaredConstructor) {
+        return Modifier.isPublic(declaredConstructor.getModifiers())
+                && isBindable(declaredConstructor.getDeclaringClass());
+    }
+
+
+    /**
+     * Returns whether the members of a class can be bound into a lambda: the class must be public, and visible from
+     * the class loader of this class, where the lambda is defined.
+     *
+     * @param declaringClass the class
+     * @return true if the members of the class can be bound
+     */
+    private static boolean isBindable(final Class<?> declaringClass) {
+        if (!Modifier.isPublic(declaringClass.getModifiers())) {
+            return false;
+        }
+        try {
+            return Class.forName(declaringClass.getName(), false, DocumentMapper.class.getClassLoader())
+                    == declaringClass;
+        } catch (ClassNotFoundException cnfe) {
+            return false;
+        }
+    }
+
+
+    /**
+     * Returns an exception thrown by a bound accessor as an unchecked exception.
+     *
+     * @param throwable the exception
+     * @return the unchecked exception
+     */
+    private static RuntimeException propagate(final Throwable throwable) {
+        if (throwable instanceof RuntimeException) {
+            return (RuntimeException) throwable;
+        }
+        if (throwable instanceof Error) {
+            throw (Error) throwable;
+        }
+        return new IllegalStateException(throwable);
+    }
+
+
+    /**
+     * The accessors and conversion of a property.
+     */
+    private static final class PropertyMapping {
+
+        /** The name of the property. */
+        private final String name;
+
+        /** Reads the property of an object. */
+        private final Function<Object, Object> getter;
+
+        /** Writes the property of an object. */
+        private final BiConsumer<Object, Object> setter;
+
+        /** Converts values of the property. */
+        private final ValueConverter converter;
+
+        /** Whether the field is primitive, and so is left unchanged by null values. */
+        private final boolean primitive;
+
+
+        /**
+         * Constructor binding the accessors of a field.
+         *
+         * @param field the field
+         * @param converter converts values of the property
+         */
+        PropertyMapping(final Field field, final ValueConverter converter) {
+            this.name = field.getName();
+            this.getter = bindGetter(field);
+            this.setter = bindSetter(field);
+            this.converter = converter;
+            this.primitive = field.getType().isPrimitive();
+        }
+
+    }
+
+
+    /**
+     * The kinds of stored values.
+     */
+    private enum ValueKind {
+
+        /** A value stored as it is. */
+        SIMPLE,
+
+        /** An enum stored by name. */
+        ENUM,
+
+        /** An object stored as an embedded document. */
+        EMBEDDED,
+
+        /** An object stored as a linked document. */
+        LINK,
+
+        /** A collection stored as a list. */
+        LIST,
+
+        /** A set. */
+        SET,
+
+        /** A map with string keys. */
+        MAP
+
+    }
+
+
+    /**
+     * Converts values of a declared type to and from the values stored in documents.
+     */
+    private static final class ValueConverter {
+
+        /** The kind of value. */
+        private final ValueKind kind;
+
+        /** The declared type, boxed for primitives. */
+        private final Class<?> valueType;
+
+        /** The type values are stored as, or null to let OrientDB determine it. */
+        private final OType storedType;
+
+        /** The converter of the elements of collections and maps, or null. */
+        private final ValueConverter element;
+
+        /** Creates the collections and maps read, or null. */
+        private final Supplier<Object> containerFactory;
+
+        /** The constants of enums, keyed by name, or null. */
+        private final Map<String, Object> enumConstants;
+
+
+        /**
+         * Constructor allowing every part of the converter to be specified.
+         *
+         * @param kind the kind of value
+         * @param valueType the declared type, boxed for primitives
+         * @param storedType the type values are stored as, or null
+         * @param element the converter of elements, or null
+         * @param containerFactory creates the collections and maps read, or null
+         */
+        private ValueConverter(final ValueKind kind,
+                               final Class<?> valueType,
+                               final OType storedType,
+                               final ValueConverter element,
+                               final Supplier<Object> containerFactory) {
+            this.kind = kind;
+            this.valueType = valueType;
+            this.storedType = storedType;
+            this.element = element;
+            this.containerFactory = containerFactory;
+            if (kind == ValueKind.ENUM) {
+                final Map<String, Object> constants = new HashMap<>();
+                for (Object constant : valueType.getEnumConstants()) {
+                    constants.put(((Enum<?>) constant).name(), constant);
+                }
+                this.enumConstants = constants;
+            } else {
+                this.enumConstants = null;
+            }
+        }
+
+
+        /**
+         * Returns the converter of a declared type.
+         *
+         * @param genericType the declared type
+         * @param link whether objects of the type, or the elements of collections and maps, are linked
+         * @return the converter
+         * @throws IllegalArgumentException when values of the type cannot be stored
+         */
+        static ValueConverter forType(final Type genericType, final boolean link) {
+            Class<?> rawType = Object.class;
+            Type[] typeArguments = new Type[0];
+            if (genericType instanceof Class) {
+                rawType = (Class<?>) genericType;
+            } else if (genericType instanceof ParameterizedType) {
+                rawType = (Class<?>) ((ParameterizedType) genericType).getRawType();
+                typeArguments = ((ParameterizedType) genericType).getActualTypeArguments();
+            }
+            if (Map.class.isAssignableFrom(rawType)) {
+                if ((typeArguments.length == 2) && (typeArguments[0] != String.class)) {
+                    throw new IllegalArgumentException("Unable to map " + genericType + ", keys must be strings");
+                }
+                final ValueConverter valueConverter = elementConverter(typeArguments, 1, link);
+                return new ValueConverter(
+                        ValueKind.MAP,
+                        rawType,
+                        collectionType(valueConverter, OType.LINKMAP, OType.EMBEDDEDMAP),
+                        valueConverter,
+                        containerFactory(rawType)
+                );
+            }
+            if (Collection.class.isAssignableFrom(rawType)) {
+                final ValueConverter elementConverter = elementConverter(typeArguments, 0, link);
+                if (Set.class.isAssignableFrom(rawType)) {
+                    return new ValueConverter(
+                            ValueKind.SET,
+                            rawType,
+                            collectionType(elementConverter, OType.LINKSET, OType.EMBEDDEDSET),
+                            elementConverter,
+                            containerFactory(rawType)
+                    );
+                }
+                return new ValueConverter(
+                        ValueKind.LIST,
+                        rawType,
+                        collectionType(elementConverter, OType.LINKLIST, OType.EMBEDDEDLIST),
+                        elementConverter,
+                        containerFactory(rawType)
+                );
+            }
+            if (rawType.isEnum()) {
+                return new ValueConverter(ValueKind.ENUM, rawType, OType.STRING, null, null);
+            }
+            if (isSimple(rawType)) {
+                final Class<?> boxedType = MethodType.methodType(rawType).wrap().returnType();
+                return new ValueConverter(ValueKind.SIMPLE, boxedType, null, null, null);
+            }
+            if (rawType.isArray() || rawType.isInterface() || Modifier.isAbstract(rawType.getModifiers())) {
+                throw new IllegalArgumentException("Unable to map " + genericType + ", a concrete class is required");
+            }
+            if (link) {
+                return new ValueConverter(ValueKind.LINK, rawType, OType.LINK, null, null);
+            }
+            return new ValueConverter(ValueKind.EMBEDDED, rawType, OType.EMBEDDED, null, null);
+        }
+
+
+        /**
+         * Returns the converter of the elements of a collection or map.
+         *
+         * @param typeArguments the type arguments of the collection or map
+         * @param index the index of the element type argument
+         * @param link whether the elements are linked
+         * @return the converter, storing untyped elements as they are
+         */
+        private static ValueConverter elementConverter(final Type[] typeArguments,
+                                                       final int index,
+                                                       final boolean link) {
+            if (typeArguments.length > index) {
+                return forType(typeArguments[index], link);
+            }
+            return forType(Object.class, link);
+        }
+
+
+        /**
+         * Returns the type a collection or map is stored as.
+         *
+         * @param elementConverter the converter of the elements
+         * @param linkType the type when the elements are linked
+         * @param embeddedType the type otherwise
+         * @return the stored type
+         */
+        private static OType collectionType(final ValueConverter elementConverter,
+                                            final OType linkType,
+                                            final OType embeddedType) {
+            if (elementConverter.kind == ValueKind.LINK) {
+                return linkType;
+            }
+            return embeddedType;
+        }
+
+
+        /**
+         * Returns what creates the collections and maps of a declared type when they are read.
+         *
+         * @param rawType the declared type
+         * @return the factory
+         */
+        private static Supplier<Object> containerFactory(final Class<?> rawType) {
+            if (rawType.isAssignableFrom(ArrayList.class)) {
+                return ArrayList::new;
+            }
+            if (rawType.isAssignableFrom(LinkedHashSet.class)) {
+                return LinkedHashSet::new;
+            }
+            if (rawType.isAssignableFrom(TreeSet.class)) {
+                return TreeSet::new;
+            }
+            if (rawType.isAssignableFrom(LinkedHashMap.class)) {
+                return LinkedHashMap::new;
+            }
+            if (rawType.isAssignableFrom(TreeMap.class)) {
+                return TreeMap::new;
+            }
+            return bindConstructor(rawType);
+        }
+
+
+        /**
+         * Returns whether values of a type are stored as they are.
+         *
+         * @param rawType the type
+         * @return true if values are stored as they are
+         */
+        private static boolean isSimple(final Class<?> rawType) {
+            return rawType.isPrimitive()
+                    || (rawType == Object.class)
+                    || (rawType == String.class)
+                    || (rawType == Boolean.class)
+                    || (rawType == Character.class)
+                    || (rawType == byte[].class)
+                    || Number.class.isAssignableFrom(rawType)
+                    || Date.class.isAssignableFrom(rawType)
+                    || OIdentifiable.class.isAssignableFrom(rawType);
+        }
+
+
+        /**
+         * Converts a value to the value stored in a document.
+         *
+         * @param value the value
+         * @param context the objects written so far
+         * @return the stored value
+         */
+        Object toStored(final Object value, final MappingContext context) {
+            if (value == null) {
+                return null;
+            }
+            switch (kind) {
+                case ENUM:
+                    return ((Enum<?>) value).name();
+                case EMBEDDED:
+                    return forClass(valueType).write(value, context, true);
+                case LINK:
+                    return forClass(valueType).write(value, context, false);
+                case LIST:
+                    final List<Object> list = new ArrayList<>(((Collection<?>) value).size());
+                    for (Object item : (Collection<?>) value) {
+                        list.add(element.toStored(item, context));
+                    }
+                    return list;
+                case SET:
+                    final Set<Object> set = new LinkedHashSet<>();
+                    for (Object item : (Collection<?>) value) {
+                        set.add(element.toStored(item, context));
+                    }
+                    return set;
+                case MAP:
+                    final Map<String, Object> map = new LinkedHashMap<>();
+                    for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                        map.put((String) entry.getKey(), element.toStored(entry.getValue(), context));
+                    }
+                    return map;
+                default:
+                    return value;
+            }
+        }
+
+
+        /**
+         * Converts a value stored in a document to a value of the declared type.
+         *
+         * @param stored the stored value
+         * @param context the documents read so far
+         * @return the value
+         */
+        @SuppressWarnings("unchecked")
+        Object fromStored(final Object stored, final MappingContext context) {
+            if (stored == null) {
+                return null;
+            }
+            switch (kind) {
+                case ENUM:
+                    return enumConstants.get(stored.toString());
+                case EMBEDDED:
+                    return forClass(valueType).read((ODocument) stored, context);
+                case LINK:
+                    final ODocument linked = ((OIdentifiable) stored).getRecord();
+                    if (linked == null) {
+                        return null;
+                    }
+                    return forClass(valueType).read(linked, context);
+                case LIST:
+                case SET:
+                    final Collection<Object> collection = (Collection<Object>) containerFactory.get();
+                    for (Object item : (Collection<?>) stored) {
+                        collection.add(element.fromStored(item, context));
+                    }
+                    return collection;
+                case MAP:
+                    final Map<String, Object> map = (Map<String, Object>) containerFactory.get();
+                    for (Map.Entry<?, ?> entry : ((Map<?, ?>) stored).entrySet()) {
+                        map.put((String) entry.getKey(), element.fromStored(entry.getValue(), context));
+                    }
+                    return map;
+                default:
+                    if (valueType.isInstance(stored)) {
+                        return stored;
+                    }
+                    return OType.convert(stored, valueType);
+            }
+        }
+
+    }
+
+
+    /**
+     * The objects and documents converted by a single conversion, so that each is converted once.
+     */
+    private static final class MappingContext {
+
+        /** The documents objects were written to, by object identity. */
+        private final Map<Object, ODocument> documents = new IdentityHashMap<>();
+
+        /** The record id fields of linked objects, by object identity. */
+        private final Map<Object, PropertyMapping> recordIds = new IdentityHashMap<>();
+
+        /** The objects persistent documents were read into, by identity of the document. */
+        private final Map<ORID, Object> objects = new HashMap<>();
+
+    }
+
+
+}
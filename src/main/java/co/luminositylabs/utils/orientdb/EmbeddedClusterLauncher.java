@@ -0,0 +1,762 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import com.orientechnologies.orient.client.remote.OServerAdmin;
+import com.orientechnologies.orient.core.Orient;
+import com.orientechnologies.orient.server.OServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Starts a cluster of distributed OrientDB servers on the loopback interface of a single machine.
+ *
+ * <p>Each node is an embedded server with a binary listener on a port of its own, its own database directory, and
+ * the Hazelcast plugin of the orientdb-distributed module, which must be on the classpath.  The nodes discover each
+ * other over TCP on loopback, never by multicast, and every database is replicated to every node with the
+ * configured read and write quorums.  The Hazelcast and distributed database configurations are generated into the
+ * directory of each node.</p>
+ *
+ * <p>Nodes run inside this JVM by default.  They share its heap, its disk cache settings and the OrientDB engine,
+ * which is cheap to start and convenient to debug but understates the cost of separate processes.  So that each
+ * node opens the storages in its own directory rather than sharing one storage per database name, the engine
+ * registers databases by path while the cluster runs, and the previous setting is restored when the launcher is
+ * closed; this also keeps a stopping node from shutting the shared engine down under the others.  With
+ * {@link #setChildProcesses(boolean)} every node runs in a JVM of its own, launched with the classpath of this JVM,
+ * its output written to node.log in the node directory.  The server password is passed to a child JVM on its
+ * standard input, never on its command line.  Child JVMs stop when the launcher is closed, and when the JVM of the
+ * launcher exits.</p>
+ *
+ * <p>Nodes are started one at a time so that each joins the cluster formed by the ones before it.  A database
+ * created with {@link #createDatabase(String)} is created on the first node and deployed by it to the others.</p>
+ *
+ * @author Phillip Ross
+ */
+public class EmbeddedClusterLauncher implements AutoCloseable {
+
+    /** The default number of nodes. */
+    public static final int DEFAULT_NODE_COUNT = 3;
+
+    /** The default location of the node directories. */
+    public static final String DEFAULT_BASE_PATH = "target/cluster";
+
+    /** The default binary port of the first node, following ports being used by following nodes. */
+    public static final int DEFAULT_BINARY_PORT = 2524;
+
+    /** The default Hazelcast port of the first node, following ports being used by following nodes. */
+    public static final int DEFAULT_HAZELCAST_PORT = 2534;
+
+    /** The default name of the cluster, which nodes must share to join each other. */
+    public static final String DEFAULT_CLUSTER_NAME = "orientdb-utils";
+
+    /** The write quorum of a majority of nodes. */
+    public static final String WRITE_QUORUM_MAJORITY = "majority";
+
+    /** The write quorum of all nodes. */
+    public static final String WRITE_QUORUM_ALL = "all";
+
+    /** The default time allowed for a node to join the cluster, or for a database to reach every node. */
+    public static final long DEFAULT_STARTUP_TIMEOUT_MILLIS = 120000L;
+
+    /** The name of the Hazelcast configuration generated for each node. */
+    static final String HAZELCAST_CONFIGURATION_FILE_NAME = "hazelcast.xml";
+
+    /** The name of the distributed database configuration generated for each node. */
+    static final String DATABASE_CONFIGURATION_FILE_NAME = "default-distributed-db-config.json";
+
+    /** The name of the file a child JVM creates once its node has joined the cluster. */
+    static final String READY_FILE_NAME = "node.ready";
+
+    /** The name of the file the output of a child JVM is written to. */
+    static final String LOG_FILE_NAME = "node.log";
+
+    /** The static logger instance. */
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedClusterLauncher.class);
+
+    /** The loopback address nodes bind to. */
+    private static final String HOSTNAME = "127.0.0.1";
+
+    /** The prefix of node names, followed by the index of the node. */
+    private static final String NODE_NAME_PREFIX = "node";
+
+    /** The number of arguments of a child JVM, the password being read from its standard input. */
+    private static final int CHILD_ARGUMENT_COUNT = 4;
+
+    /** The time between checks of whether a node or database is ready. */
+    private static final long POLL_INTERVAL_MILLIS = 200L;
+
+    /** The time allowed for a child JVM to stop before it is killed. */
+    private static final long CHILD_STOP_TIMEOUT_SECONDS = 30L;
+
+    /** The username of the server user of every node. */
+    private final String username;
+
+    /** The password of the server user of every node. */
+    private final String password;
+
+    /** The number of nodes. */
+    private int nodeCount = DEFAULT_NODE_COUNT;
+
+    /** The location of the node directories. */
+    private String basePath = DEFAULT_BASE_PATH;
+
+    /** The binary port of the first node. */
+    private int binaryPort = DEFAULT_BINARY_PORT;
+
+    /** The Hazelcast port of the first node. */
+    private int hazelcastPort = DEFAULT_HAZELCAST_PORT;
+
+    /** The name of the cluster. */
+    private String clusterName = DEFAULT_CLUSTER_NAME;
+
+    /** The number of nodes a read is served by. */
+    private int readQuorum = 1;
+
+    /** The number of nodes, majority or all, which must acknowledge a write. */
+    private String writeQuorum = WRITE_QUORUM_MAJORITY;
+
+    /** Whether nodes run in child JVMs. */
+    private boolean childProcesses;
+
+    /** Additional arguments of child JVMs. */
+    private final List<String> childJvmArguments = new ArrayList<>();
+
+    /** The time allowed for a node to join the cluster, or for a database to reach every node. */
+    private long startupTimeoutMillis = DEFAULT_STARTUP_TIMEOUT_MILLIS;
+
+    /** The started nodes, in the order they were started. */
+    private final List<Node> nodes = new ArrayList<>();
+
+    /** Whether the engine registered databases by path before nodes were started in this JVM, or null. */
+    private Boolean previousRegisterDatabaseByPath;
+
+
+    /**
+     * Constructor allowing the server credentials of the nodes to be specified.
+     *
+     * @param username the username of the server user of every node
+     * @param password the password of the server user of every node
+     */
+    public EmbeddedClusterLauncher(final String username, final String password) {
+        Objects.requireNonNull(username, "Username must be specified");
+        Objects.requireNonNull(password, "Password must be specified");
+        this.username = username;
+        this.password = password;
+    }
+
+
+    /**
+     * Starts a single node in a child JVM, reading the password from the first line of its standard input, until its
+     * standard input is closed.
+     *
+     * @param args the node name, binary port, node directory and username
+     *
+     * @throws Exception when the node cannot be started
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args.length != CHILD_ARGUMENT_COUNT) {
+            throw new IllegalArgumentException("Expected node name, binary port, node directory, username");
+        }
+        final BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        final String password = stdin.readLine();
+        if (password == null) {
+            throw new IllegalArgumentException("Expected the password on standard input");
+        }
+        final File directory = new File(args[2]);
+        final OServer oServer = nodeBuilder(args[0], Integer.parseInt(args[1]), directory, args[3], password).start();
+        Files.createFile(new File(directory, READY_FILE_NAME).toPath());
+        try {
+            while (stdin.read() != -1) {
+                // Runs until the launcher closes the pipe, or exits.
+            }
+        } finally {
+            oServer.shutdown();
+        }
+        System.exit(0);
+    }
+
+
+    /**
+     * Sets the number of nodes.
+     *
+     * @param nodeCount the number of nodes
+     * @return this launcher
+     */
+    public EmbeddedClusterLauncher setNodeCount(final int nodeCount) {
+        if (nodeCount < 1) {
+            throw new IllegalArgumentException("nodeCount must be a positive integer");
+        }
+        this.nodeCount = nodeCount;
+        return this;
+    }
+
+
+    /**
+     * Sets the location of the node directories, each node using a directory named after it.
+     *
+     * @param basePath the location
+     * @return this launcher
+     */
+    public EmbeddedClusterLauncher setBasePath(final String basePath) {
+        Objects.requireNonNull(basePath, "A basePath must be provided");
+        this.basePath = basePath;
+        return this;
+    }
+
+
+    /**
+     * Sets the binary port of the first node.  Following nodes use the following ports.
+     *
+     * @param binaryPort the port
+     * @return this launcher
+     */
+    public EmbeddedClusterLauncher setBinaryPort(final int binaryPort) {
+        this.binaryPort = binaryPort;
+        return this;
+    }
+
+
+    /**
+     * Sets the Hazelcast port of the first node.  Following nodes use the following ports.
+     *
+     * @param hazelcastPort the port
+     * @return this launcher
+     */
+    public EmbeddedClusterLauncher setHazelcastPort(final int hazelcastPort) {
+        this.hazelcastPort = hazelcastPort;
+        return this;
+    }
+
+
+    /**
+     * Sets the name of the cluster, which keeps the nodes from joining other clusters on the same machine.
+     *
+     * @param clusterName the name
+     * @return this launcher
+     */
+    public EmbeddedClusterLauncher setClusterName(final String clusterName) {
+        Objects.requireNonNull(clusterName, "A clusterName must be provided");
+        this.clusterName = clusterName;
+        return this;
+    }
+
+
+    /**
+     * Sets the number of nodes a read is served by.
+     *
+     * @param readQuorum the number of nodes
+     * @return this launcher
+     */
+    public EmbeddedClusterLauncher setReadQuorum(final int readQuorum) {
+        if (readQuorum < 1) {
+            throw new IllegalArgumentException("readQuorum must be a positive integer");
+        }
+        this.readQuorum = readQuorum;
+        return this;
+    }
+
+
+    /**
+     * Sets the number of nodes which must acknowledge a write.
+     *
+     * @param writeQuorum the number of nodes
+     * @return this launcher
+     */
+    public EmbeddedClusterLauncher setWriteQuorum(final int writeQuorum) {
+        if (writeQuorum < 1) {
+            throw new IllegalArgumentException("writeQuorum must be a positive integer");
+        }
+        this.writeQuorum = Integer.toString(writeQuorum);
+        return this;
+    }
+
+
+    /**
+     * Sets the nodes which must acknowledge a write to a majority or to all of them.
+     *
+     * @param writeQuorum {@value #WRITE_QUORUM_MAJORITY} or {@value #WRITE_QUORUM_ALL}
+     * @return this launcher
+     */
+    public EmbeddedClusterLauncher setWriteQuorum(final String writeQuorum) {
+        if (!WRITE_QUORUM_MAJORITY.equals(writeQuorum) && !WRITE_QUORUM_ALL.equals(writeQuorum)) {
+            throw new IllegalArgumentException("writeQuorum must be majority or all");
+        }
+        this.writeQuorum = writeQuorum;
+        return this;
+    }
+
+
+    /**
+     * Sets whether nodes run in JVMs of their own rather than in this JVM.
+     *
+     * @param childProcesses true if nodes should run in child JVMs
+     * @return this launcher
+     */
+    public EmbeddedClusterLauncher setChildProcesses(final boolean childProcesses) {
+        this.childProcesses = childProcesses;
+        return this;
+    }
+
+
+    /**
+     * Adds an argument of the child JVMs, such as a heap size.
+     *
+     * @param argument the JVM argument
+     * @return this launcher
+     */
+    public EmbeddedClusterLauncher addChildJvmArgument(final String argument) {
+        Objects.requireNonNull(argument, "An argument must be provided");
+        childJvmArguments.add(argument);
+        return this;
+    }
+
+
+    /**
+     * Sets the time allowed for a node to join the cluster, or for a database to reach every node.
+     *
+     * @param startupTimeoutMillis the time in milliseconds
+     * @return this launcher
+     */
+    public EmbeddedClusterLauncher setStartupTimeoutMillis(final long startupTimeoutMillis) {
+        if (startupTimeoutMillis < 1) {
+            throw new IllegalArgumentException("startupTimeoutMillis must be a positive integer");
+        }
+        this.startupTimeoutMillis = startupTimeoutMillis;
+        return this;
+    }
+
+
+    /**
+     * Generates the configuration of every node and starts the nodes one after another.  When a node cannot be
+     * started, the nodes already started are stopped.
+     *
+     * @return this launcher
+     *
+     * @throws Exception when a node cannot be started
+     */
+    public EmbeddedClusterLauncher start() throws Exception {
+        if (!nodes.isEmpty()) {
+            throw new IllegalStateException("The cluster has already been started");
+        }
+        if ((!childProcesses) && (previousRegisterDatabaseByPath == null)) {
+            previousRegisterDatabaseByPath = Orient.isRegisterDatabaseByPath();
+            Orient.setRegisterDatabaseByPath(true);
+        }
+        try {
+            for (int i = 0; i < nodeCount; i++) {
+                final String nodeName = NODE_NAME_PREFIX + i;
+                final Node node = new Node(nodeName, binaryPort + i, new File(basePath, nodeName));
+                writeConfiguration(node.directory);
+                logger.info("Starting cluster node {} on port {}", node.name, node.binaryPort);
+                if (childProcesses) {
+                    node.process = launchChild(node);
+                } else {
+                    node.oServer = nodeBuilder(node.name, node.binaryPort, node.directory, username, password).start();
+                }
+                nodes.add(node);
+            }
+        } catch (Exception e) {
+            close();
+            throw e;
+        }
+        return this;
+    }
+
+
+    /**
+     * Creates a database on the first node, unless it exists, and waits until it has been deployed to every node.
+     *
+     * @param databaseName the name of the database
+     *
+     * @throws IOException when the database cannot be created
+     * @throws InterruptedException when interrupted while waiting for the database to reach every node
+     */
+    public void createDatabase(final String databaseName) throws IOException, InterruptedException {
+        Objects.requireNonNull(databaseName, "A databaseName must be provided");
+        if (nodes.isEmpty()) {
+            throw new IllegalStateException("The cluster has not been started");
+        }
+        final OServerAdmin oServerAdmin = new OServerAdmin(getRemoteUrl(0, databaseName));
+        try {
+            oServerAdmin.connect(username, password);
+            if (!oServerAdmin.existsDatabase("plocal")) {
+                oServerAdmin.createDatabase("document", "plocal");
+            }
+        } finally {
+            oServerAdmin.close();
+        }
+        final long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(startupTimeoutMillis);
+        for (int i = 1; i < nodes.size(); i++) {
+            while (!existsDatabase(i, databaseName)) {
+                if (System.nanoTime() - deadlineNanos > 0) {
+                    throw new IllegalStateException("Database " + databaseName + " did not reach " + nodes.get(i).name);
+                }
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the number of started nodes.
+     *
+     * @return the number of nodes
+     */
+    public int getNodeCount() {
+        return nodes.size();
+    }
+
+
+    /**
+     * Returns the name of a node.
+     *
+     * @param nodeIndex the index of the node
+     * @return the name
+     */
+    public String getNodeName(final int nodeIndex) {
+        return nodes.get(nodeIndex).name;
+    }
+
+
+    /**
+     * Returns the server of a node running in this JVM.
+     *
+     * @param nodeIndex the index of the node
+     * @return the server, or null when the node runs in a child JVM
+     */
+    public OServer getServer(final int nodeIndex) {
+        return nodes.get(nodeIndex).oServer;
+    }
+
+
+    /**
+     * Returns the url of a database on a single node.
+     *
+     * @param nodeIndex the index of the node
+     * @param databaseName the name of the database
+     * @return the remote url
+     */
+    public String getRemoteUrl(final int nodeIndex, final String databaseName) {
+        return OrientDBUtil.buildDatabaseUrl(
+                databaseName,
+                OrientDBUtil.Engine.REMOTE,
+                HOSTNAME,
+                Integer.toString(nodes.get(nodeIndex).binaryPort),
+                null
+        );
+    }
+
+
+    /**
+     * Returns the url of a database listing every node, so that clients fail over to the next node when one is
+     * unavailable.
+     *
+     * @param databaseName the name of the database
+     * @return the remote url
+     */
+    public String getRemoteUrl(final String databaseName) {
+        Objects.requireNonNull(databaseName, "A databaseName must be provided");
+        final StringBuilder urlStringBuilder = new StringBuilder(OrientDBUtil.Engine.REMOTE.toStringValue())
+                .append(":");
+        for (int i = 0; i < nodes.size(); i++) {
+            if (i > 0) {
+                urlStringBuilder.append(";");
+            }
+            urlStringBuilder.append(HOSTNAME).append(":").append(nodes.get(i).binaryPort);
+        }
+        return urlStringBuilder.append("/").append(databaseName).toString();
+    }
+
+
+    /**
+     * Stops every node, in the reverse of the order they were started, and restores how the engine registers
+     * databases.
+     */
+    @Override
+    public void close() {
+        final List<Node> startedNodes = new ArrayList<>(nodes);
+        Collections.reverse(startedNodes);
+        for (Node node : startedNodes) {
+            logger.info("Stopping cluster node {}", node.name);
+            try {
+                node.stop();
+            } catch (RuntimeException re) {
+                logger.warn("Unable to stop cluster node {}", node.name, re);
+            }
+        }
+        nodes.clear();
+        if (previousRegisterDatabaseByPath != null) {
+            Orient.setRegisterDatabaseByPath(previousRegisterDatabaseByPath);
+            previousRegisterDatabaseByPath = null;
+        }
+    }
+
+
+    /**
+     * Returns whether a database exists on a node.
+     *
+     * @param nodeIndex the index of the node
+     * @param databaseName the name of the database
+     * @return true if the database exists
+     *
+     * @throws IOException when the node cannot be reached
+     */
+    private boolean existsDatabase(final int nodeIndex, final String databaseName) throws IOException {
+        final OServerAdmin oServerAdmin = new OServerAdmin(getRemoteUrl(nodeIndex, databaseName));
+        try {
+            oServerAdmin.connect(username, password);
+            return oServerAdmin.existsDatabase("plocal");
+        } finally {
+            oServerAdmin.close();
+        }
+    }
+
+
+    /**
+     * Writes the Hazelcast and distributed database configurations into the directory of a node.
+     *
+     * @param directory the node directory
+     *
+     * @throws IOException when the configuration cannot be written
+     */
+    private void writeConfiguration(final File directory) throws IOException {
+        Files.createDirectories(directory.toPath());
+        Files.write(
+                new File(directory, HAZELCAST_CONFIGURATION_FILE_NAME).toPath(),
+                buildHazelcastConfiguration().getBytes(StandardCharsets.UTF_8)
+        );
+        Files.write(
+                new File(directory, DATABASE_CONFIGURATION_FILE_NAME).toPath(),
+                buildDatabaseConfiguration().getBytes(StandardCharsets.UTF_8)
+        );
+    }
+
+
+    /**
+     * Builds the Hazelcast configuration of the nodes, which join each other over TCP on loopback.  A node only
+     * binds the first free port from the Hazelcast port of the first node.
+     *
+     * @return the content of hazelcast.xml
+     */
+    String buildHazelcastConfiguration() {
+        final StringBuilder configuration = new StringBuilder()
+                .append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<hazelcast xmlns=\"http://www.hazelcast.com/schema/config\"")
+                .append(" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"")
+                .append(" xsi:schemaLocation=\"http://www.hazelcast.com/schema/config hazelcast-config-3.3.xsd\">\n")
+                .append("    <group>\n")
+                .append("        <name>").append(clusterName).append("</name>\n")
+                .append("        <password>").append(clusterName).append("</password>\n")
+                .append("    </group>\n")
+                .append("    <properties>\n")
+                .append("        <property name=\"hazelcast.phone.home.enabled\">false</property>\n")
+                .append("        <property name=\"hazelcast.mancenter.enabled\">false</property>\n")
+                .append("        <property name=\"hazelcast.rest.enabled\">false</property>\n")
+                .append("        <property name=\"hazelcast.memcache.enabled\">false</property>\n")
+                .append("        <property name=\"hazelcast.wait.seconds.before.join\">0</property>\n")
+                .append("    </properties>\n")
+                .append("    <network>\n")
+                .append("        <port auto-increment=\"true\" port-count=\"").append(nodeCount).append("\">")
+                .append(hazelcastPort).append("</port>\n")
+                .append("        <join>\n")
+                .append("            <multicast enabled=\"false\"/>\n")
+                .append("            <tcp-ip enabled=\"true\">\n");
+        for (int i = 0; i < nodeCount; i++) {
+            configuration.append("                <member>").append(HOSTNAME).append(":").append(hazelcastPort + i)
+                    .append("</member>\n");
+        }
+        return configuration
+                .append("            </tcp-ip>\n")
+                .append("        </join>\n")
+                .append("        <interfaces enabled=\"true\">\n")
+                .append("            <interface>").append(HOSTNAME).append("</interface>\n")
+                .append("        </interfaces>\n")
+                .append("    </network>\n")
+                .append("</hazelcast>\n")
+                .toString();
+    }
+
+
+    /**
+     * Builds the distributed configuration of databases, which are deployed to and replicated on every node.
+     *
+     * @return the content of default-distributed-db-config.json
+     */
+    String buildDatabaseConfiguration() {
+        String quorum = writeQuorum;
+        if (WRITE_QUORUM_MAJORITY.equals(writeQuorum) || WRITE_QUORUM_ALL.equals(writeQuorum)) {
+            quorum = "\"" + writeQuorum + "\"";
+        }
+        return new StringBuilder()
+                .append("{\n")
+                .append("  \"autoDeploy\": true,\n")
+                .append("  \"readQuorum\": ").append(readQuorum).append(",\n")
+                .append("  \"writeQuorum\": ").append(quorum).append(",\n")
+                .append("  \"executionMode\": \"undefined\",\n")
+                .append("  \"readYourWrites\": true,\n")
+                .append("  \"newNodeStrategy\": \"static\",\n")
+                .append("  \"servers\": {\n")
+                .append("    \"*\": \"master\"\n")
+                .append("  },\n")
+                .append("  \"clusters\": {\n")
+                .append("    \"internal\": {\n")
+                .append("    },\n")
+                .append("    \"*\": {\n")
+                .append("      \"servers\": [\"<NEW_NODE>\"]\n")
+                .append("    }\n")
+                .append("  }\n")
+                .append("}\n")
+                .toString();
+    }
+
+
+    /**
+     * Launches a node in a child JVM and waits until it has joined the cluster.
+     *
+     * @param node the node
+     * @return the child process
+     *
+     * @throws IOException when the child JVM cannot be launched
+     * @throws InterruptedException when interrupted while waiting for the node
+     */
+    private Process launchChild(final Node node) throws IOException, InterruptedException {
+        if ((password.indexOf('\n') >= 0) || (password.indexOf('\r') >= 0)) {
+            throw new IllegalArgumentException("The password of child JVMs must be a single line");
+        }
+        final File readyFile = new File(node.directory, READY_FILE_NAME);
+        Files.deleteIfExists(readyFile.toPath());
+        final List<String> command = new ArrayList<>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        command.addAll(childJvmArguments);
+        command.add("-classpath");
+        command.add(System.getProperty("java.class.path"));
+        command.add(EmbeddedClusterLauncher.class.getName());
+        command.add(node.name);
+        command.add(Integer.toString(node.binaryPort));
+        command.add(node.directory.getAbsolutePath());
+        command.add(username);
+        final File logFile = new File(node.directory, LOG_FILE_NAME);
+        final Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(logFile)
+                .start();
+        Runtime.getRuntime().addShutdownHook(new Thread(process::destroy));
+        // The pipe stays open after the password; closing it stops the node.
+        final OutputStream stdin = process.getOutputStream();
+        stdin.write((password + "\n").getBytes(StandardCharsets.UTF_8));
+        stdin.flush();
+        final long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(startupTimeoutMillis);
+        while (!readyFile.exists()) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("Cluster node " + node.name + " exited, see " + logFile);
+            }
+            if (System.nanoTime() - deadlineNanos > 0) {
+                process.destroyForcibly();
+                throw new IllegalStateException("Cluster node " + node.name + " did not start, see " + logFile);
+            }
+            Thread.sleep(POLL_INTERVAL_MILLIS);
+        }
+        return process;
+    }
+
+
+    /**
+     * Returns a builder of the server of a node.
+     *
+     * @param nodeName the name of the node
+     * @param nodeBinaryPort the binary port of the node
+     * @param directory the node directory, holding its configuration and databases
+     * @param username the username of the server user
+     * @param password the password of the server user
+     * @return the builder
+     */
+    private static EmbeddedServerBuilder nodeBuilder(final String nodeName,
+                                                     final int nodeBinaryPort,
+                                                     final File directory,
+                                                     final String username,
+                                                     final String password) {
+        return new EmbeddedServerBuilder(username, password)
+                .addListener(HOSTNAME, Integer.toString(nodeBinaryPort))
+                .setDatabasePath(new File(directory, "databases").getAbsolutePath())
+                .setDistributed(
+                        nodeName,
+                        new File(directory, HAZELCAST_CONFIGURATION_FILE_NAME).getAbsolutePath(),
+                        new File(directory, DATABASE_CONFIGURATION_FILE_NAME).getAbsolutePath()
+                );
+    }
+
+
+    /**
+     * A node of the cluster, running in this JVM or in a child JVM.
+     */
+    private static final class Node {
+
+        /** The name of the node. */
+        private final String name;
+
+        /** The binary port of the node. */
+        private final int binaryPort;
+
+        /** The directory of the node. */
+        private final File directory;
+
+        /** The server of a node running in this JVM. */
+        private OServer oServer;
+
+        /** The process of a node running in a child JVM. */
+        private Process process;
+
+
+        /**
+         * Constructor allowing the name, port and directory of the node to be specified.
+         *
+         * @param name the name of the node
+         * @param binaryPort the binary port of the node
+         * @param directory the directory of the node
+         */
+        Node(final String name, final int binaryPort, final File directory) {
+            this.name = name;
+            this.binaryPort = binaryPort;
+            this.directory = directory;
+        }
+
+
+        /**
+         * Shuts the server of the node down, or closes the input of its child JVM and waits for it to exit.
+         */
+        void stop() {
+            if (oServer != null) {
+                oServer.shutdown();
+            }
+            if (process != null) {
+                try {
+                    process.getOutputStream().close();
+                    if (!process.waitFor(CHILD_STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                        process.destroyForcibly();
+                    }
+                } catch (IOException ioe) {
+                    process.destroyForcibly();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    process.destroyForcibly();
+                }
+            }
+        }
+
+    }
+
+
+}
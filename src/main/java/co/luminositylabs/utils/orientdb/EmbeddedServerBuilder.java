@@ -0,0 +1,661 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.server.OServer;
+import com.orientechnologies.orient.server.OServerLifecycleListener;
+import com.orientechnologies.orient.server.OServerMain;
+import com.orientechnologies.orient.server.config.OServerConfiguration;
+import com.orientechnologies.orient.server.config.OServerEntryConfiguration;
+import com.orientechnologies.orient.server.config.OServerHandlerConfiguration;
+import com.orientechnologies.orient.server.config.OServerNetworkConfiguration;
+import com.orientechnologies.orient.server.config.OServerNetworkListenerConfiguration;
+import com.orientechnologies.orient.server.config.OServerNetworkProtocolConfiguration;
+import com.orientechnologies.orient.server.config.OServerParameterConfiguration;
+import com.orientechnologies.orient.server.config.OServerSocketFactoryConfiguration;
+import com.orientechnologies.orient.server.config.OServerUserConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+
+/**
+ * A builder which configures and starts an embedded OrientDB server.
+ *
+ * <p>Storage and cache settings are taken from a {@link StorageProfile}, and may be overridden individually.  These
+ * settings are OrientDB global configuration values, so they are applied to the whole JVM when the server is
+ * started, and the values they replaced are restored when it is shut down.  Servers whose lifetimes overlap share
+ * the values of the last one started.</p>
+ *
+ * <p>By default the server has a single binary protocol listener bound to all addresses.  Additional listeners,
+ * socket buffer sizes, TCP_NODELAY and the number of concurrent sessions may be configured.  The binary protocol
+ * serves each session on a dedicated worker thread, so the number of concurrent sessions also bounds the number of
+ * worker threads.</p>
+ *
+ * <p>A {@link CacheWarmer} may be set to load clusters and indexes into the disk cache after the server is
+ * activated, so that {@link #start()} returns a server whose first requests do not read from a cold cache.  While
+ * the server is active the {@link OrientDBMetrics} of the JVM are published over JMX.</p>
+ *
+ * <p>A server may be started as a node of a distributed cluster, which needs the orientdb-distributed module on the
+ * classpath.  {@link EmbeddedClusterLauncher} starts whole clusters of such nodes.</p>
+ *
+ * @author Phillip Ross
+ */
+public class EmbeddedServerBuilder {
+
+    /** The static logger instance. */
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedServerBuilder.class);
+
+    /** Server property name for the location of databases hosted by the server. */
+    public static final String SERVER_PROPERTY_DATABASE_PATH = "server.database.path";
+
+    /** The default location of databases hosted by the server. */
+    public static final String DEFAULT_DATABASE_PATH = "target/dbs";
+
+    /** The address the default listener binds to. */
+    public static final String DEFAULT_LISTENER_ADDRESS = "0.0.0.0"; // NOPMD - It's fine to bind to all addresses.
+
+    /** The name of the socket factory applying the configured socket options. */
+    public static final String TUNED_SOCKET_NAME = "tuned";
+
+    /** The name of OrientDB's default socket factory. */
+    private static final String DEFAULT_SOCKET_NAME = "default";
+
+    /** The name of the binary protocol. */
+    private static final String BINARY_PROTOCOL_NAME = "binary";
+
+    /** The upper bound of percentage settings. */
+    private static final int MAX_PERCENTAGE = 100;
+
+    /** The class of the plugin which joins the server to a distributed cluster. */
+    private static final String DISTRIBUTED_PLUGIN_CLASS_NAME =
+            "com.orientechnologies.orient.server.hazelcast.OHazelcastPlugin";
+
+    /** The username to be used in configuring the OrientDB server. */
+    private final String username;
+
+    /** The password to be used in configuring the OrientDB server. */
+    private final String password;
+
+    /** The port range the OrientDB server will listen on. */
+    private String portRange = OrientDBUtil.DEFAULT_BINARY_PROTOCOL_PORTRANGE;
+
+    /** Whether or not the server listens on the network. */
+    private boolean networkEnabled = true;
+
+    /** Whether or not shutting the server down also shuts down the OrientDB engine of the JVM. */
+    private boolean shutdownEngineOnExit = true;
+
+    /** The location of databases hosted by the server. */
+    private String databasePath = DEFAULT_DATABASE_PATH;
+
+    /** The storage and cache profile. */
+    private StorageProfile storageProfile = StorageProfile.DEFAULT;
+
+    /** Storage and cache settings which override those of the profile. */
+    private final Map<String, String> storageSettings = new LinkedHashMap<>();
+
+    /** Network settings keyed by OrientDB configuration key. */
+    private final Map<String, String> networkSettings = new LinkedHashMap<>();
+
+    /** The listeners as pairs of address and port range, the default listener being used when empty. */
+    private final List<String[]> listeners = new ArrayList<>();
+
+    /** The send buffer size of accepted connections, zero or less for the operating system default. */
+    private int socketSendBufferSize;
+
+    /** The receive buffer size of accepted connections, zero or less for the operating system default. */
+    private int socketReceiveBufferSize;
+
+    /** Whether or not TCP_NODELAY is enabled on accepted connections, null to leave it unchanged. */
+    private Boolean tcpNoDelay;
+
+    /** The warm-up run after the server is activated, or null. */
+    private CacheWarmer cacheWarmer;
+
+    /** The report of the last warm-up, or null. */
+    private WarmUpReport warmUpReport;
+
+    /** The name of the server in its distributed cluster, or null for a standalone server. */
+    private String distributedNodeName;
+
+    /** The location of the Hazelcast configuration of the distributed cluster. */
+    private String hazelcastConfigurationPath;
+
+    /** The location of the default distributed configuration of databases. */
+    private String distributedDatabaseConfigurationPath;
+
+
+    /**
+     * Constructor allowing the server credentials to be specified.
+     *
+     * @param username the username to be used in configuring the OrientDB server
+     * @param password the password to be used in configuring the OrientDB server
+     */
+    public EmbeddedServerBuilder(final String username, final String password) {
+        Objects.requireNonNull(username, "Username must be specified");
+        Objects.requireNonNull(password, "Password must be specified");
+        this.username = username;
+        this.password = password;
+    }
+
+
+    /**
+     * Sets the port range the default listener of the OrientDB server will listen on.
+     *
+     * @param portRange the port range, or null for the default port range
+     * @return this builder
+     */
+    public EmbeddedServerBuilder setPortRange(final String portRange) {
+        if (portRange == null) {
+            this.portRange = OrientDBUtil.DEFAULT_BINARY_PROTOCOL_PORTRANGE;
+        } else {
+            this.portRange = portRange;
+        }
+        return this;
+    }
+
+
+    /**
+     * Sets whether or not the server listens on the network.  A server which does not listen on the network only
+     * serves databases accessed in-process.
+     *
+     * @param networkEnabled true if the server should listen on the network
+     * @return this builder
+     */
+    public EmbeddedServerBuilder setNetworkEnabled(final boolean networkEnabled) {
+        this.networkEnabled = networkEnabled;
+        return this;
+    }
+
+
+    /**
+     * Sets whether or not shutting the server down also shuts down the OrientDB engine of the JVM, which closes every
+     * open storage, including in-memory databases used in-process.  By default the engine is shut down.
+     *
+     * @param shutdownEngineOnExit true if the engine is shut down with the server
+     * @return this builder
+     */
+    public EmbeddedServerBuilder setShutdownEngineOnExit(final boolean shutdownEngineOnExit) {
+        this.shutdownEngineOnExit = shutdownEngineOnExit;
+        return this;
+    }
+
+
+    /**
+     * Adds a binary protocol listener.  When one or more listeners are added, they replace the default listener.
+     *
+     * @param ipAddress the address the listener binds to
+     * @param listenerPortRange the port range the listener binds to, the first available port being used
+     * @return this builder
+     */
+    public EmbeddedServerBuilder addListener(final String ipAddress, final String listenerPortRange) {
+        Objects.requireNonNull(ipAddress, "An ipAddress must be provided");
+        Objects.requireNonNull(listenerPortRange, "A listenerPortRange must be provided");
+        listeners.add(new String[] {ipAddress, listenerPortRange});
+        return this;
+    }
+
+
+    /**
+     * Sets the send buffer size of accepted connections.
+     *
+     * @param socketSendBufferSize the send buffer size in bytes, zero or less for the operating system default
+     * @return this builder
+     */
+    public EmbeddedServerBuilder setSocketSendBufferSize(final int socketSendBufferSize) {
+        this.socketSendBufferSize = socketSendBufferSize;
+        return this;
+    }
+
+
+    /**
+     * Sets the receive buffer size of listening sockets and accepted connections.
+     *
+     * @param socketReceiveBufferSize the receive buffer size in bytes, zero or less for the operating system default
+     * @return this builder
+     */
+    public EmbeddedServerBuilder setSocketReceiveBufferSize(final int socketReceiveBufferSize) {
+        this.socketReceiveBufferSize = socketReceiveBufferSize;
+        return this;
+    }
+
+
+    /**
+     * Sets whether or not TCP_NODELAY is enabled on accepted connections.
+     *
+     * @param tcpNoDelay true if Nagle's algorithm should be disabled
+     * @return this builder
+     */
+    public EmbeddedServerBuilder setTcpNoDelay(final boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+        return this;
+    }
+
+
+    /**
+     * Sets the maximum number of concurrent client sessions, which is also the maximum number of binary protocol
+     * worker threads.
+     *
+     * @param maxConcurrentSessions the maximum number of concurrent sessions
+     * @return this builder
+     */
+    public EmbeddedServerBuilder setMaxConcurrentSessions(final int maxConcurrentSessions) {
+        if (maxConcurrentSessions < 1) {
+            throw new IllegalArgumentException("maxConcurrentSessions must be a positive integer");
+        }
+        return setNetworkSetting(
+                OGlobalConfiguration.NETWORK_MAX_CONCURRENT_SESSIONS.getKey(),
+                Integer.toString(maxConcurrentSessions)
+        );
+    }
+
+
+    /**
+     * Sets an arbitrary OrientDB network configuration value.
+     *
+     * @param key the OrientDB configuration key
+     * @param value the configuration value
+     * @return this builder
+     */
+    public EmbeddedServerBuilder setNetworkSetting(final String key, final String value) {
+        Objects.requireNonNull(key, "A key must be provided");
+        Objects.requireNonNull(value, "A value must be provided");
+        if (OGlobalConfiguration.findByKey(key) == null) {
+            throw new IllegalArgumentException("Unknown OrientDB configuration key: " + key);
+        }
+        networkSettings.put(key, value);
+        return this;
+    }
+
+
+    /**
+     * Sets the location of databases hosted by the server.
+     *
+     * @param databasePath the database location
+     * @return this builder
+     */
+    public EmbeddedServerBuilder setDatabasePath(final String databasePath) {
+        Objects.requireNonNull(databasePath, "A databasePath must be provided");
+        this.databasePath = databasePath;
+        return this;
+    }
+
+
+    /**
+     * Sets the storage and cache profile.
+     *
+     * @param storageProfile the profile
+     * @return this builder
+     */
+    public EmbeddedServerBuilder setStorageProfile(final StorageProfile storageProfile) {
+        Objects.requireNonNull(storageProfile, "A storageProfile must be provided");
+        this.storageProfile = storageProfile;
+        return this;
+    }
+
+
+    /**
+     * Sets the size of the disk cache.
+     *
+     * @param diskCacheSizeMb the disk cache size in megabytes
+     * @return this builder
+     */
+    public EmbeddedServerBuilder setDiskCacheSizeMb(final long diskCacheSizeMb) {
+        if (diskCacheSizeMb < 1) {
+            throw new IllegalArgumentException("diskCacheSizeMb must be a positive integer");
+        }
+        return setStorageSetting(OGlobalConfiguration.DISK_CACHE_SIZE.getKey(), Long.toString(diskCacheSizeMb));
+    }
+
+
+    /**
+     * Sets the percentage of the disk cache dedicated to pages being written.
+     *
+     * @param writeCachePercentage the write cache percentage
+     * @return this builder
+     */
+    public EmbeddedServerBuilder setWriteCachePercentage(final int writeCachePercentage) {
+        if ((writeCachePercentage < 1) || (writeCachePercentage > MAX_PERCENTAGE)) {
+            throw new IllegalArgumentException("writeCachePercentage must be between 1 and 100");
+        }
+        return setStorageSetting(
+                OGlobalConfiguration.DISK_WRITE_CACHE_PART.getKey(),
+                Integer.toString(writeCachePercentage)
+        );
+    }
+
+
+    /**
+     * Sets whether or not the write-ahead log is used.
+     *
+     * @param useWal true if the write-ahead log should be used
+     * @return this builder
+     */
+    public EmbeddedServerBuilder setUseWal(final boolean useWal) {
+        return setStorageSetting(OGlobalConfiguration.USE_WAL.getKey(), Boolean.toString(useWal));
+    }
+
+
+    /**
+     * Sets whether or not the write-ahead log is synced to disk when data pages are flushed.
+     *
+     * @param walSyncOnPageFlush true if the write-ahead log should be synced on page flush
+     * @return this builder
+     */
+    public EmbeddedServerBuilder setWalSyncOnPageFlush(final boolean walSyncOnPageFlush) {
+        return setStorageSetting(
+                OGlobalConfiguration.WAL_SYNC_ON_PAGE_FLUSH.getKey(),
+                Boolean.toString(walSyncOnPageFlush)
+        );
+    }
+
+
+    /**
+     * Sets the interval between flushes of dirty pages from the write cache.
+     *
+     * @param pageFlushIntervalMillis the page flush interval in milliseconds
+     * @return this builder
+     */
+    public EmbeddedServerBuilder setPageFlushIntervalMillis(final int pageFlushIntervalMillis) {
+        if (pageFlushIntervalMillis < 1) {
+            throw new IllegalArgumentException("pageFlushIntervalMillis must be a positive integer");
+        }
+        return setStorageSetting(
+                OGlobalConfiguration.DISK_WRITE_CACHE_PAGE_FLUSH_INTERVAL.getKey(),
+                Integer.toString(pageFlushIntervalMillis)
+        );
+    }
+
+
+    /**
+     * Sets an arbitrary OrientDB configuration value, overriding the value of the storage profile.
+     *
+     * @param key the OrientDB configuration key
+     * @param value the configuration value
+     * @return this builder
+     */
+    public EmbeddedServerBuilder setStorageSetting(final String key, final String value) {
+        Objects.requireNonNull(key, "A key must be provided");
+        Objects.requireNonNull(value, "A value must be provided");
+        if (OGlobalConfiguration.findByKey(key) == null) {
+            throw new IllegalArgumentException("Unknown OrientDB configuration key: " + key);
+        }
+        storageSettings.put(key, value);
+        return this;
+    }
+
+
+    /**
+     * Sets the warm-up run after the server is activated and before {@link #start()} returns.  The warm-up opens
+     * databases as the server user of this builder.
+     *
+     * @param cacheWarmer the warm-up, or null for none
+     * @return this builder
+     */
+    public EmbeddedServerBuilder setCacheWarmer(final CacheWarmer cacheWarmer) {
+        this.cacheWarmer = cacheWarmer;
+        return this;
+    }
+
+
+    /**
+     * Returns the report of the warm-up run by the last {@link #start()}.
+     *
+     * @return the report, or null when no warm-up has run
+     */
+    public WarmUpReport getWarmUpReport() {
+        return warmUpReport;
+    }
+
+
+    /**
+     * Starts the server as a node of a distributed cluster.  The node joins the cluster configured by the Hazelcast
+     * configuration, and replicates databases as configured by the default distributed database configuration.
+     *
+     * @param nodeName the name of the node, unique within the cluster
+     * @param hazelcastConfigurationPath the location of the hazelcast.xml of the cluster
+     * @param distributedDatabaseConfigurationPath the location of the default-distributed-db-config.json
+     * @return this builder
+     */
+    public EmbeddedServerBuilder setDistributed(final String nodeName,
+                                                final String hazelcastConfigurationPath,
+                                                final String distributedDatabaseConfigurationPath) {
+        Objects.requireNonNull(nodeName, "A nodeName must be provided");
+        Objects.requireNonNull(hazelcastConfigurationPath, "A hazelcastConfigurationPath must be provided");
+        Objects.requireNonNull(
+                distributedDatabaseConfigurationPath,
+                "A distributedDatabaseConfigurationPath must be provided"
+        );
+        this.distributedNodeName = nodeName;
+        this.hazelcastConfigurationPath = hazelcastConfigurationPath;
+        this.distributedDatabaseConfigurationPath = distributedDatabaseConfigurationPath;
+        return this;
+    }
+
+
+    /**
+     * Returns the storage and cache settings which will be applied, combining the profile with the overrides.
+     *
+     * @return a map of OrientDB configuration keys to values
+     */
+    public Map<String, String> getEffectiveStorageSettings() {
+        Map<String, String> effectiveSettings = new LinkedHashMap<>(storageProfile.getSettings());
+        effectiveSettings.putAll(storageSettings);
+        return effectiveSettings;
+    }
+
+
+    /**
+     * Returns all of the OrientDB configuration values which will be applied, storage settings followed by network
+     * settings.
+     *
+     * @return a map of OrientDB configuration keys to values
+     */
+    private Map<String, String> getEffectiveSettings() {
+        Map<String, String> effectiveSettings = getEffectiveStorageSettings();
+        effectiveSettings.putAll(networkSettings);
+        return effectiveSettings;
+    }
+
+
+    /**
+     * Returns whether or not any socket options have been configured.
+     *
+     * @return true if the tuned socket factory is needed
+     */
+    private boolean isSocketTuned() {
+        return (socketSendBufferSize > 0) || (socketReceiveBufferSize > 0) || (tcpNoDelay != null);
+    }
+
+
+    /**
+     * Builds the configuration of the socket factory applying the configured socket options.
+     *
+     * @return the socket factory configuration
+     */
+    private OServerSocketFactoryConfiguration buildSocketFactoryConfiguration() {
+        OServerSocketFactoryConfiguration socketFactoryConfig = new OServerSocketFactoryConfiguration(
+                TUNED_SOCKET_NAME,
+                TunedServerSocketFactory.class.getName()
+        );
+        List<OServerParameterConfiguration> parameters = new ArrayList<>();
+        parameters.add(new OServerParameterConfiguration(
+                TunedServerSocketFactory.PARAMETER_SEND_BUFFER_SIZE,
+                Integer.toString(socketSendBufferSize)
+        ));
+        parameters.add(new OServerParameterConfiguration(
+                TunedServerSocketFactory.PARAMETER_RECEIVE_BUFFER_SIZE,
+                Integer.toString(socketReceiveBufferSize)
+        ));
+        if (tcpNoDelay != null) {
+            parameters.add(new OServerParameterConfiguration(
+                    TunedServerSocketFactory.PARAMETER_TCP_NO_DELAY,
+                    tcpNoDelay.toString()
+            ));
+        }
+        socketFactoryConfig.parameters = parameters.toArray(new OServerParameterConfiguration[0]);
+        return socketFactoryConfig;
+    }
+
+
+    /**
+     * Builds the configuration of the plugin which joins the server to its distributed cluster.
+     *
+     * @return the handler configuration
+     */
+    private OServerHandlerConfiguration buildDistributedHandlerConfiguration() {
+        OServerHandlerConfiguration handlerConfig = new OServerHandlerConfiguration();
+        handlerConfig.clazz = DISTRIBUTED_PLUGIN_CLASS_NAME;
+        handlerConfig.parameters = new OServerParameterConfiguration[] {
+                new OServerParameterConfiguration("enabled", "true"),
+                new OServerParameterConfiguration("nodeName", distributedNodeName),
+                new OServerParameterConfiguration("configuration.hazelcast", hazelcastConfigurationPath),
+                new OServerParameterConfiguration("configuration.db.default", distributedDatabaseConfigurationPath)
+        };
+        return handlerConfig;
+    }
+
+
+    /**
+     * Builds the server configuration.
+     *
+     * @return the server configuration
+     */
+    public OServerConfiguration buildConfiguration() {
+        OServerConfiguration serverConfig = new OServerConfiguration();
+        serverConfig.users = new OServerUserConfiguration[] {
+                new OServerUserConfiguration("root", "password", "*"),
+                new OServerUserConfiguration(username, password, "*")
+        };
+        serverConfig.network = new OServerNetworkConfiguration();
+        serverConfig.network.listeners = new ArrayList<>();
+        serverConfig.network.protocols = new ArrayList<>();
+        serverConfig.network.sockets = new ArrayList<>();
+        if (networkEnabled) {
+            String socketName = DEFAULT_SOCKET_NAME;
+            if (isSocketTuned()) {
+                serverConfig.network.sockets.add(buildSocketFactoryConfiguration());
+                socketName = TUNED_SOCKET_NAME;
+            }
+            List<String[]> effectiveListeners = listeners;
+            if (effectiveListeners.isEmpty()) {
+                effectiveListeners = new ArrayList<>();
+                effectiveListeners.add(new String[] {DEFAULT_LISTENER_ADDRESS, portRange});
+            }
+            for (String[] listener : effectiveListeners) {
+                OServerNetworkListenerConfiguration networkListenerConfig = new OServerNetworkListenerConfiguration();
+                networkListenerConfig.ipAddress = listener[0];
+                networkListenerConfig.portRange = listener[1];
+                networkListenerConfig.protocol = BINARY_PROTOCOL_NAME;
+                networkListenerConfig.socket = socketName;
+                serverConfig.network.listeners.add(networkListenerConfig);
+            }
+            OServerNetworkProtocolConfiguration protocolConfig = new OServerNetworkProtocolConfiguration(
+                    BINARY_PROTOCOL_NAME,
+                    "com.orientechnologies.orient.server.network.protocol.binary.ONetworkProtocolBinary"
+            );
+            serverConfig.network.protocols.add(protocolConfig);
+        }
+
+        if (distributedNodeName != null) {
+            serverConfig.handlers = new ArrayList<>();
+            serverConfig.handlers.add(buildDistributedHandlerConfiguration());
+        }
+
+        List<OServerEntryConfiguration> properties = new ArrayList<>();
+        properties.add(new OServerEntryConfiguration("server.cache.staticResources", "false"));
+        properties.add(new OServerEntryConfiguration(SERVER_PROPERTY_DATABASE_PATH, databasePath));
+        properties.add(new OServerEntryConfiguration("plugin.dynamic", "false"));
+        for (Map.Entry<String, String> setting : getEffectiveSettings().entrySet()) {
+            properties.add(new OServerEntryConfiguration(setting.getKey(), setting.getValue()));
+        }
+        serverConfig.properties = properties.toArray(new OServerEntryConfiguration[0]);
+        return serverConfig;
+    }
+
+
+    /**
+     * Applies the storage and network settings to the global configuration of the JVM.
+     *
+     * @return the values replaced, keyed by configuration setting
+     */
+    private Map<OGlobalConfiguration, Object> applyGlobalSettings() {
+        Map<OGlobalConfiguration, Object> previousValues = new LinkedHashMap<>();
+        for (Map.Entry<String, String> setting : getEffectiveSettings().entrySet()) {
+            OGlobalConfiguration configuration = OGlobalConfiguration.findByKey(setting.getKey());
+            previousValues.put(configuration, configuration.getValue());
+            configuration.setValue(setting.getValue());
+        }
+        return previousValues;
+    }
+
+
+    /**
+     * Restores the global configuration values replaced when a server was started.
+     *
+     * @param previousValues the values replaced, keyed by configuration setting
+     */
+    private static void restoreGlobalSettings(final Map<OGlobalConfiguration, Object> previousValues) {
+        for (Map.Entry<OGlobalConfiguration, Object> previousValue : previousValues.entrySet()) {
+            previousValue.getKey().setValue(previousValue.getValue());
+        }
+        logger.debug("Restored {} global configuration values", previousValues.size());
+    }
+
+
+    /**
+     * Applies the storage and network settings, then configures and activates the server and runs the warm-up.
+     *
+     * @return a reference to the embedded server
+     *
+     * @throws Exception when server is unable to be configured or activated
+     */
+    public OServer start() throws Exception {
+        logger.debug("Starting embedded OrientDB server with storage profile {}", storageProfile.toStringValue());
+        OServerConfiguration serverConfig = buildConfiguration();
+        final Map<OGlobalConfiguration, Object> previousValues = applyGlobalSettings();
+        OServer oServer;
+        try {
+            oServer = OServerMain.create(shutdownEngineOnExit);
+            oServer.startup(serverConfig);
+            oServer.activate();
+        } catch (Exception e) {
+            restoreGlobalSettings(previousValues);
+            throw e;
+        }
+        oServer.registerLifecycleListener(new OServerLifecycleListener() {
+            @Override
+            public void onBeforeActivate() {
+                // Applied before the server was started.
+            }
+
+            @Override
+            public void onAfterActivate() {
+                // Applied before the server was started.
+            }
+
+            @Override
+            public void onBeforeDeactivate() {
+                // Restored once the server has stopped.
+            }
+
+            @Override
+            public void onAfterDeactivate() {
+                restoreGlobalSettings(previousValues);
+            }
+        });
+        OrientDBMetrics.getInstance().registerWith(oServer);
+        if (cacheWarmer != null) {
+            warmUpReport = cacheWarmer.warmUp(oServer, username, password);
+        }
+        return oServer;
+    }
+
+
+}
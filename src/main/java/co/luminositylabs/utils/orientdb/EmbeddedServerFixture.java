@@ -0,0 +1,417 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import com.orientechnologies.orient.core.Orient;
+import com.orientechnologies.orient.core.command.OCommandOutputListener;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.tool.ODatabaseExport;
+import com.orientechnologies.orient.core.db.tool.ODatabaseImport;
+import com.orientechnologies.orient.server.OServer;
+import com.orientechnologies.orient.server.network.OServerNetworkListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * A single embedded server per JVM with template databases from which fresh databases are restored.
+ *
+ * <p>Starting a server and building a schema for every test dominates the run time of an integration suite.  The
+ * fixture starts one server, on first use, and builds each template database once: the initializer of the template
+ * runs against an empty database, which is then exported to a compressed in-memory snapshot and dropped.  Every
+ * {@link #createDatabase(String)} restores the snapshot into a new, uniquely named database, so each test gets a
+ * database of its own in the state the initializer left it without running the initializer again.</p>
+ *
+ * <p>The server is configured by the orientdb.server.username, orientdb.server.password and
+ * orientdb.server.remote.portRange system properties, listening on {@link #DEFAULT_PORT_RANGE} unless configured
+ * otherwise so that it does not take the default ports other servers of a suite bind to.  It runs until
+ * {@link #shutdown()} is called or the JVM exits, when a shutdown hook drops the databases created from templates and
+ * shuts the server down.  Test classes sharing the fixture therefore leave it running.  Restored databases keep the
+ * users of the template, including the default admin user.</p>
+ *
+ * <p>Shutting the fixture's server down leaves the OrientDB engine running, but other servers of the JVM shut the
+ * engine down with them, closing every in-memory database.  The fixture is then restarted by the next
+ * {@link #getInstance()}, keeping its templates and plocal databases; in-memory databases created before are
+ * lost.</p>
+ *
+ * @author Phillip Ross
+ */
+public final class EmbeddedServerFixture {
+
+    /** The username of the server user when none is specified. */
+    public static final String DEFAULT_USERNAME = "fixture";
+
+    /** The password of the server user when none is specified. */
+    public static final String DEFAULT_PASSWORD = "fixturepassword";
+
+    /** The port range the server listens on when none is specified, apart from the default OrientDB ports. */
+    public static final String DEFAULT_PORT_RANGE = "7690-7699";
+
+    /** The username of the admin user of restored databases. */
+    public static final String DATABASE_USERNAME = "admin";
+
+    /** The password of the admin user of restored databases. */
+    public static final String DATABASE_PASSWORD = "admin";
+
+    /** The static logger instance. */
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedServerFixture.class);
+
+    /** The hostname remote urls connect to. */
+    private static final String REMOTE_HOSTNAME = "localhost";
+
+    /** The listener receiving the output of exports and imports. */
+    private static final OCommandOutputListener OUTPUT_LISTENER = logger::trace;
+
+    /** The fixture of this JVM, guarded by the class. */
+    private static EmbeddedServerFixture instance;
+
+    /** The embedded server. */
+    private final OServer oServer;
+
+    /** The username of the server user. */
+    private final String username;
+
+    /** The password of the server user. */
+    private final String password;
+
+    /** The absolute location of plocal databases. */
+    private final String databasePath;
+
+    /** The compressed snapshots of the templates, keyed by template name. */
+    private final Map<String, byte[]> snapshots = new ConcurrentHashMap<>();
+
+    /** The engines of the databases created from templates, keyed by database name. */
+    private final Map<String, OrientDBUtil.Engine> databases = new ConcurrentHashMap<>();
+
+    /** The number of databases created from templates, used for database names. */
+    private final AtomicInteger databaseCount = new AtomicInteger();
+
+    /** The hook shutting the fixture down when the JVM exits. */
+    private final Thread shutdownHook = new Thread(this::shutdown, "embedded-server-fixture-shutdown");
+
+
+    /**
+     * Constructor allowing the server and its attributes to be specified.
+     *
+     * @param oServer the embedded server
+     * @param username the username of the server user
+     * @param password the password of the server user
+     * @param databasePath the absolute location of plocal databases
+     */
+    private EmbeddedServerFixture(final OServer oServer,
+                                  final String username,
+                                  final String password,
+                                  final String databasePath) {
+        this.oServer = oServer;
+        this.username = username;
+        this.password = password;
+        this.databasePath = databasePath;
+    }
+
+
+    /**
+     * Returns the fixture of this JVM, starting its server if it is not running and restarting it if the OrientDB
+     * engine has been shut down since it was started.
+     *
+     * @return the fixture
+     *
+     * @throws IllegalStateException when the server cannot be started
+     */
+    public static synchronized EmbeddedServerFixture getInstance() {
+        if ((instance != null) && instance.oServer.isActive() && Orient.instance().isActive()) {
+            return instance;
+        }
+        final EmbeddedServerFixture previous = instance;
+        if (previous != null) {
+            logger.info("Restarting embedded server fixture, the OrientDB engine or its server has been shut down");
+            previous.stop();
+        }
+        final String username = System.getProperty(OrientDBUtil.PROPERTY_NAME_ODB_USERNAME, DEFAULT_USERNAME);
+        final String password = System.getProperty(OrientDBUtil.PROPERTY_NAME_ODB_PASSWORD, DEFAULT_PASSWORD);
+        final String portRange = System.getProperty(
+                OrientDBUtil.PROPERTY_NAME_ODB_SERVER_REMOTE_PORT_RANGE,
+                DEFAULT_PORT_RANGE
+        );
+        final String databasePath = new File(EmbeddedServerBuilder.DEFAULT_DATABASE_PATH).getAbsolutePath();
+        final long startNanos = System.nanoTime();
+        try {
+            final OServer oServer = new EmbeddedServerBuilder(username, password)
+                    .setPortRange(portRange)
+                    .setDatabasePath(databasePath)
+                    .setShutdownEngineOnExit(false)
+                    .start();
+            instance = new EmbeddedServerFixture(oServer, username, password, databasePath);
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to start the embedded server fixture", e);
+        }
+        if (previous != null) {
+            instance.snapshots.putAll(previous.snapshots);
+            for (Map.Entry<String, OrientDBUtil.Engine> database : previous.databases.entrySet()) {
+                if (database.getValue() == OrientDBUtil.Engine.PLOCAL) {
+                    instance.databases.put(database.getKey(), database.getValue());
+                }
+            }
+            instance.databaseCount.set(previous.databaseCount.get());
+        }
+        Runtime.getRuntime().addShutdownHook(instance.shutdownHook);
+        logger.info("Started embedded server fixture in {}ms", (System.nanoTime() - startNanos) / 1_000_000L);
+        return instance;
+    }
+
+
+    /**
+     * Builds a template, unless a template of the same name has already been built.
+     *
+     * @param templateName the name of the template
+     * @param initializer the initializer building the schema and data of the template from an empty database
+     * @return this fixture
+     */
+    public synchronized EmbeddedServerFixture defineTemplate(final String templateName,
+                                                             final Consumer<ODatabaseDocumentTx> initializer) {
+        Objects.requireNonNull(templateName, "A template name must be provided");
+        Objects.requireNonNull(initializer, "An initializer must be provided");
+        if (!snapshots.containsKey(templateName)) {
+            final long startNanos = System.nanoTime();
+            final String templateUrl = getLocalUrl("template_" + templateName, OrientDBUtil.Engine.MEMORY);
+            final ODatabaseDocumentTx db = new ODatabaseDocumentTx(templateUrl).create();
+            try {
+                initializer.accept(db);
+                final ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+                try (OutputStream outputStream = new GZIPOutputStream(snapshot)) {
+                    new ODatabaseExport(db, outputStream, OUTPUT_LISTENER).exportDatabase().close();
+                }
+                snapshots.put(templateName, snapshot.toByteArray());
+            } catch (IOException ioe) {
+                throw new IllegalStateException("Unable to snapshot template " + templateName, ioe);
+            } finally {
+                db.activateOnCurrentThread();
+                db.drop();
+            }
+            logger.info("Built template {} in {}ms, snapshot is {} bytes",
+                    templateName, (System.nanoTime() - startNanos) / 1_000_000L, snapshots.get(templateName).length);
+        }
+        return this;
+    }
+
+
+    /**
+     * Returns whether a template has been built.
+     *
+     * @param templateName the name of the template
+     * @return true if the template has been built
+     */
+    public boolean hasTemplate(final String templateName) {
+        return snapshots.containsKey(templateName);
+    }
+
+
+    /**
+     * Creates an in-memory database restored from a template.
+     *
+     * @param templateName the name of the template
+     * @return the name of the created database
+     */
+    public String createDatabase(final String templateName) {
+        return createDatabase(templateName, OrientDBUtil.Engine.MEMORY);
+    }
+
+
+    /**
+     * Creates a database restored from a template.
+     *
+     * @param templateName the name of the template
+     * @param engine the engine of the database, either memory or plocal
+     * @return the name of the created database
+     */
+    public String createDatabase(final String templateName, final OrientDBUtil.Engine engine) {
+        final byte[] snapshot = snapshots.get(templateName);
+        if (snapshot == null) {
+            throw new IllegalArgumentException("No template named " + templateName + " has been defined");
+        }
+        final String databaseName = templateName + "_" + databaseCount.incrementAndGet();
+        final ODatabaseDocumentTx db = new ODatabaseDocumentTx(getLocalUrl(databaseName, engine)).create();
+        boolean restored = false;
+        try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(snapshot))) {
+            final ODatabaseImport databaseImport = new ODatabaseImport(db, inputStream, OUTPUT_LISTENER);
+            databaseImport.importDatabase();
+            databaseImport.close();
+            restored = true;
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Unable to restore template " + templateName, ioe);
+        } finally {
+            db.activateOnCurrentThread();
+            if (restored) {
+                db.close();
+            } else {
+                db.drop();
+            }
+        }
+        // Only recorded once restored, so that a failed restore is neither handed out nor dropped again.
+        databases.put(databaseName, engine);
+        return databaseName;
+    }
+
+
+    /**
+     * Drops a database created from a template.
+     *
+     * @param databaseName the name of the database
+     */
+    public void dropDatabase(final String databaseName) {
+        final OrientDBUtil.Engine engine = databases.remove(databaseName);
+        if (engine == null) {
+            throw new IllegalArgumentException("No database named " + databaseName + " was created by the fixture");
+        }
+        final ODatabaseDocumentTx db = new ODatabaseDocumentTx(getLocalUrl(databaseName, engine));
+        db.open(DATABASE_USERNAME, DATABASE_PASSWORD);
+        db.drop();
+    }
+
+
+    /**
+     * Returns the in-process url of a database created from a template.
+     *
+     * @param databaseName the name of the database
+     * @return the url
+     */
+    public String getLocalUrl(final String databaseName) {
+        final OrientDBUtil.Engine engine = databases.get(databaseName);
+        if (engine == null) {
+            throw new IllegalArgumentException("No database named " + databaseName + " was created by the fixture");
+        }
+        return getLocalUrl(databaseName, engine);
+    }
+
+
+    /**
+     * Returns the in-process url of a database.
+     *
+     * @param databaseName the name of the database
+     * @param engine the engine of the database, either memory or plocal
+     * @return the url
+     */
+    private String getLocalUrl(final String databaseName, final OrientDBUtil.Engine engine) {
+        if (engine == OrientDBUtil.Engine.MEMORY) {
+            return OrientDBUtil.buildDatabaseUrl(databaseName, engine, null, null, null);
+        }
+        if (engine == OrientDBUtil.Engine.PLOCAL) {
+            return OrientDBUtil.buildDatabaseUrl(databaseName, engine, null, null, databasePath);
+        }
+        throw new IllegalArgumentException("Databases can only be created with the memory or plocal engine");
+    }
+
+
+    /**
+     * Returns the url of a database over the network.
+     *
+     * @param databaseName the name of the database
+     * @return the remote url
+     *
+     * @throws IllegalStateException when the server has no network listener
+     */
+    public String getRemoteUrl(final String databaseName) {
+        return OrientDBUtil.buildDatabaseUrl(
+                databaseName,
+                OrientDBUtil.Engine.REMOTE,
+                REMOTE_HOSTNAME,
+                String.valueOf(getPort()),
+                null
+        );
+    }
+
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return the port
+     *
+     * @throws IllegalStateException when the server has no network listener
+     */
+    public int getPort() {
+        for (OServerNetworkListener listener : oServer.getNetworkListeners()) {
+            return listener.getInboundAddr().getPort();
+        }
+        throw new IllegalStateException("The embedded server fixture has no network listener");
+    }
+
+
+    /**
+     * Returns the embedded server.
+     *
+     * @return the server
+     */
+    public OServer getServer() {
+        return oServer;
+    }
+
+
+    /**
+     * Returns the username of the server user.
+     *
+     * @return the username
+     */
+    public String getUsername() {
+        return username;
+    }
+
+
+    /**
+     * Returns the password of the server user.
+     *
+     * @return the password
+     */
+    public String getPassword() {
+        return password;
+    }
+
+
+    /**
+     * Drops the databases created from templates and shuts down the server.  This is done by a shutdown hook when
+     * the JVM exits, so only a suite needing the server stopped earlier calls it.
+     */
+    public void shutdown() {
+        synchronized (EmbeddedServerFixture.class) {
+            for (String databaseName : databases.keySet()) {
+                try {
+                    dropDatabase(databaseName);
+                } catch (RuntimeException re) {
+                    logger.warn("Unable to drop fixture database {}", databaseName, re);
+                }
+            }
+            snapshots.clear();
+            stop();
+            if (instance == this) {
+                instance = null;
+            }
+        }
+    }
+
+
+    /** Shuts down the server, leaving the databases created from templates in place, and removes the hook. */
+    private void stop() {
+        if (oServer.isActive()) {
+            oServer.shutdown();
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException ise) {
+            // The JVM is exiting, which is what ran this hook.
+            logger.trace("Shutdown hook not removed while the JVM exits", ise);
+        }
+    }
+
+
+}
@@ -0,0 +1,327 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.intent.OIntentMassiveInsert;
+import com.tinkerpop.blueprints.impls.orient.OrientBaseGraph;
+import com.tinkerpop.blueprints.impls.orient.OrientGraph;
+import com.tinkerpop.blueprints.impls.orient.OrientGraphFactory;
+import com.tinkerpop.blueprints.impls.orient.OrientGraphNoTx;
+import com.tinkerpop.blueprints.impls.orient.OrientVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+
+/**
+ * Loads vertices identified by external long ids, then the edges between them.
+ *
+ * <p>The record id of every loaded vertex is kept in a {@link LongRidMap}, so the endpoints of an edge are loaded
+ * directly by record id rather than through an index lookup, without the memory cost of boxed map entries.</p>
+ *
+ * <p>Vertices are created through a non-transactional graph with the massive insert intent declared.  Edges are
+ * created through the same non-transactional graph by default, which is safe as long as nothing else modifies the
+ * loaded vertices during the load, since a failure part way through an edge can leave one of its vertices without
+ * the edge reference.  When that cannot be ruled out, {@link #setTransactionalEdges(boolean)} creates edges in
+ * transactions of {@code batchSize} edges instead.</p>
+ *
+ * <p>A loader is bound to the thread which uses it, as are the graph instances it opens.</p>
+ *
+ * @author Phillip Ross
+ */
+public class GraphBulkLoader implements AutoCloseable {
+
+    /** The default number of edges committed in a single transaction. */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /** The static logger instance. */
+    private static final Logger logger = LoggerFactory.getLogger(GraphBulkLoader.class);
+
+    /** The prefix of a vertex or edge id naming the class of the element. */
+    private static final String CLASS_ID_PREFIX = "class:";
+
+    /** The factory graph instances are obtained from. */
+    private final OrientGraphFactory graphFactory;
+
+    /** The record ids of the loaded vertices, keyed by external id. */
+    private final LongRidMap vertexRids;
+
+    /** The vertex and edge classes known to exist. */
+    private final Set<String> knownClasses = new HashSet<>();
+
+    /** The number of edges committed in a single transaction. */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /** Whether edges are created in transactions. */
+    private boolean transactionalEdges;
+
+    /** The non-transactional graph, opened on first use. */
+    private OrientGraphNoTx noTxGraph;
+
+    /** The transactional graph used for edges, opened on first use. */
+    private OrientGraph txGraph;
+
+    /** The number of edges in the open transaction. */
+    private int pendingEdges;
+
+    /** The number of vertices loaded. */
+    private long vertexCount;
+
+    /** The number of edges loaded. */
+    private long edgeCount;
+
+
+    /**
+     * Constructor allowing the graph factory to be specified.
+     *
+     * @param graphFactory the factory graph instances are obtained from
+     */
+    public GraphBulkLoader(final OrientGraphFactory graphFactory) {
+        this(graphFactory, LongRidMap.DEFAULT_EXPECTED_SIZE);
+    }
+
+
+    /**
+     * Constructor allowing the graph factory and expected number of vertices to be specified.
+     *
+     * @param graphFactory the factory graph instances are obtained from
+     * @param expectedVertexCount the number of vertices the id map is sized for
+     */
+    public GraphBulkLoader(final OrientGraphFactory graphFactory, final int expectedVertexCount) {
+        Objects.requireNonNull(graphFactory, "A graph factory must be provided");
+        this.graphFactory = graphFactory;
+        this.vertexRids = new LongRidMap(expectedVertexCount);
+    }
+
+
+    /**
+     * Sets the number of edges committed in a single transaction when edges are transactional.
+     *
+     * @param batchSize the batch size
+     * @return this loader
+     */
+    public GraphBulkLoader setBatchSize(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+
+    /**
+     * Sets whether edges are created in transactions of {@code batchSize} edges instead of through the
+     * non-transactional graph.
+     *
+     * @param transactionalEdges whether edges are transactional
+     * @return this loader
+     */
+    public GraphBulkLoader setTransactionalEdges(final boolean transactionalEdges) {
+        if ((txGraph != null) || (edgeCount > 0)) {
+            throw new IllegalStateException("Edge transactions cannot be changed once edges have been loaded");
+        }
+        this.transactionalEdges = transactionalEdges;
+        return this;
+    }
+
+
+    /**
+     * Returns the non-transactional graph, opening it with the massive insert intent on first use.
+     *
+     * @return the non-transactional graph
+     */
+    private OrientGraphNoTx getNoTxGraph() {
+        if (noTxGraph == null) {
+            noTxGraph = graphFactory.getNoTx();
+            noTxGraph.declareIntent(new OIntentMassiveInsert());
+        }
+        noTxGraph.makeActive();
+        return noTxGraph;
+    }
+
+
+    /**
+     * Returns the graph edges are created through.
+     *
+     * @return the edge graph
+     */
+    private OrientBaseGraph getEdgeGraph() {
+        if (!transactionalEdges) {
+            return getNoTxGraph();
+        }
+        if (txGraph == null) {
+            txGraph = graphFactory.getTx();
+        }
+        txGraph.makeActive();
+        return txGraph;
+    }
+
+
+    /**
+     * Creates a vertex and records its record id under an external id.
+     *
+     * @param externalId the external id of the vertex
+     * @param className the name of the vertex class, created when it does not exist
+     * @param properties the properties of the vertex, or null for none
+     * @return the record id of the vertex
+     */
+    public ORID addVertex(final long externalId, final String className, final Map<String, Object> properties) {
+        Objects.requireNonNull(className, "A vertex class name must be provided");
+        if (vertexRids.containsKey(externalId)) {
+            throw new IllegalArgumentException("A vertex was already loaded with external id " + externalId);
+        }
+        final OrientGraphNoTx graph = getNoTxGraph();
+        if (knownClasses.add(className) && (graph.getVertexType(className) == null)) {
+            graph.createVertexType(className);
+        }
+        Map<String, Object> vertexProperties = properties;
+        if (vertexProperties == null) {
+            vertexProperties = Collections.emptyMap();
+        }
+        final OrientVertex vertex = graph.addVertex(CLASS_ID_PREFIX + className, vertexProperties);
+        final ORID rid = vertex.getIdentity();
+        vertexRids.put(externalId, rid);
+        vertexCount++;
+        return rid;
+    }
+
+
+    /**
+     * Creates an edge between two previously loaded vertices.
+     *
+     * @param fromExternalId the external id of the outgoing vertex
+     * @param toExternalId the external id of the incoming vertex
+     * @param label the label of the edge, which is also its class, created when it does not exist
+     * @param properties the properties of the edge, or null for none
+     */
+    public void addEdge(final long fromExternalId,
+                        final long toExternalId,
+                        final String label,
+                        final Map<String, Object> properties) {
+        Objects.requireNonNull(label, "An edge label must be provided");
+        final ORID fromRid = getRequiredRid(fromExternalId);
+        final ORID toRid = getRequiredRid(toExternalId);
+        if (knownClasses.add(label)) {
+            final OrientGraphNoTx schemaGraph = getNoTxGraph();
+            if (schemaGraph.getEdgeType(label) == null) {
+                schemaGraph.createEdgeType(label);
+            }
+        }
+        final OrientBaseGraph graph = getEdgeGraph();
+        final OrientVertex fromVertex = graph.getVertex(fromRid);
+        final OrientVertex toVertex = graph.getVertex(toRid);
+        fromVertex.addEdge(label, toVertex, label, null, toFields(properties));
+        edgeCount++;
+        if (transactionalEdges) {
+            pendingEdges++;
+            if (pendingEdges >= batchSize) {
+                flush();
+            }
+        }
+    }
+
+
+    /**
+     * Flattens properties into the alternating names and values expected by the graph.
+     *
+     * @param properties the properties, or null for none
+     * @return the names and values
+     */
+    private static Object[] toFields(final Map<String, Object> properties) {
+        if (properties == null) {
+            return new Object[0];
+        }
+        final Object[] fields = new Object[properties.size() * 2];
+        int i = 0;
+        for (Map.Entry<String, Object> property : properties.entrySet()) {
+            fields[i++] = property.getKey();
+            fields[i++] = property.getValue();
+        }
+        return fields;
+    }
+
+
+    /**
+     * Returns the record id of a loaded vertex.
+     *
+     * @param externalId the external id of the vertex
+     * @return the record id
+     */
+    private ORID getRequiredRid(final long externalId) {
+        final ORID rid = vertexRids.get(externalId);
+        if (rid == null) {
+            throw new IllegalArgumentException("No vertex was loaded with external id " + externalId);
+        }
+        return rid;
+    }
+
+
+    /**
+     * Returns the record id of a loaded vertex.
+     *
+     * @param externalId the external id of the vertex
+     * @return the record id, or null when no vertex was loaded with the external id
+     */
+    public ORID getRid(final long externalId) {
+        return vertexRids.get(externalId);
+    }
+
+
+    /** Commits the edges of the open transaction, if any. */
+    public void flush() {
+        if ((txGraph != null) && (pendingEdges > 0)) {
+            txGraph.makeActive();
+            OrientDBMetrics.getInstance().timeCommit(txGraph::commit);
+            logger.debug("Committed {} edges", pendingEdges);
+            pendingEdges = 0;
+        }
+    }
+
+
+    /**
+     * Returns the number of vertices loaded.
+     *
+     * @return the vertex count
+     */
+    public long getVertexCount() {
+        return vertexCount;
+    }
+
+
+    /**
+     * Returns the number of edges loaded, including edges of a transaction which has not been committed yet.
+     *
+     * @return the edge count
+     */
+    public long getEdgeCount() {
+        return edgeCount;
+    }
+
+
+    /** Commits outstanding edges and shuts down the graph instances of the loader. */
+    @Override
+    public void close() {
+        try {
+            flush();
+        } finally {
+            if (txGraph != null) {
+                txGraph.makeActive();
+                txGraph.shutdown();
+                txGraph = null;
+            }
+            if (noTxGraph != null) {
+                noTxGraph.makeActive();
+                noTxGraph.declareIntent(null);
+                noTxGraph.shutdown();
+                noTxGraph = null;
+            }
+        }
+    }
+
+
+}
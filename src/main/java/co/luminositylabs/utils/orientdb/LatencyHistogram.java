@@ -0,0 +1,199 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A lock-free histogram of latencies in nanoseconds with bounded relative error.
+ *
+ * <p>Values are counted in log-linear buckets, in the manner of HdrHistogram: every power of two is split into
+ * sixteen equal sub-buckets, so a recorded value is reported with a relative error of at most one sixteenth while
+ * the whole range of a long needs fewer than a thousand counters.  Recording is a single atomic increment of a
+ * bucket plus updates of the count, total and maximum, and may be done from any number of threads.  Percentiles
+ * read while values are recorded are approximate.</p>
+ *
+ * @author Phillip Ross
+ */
+public final class LatencyHistogram {
+
+    /** The number of bits of a value kept below its highest set bit. */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /** The number of sub-buckets of each power of two. */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /** The number of buckets covering every non-negative long. */
+    private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    /** The upper bound of percentages. */
+    private static final double MAX_PERCENTILE = 100d;
+
+    /** The number of values recorded in each bucket. */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    /** The number of values recorded. */
+    private final LongAdder count = new LongAdder();
+
+    /** The sum of the values recorded. */
+    private final LongAdder total = new LongAdder();
+
+    /** The largest value recorded. */
+    private final AtomicLong max = new AtomicLong();
+
+
+    /**
+     * Records a value.  Negative values are recorded as zero.
+     *
+     * @param valueNanos the value in nanoseconds
+     */
+    public void record(final long valueNanos) {
+        final long value = Math.max(valueNanos, 0L);
+        buckets.incrementAndGet(bucketIndex(value));
+        count.increment();
+        total.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+
+    /**
+     * Returns the sum of the values recorded.
+     *
+     * @return the total in nanoseconds
+     */
+    public long getTotalNanos() {
+        return total.sum();
+    }
+
+
+    /**
+     * Returns the largest value recorded.
+     *
+     * @return the maximum in nanoseconds, or zero when nothing has been recorded
+     */
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+
+    /**
+     * Returns the mean of the values recorded.
+     *
+     * @return the mean in nanoseconds, or zero when nothing has been recorded
+     */
+    public long getMeanNanos() {
+        final long recorded = count.sum();
+        if (recorded == 0) {
+            return 0;
+        }
+        return total.sum() / recorded;
+    }
+
+
+    /**
+     * Returns the value below or at which a percentage of the recorded values fall, as the highest value of the
+     * bucket the percentile is in.
+     *
+     * @param percentile the percentage, from 0 to 100
+     * @return the value in nanoseconds, or zero when nothing has been recorded
+     */
+    public long getValueAtPercentile(final double percentile) {
+        if ((percentile < 0) || (percentile > MAX_PERCENTILE)) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        long recorded = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            recorded += buckets.get(i);
+        }
+        if (recorded == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1L, (long) Math.ceil(recorded * percentile / MAX_PERCENTILE));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketHighestValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+
+    /**
+     * Adds the values recorded by another histogram to this one.
+     *
+     * @param other the other histogram
+     */
+    public void add(final LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            final long bucketCount = other.buckets.get(i);
+            if (bucketCount != 0) {
+                buckets.addAndGet(i, bucketCount);
+            }
+        }
+        count.add(other.count.sum());
+        total.add(other.total.sum());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+
+    /** Discards the values recorded.  Values recorded concurrently with a reset may be partially discarded. */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0L);
+        }
+        count.reset();
+        total.reset();
+        max.set(0L);
+    }
+
+
+    /**
+     * Returns the bucket a value is counted in.
+     *
+     * @param value the non-negative value
+     * @return the index of the bucket
+     */
+    static int bucketIndex(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+        return ((shift + 1) << SUB_BUCKET_BITS) + subBucket;
+    }
+
+
+    /**
+     * Returns the highest value counted in a bucket.
+     *
+     * @param index the index of the bucket
+     * @return the highest value
+     */
+    static long bucketHighestValue(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        final long lowest = ((long) (SUB_BUCKET_COUNT + (index & (SUB_BUCKET_COUNT - 1)))) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+
+}
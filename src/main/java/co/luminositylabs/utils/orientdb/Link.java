@@ -0,0 +1,22 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * Marks a field mapped by {@link DocumentMapper} whose objects are stored as documents of their own and linked to,
+ * rather than embedded in the document of the object holding them.  On a collection or map field, the elements are
+ * linked.
+ *
+ * @author Phillip Ross
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Link {
+}
@@ -0,0 +1,190 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * A pool spreading sessions across the servers of a {@link RemoteDatabaseLocator}.
+ *
+ * <p>Each address has its own {@link OrientDBPool} connected to that address alone, so that a failure can be
+ * attributed to the address it occurred on.  When acquiring a session from an address fails, the address is marked
+ * as failed and the next address is tried immediately, rather than waiting for the OrientDB client to work through
+ * a multi-address url.  The pool of an address is only created once a short probe has connected to it, so that an
+ * unreachable address fails over within the probe timeout of the locator rather than the connect timeout of the
+ * OrientDB client.  A server failing under a session already acquired is reported with
+ * {@link #reportFailure(PooledSession)}.</p>
+ *
+ * @author Phillip Ross
+ */
+public class LoadBalancedPool implements AutoCloseable {
+
+    /** The static logger instance. */
+    private static final Logger logger = LoggerFactory.getLogger(LoadBalancedPool.class);
+
+    /** The locator of the servers hosting the database. */
+    private final RemoteDatabaseLocator locator;
+
+    /** The strategy for selecting the address of a new session. */
+    private final RemoteDatabaseLocator.Strategy strategy;
+
+    /** The username used for connections. */
+    private final String username;
+
+    /** The password used for connections. */
+    private final String password;
+
+    /** The maximum number of connections in a single pool partition. */
+    private final int maxPartitionSize;
+
+    /** The maximum number of connections to each address, a non-positive value meaning unbounded. */
+    private final int maxSizePerAddress;
+
+    /** The maximum time in milliseconds to wait when acquiring a connection. */
+    private final long acquireTimeoutMillis;
+
+    /** The pool of each address. */
+    private final Map<RemoteAddress, OrientDBPool> pools = new ConcurrentHashMap<>();
+
+
+    /**
+     * Constructor allowing the locator, strategy, credentials and sizing attributes to be specified.
+     *
+     * @param locator the locator of the servers hosting the database
+     * @param strategy the strategy for selecting the address of a new session
+     * @param username the username used for connections
+     * @param password the password used for connections
+     * @param maxPartitionSize the maximum number of connections in a single pool partition
+     * @param maxSizePerAddress the maximum number of connections to each address, non-positive meaning unbounded
+     * @param acquireTimeoutMillis the maximum time in milliseconds to wait when acquiring a connection
+     */
+    public LoadBalancedPool(final RemoteDatabaseLocator locator,
+                            final RemoteDatabaseLocator.Strategy strategy,
+                            final String username,
+                            final String password,
+                            final int maxPartitionSize,
+                            final int maxSizePerAddress,
+                            final long acquireTimeoutMillis) {
+        Objects.requireNonNull(locator, "A locator must be provided");
+        Objects.requireNonNull(strategy, "A strategy must be provided");
+        Objects.requireNonNull(username, "A username must be provided");
+        Objects.requireNonNull(password, "A password must be provided");
+        this.locator = locator;
+        this.strategy = strategy;
+        this.username = username;
+        this.password = password;
+        this.maxPartitionSize = maxPartitionSize;
+        this.maxSizePerAddress = maxSizePerAddress;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+    }
+
+
+    /**
+     * Acquires a session from the address selected by the strategy, failing over to other addresses when the
+     * session cannot be established.
+     *
+     * @return the acquired session
+     *
+     * @throws IllegalStateException when no address could provide a session
+     */
+    public PooledSession acquire() {
+        RuntimeException lastFailure = null;
+        for (int attempt = 0; attempt < locator.getAddresses().size(); attempt++) {
+            final RemoteAddress address = locator.select(strategy, this::getActiveSessions);
+            if (pools.containsKey(address) || locator.probe(address)) {
+                try {
+                    return getPool(address).acquire();
+                } catch (IllegalStateException ise) {
+                    // The address is reachable but its pool is exhausted or closed, so do not mark it as failed.
+                    lastFailure = ise;
+                } catch (RuntimeException re) {
+                    logger.warn("Unable to acquire a session from {}, failing over", address, re);
+                    locator.markFailed(address);
+                    lastFailure = re;
+                }
+            } else {
+                logger.warn("Unable to connect to {}, failing over", address);
+                lastFailure = new IllegalStateException("Unable to connect to " + address);
+            }
+        }
+        throw new IllegalStateException("Unable to acquire a session from any address", lastFailure);
+    }
+
+
+    /**
+     * Reports that the server of a session acquired from this pool failed, for instance when an operation on the
+     * session failed with a network error, excluding its address from selection for the cooldown of the locator.
+     *
+     * @param session the session
+     */
+    public void reportFailure(final PooledSession session) {
+        Objects.requireNonNull(session, "A session must be provided");
+        for (Map.Entry<RemoteAddress, OrientDBPool> pool : pools.entrySet()) {
+            if (pool.getValue() == session.getPool()) {
+                logger.warn("Session of {} failed, excluding the address", pool.getKey());
+                locator.markFailed(pool.getKey());
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Returns the pool of an address, creating it if it does not exist.
+     *
+     * @param address the address
+     * @return the pool of the address
+     */
+    private OrientDBPool getPool(final RemoteAddress address) {
+        return pools.computeIfAbsent(address, key -> new OrientDBPool(
+                locator.getSingleAddressDatabaseUrl(key),
+                username,
+                password,
+                maxPartitionSize,
+                maxSizePerAddress,
+                acquireTimeoutMillis
+        ));
+    }
+
+
+    /**
+     * Returns the number of active sessions of an address.
+     *
+     * @param address the address
+     * @return the number of active sessions
+     */
+    public int getActiveSessions(final RemoteAddress address) {
+        final OrientDBPool pool = pools.get(address);
+        if (pool == null) {
+            return 0;
+        }
+        return pool.getActiveSessions();
+    }
+
+
+    /**
+     * Returns the locator of the servers hosting the database.
+     *
+     * @return the locator
+     */
+    public RemoteDatabaseLocator getLocator() {
+        return locator;
+    }
+
+
+    /** Closes the pool of every address. */
+    @Override
+    public void close() {
+        for (OrientDBPool pool : pools.values()) {
+            pool.close();
+        }
+        pools.clear();
+    }
+
+
+}
@@ -0,0 +1,246 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.id.ORecordId;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+
+/**
+ * A map from long keys to record ids held in primitive arrays.
+ *
+ * <p>Entries are stored by open addressing with linear probing in three parallel arrays of keys, cluster ids and
+ * cluster positions, taking 20 bytes per slot instead of the boxed key, record id and entry objects of a
+ * {@code HashMap<Long, ORID>}.  Only persistent record ids, whose cluster id is not negative, can be stored.  Entries
+ * cannot be removed.  The map is not thread-safe.</p>
+ *
+ * @author Phillip Ross
+ */
+public final class LongRidMap {
+
+    /** The default number of entries the map is sized for. */
+    public static final int DEFAULT_EXPECTED_SIZE = 1024;
+
+    /** The fraction of slots which may be used before the arrays are grown. */
+    private static final double LOAD_FACTOR = 0.6d;
+
+    /** The largest number of slots the arrays can have. */
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    /** The cluster id marking an empty slot. */
+    private static final int EMPTY = -1;
+
+    /** The multiplier of the 64-bit hash finalizer. */
+    private static final long HASH_MULTIPLIER_1 = 0xff51afd7ed558ccdL;
+
+    /** The second multiplier of the 64-bit hash finalizer. */
+    private static final long HASH_MULTIPLIER_2 = 0xc4ceb9fe1a85ec53L;
+
+    /** The shift of the 64-bit hash finalizer. */
+    private static final int HASH_SHIFT = 33;
+
+    /** The keys of the slots. */
+    private long[] keys;
+
+    /** The cluster ids of the slots, {@link #EMPTY} for empty slots. */
+    private int[] clusterIds;
+
+    /** The cluster positions of the slots. */
+    private long[] clusterPositions;
+
+    /** The number of entries. */
+    private int size;
+
+    /** The number of entries at which the arrays are grown. */
+    private int resizeThreshold;
+
+
+    /** Default constructor. */
+    public LongRidMap() {
+        this(DEFAULT_EXPECTED_SIZE);
+    }
+
+
+    /**
+     * Constructor allowing the number of entries the map is sized for to be specified.
+     *
+     * @param expectedSize the number of entries the map is sized for
+     */
+    public LongRidMap(final int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expectedSize must not be negative");
+        }
+        allocate(capacityFor(expectedSize));
+    }
+
+
+    /**
+     * Returns the number of slots needed to hold a number of entries, as a power of two.
+     *
+     * @param entries the number of entries
+     * @return the number of slots
+     */
+    private static int capacityFor(final int entries) {
+        final long needed = (long) Math.ceil(Math.max(entries, 1) / LOAD_FACTOR);
+        if (needed > MAXIMUM_CAPACITY) {
+            throw new IllegalStateException("A LongRidMap cannot hold " + entries + " entries");
+        }
+        return Math.max(2, Integer.highestOneBit((int) needed - 1) << 1);
+    }
+
+
+    /**
+     * Replaces the arrays with empty arrays of a number of slots.
+     *
+     * @param capacity the number of slots
+     */
+    private void allocate(final int capacity) {
+        keys = new long[capacity];
+        clusterIds = new int[capacity];
+        clusterPositions = new long[capacity];
+        Arrays.fill(clusterIds, EMPTY);
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+
+    /**
+     * Returns the slot a key is first looked for in.
+     *
+     * @param key the key
+     * @param mask the number of slots minus one
+     * @return the slot index
+     */
+    private static int slotOf(final long key, final int mask) {
+        long hash = key;
+        hash ^= hash >>> HASH_SHIFT;
+        hash *= HASH_MULTIPLIER_1;
+        hash ^= hash >>> HASH_SHIFT;
+        hash *= HASH_MULTIPLIER_2;
+        hash ^= hash >>> HASH_SHIFT;
+        return (int) hash & mask;
+    }
+
+
+    /**
+     * Returns the slot holding a key, or the empty slot it would be stored in.
+     *
+     * @param key the key
+     * @return the slot index
+     */
+    private int find(final long key) {
+        final int mask = keys.length - 1;
+        int slot = slotOf(key, mask);
+        while ((clusterIds[slot] != EMPTY) && (keys[slot] != key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+
+    /**
+     * Associates a record id with a key, replacing any record id already associated with it.
+     *
+     * @param key the key
+     * @param rid the persistent record id
+     */
+    public void put(final long key, final ORID rid) {
+        Objects.requireNonNull(rid, "A record id must be provided");
+        put(key, rid.getClusterId(), rid.getClusterPosition());
+    }
+
+
+    /**
+     * Associates a record id, given as its cluster id and position, with a key, replacing any record id already
+     * associated with it.
+     *
+     * @param key the key
+     * @param clusterId the cluster id of the record
+     * @param clusterPosition the cluster position of the record
+     */
+    public void put(final long key, final int clusterId, final long clusterPosition) {
+        if (clusterId < 0) {
+            throw new IllegalArgumentException("Only persistent record ids can be stored, cluster id was " + clusterId);
+        }
+        int slot = find(key);
+        if (clusterIds[slot] == EMPTY) {
+            if (size >= resizeThreshold) {
+                grow();
+                slot = find(key);
+            }
+            size++;
+        }
+        keys[slot] = key;
+        clusterIds[slot] = clusterId;
+        clusterPositions[slot] = clusterPosition;
+    }
+
+
+    /**
+     * Returns the record id associated with a key.
+     *
+     * @param key the key
+     * @return the record id, or null when the key has no record id
+     */
+    public ORID get(final long key) {
+        final int slot = find(key);
+        if (clusterIds[slot] == EMPTY) {
+            return null;
+        }
+        return new ORecordId(clusterIds[slot], clusterPositions[slot]);
+    }
+
+
+    /**
+     * Returns whether a record id is associated with a key.
+     *
+     * @param key the key
+     * @return true if the key has a record id
+     */
+    public boolean containsKey(final long key) {
+        return clusterIds[find(key)] != EMPTY;
+    }
+
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Returns the number of slots.
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return keys.length;
+    }
+
+
+    /** Doubles the number of slots, rehashing every entry. */
+    private void grow() {
+        if (keys.length >= MAXIMUM_CAPACITY) {
+            throw new IllegalStateException("A LongRidMap cannot hold more than " + size + " entries");
+        }
+        final long[] oldKeys = keys;
+        final int[] oldClusterIds = clusterIds;
+        final long[] oldClusterPositions = clusterPositions;
+        allocate(oldKeys.length << 1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldClusterIds[i] != EMPTY) {
+                final int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                clusterIds[slot] = oldClusterIds[i];
+                clusterPositions[slot] = oldClusterPositions[i];
+            }
+        }
+    }
+
+
+}
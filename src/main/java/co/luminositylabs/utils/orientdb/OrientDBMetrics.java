@@ -0,0 +1,394 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import com.orientechnologies.orient.server.OServer;
+import com.orientechnologies.orient.server.OServerLifecycleListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Counters and latency histograms of the hot paths of this library, shared by every pool, query and commit in the
+ * JVM.
+ *
+ * <p>Pool acquisitions, streamed queries, the commits of the bulk loaders and write coalescer, and the probes of
+ * remote addresses record into the single instance returned by {@link #getInstance()}, which applications may read
+ * directly and record their own measurements into.  Recording is lock-free.  Servers started by
+ * {@link EmbeddedServerBuilder} publish the instance over JMX as {@value #OBJECT_NAME} while they are active; on
+ * the client side {@link #registerMBean()} publishes it without a server.</p>
+ *
+ * @author Phillip Ross
+ */
+public final class OrientDBMetrics implements OrientDBMetricsMXBean {
+
+    /** The JMX object name the metrics are published under. */
+    public static final String OBJECT_NAME = "co.luminositylabs.utils.orientdb:type=Metrics";
+
+    /** The static logger instance. */
+    private static final Logger logger = LoggerFactory.getLogger(OrientDBMetrics.class);
+
+    /** The percentile published over JMX. */
+    private static final double PUBLISHED_PERCENTILE = 99d;
+
+    /** The metrics of this JVM. */
+    private static final OrientDBMetrics INSTANCE = new OrientDBMetrics();
+
+    /** The time waited to acquire pool sessions. */
+    private final LatencyHistogram poolAcquireLatency = new LatencyHistogram();
+
+    /** The number of pool acquisitions which timed out. */
+    private final LongAdder poolAcquireTimeouts = new LongAdder();
+
+    /** The execution time of queries. */
+    private final LatencyHistogram queryLatency = new LatencyHistogram();
+
+    /** The number of queries which failed. */
+    private final LongAdder queryFailures = new LongAdder();
+
+    /** The time taken by commits. */
+    private final LatencyHistogram commitLatency = new LatencyHistogram();
+
+    /** The number of commits which failed. */
+    private final LongAdder commitFailures = new LongAdder();
+
+    /** The time taken to connect to remote addresses when probing them. */
+    private final LatencyHistogram probeLatency = new LatencyHistogram();
+
+    /** The number of registrations of the MBean which have not been unregistered, guarded by this instance. */
+    private int registrationCount;
+
+
+    /** Non-public default constructor. */
+    private OrientDBMetrics() {
+    }
+
+
+    /**
+     * Returns the metrics of this JVM.
+     *
+     * @return the metrics
+     */
+    public static OrientDBMetrics getInstance() {
+        return INSTANCE;
+    }
+
+
+    /**
+     * Records the time waited to acquire a pool session.
+     *
+     * @param waitNanos the wait in nanoseconds
+     */
+    public void recordPoolAcquire(final long waitNanos) {
+        poolAcquireLatency.record(waitNanos);
+    }
+
+
+    /** Records a pool acquisition which timed out. */
+    public void recordPoolAcquireTimeout() {
+        poolAcquireTimeouts.increment();
+    }
+
+
+    /**
+     * Records the execution time of a query.
+     *
+     * @param durationNanos the duration in nanoseconds
+     * @param succeeded whether the query succeeded
+     */
+    public void recordQuery(final long durationNanos, final boolean succeeded) {
+        queryLatency.record(durationNanos);
+        if (!succeeded) {
+            queryFailures.increment();
+        }
+    }
+
+
+    /**
+     * Records the time taken by a commit.
+     *
+     * @param durationNanos the duration in nanoseconds
+     * @param succeeded whether the commit succeeded
+     */
+    public void recordCommit(final long durationNanos, final boolean succeeded) {
+        commitLatency.record(durationNanos);
+        if (!succeeded) {
+            commitFailures.increment();
+        }
+    }
+
+
+    /**
+     * Records the time taken to connect to a remote address when probing it.
+     *
+     * @param durationNanos the duration in nanoseconds
+     */
+    public void recordProbe(final long durationNanos) {
+        probeLatency.record(durationNanos);
+    }
+
+
+    /**
+     * Runs a commit, recording its duration and whether it succeeded.
+     *
+     * @param commit the commit
+     */
+    void timeCommit(final Runnable commit) {
+        final long startNanos = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            commit.run();
+            succeeded = true;
+        } finally {
+            recordCommit(System.nanoTime() - startNanos, succeeded);
+        }
+    }
+
+
+    /**
+     * Returns the histogram of the time waited to acquire pool sessions.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getPoolAcquireLatency() {
+        return poolAcquireLatency;
+    }
+
+
+    /**
+     * Returns the histogram of query execution times.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getQueryLatency() {
+        return queryLatency;
+    }
+
+
+    /**
+     * Returns the histogram of commit times.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getCommitLatency() {
+        return commitLatency;
+    }
+
+
+    /**
+     * Returns the histogram of the connect times of remote address probes.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getProbeLatency() {
+        return probeLatency;
+    }
+
+
+    @Override
+    public long getPoolAcquireCount() {
+        return poolAcquireLatency.getCount();
+    }
+
+
+    @Override
+    public long getPoolAcquireTimeoutCount() {
+        return poolAcquireTimeouts.sum();
+    }
+
+
+    @Override
+    public long getPoolAcquireMeanNanos() {
+        return poolAcquireLatency.getMeanNanos();
+    }
+
+
+    @Override
+    public long getPoolAcquireP99Nanos() {
+        return poolAcquireLatency.getValueAtPercentile(PUBLISHED_PERCENTILE);
+    }
+
+
+    @Override
+    public long getPoolAcquireMaxNanos() {
+        return poolAcquireLatency.getMaxNanos();
+    }
+
+
+    @Override
+    public long getQueryCount() {
+        return queryLatency.getCount();
+    }
+
+
+    @Override
+    public long getQueryFailureCount() {
+        return queryFailures.sum();
+    }
+
+
+    @Override
+    public long getQueryMeanNanos() {
+        return queryLatency.getMeanNanos();
+    }
+
+
+    @Override
+    public long getQueryP99Nanos() {
+        return queryLatency.getValueAtPercentile(PUBLISHED_PERCENTILE);
+    }
+
+
+    @Override
+    public long getQueryMaxNanos() {
+        return queryLatency.getMaxNanos();
+    }
+
+
+    @Override
+    public long getCommitCount() {
+        return commitLatency.getCount();
+    }
+
+
+    @Override
+    public long getCommitFailureCount() {
+        return commitFailures.sum();
+    }
+
+
+    @Override
+    public long getCommitMeanNanos() {
+        return commitLatency.getMeanNanos();
+    }
+
+
+    @Override
+    public long getCommitP99Nanos() {
+        return commitLatency.getValueAtPercentile(PUBLISHED_PERCENTILE);
+    }
+
+
+    @Override
+    public long getCommitMaxNanos() {
+        return commitLatency.getMaxNanos();
+    }
+
+
+    @Override
+    public long getProbeCount() {
+        return probeLatency.getCount();
+    }
+
+
+    @Override
+    public long getProbeMeanNanos() {
+        return probeLatency.getMeanNanos();
+    }
+
+
+    @Override
+    public long getProbeP99Nanos() {
+        return probeLatency.getValueAtPercentile(PUBLISHED_PERCENTILE);
+    }
+
+
+    @Override
+    public long getProbeMaxNanos() {
+        return probeLatency.getMaxNanos();
+    }
+
+
+    @Override
+    public void reset() {
+        poolAcquireLatency.reset();
+        poolAcquireTimeouts.reset();
+        queryLatency.reset();
+        queryFailures.reset();
+        commitLatency.reset();
+        commitFailures.reset();
+        probeLatency.reset();
+    }
+
+
+    /**
+     * Publishes the metrics over JMX.  Registrations are counted, and the MBean stays registered until every
+     * registration has been matched by {@link #unregisterMBean()}.
+     *
+     * @throws IllegalStateException when the MBean cannot be registered
+     */
+    public synchronized void registerMBean() {
+        if (registrationCount == 0) {
+            try {
+                final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+                final ObjectName objectName = new ObjectName(OBJECT_NAME);
+                if (!mBeanServer.isRegistered(objectName)) {
+                    mBeanServer.registerMBean(this, objectName);
+                }
+            } catch (JMException jme) {
+                throw new IllegalStateException("Unable to register " + OBJECT_NAME, jme);
+            }
+            logger.debug("Registered {}", OBJECT_NAME);
+        }
+        registrationCount++;
+    }
+
+
+    /** Matches a registration, unregistering the MBean once no registration remains. */
+    public synchronized void unregisterMBean() {
+        if (registrationCount == 0) {
+            return;
+        }
+        registrationCount--;
+        if (registrationCount == 0) {
+            try {
+                final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+                final ObjectName objectName = new ObjectName(OBJECT_NAME);
+                if (mBeanServer.isRegistered(objectName)) {
+                    mBeanServer.unregisterMBean(objectName);
+                }
+            } catch (JMException jme) {
+                logger.warn("Unable to unregister {}", OBJECT_NAME, jme);
+            }
+            logger.debug("Unregistered {}", OBJECT_NAME);
+        }
+    }
+
+
+    /**
+     * Publishes the metrics over JMX while a server is active, unregistering them when it is deactivated.
+     *
+     * @param oServer the server
+     */
+    public void registerWith(final OServer oServer) {
+        registerMBean();
+        oServer.registerLifecycleListener(new OServerLifecycleListener() {
+            @Override
+            public void onBeforeActivate() {
+                // Registered when the listener is added.
+            }
+
+            @Override
+            public void onAfterActivate() {
+                // Registered when the listener is added.
+            }
+
+            @Override
+            public void onBeforeDeactivate() {
+                // Unregistered once the server has stopped.
+            }
+
+            @Override
+            public void onAfterDeactivate() {
+                unregisterMBean();
+            }
+        });
+    }
+
+
+}
@@ -0,0 +1,152 @@
+package co.luminositylabs.utils.orientdb;
+
+
+/**
+ * The management interface of {@link OrientDBMetrics}, published as
+ * {@value OrientDBMetrics#OBJECT_NAME}.  Latencies are in nanoseconds.
+ *
+ * <p>The probe latencies are the times taken to open a TCP connection to a remote address when probing whether it is
+ * reachable.  They measure the network and the server's accept queue, not the database operations of remote
+ * sessions, which are covered by the query and commit latencies.</p>
+ *
+ * @author Phillip Ross
+ */
+public interface OrientDBMetricsMXBean {
+
+    /**
+     * Returns the number of sessions acquired from pools.
+     *
+     * @return the acquire count
+     */
+    long getPoolAcquireCount();
+
+    /**
+     * Returns the number of pool acquisitions which timed out.
+     *
+     * @return the timeout count
+     */
+    long getPoolAcquireTimeoutCount();
+
+    /**
+     * Returns the mean time waited to acquire a pool session.
+     *
+     * @return the mean in nanoseconds
+     */
+    long getPoolAcquireMeanNanos();
+
+    /**
+     * Returns the 99th percentile of the time waited to acquire a pool session.
+     *
+     * @return the percentile in nanoseconds
+     */
+    long getPoolAcquireP99Nanos();
+
+    /**
+     * Returns the longest time waited to acquire a pool session.
+     *
+     * @return the maximum in nanoseconds
+     */
+    long getPoolAcquireMaxNanos();
+
+    /**
+     * Returns the number of queries executed.
+     *
+     * @return the query count
+     */
+    long getQueryCount();
+
+    /**
+     * Returns the number of queries which failed.
+     *
+     * @return the failure count
+     */
+    long getQueryFailureCount();
+
+    /**
+     * Returns the mean query execution time.
+     *
+     * @return the mean in nanoseconds
+     */
+    long getQueryMeanNanos();
+
+    /**
+     * Returns the 99th percentile of the query execution time.
+     *
+     * @return the percentile in nanoseconds
+     */
+    long getQueryP99Nanos();
+
+    /**
+     * Returns the longest query execution time.
+     *
+     * @return the maximum in nanoseconds
+     */
+    long getQueryMaxNanos();
+
+    /**
+     * Returns the number of transactions committed.
+     *
+     * @return the commit count
+     */
+    long getCommitCount();
+
+    /**
+     * Returns the number of commits which failed.
+     *
+     * @return the failure count
+     */
+    long getCommitFailureCount();
+
+    /**
+     * Returns the mean commit time.
+     *
+     * @return the mean in nanoseconds
+     */
+    long getCommitMeanNanos();
+
+    /**
+     * Returns the 99th percentile of the commit time.
+     *
+     * @return the percentile in nanoseconds
+     */
+    long getCommitP99Nanos();
+
+    /**
+     * Returns the longest commit time.
+     *
+     * @return the maximum in nanoseconds
+     */
+    long getCommitMaxNanos();
+
+    /**
+     * Returns the number of remote address probes which connected.
+     *
+     * @return the probe count
+     */
+    long getProbeCount();
+
+    /**
+     * Returns the mean connect time of remote address probes.
+     *
+     * @return the mean in nanoseconds
+     */
+    long getProbeMeanNanos();
+
+    /**
+     * Returns the 99th percentile of the connect time of remote address probes.
+     *
+     * @return the percentile in nanoseconds
+     */
+    long getProbeP99Nanos();
+
+    /**
+     * Returns the longest connect time of remote address probes.
+     *
+     * @return the maximum in nanoseconds
+     */
+    long getProbeMaxNanos();
+
+    /** Discards every recorded value. */
+    void reset();
+
+}
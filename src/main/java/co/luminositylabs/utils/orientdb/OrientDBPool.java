@@ -0,0 +1,388 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import com.orientechnologies.orient.core.db.OPartitionedDatabasePool;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A sized, instrumented pool of OrientDB document database connections.
+ *
+ * <p>Connections are held in per-thread partitions by an underlying {@link OPartitionedDatabasePool}.  This class
+ * adds an upper bound on the total number of connections in use with an acquire timeout, optional warm-up of
+ * connections when the pool is created, and statistics about the time callers spend waiting to acquire a
+ * connection.</p>
+ *
+ * <p>Sessions are reentrant per thread: a thread acquiring a session while it already holds one receives the same
+ * underlying database instance and does not consume an additional connection.</p>
+ *
+ * @author Phillip Ross
+ */
+public class OrientDBPool implements AutoCloseable {
+
+    /** The static logger instance. */
+    private static final Logger logger = LoggerFactory.getLogger(OrientDBPool.class);
+
+    /** The default maximum number of connections in a single pool partition. */
+    public static final int DEFAULT_MAX_PARTITION_SIZE = 64;
+
+    /** The default maximum number of connections in the pool, a non-positive value meaning unbounded. */
+    public static final int DEFAULT_MAX_SIZE = -1;
+
+    /** The default acquire timeout in milliseconds. */
+    public static final long DEFAULT_ACQUIRE_TIMEOUT_MILLIS = 30000L;
+
+    /** The default number of connections opened when the pool is created. */
+    public static final int DEFAULT_WARM_UP_SIZE = 0;
+
+    /** The url of the database connections are made to. */
+    private final String databaseUrl;
+
+    /** The username used for connections. */
+    private final String username;
+
+    /** The maximum number of connections in the pool, a non-positive value meaning unbounded. */
+    private final int maxSize;
+
+    /** The maximum time in milliseconds to wait when acquiring a connection. */
+    private final long acquireTimeoutMillis;
+
+    /** The underlying partitioned pool. */
+    private final OPartitionedDatabasePool partitionedPool;
+
+    /** Permits bounding the number of connections in use, or null when the pool is unbounded. */
+    private final Semaphore permits;
+
+    /** The depth of nested sessions held by the current thread. */
+    private final ThreadLocal<int[]> sessionDepth = ThreadLocal.withInitial(() -> new int[1]);
+
+    /** The number of threads currently holding a session. */
+    private final AtomicInteger activeSessions = new AtomicInteger();
+
+    /** The number of connections acquired from the pool. */
+    private final LongAdder acquireCount = new LongAdder();
+
+    /** The total time in nanoseconds spent waiting to acquire connections. */
+    private final LongAdder acquireWaitNanos = new LongAdder();
+
+    /** The longest time in nanoseconds spent waiting to acquire a connection. */
+    private final AtomicLong maxAcquireWaitNanos = new AtomicLong();
+
+    /** The number of acquire attempts which timed out. */
+    private final LongAdder acquireTimeoutCount = new LongAdder();
+
+
+    /**
+     * Constructor allowing the connection and sizing attributes to be specified.
+     *
+     * @param databaseUrl the url of the database to connect to
+     * @param username the username used for connections
+     * @param password the password used for connections
+     * @param maxPartitionSize the maximum number of connections in a single pool partition
+     * @param maxSize the maximum number of connections in the pool, a non-positive value meaning unbounded
+     * @param acquireTimeoutMillis the maximum time in milliseconds to wait when acquiring a connection
+     */
+    public OrientDBPool(final String databaseUrl,
+                        final String username,
+                        final String password,
+                        final int maxPartitionSize,
+                        final int maxSize,
+                        final long acquireTimeoutMillis) {
+        Objects.requireNonNull(databaseUrl, "A databaseUrl must be provided");
+        Objects.requireNonNull(username, "A username must be provided");
+        Objects.requireNonNull(password, "A password must be provided");
+        if (maxPartitionSize < 1) {
+            throw new IllegalArgumentException("maxPartitionSize must be a positive integer");
+        }
+        if (acquireTimeoutMillis < 0) {
+            throw new IllegalArgumentException("acquireTimeoutMillis must not be negative");
+        }
+        this.databaseUrl = databaseUrl;
+        this.username = username;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        if (maxSize > 0) {
+            permits = new Semaphore(maxSize, true);
+            partitionedPool = new OPartitionedDatabasePool(databaseUrl, username, password, maxPartitionSize, maxSize);
+        } else {
+            permits = null;
+            partitionedPool = new OPartitionedDatabasePool(databaseUrl, username, password, maxPartitionSize, -1);
+        }
+    }
+
+
+    /**
+     * Acquires a session from the pool, waiting up to the acquire timeout for a connection to become available.
+     *
+     * <p>The returned session must be closed by the thread which acquired it.</p>
+     *
+     * @return the acquired session
+     *
+     * @throws IllegalStateException when the pool is closed or no connection became available within the timeout
+     */
+    public PooledSession acquire() {
+        if (partitionedPool.isClosed()) {
+            throw new IllegalStateException("The pool for " + databaseUrl + " is closed");
+        }
+        final int[] depth = sessionDepth.get();
+        final long waitStart = System.nanoTime();
+        if ((depth[0] == 0) && (permits != null)) {
+            boolean acquired;
+            try {
+                acquired = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while acquiring a connection to " + databaseUrl, ie);
+            }
+            if (!acquired) {
+                acquireTimeoutCount.increment();
+                OrientDBMetrics.getInstance().recordPoolAcquireTimeout();
+                throw new IllegalStateException(
+                        "Timed out after " + acquireTimeoutMillis + "ms acquiring a connection to " + databaseUrl
+                );
+            }
+        }
+        final ODatabaseDocumentTx database;
+        try {
+            database = partitionedPool.acquire();
+        } catch (RuntimeException re) {
+            if ((depth[0] == 0) && (permits != null)) {
+                permits.release();
+            }
+            throw re;
+        }
+        if (depth[0] == 0) {
+            activeSessions.incrementAndGet();
+            // Nested sessions reuse the connection of the outermost one, so only it waited for a connection.
+            recordAcquireWait(System.nanoTime() - waitStart);
+        }
+        depth[0]++;
+        return new PooledSession(this, database);
+    }
+
+
+    /**
+     * Releases the current thread's hold on a connection, called when a pooled session is closed.
+     */
+    void release() {
+        final int[] depth = sessionDepth.get();
+        if (depth[0] > 0) {
+            depth[0]--;
+            if (depth[0] == 0) {
+                activeSessions.decrementAndGet();
+                if (permits != null) {
+                    permits.release();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Opens connections ahead of use so that the first callers do not pay for connection establishment.
+     *
+     * <p>Partitions are assigned per thread, so each connection is opened from a separate thread and all are held
+     * until every connection has been opened before being returned to the pool.</p>
+     *
+     * @param connectionCount the number of connections to open
+     * @return the number of connections which were successfully opened
+     */
+    public int warmUp(final int connectionCount) {
+        int warmUpCount = connectionCount;
+        if (maxSize > 0) {
+            warmUpCount = Math.min(connectionCount, maxSize);
+        }
+        if (warmUpCount < 1) {
+            return 0;
+        }
+        logger.debug("Warming up {} connections to {}", warmUpCount, databaseUrl);
+        final CountDownLatch openedLatch = new CountDownLatch(warmUpCount);
+        final CountDownLatch releaseLatch = new CountDownLatch(1);
+        final LongAdder openedCount = new LongAdder();
+        final ExecutorService executorService = Executors.newFixedThreadPool(warmUpCount);
+        try {
+            for (int i = 0; i < warmUpCount; i++) {
+                executorService.execute(() -> {
+                    try (PooledSession session = acquire()) {
+                        openedCount.increment();
+                        openedLatch.countDown();
+                        releaseLatch.await(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    } catch (RuntimeException re) {
+                        logger.warn("Unable to warm up a connection to {}", databaseUrl, re);
+                        openedLatch.countDown();
+                    }
+                });
+            }
+            openedLatch.await(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } finally {
+            releaseLatch.countDown();
+            executorService.shutdown();
+        }
+        return openedCount.intValue();
+    }
+
+
+    /**
+     * Records the time spent waiting for an acquired connection.
+     *
+     * @param waitNanos the time in nanoseconds spent waiting
+     */
+    private void recordAcquireWait(final long waitNanos) {
+        acquireCount.increment();
+        acquireWaitNanos.add(waitNanos);
+        maxAcquireWaitNanos.accumulateAndGet(waitNanos, Math::max);
+        OrientDBMetrics.getInstance().recordPoolAcquire(waitNanos);
+    }
+
+
+    /**
+     * Returns the url of the database connections are made to.
+     *
+     * @return the database url
+     */
+    public String getDatabaseUrl() {
+        return databaseUrl;
+    }
+
+
+    /**
+     * Returns the username used for connections.
+     *
+     * @return the username
+     */
+    public String getUsername() {
+        return username;
+    }
+
+
+    /**
+     * Returns the maximum number of connections in the pool.
+     *
+     * @return the maximum number of connections, a non-positive value meaning unbounded
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+
+    /**
+     * Returns the number of connections which have been created by the pool.
+     *
+     * @return the number of created connections
+     */
+    public int getCreatedConnections() {
+        return partitionedPool.getCreatedInstances();
+    }
+
+
+    /**
+     * Returns the number of connections which are available for acquisition.
+     *
+     * @return the number of available connections
+     */
+    public int getAvailableConnections() {
+        return partitionedPool.getAvailableConnections();
+    }
+
+
+    /**
+     * Returns the number of threads currently holding a session.
+     *
+     * @return the number of active sessions
+     */
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+
+
+    /**
+     * Returns the number of connections acquired from the pool, nested sessions of a thread counting once.
+     *
+     * @return the number of acquired connections
+     */
+    public long getAcquireCount() {
+        return acquireCount.sum();
+    }
+
+
+    /**
+     * Returns the number of acquire attempts which timed out.
+     *
+     * @return the number of timed out acquire attempts
+     */
+    public long getAcquireTimeoutCount() {
+        return acquireTimeoutCount.sum();
+    }
+
+
+    /**
+     * Returns the total time spent waiting to acquire connections.
+     *
+     * @return the total acquire wait time in nanoseconds
+     */
+    public long getTotalAcquireWaitNanos() {
+        return acquireWaitNanos.sum();
+    }
+
+
+    /**
+     * Returns the longest time spent waiting to acquire a connection.
+     *
+     * @return the longest acquire wait time in nanoseconds
+     */
+    public long getMaxAcquireWaitNanos() {
+        return maxAcquireWaitNanos.get();
+    }
+
+
+    /**
+     * Returns the mean time spent waiting to acquire a connection.
+     *
+     * @return the mean acquire wait time in nanoseconds
+     */
+    public long getMeanAcquireWaitNanos() {
+        final long count = acquireCount.sum();
+        if (count == 0) {
+            return 0;
+        }
+        return acquireWaitNanos.sum() / count;
+    }
+
+
+    /**
+     * Returns whether or not the pool has been closed.
+     *
+     * @return true if the pool is closed
+     */
+    public boolean isClosed() {
+        return partitionedPool.isClosed();
+    }
+
+
+    /** Closes the pool and all of its connections. */
+    @Override
+    public void close() {
+        if (!partitionedPool.isClosed()) {
+            logger.debug("Closing pool for {}", databaseUrl);
+            partitionedPool.close();
+        }
+    }
+
+
+}
@@ -0,0 +1,241 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * A factory of shared {@link OrientDBPool} instances configured by the orientdb.* properties.
+ *
+ * <p>Pools are keyed by database url, username and a digest of the password, so every caller specifying the same
+ * database and credentials shares a single pool, and a caller with other credentials never gets a pool opened with
+ * someone else's.  The pool properties are read once, when the pool is first created.  A pool is handed out once it
+ * has been warmed up: callers asking for it meanwhile wait for the warm-up to finish.</p>
+ *
+ * @author Phillip Ross
+ */
+public class OrientDBPoolFactory {
+
+    /** The static logger instance. */
+    private static final Logger logger = LoggerFactory.getLogger(OrientDBPoolFactory.class);
+
+    /** The shared pools keyed by database url, username and password digest, completed once warmed up. */
+    private static final Map<String, CompletableFuture<OrientDBPool>> POOLS = new ConcurrentHashMap<>();
+
+    /** The digest of passwords in pool keys. */
+    private static final String PASSWORD_DIGEST_ALGORITHM = "SHA-256";
+
+
+    /** Non-public default constructor. */
+    protected OrientDBPoolFactory() {
+    }
+
+
+    /**
+     * Returns the shared pool configured by the orientdb.* system properties.
+     *
+     * @return the shared pool
+     */
+    public static OrientDBPool getPool() {
+        return getPool(System.getProperties());
+    }
+
+
+    /**
+     * Returns the shared pool configured by the orientdb.* properties contained in the specified properties,
+     * creating and warming up the pool if it does not already exist.
+     *
+     * @param properties the properties specifying the database, credentials and pool settings
+     * @return the shared pool
+     */
+    public static OrientDBPool getPool(final Properties properties) {
+        Objects.requireNonNull(properties, "Properties must be provided");
+        final String databaseUrl = OrientDBUtil.buildDatabaseUrl(properties);
+        final String username = properties.getProperty(OrientDBUtil.PROPERTY_NAME_ODB_USERNAME);
+        final String password = properties.getProperty(OrientDBUtil.PROPERTY_NAME_ODB_PASSWORD);
+        Objects.requireNonNull(username, "Property " + OrientDBUtil.PROPERTY_NAME_ODB_USERNAME + " must be specified");
+        Objects.requireNonNull(password, "Property " + OrientDBUtil.PROPERTY_NAME_ODB_PASSWORD + " must be specified");
+        final String key = databaseUrl + "|" + username + "|" + digest(password);
+        final CompletableFuture<OrientDBPool> createdPool = new CompletableFuture<>();
+        final CompletableFuture<OrientDBPool> sharedPool = POOLS.compute(key, (poolKey, existingPool) -> {
+            if (isUsable(existingPool)) {
+                return existingPool;
+            }
+            return createdPool;
+        });
+        if (sharedPool == createdPool) {
+            // Created and warmed up outside of compute, which would otherwise block other callers of the map.
+            try {
+                final OrientDBPool pool = createPool(databaseUrl, username, password, properties);
+                warmUp(pool, properties);
+                createdPool.complete(pool);
+            } catch (RuntimeException re) {
+                POOLS.remove(key, createdPool);
+                createdPool.completeExceptionally(re);
+                throw re;
+            }
+        }
+        try {
+            return sharedPool.join();
+        } catch (CompletionException ce) {
+            throw new IllegalStateException("Unable to create a pool of connections to " + databaseUrl, ce.getCause());
+        }
+    }
+
+
+    /**
+     * Returns whether a shared pool is being created or has been created and is still open.
+     *
+     * @param sharedPool the shared pool, or null
+     * @return true if the pool may be handed out
+     */
+    private static boolean isUsable(final CompletableFuture<OrientDBPool> sharedPool) {
+        if (sharedPool == null) {
+            return false;
+        }
+        if (!sharedPool.isDone()) {
+            return true;
+        }
+        return (!sharedPool.isCompletedExceptionally()) && (!sharedPool.join().isClosed());
+    }
+
+
+    /**
+     * Returns the hexadecimal digest of a password, keying pools without keeping the password itself.
+     *
+     * @param password the password
+     * @return the digest
+     */
+    private static String digest(final String password) {
+        try {
+            final byte[] digest = MessageDigest.getInstance(PASSWORD_DIGEST_ALGORITHM)
+                    .digest(password.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(PASSWORD_DIGEST_ALGORITHM + " is not available", nsae);
+        }
+    }
+
+
+    /**
+     * Creates a pool configured by the specified properties.
+     *
+     * @param databaseUrl the url of the database to connect to
+     * @param username the username used for connections
+     * @param password the password used for connections
+     * @param properties the properties specifying the pool settings
+     * @return the created pool
+     */
+    private static OrientDBPool createPool(final String databaseUrl,
+                                           final String username,
+                                           final String password,
+                                           final Properties properties) {
+        final OrientDBPool pool = new OrientDBPool(
+                databaseUrl,
+                username,
+                password,
+                intProperty(
+                        properties,
+                        OrientDBUtil.PROPERTY_NAME_ODB_POOL_MAX_PARTITION_SIZE,
+                        OrientDBPool.DEFAULT_MAX_PARTITION_SIZE
+                ),
+                intProperty(properties, OrientDBUtil.PROPERTY_NAME_ODB_POOL_MAX_SIZE, OrientDBPool.DEFAULT_MAX_SIZE),
+                longProperty(
+                        properties,
+                        OrientDBUtil.PROPERTY_NAME_ODB_POOL_ACQUIRE_TIMEOUT,
+                        OrientDBPool.DEFAULT_ACQUIRE_TIMEOUT_MILLIS
+                )
+        );
+        return pool;
+    }
+
+
+    /**
+     * Warms up a created pool with the number of connections specified by the properties.
+     *
+     * @param pool the created pool
+     * @param properties the properties specifying the pool settings
+     */
+    private static void warmUp(final OrientDBPool pool, final Properties properties) {
+        final int warmUpSize = intProperty(
+                properties,
+                OrientDBUtil.PROPERTY_NAME_ODB_POOL_WARM_UP_SIZE,
+                OrientDBPool.DEFAULT_WARM_UP_SIZE
+        );
+        if (warmUpSize > 0) {
+            final int warmedUp = pool.warmUp(warmUpSize);
+            logger.debug("Warmed up {} of {} connections to {}", warmedUp, warmUpSize, pool.getDatabaseUrl());
+        }
+    }
+
+
+    /** Closes and discards all of the shared pools. */
+    public static void closeAll() {
+        for (String key : POOLS.keySet()) {
+            final CompletableFuture<OrientDBPool> sharedPool = POOLS.remove(key);
+            if (sharedPool != null) {
+                // A pool still warming up is closed once it has been created.
+                sharedPool.thenAccept(OrientDBPool::close);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the integer value of a property.
+     *
+     * @param properties the properties containing the property
+     * @param propertyName the name of the property
+     * @param defaultValue the value returned when the property is not specified
+     * @return the integer value of the property
+     */
+    static int intProperty(final Properties properties, final String propertyName, final int defaultValue) {
+        final String value = properties.getProperty(propertyName);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException(propertyName + " must be a string representing an integer value", nfe);
+        }
+    }
+
+
+    /**
+     * Returns the long value of a property.
+     *
+     * @param properties the properties containing the property
+     * @param propertyName the name of the property
+     * @param defaultValue the value returned when the property is not specified
+     * @return the long value of the property
+     */
+    static long longProperty(final Properties properties, final String propertyName, final long defaultValue) {
+        final String value = properties.getProperty(propertyName);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException(propertyName + " must be a string representing an integer value", nfe);
+        }
+    }
+
+
+}
@@ -2,18 +2,11 @@ package co.luminositylabs.utils.orientdb;
 
 
 import com.orientechnologies.orient.server.OServer;
-import com.orientechnologies.orient.server.OServerMain;
-import com.orientechnologies.orient.server.config.OServerConfiguration;
-import com.orientechnologies.orient.server.config.OServerEntryConfiguration;
-import com.orientechnologies.orient.server.config.OServerNetworkConfiguration;
-import com.orientechnologies.orient.server.config.OServerNetworkListenerConfiguration;
-import com.orientechnologies.orient.server.config.OServerNetworkProtocolConfiguration;
-import com.orientechnologies.orient.server.config.OServerUserConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.Objects;
+import java.util.Properties;
 
 
 /**
@@ -50,6 +43,27 @@ public class OrientDBUtil {
     /** Property name constant for specification of the password for the OrientDB server. */
     public static final String PROPERTY_NAME_ODB_PASSWORD = "orientdb.server.password";
 
+    /** Property name constant for specification of the maximum number of connections in a pool partition. */
+    public static final String PROPERTY_NAME_ODB_POOL_MAX_PARTITION_SIZE = "orientdb.pool.maxPartitionSize";
+
+    /** Property name constant for specification of the maximum number of connections in a pool. */
+    public static final String PROPERTY_NAME_ODB_POOL_MAX_SIZE = "orientdb.pool.maxSize";
+
+    /** Property name constant for specification of the pool acquire timeout in milliseconds. */
+    public static final String PROPERTY_NAME_ODB_POOL_ACQUIRE_TIMEOUT = "orientdb.pool.acquireTimeout";
+
+    /** Property name constant for specification of the number of connections opened when a pool is created. */
+    public static final String PROPERTY_NAME_ODB_POOL_WARM_UP_SIZE = "orientdb.pool.warmUpSize";
+
+    /** Property name constant for specification of the maximum number of writes coalesced into a transaction. */
+    public static final String PROPERTY_NAME_ODB_WRITE_MAX_BATCH_SIZE = "orientdb.write.maxBatchSize";
+
+    /** Property name constant for specification of the time in milliseconds writes wait for others to join them. */
+    public static final String PROPERTY_NAME_ODB_WRITE_MAX_LINGER = "orientdb.write.maxLinger";
+
+    /** Property name constant for specification of the number of retries of a conflicting write transaction. */
+    public static final String PROPERTY_NAME_ODB_WRITE_MAX_RETRIES = "orientdb.write.maxRetries";
+
     /** The default port range of the OrientDB server's binary protocol listener. */
     public static final String DEFAULT_BINARY_PROTOCOL_PORTRANGE = "2424-2430";
 
@@ -59,6 +73,8 @@ public class OrientDBUtil {
 
         /** "paged local" engine. */
         PLOCAL("plocal"),
+        /** The in-memory engine, which keeps databases in memory only. */
+        MEMORY("memory"),
         /** The remote engine. */
         REMOTE("remote");
 
@@ -112,6 +128,9 @@ public class OrientDBUtil {
     /**
      * Builds a database url that can be used to connect to OrientDB.
      *
+     * <p>When the memory engine is used without a database path, the url contains only the database name so that
+     * it refers to the same storage name the embedded server exposes to remote clients.</p>
+     *
      * @param databaseName the name of the database
      * @param engine the engine to be used
      * @param hostname the hostname of the OrientDB server
@@ -156,7 +175,7 @@ public class OrientDBUtil {
             if (!databasePath.endsWith("/")) {
                 databaseUrlStringBuilder.append("/");
             }
-        } else {
+        } else if (!engine.equals(Engine.MEMORY)) {
             databaseUrlStringBuilder.append("/");
         }
         databaseUrlStringBuilder.append(databaseName);
@@ -164,6 +183,24 @@ public class OrientDBUtil {
     }
 
 
+    /**
+     * Builds a database url from the orientdb.* properties contained in the specified properties.
+     *
+     * @param properties the properties containing the database name, engine, hostname, port range and path
+     * @return the properly formatted url to use for connecting to OrientDB
+     */
+    public static String buildDatabaseUrl(final Properties properties) {
+        Objects.requireNonNull(properties, "Properties must be provided");
+        return buildDatabaseUrl(
+                properties.getProperty(PROPERTY_NAME_ODB_DATABASE_NAME),
+                Engine.fromString(properties.getProperty(PROPERTY_NAME_ODB_SERVER_ENGINE)),
+                properties.getProperty(PROPERTY_NAME_ODB_SERVER_REMOTE_HOSTNAME),
+                properties.getProperty(PROPERTY_NAME_ODB_SERVER_REMOTE_PORT_RANGE),
+                properties.getProperty(PROPERTY_NAME_ODB_DATABASE_PATH)
+        );
+    }
+
+
     /**
      * Starts an embedded OrientDB server.
      *
@@ -173,44 +210,39 @@ public class OrientDBUtil {
      * @return a reference to the embedded server
      *
      * @throws Exception when server is unable to be configured or activated
+     * @see EmbeddedServerBuilder
      */
     public static OServer startEmbeddedServer(final String username,
                                               final String password,
                                               final String portRange) throws Exception {
         logger.debug("Starting embedded OrientDB server");
-        Objects.requireNonNull(username, "Username must be specified");
-        Objects.requireNonNull(password, "Password must be specified");
-        String embeddedServerPortRange = DEFAULT_BINARY_PROTOCOL_PORTRANGE;
-        if (portRange != null) {
-            embeddedServerPortRange = portRange;
-        }
-        OServer oServer = OServerMain.create();
-        OServerConfiguration serverConfig = new OServerConfiguration();
-        serverConfig.users = new OServerUserConfiguration[] {
-                new OServerUserConfiguration("root", "password", "*"),
-                new OServerUserConfiguration(username, password, "*")
-        };
-        serverConfig.network = new OServerNetworkConfiguration();
-        serverConfig.network.listeners = new ArrayList<>();
-        OServerNetworkListenerConfiguration networkListenerConfig = new OServerNetworkListenerConfiguration();
-        networkListenerConfig.ipAddress = "0.0.0.0"; // NOPMD - It's fine to use this IP to bind to all addresses.
-        networkListenerConfig.portRange = embeddedServerPortRange;
-        serverConfig.network.listeners.add(networkListenerConfig);
-        serverConfig.network.protocols = new ArrayList<>();
-        OServerNetworkProtocolConfiguration protocolConfig = new OServerNetworkProtocolConfiguration(
-                "binary",
-                "com.orientechnologies.orient.server.network.protocol.binary.ONetworkProtocolBinary"
-        );
-        serverConfig.network.protocols.add(protocolConfig);
-
-        serverConfig.properties = new OServerEntryConfiguration[] {
-                new OServerEntryConfiguration("server.cache.staticResources", "false"),
-                new OServerEntryConfiguration("server.database.path", "target/dbs"),
-                new OServerEntryConfiguration("plugin.dynamic", "false")
-        };
-        oServer.startup(serverConfig);
-        oServer.activate();
-        return oServer;
+        return new EmbeddedServerBuilder(username, password)
+                .setPortRange(portRange)
+                .start();
+    }
+
+
+    /**
+     * Starts an embedded OrientDB server which does not listen on the network and is intended to host databases
+     * using the memory engine.
+     *
+     * <p>No network listeners or protocols are configured, so starting the server does not open any sockets.  The
+     * databases it hosts are accessed in-process using urls built with {@link Engine#MEMORY}, and are not written
+     * to disk.</p>
+     *
+     * @param username the username to be used in configuring the OrientDB server
+     * @param password the password to be used in configuring the OrientDB server
+     * @return a reference to the embedded server
+     *
+     * @throws Exception when server is unable to be configured or activated
+     * @see EmbeddedServerBuilder
+     */
+    public static OServer startInMemoryEmbeddedServer(final String username,
+                                                      final String password) throws Exception {
+        logger.debug("Starting in-memory embedded OrientDB server");
+        return new EmbeddedServerBuilder(username, password)
+                .setNetworkEnabled(false)
+                .start();
     }
 
 
@@ -0,0 +1,92 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+
+
+/**
+ * A database session acquired from an {@link OrientDBPool}.
+ *
+ * <p>Closing the session returns its connection to the pool.  Sessions are bound to the thread which acquired them
+ * and must be closed by that same thread.</p>
+ *
+ * @author Phillip Ross
+ */
+public class PooledSession implements AutoCloseable {
+
+    /** The pool the session was acquired from. */
+    private final OrientDBPool pool;
+
+    /** The pooled database instance. */
+    private final ODatabaseDocumentTx database;
+
+    /** Whether or not the session has been closed. */
+    private boolean closed;
+
+
+    /**
+     * Constructor allowing the pool and database instance to be specified.
+     *
+     * @param pool the pool the session was acquired from
+     * @param database the pooled database instance
+     */
+    PooledSession(final OrientDBPool pool, final ODatabaseDocumentTx database) {
+        this.pool = pool;
+        this.database = database;
+    }
+
+
+    /**
+     * Returns the pooled database instance, activating it on the current thread.
+     *
+     * @return the database instance
+     *
+     * @throws IllegalStateException when the session has been closed
+     */
+    public ODatabaseDocumentTx getDatabase() {
+        if (closed) {
+            throw new IllegalStateException("The session has been closed");
+        }
+        database.activateOnCurrentThread();
+        return database;
+    }
+
+
+    /**
+     * Returns the pool the session was acquired from.
+     *
+     * @return the pool
+     */
+    OrientDBPool getPool() {
+        return pool;
+    }
+
+
+    /**
+     * Returns whether or not the session has been closed.
+     *
+     * @return true if the session is closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+
+    /** Returns the session's connection to the pool. */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            try {
+                if (!database.isClosed()) {
+                    database.activateOnCurrentThread();
+                    database.close();
+                }
+            } finally {
+                pool.release();
+            }
+        }
+    }
+
+
+}
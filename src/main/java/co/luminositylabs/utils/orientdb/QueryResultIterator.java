@@ -0,0 +1,241 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import com.orientechnologies.orient.core.command.OCommandResultListener;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLAsynchQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * An iterator over the results of an asynchronous SQL query, holding at most a fixed number of results in memory.
+ *
+ * <p>The query runs on a producer thread with its own session from the {@link OrientDBPool}, handing each result
+ * to the iterator through a bounded queue.  When the queue is full the producer waits, so a slow consumer slows the
+ * query down instead of letting results pile up on the heap.  Closing the iterator before the results are
+ * exhausted cancels the query.</p>
+ *
+ * <p>Each result is fully deserialized on the producer thread before it is handed over.  Linked records are not
+ * loaded, so resolving a link requires a session on the consuming thread.</p>
+ *
+ * @author Phillip Ross
+ */
+public final class QueryResultIterator implements Iterator<ODocument>, AutoCloseable {
+
+    /** The static logger instance. */
+    private static final Logger logger = LoggerFactory.getLogger(QueryResultIterator.class);
+
+    /** The time in milliseconds between checks for cancellation while the queue is full. */
+    private static final long OFFER_INTERVAL_MILLIS = 100L;
+
+    /** The marker following the last result. */
+    private static final Object END_OF_RESULTS = new Object();
+
+    /** The results waiting to be consumed. */
+    private final BlockingQueue<Object> queue;
+
+    /** The SQL text of the query. */
+    private final String sql;
+
+    /** Whether the iterator has been closed. */
+    private volatile boolean cancelled;
+
+    /** The next result, fetched by {@link #hasNext()}. */
+    private Object next;
+
+    /** Whether the end of the results has been reached. */
+    private boolean exhausted;
+
+
+    /**
+     * Constructor allowing the buffer size and query to be specified.  The query is not started until
+     * {@link #run(OrientDBPool, Object...)} is called on a producer thread.
+     *
+     * @param bufferSize the maximum number of results waiting to be consumed
+     * @param sql the SQL text of the query
+     */
+    QueryResultIterator(final int bufferSize, final String sql) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize must be positive");
+        }
+        this.queue = new ArrayBlockingQueue<>(bufferSize);
+        this.sql = sql;
+    }
+
+
+    /**
+     * Executes the query on the calling thread, handing results to the queue until the results are exhausted or the
+     * iterator is closed.
+     *
+     * @param pool the pool the session of the query is acquired from
+     * @param parameters the parameters of the query
+     */
+    void run(final OrientDBPool pool, final Object... parameters) {
+        Object last = END_OF_RESULTS;
+        final long startNanos = System.nanoTime();
+        try (PooledSession session = pool.acquire()) {
+            session.getDatabase().command(new OSQLAsynchQuery<ODocument>(sql, new OCommandResultListener() {
+                @Override
+                public boolean result(final Object record) {
+                    if (record instanceof ODocument) {
+                        // Deserializes every field while the record is still bound to the producer's session.
+                        ((ODocument) record).fieldNames();
+                    }
+                    return offer(record);
+                }
+
+                @Override
+                public void end() {
+                    // The end of the results is queued once execute returns.
+                }
+
+                @Override
+                public Object getResult() {
+                    return null;
+                }
+            })).execute(parameters);
+        } catch (Throwable t) {
+            // Errors are handed over too, so that the consumer never mistakes a failed query for a complete one.
+            if (!cancelled) {
+                logger.debug("Streaming query failed: {}", sql, t);
+                last = new QueryFailure(t);
+            }
+        } finally {
+            OrientDBMetrics.getInstance().recordQuery(System.nanoTime() - startNanos, !(last instanceof QueryFailure));
+            offer(last);
+        }
+    }
+
+
+    /**
+     * Hands an element to the consumer, waiting while the queue is full.
+     *
+     * @param element the element
+     * @return true if the element was queued, false if the iterator was closed first
+     */
+    private boolean offer(final Object element) {
+        try {
+            while (!cancelled) {
+                if (queue.offer(element, OFFER_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            cancelled = true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Returns whether another result is available, waiting for the query to produce it.
+     *
+     * @return true if another result is available
+     *
+     * @throws IllegalStateException when the query failed or the wait was interrupted
+     * @throws Error when the query failed with an error
+     */
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (exhausted || cancelled) {
+            return false;
+        }
+        final Object element;
+        try {
+            element = queue.take();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IllegalStateException("Interrupted while waiting for results of " + sql, ie);
+        }
+        if (element == END_OF_RESULTS) {
+            exhausted = true;
+            return false;
+        }
+        if (element instanceof QueryFailure) {
+            exhausted = true;
+            final Throwable cause = ((QueryFailure) element).cause;
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Unable to execute query " + sql, cause);
+        }
+        next = element;
+        return true;
+    }
+
+
+    /**
+     * Returns the next result.
+     *
+     * @return the next result
+     *
+     * @throws NoSuchElementException when the results are exhausted
+     */
+    @Override
+    public ODocument next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final Object result = next;
+        next = null;
+        if (result instanceof ODocument) {
+            return (ODocument) result;
+        }
+        return new ODocument().field("value", result);
+    }
+
+
+    /**
+     * Returns whether the iterator was closed before the results were exhausted.
+     *
+     * @return true if the query was cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled && !exhausted;
+    }
+
+
+    /** Cancels the query if it is still running and discards buffered results. */
+    @Override
+    public void close() {
+        cancelled = true;
+        next = null;
+        queue.clear();
+    }
+
+
+    /**
+     * The marker carrying the failure of a query to the consumer.
+     */
+    private static final class QueryFailure {
+
+        /** The failure. */
+        private final Throwable cause;
+
+
+        /**
+         * Constructor allowing the failure to be specified.
+         *
+         * @param cause the failure
+         */
+        QueryFailure(final Throwable cause) {
+            this.cause = cause;
+        }
+
+
+    }
+
+
+}
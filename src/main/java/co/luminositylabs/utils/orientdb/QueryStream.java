@@ -0,0 +1,116 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+
+/**
+ * Lazily evaluated SQL query results, as an iterator or a stream.
+ *
+ * <p>Unlike a synchronous query, which materializes every result in a list before returning, the results are
+ * produced by an asynchronous query on a background thread and buffered up to a fixed number at a time.  See
+ * {@link QueryResultIterator} for the details.  Iterators and streams must be closed when they are not consumed to
+ * the end, so that the query is cancelled and its session returned to the pool.</p>
+ *
+ * @author Phillip Ross
+ */
+public class QueryStream {
+
+    /** The default maximum number of results waiting to be consumed. */
+    public static final int DEFAULT_BUFFER_SIZE = 256;
+
+    /** The number of producer threads created so far, used for thread names. */
+    private static final AtomicInteger PRODUCER_THREAD_COUNT = new AtomicInteger();
+
+    /** The executor running the producers of queries. */
+    private static final ExecutorService PRODUCER_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "orientdb-query-stream-" + PRODUCER_THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+
+    /** Non-public default constructor. */
+    protected QueryStream() {
+    }
+
+
+    /**
+     * Starts a query and returns an iterator over its results, buffering the default number of results.
+     *
+     * @param pool the pool the session of the query is acquired from
+     * @param sql the SQL text of the query
+     * @param parameters the parameters of the query
+     * @return the iterator over the results
+     */
+    public static QueryResultIterator iterator(final OrientDBPool pool, final String sql, final Object... parameters) {
+        return iterator(pool, DEFAULT_BUFFER_SIZE, sql, parameters);
+    }
+
+
+    /**
+     * Starts a query and returns an iterator over its results.
+     *
+     * @param pool the pool the session of the query is acquired from
+     * @param bufferSize the maximum number of results waiting to be consumed
+     * @param sql the SQL text of the query
+     * @param parameters the parameters of the query
+     * @return the iterator over the results
+     */
+    public static QueryResultIterator iterator(final OrientDBPool pool,
+                                               final int bufferSize,
+                                               final String sql,
+                                               final Object... parameters) {
+        Objects.requireNonNull(pool, "A pool must be provided");
+        Objects.requireNonNull(sql, "A query must be provided");
+        final QueryResultIterator iterator = new QueryResultIterator(bufferSize, sql);
+        PRODUCER_EXECUTOR.execute(() -> iterator.run(pool, parameters));
+        return iterator;
+    }
+
+
+    /**
+     * Starts a query and returns a sequential stream of its results, buffering the default number of results.
+     * Closing the stream cancels the query.
+     *
+     * @param pool the pool the session of the query is acquired from
+     * @param sql the SQL text of the query
+     * @param parameters the parameters of the query
+     * @return the stream of results
+     */
+    public static Stream<ODocument> stream(final OrientDBPool pool, final String sql, final Object... parameters) {
+        return stream(pool, DEFAULT_BUFFER_SIZE, sql, parameters);
+    }
+
+
+    /**
+     * Starts a query and returns a sequential stream of its results.  Closing the stream cancels the query.
+     *
+     * @param pool the pool the session of the query is acquired from
+     * @param bufferSize the maximum number of results waiting to be consumed
+     * @param sql the SQL text of the query
+     * @param parameters the parameters of the query
+     * @return the stream of results
+     */
+    public static Stream<ODocument> stream(final OrientDBPool pool,
+                                           final int bufferSize,
+                                           final String sql,
+                                           final Object... parameters) {
+        final QueryResultIterator iterator = iterator(pool, bufferSize, sql, parameters);
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL),
+                false
+        ).onClose(iterator::close);
+    }
+
+
+}
@@ -0,0 +1,22 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * Marks the {@link com.orientechnologies.orient.core.id.ORID} field holding the identity of the document an object
+ * is mapped to by {@link DocumentMapper}.  The field is not stored as a property.  An object with a persistent
+ * identity updates its document rather than creating a new one.
+ *
+ * @author Phillip Ross
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface RecordId {
+}
@@ -0,0 +1,116 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Objects;
+
+
+/**
+ * The hostname and port of a remote OrientDB server's binary protocol listener.
+ *
+ * @author Phillip Ross
+ */
+public final class RemoteAddress {
+
+    /** The hostname of the server. */
+    private final String hostname;
+
+    /** The port of the server's binary protocol listener. */
+    private final int port;
+
+
+    /**
+     * Constructor allowing the hostname and port to be specified.
+     *
+     * @param hostname the hostname of the server
+     * @param port the port of the server's binary protocol listener
+     */
+    public RemoteAddress(final String hostname, final int port) {
+        Objects.requireNonNull(hostname, "A hostname must be provided");
+        this.hostname = hostname;
+        this.port = port;
+    }
+
+
+    /**
+     * Returns the hostname of the server.
+     *
+     * @return the hostname
+     */
+    public String getHostname() {
+        return hostname;
+    }
+
+
+    /**
+     * Returns the port of the server's binary protocol listener.
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return port;
+    }
+
+
+    /**
+     * Returns whether or not a connection can be established to the address within the specified time.
+     *
+     * @param connectTimeoutMillis the maximum time in milliseconds to wait for the connection
+     * @return true if a connection was established
+     */
+    public boolean isReachable(final int connectTimeoutMillis) {
+        try (Socket socket = new Socket()) {
+            final long startNanos = System.nanoTime();
+            socket.connect(new InetSocketAddress(hostname, port), connectTimeoutMillis);
+            OrientDBMetrics.getInstance().recordProbe(System.nanoTime() - startNanos);
+            return true;
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+
+    /**
+     * Returns the address in the hostname:port form used in OrientDB urls.
+     *
+     * @return the string representation of the address
+     */
+    @Override
+    public String toString() {
+        return hostname + ":" + port;
+    }
+
+
+    /**
+     * Returns whether or not the specified object is an address with the same hostname and port.
+     *
+     * @param o the object to compare with
+     * @return true if the object is an equal address
+     */
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RemoteAddress)) {
+            return false;
+        }
+        RemoteAddress other = (RemoteAddress) o;
+        return (port == other.port) && hostname.equals(other.hostname);
+    }
+
+
+    /**
+     * Returns a hash code derived from the hostname and port.
+     *
+     * @return the hash code
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(hostname, port);
+    }
+
+
+}
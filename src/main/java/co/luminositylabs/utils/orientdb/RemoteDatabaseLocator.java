@@ -0,0 +1,443 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+
+/**
+ * Locates a database hosted by one or more remote OrientDB servers.
+ *
+ * <p>Unlike {@link OrientDBUtil#buildDatabaseUrl(String, OrientDBUtil.Engine, String, String, String)}, which keeps
+ * only the first port of a port range and a single hostname, the locator keeps every combination of hostname and
+ * port.  It produces OrientDB multi-address urls, selects addresses for new sessions according to a
+ * {@link Strategy}, and keeps addresses which have failed out of the selection for a cooldown period.  An address
+ * returning from its cooldown is probed with a short connection attempt before being selected again.</p>
+ *
+ * @author Phillip Ross
+ */
+public class RemoteDatabaseLocator {
+
+    /** The default port used for hostnames when no port range is specified. */
+    public static final int DEFAULT_PORT = 2424;
+
+    /** The default time in milliseconds a failed address is excluded from selection. */
+    public static final long DEFAULT_FAILURE_COOLDOWN_MILLIS = 5000L;
+
+    /** The default time in milliseconds to wait when probing a failed address. */
+    public static final int DEFAULT_PROBE_TIMEOUT_MILLIS = 500;
+
+    /** The separator between addresses of an OrientDB multi-address url. */
+    private static final String URL_ADDRESS_SEPARATOR = ";";
+
+
+    /** Enumerates the strategies for selecting the address of a new session. */
+    public enum Strategy {
+
+        /** Addresses are selected in turn. */
+        ROUND_ROBIN("roundRobin"),
+        /** The address with the fewest active sessions is selected. */
+        LEAST_LOADED("leastLoaded");
+
+        /** String representation of the enumerated value. */
+        private final String stringValue;
+
+        /**
+         * Constructor allowing the string value to be specified.
+         *
+         * @param stringValue string value for the enumerated value
+         */
+        Strategy(final String stringValue) {
+            this.stringValue = stringValue;
+        }
+
+        /**
+         * Returns the string value equivalent to the enumerated value.
+         *
+         * @return the string value
+         */
+        public String toStringValue() {
+            return stringValue;
+        }
+
+        /**
+         * Returns the enumerated value equivalent to the specified strategy name.
+         *
+         * @param strategyName the strategy name
+         * @return the enumerated value
+         */
+        public static Strategy fromString(final String strategyName) {
+            Strategy strategy = null;
+            if (strategyName != null) {
+                for (Strategy validStrategy : Strategy.values()) {
+                    if (strategyName.equalsIgnoreCase(validStrategy.stringValue)
+                            || strategyName.equalsIgnoreCase(validStrategy.name())) {
+                        strategy = validStrategy;
+                    }
+                }
+            }
+            return strategy;
+        }
+    }
+
+
+    /** The addresses of the servers hosting the database. */
+    private final List<RemoteAddress> addresses;
+
+    /** The path of the database. */
+    private final String databasePath;
+
+    /** The name of the database. */
+    private final String databaseName;
+
+    /** The time in milliseconds a failed address is excluded from selection. */
+    private final long failureCooldownMillis;
+
+    /** The time in milliseconds to wait when probing a failed address. */
+    private final int probeTimeoutMillis;
+
+    /** The next position for round-robin selection. */
+    private final AtomicInteger nextIndex = new AtomicInteger();
+
+    /** The nano time until which each failed address is excluded from selection. */
+    private final Map<RemoteAddress, Long> failedUntilNanos = new ConcurrentHashMap<>();
+
+
+    /**
+     * Constructor allowing the addresses, database and failure handling to be specified.
+     *
+     * @param addresses the addresses of the servers hosting the database
+     * @param databasePath the path of the database
+     * @param databaseName the name of the database
+     * @param failureCooldownMillis the time in milliseconds a failed address is excluded from selection
+     * @param probeTimeoutMillis the time in milliseconds to wait when probing a failed address
+     */
+    public RemoteDatabaseLocator(final List<RemoteAddress> addresses,
+                                 final String databasePath,
+                                 final String databaseName,
+                                 final long failureCooldownMillis,
+                                 final int probeTimeoutMillis) {
+        Objects.requireNonNull(addresses, "Addresses must be provided");
+        Objects.requireNonNull(databaseName, "A databaseName must be provided");
+        if (addresses.isEmpty()) {
+            throw new IllegalArgumentException("At least one address must be provided");
+        }
+        this.addresses = Collections.unmodifiableList(new ArrayList<>(addresses));
+        this.databasePath = databasePath;
+        this.databaseName = databaseName;
+        this.failureCooldownMillis = failureCooldownMillis;
+        this.probeTimeoutMillis = probeTimeoutMillis;
+    }
+
+
+    /**
+     * Creates a locator from hostnames and a port range.
+     *
+     * <p>Hostnames are separated by commas or semicolons, and a hostname may specify its own port as hostname:port.
+     * Every port of the port range is combined with each hostname which does not specify its own port.</p>
+     *
+     * @param hostnames the hostnames of the servers
+     * @param portRange the port range of the servers, or null for the default port
+     * @param databasePath the path of the database
+     * @param databaseName the name of the database
+     * @return the locator
+     */
+    public static RemoteDatabaseLocator parse(final String hostnames,
+                                              final String portRange,
+                                              final String databasePath,
+                                              final String databaseName) {
+        Objects.requireNonNull(hostnames, "Hostnames must be provided");
+        final List<Integer> ports = parsePortRange(portRange);
+        final List<RemoteAddress> addresses = new ArrayList<>();
+        for (String hostnameSpecification : hostnames.split("[,;]")) {
+            final String hostname = hostnameSpecification.trim();
+            if (hostname.isEmpty()) {
+                continue;
+            }
+            final int portSeparatorIdx = hostname.lastIndexOf(':');
+            if (portSeparatorIdx != -1) {
+                final List<Integer> hostPorts = parsePortRange(hostname.substring(portSeparatorIdx + 1));
+                for (Integer port : hostPorts) {
+                    addresses.add(new RemoteAddress(hostname.substring(0, portSeparatorIdx), port));
+                }
+            } else {
+                for (Integer port : ports) {
+                    addresses.add(new RemoteAddress(hostname, port));
+                }
+            }
+        }
+        return new RemoteDatabaseLocator(
+                addresses,
+                databasePath,
+                databaseName,
+                DEFAULT_FAILURE_COOLDOWN_MILLIS,
+                DEFAULT_PROBE_TIMEOUT_MILLIS
+        );
+    }
+
+
+    /**
+     * Creates a locator from the orientdb.* hostname, port range, path and database name properties.
+     *
+     * @param properties the properties specifying the database location
+     * @return the locator
+     */
+    public static RemoteDatabaseLocator fromProperties(final Properties properties) {
+        Objects.requireNonNull(properties, "Properties must be provided");
+        return parse(
+                properties.getProperty(OrientDBUtil.PROPERTY_NAME_ODB_SERVER_REMOTE_HOSTNAME),
+                properties.getProperty(OrientDBUtil.PROPERTY_NAME_ODB_SERVER_REMOTE_PORT_RANGE),
+                properties.getProperty(OrientDBUtil.PROPERTY_NAME_ODB_DATABASE_PATH),
+                properties.getProperty(OrientDBUtil.PROPERTY_NAME_ODB_DATABASE_NAME)
+        );
+    }
+
+
+    /**
+     * Parses a port range into the list of ports it contains.
+     *
+     * @param portRange a single port or a range of ports separated by a hyphen, or null for the default port
+     * @return the ports of the range
+     */
+    static List<Integer> parsePortRange(final String portRange) {
+        final List<Integer> ports = new ArrayList<>();
+        if (portRange == null) {
+            ports.add(DEFAULT_PORT);
+            return ports;
+        }
+        final int rangeSeparatorIdx = portRange.indexOf('-');
+        try {
+            if (rangeSeparatorIdx == -1) {
+                ports.add(Integer.parseInt(portRange.trim()));
+            } else {
+                final int firstPort = Integer.parseInt(portRange.substring(0, rangeSeparatorIdx).trim());
+                final int lastPort = Integer.parseInt(portRange.substring(rangeSeparatorIdx + 1).trim());
+                if (lastPort < firstPort) {
+                    throw new IllegalArgumentException("portRange must not end before it begins: " + portRange);
+                }
+                for (int port = firstPort; port <= lastPort; port++) {
+                    ports.add(port);
+                }
+            }
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException(
+                    "portRange must be a string representing an integer value or an integer range",
+                    nfe
+            );
+        }
+        return ports;
+    }
+
+
+    /**
+     * Returns the addresses of the servers hosting the database.
+     *
+     * @return an unmodifiable list of the addresses
+     */
+    public List<RemoteAddress> getAddresses() {
+        return addresses;
+    }
+
+
+    /**
+     * Returns an OrientDB multi-address url containing every address, in the order they were specified.
+     *
+     * @return the database url
+     */
+    public String getDatabaseUrl() {
+        return buildDatabaseUrl(addresses);
+    }
+
+
+    /**
+     * Returns an OrientDB multi-address url listing the specified address first, followed by the other available
+     * addresses and then the addresses which have failed.  The OrientDB client connects to the first address and
+     * falls back to the following addresses in order.
+     *
+     * @param firstAddress the address to list first
+     * @return the database url
+     */
+    public String getDatabaseUrl(final RemoteAddress firstAddress) {
+        final List<RemoteAddress> orderedAddresses = new ArrayList<>();
+        orderedAddresses.add(firstAddress);
+        final List<RemoteAddress> failedAddresses = new ArrayList<>();
+        for (RemoteAddress address : addresses) {
+            if (!address.equals(firstAddress)) {
+                if (failedUntilNanos.containsKey(address)) {
+                    failedAddresses.add(address);
+                } else {
+                    orderedAddresses.add(address);
+                }
+            }
+        }
+        orderedAddresses.addAll(failedAddresses);
+        return buildDatabaseUrl(orderedAddresses);
+    }
+
+
+    /**
+     * Returns an OrientDB url for a single address.
+     *
+     * @param address the address
+     * @return the database url
+     */
+    public String getSingleAddressDatabaseUrl(final RemoteAddress address) {
+        return buildDatabaseUrl(Collections.singletonList(address));
+    }
+
+
+    /**
+     * Builds an OrientDB url from the specified addresses.
+     *
+     * @param urlAddresses the addresses to include in the url
+     * @return the database url
+     */
+    private String buildDatabaseUrl(final List<RemoteAddress> urlAddresses) {
+        StringBuilder databaseUrlStringBuilder = new StringBuilder(OrientDBUtil.Engine.REMOTE.toStringValue());
+        databaseUrlStringBuilder.append(":");
+        for (int i = 0; i < urlAddresses.size(); i++) {
+            if (i > 0) {
+                databaseUrlStringBuilder.append(URL_ADDRESS_SEPARATOR);
+            }
+            databaseUrlStringBuilder.append(urlAddresses.get(i));
+        }
+        if (databasePath != null) {
+            databaseUrlStringBuilder.append(databasePath);
+            if (!databasePath.endsWith("/")) {
+                databaseUrlStringBuilder.append("/");
+            }
+        } else {
+            databaseUrlStringBuilder.append("/");
+        }
+        databaseUrlStringBuilder.append(databaseName);
+        return databaseUrlStringBuilder.toString();
+    }
+
+
+    /**
+     * Selects the address for a new session.
+     *
+     * <p>Only available addresses are considered.  When every address has failed, the address whose cooldown ends
+     * soonest is selected so that callers still make progress.</p>
+     *
+     * @param strategy the selection strategy
+     * @param activeSessions a function returning the number of active sessions of an address
+     * @return the selected address
+     */
+    public RemoteAddress select(final Strategy strategy, final ToIntFunction<RemoteAddress> activeSessions) {
+        Objects.requireNonNull(strategy, "A strategy must be provided");
+        final int addressCount = addresses.size();
+        final int startIndex = Math.floorMod(nextIndex.getAndIncrement(), addressCount);
+        RemoteAddress selected = null;
+        int selectedLoad = Integer.MAX_VALUE;
+        for (int i = 0; i < addressCount; i++) {
+            final RemoteAddress candidate = addresses.get((startIndex + i) % addressCount);
+            if (isAvailable(candidate)) {
+                if (strategy == Strategy.ROUND_ROBIN) {
+                    return candidate;
+                }
+                final int candidateLoad = activeSessions.applyAsInt(candidate);
+                if (candidateLoad < selectedLoad) {
+                    selected = candidate;
+                    selectedLoad = candidateLoad;
+                }
+            }
+        }
+        if (selected == null) {
+            selected = soonestRecovering();
+        }
+        return selected;
+    }
+
+
+    /**
+     * Returns the failed address whose cooldown ends soonest.
+     *
+     * @return the address
+     */
+    private RemoteAddress soonestRecovering() {
+        RemoteAddress soonest = addresses.get(0);
+        long soonestNanos = Long.MAX_VALUE;
+        for (Map.Entry<RemoteAddress, Long> failure : failedUntilNanos.entrySet()) {
+            if (failure.getValue() < soonestNanos) {
+                soonest = failure.getKey();
+                soonestNanos = failure.getValue();
+            }
+        }
+        return soonest;
+    }
+
+
+    /**
+     * Returns whether or not an address is available for selection.  An address whose cooldown has ended is probed
+     * by a single caller, and becomes available again if it can be connected to.
+     *
+     * @param address the address
+     * @return true if the address is available
+     */
+    public boolean isAvailable(final RemoteAddress address) {
+        final Long failedUntil = failedUntilNanos.get(address);
+        if (failedUntil == null) {
+            return true;
+        }
+        final long now = System.nanoTime();
+        if (now - failedUntil < 0) {
+            return false;
+        }
+        final long nextProbeNanos = now + TimeUnit.MILLISECONDS.toNanos(failureCooldownMillis);
+        if (!failedUntilNanos.replace(address, failedUntil, nextProbeNanos)) {
+            return false;
+        }
+        if (address.isReachable(probeTimeoutMillis)) {
+            failedUntilNanos.remove(address);
+            return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Probes an address with a short connection attempt, excluding it from selection for the cooldown period when it
+     * cannot be connected to.
+     *
+     * @param address the address
+     * @return true if the address could be connected to
+     */
+    public boolean probe(final RemoteAddress address) {
+        if (address.isReachable(probeTimeoutMillis)) {
+            return true;
+        }
+        markFailed(address);
+        return false;
+    }
+
+
+    /**
+     * Excludes an address from selection for the cooldown period.
+     *
+     * @param address the address which failed
+     */
+    public void markFailed(final RemoteAddress address) {
+        failedUntilNanos.put(address, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(failureCooldownMillis));
+    }
+
+
+    /**
+     * Returns an address to the selection immediately.
+     *
+     * @param address the address which is available
+     */
+    public void markAvailable(final RemoteAddress address) {
+        failedUntilNanos.remove(address);
+    }
+
+
+}
@@ -0,0 +1,113 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * The schema changes applied by a bootstrap.
+ *
+ * @author Phillip Ross
+ */
+public final class SchemaBootstrapResult {
+
+    /** The names of the classes created. */
+    private final List<String> createdClasses;
+
+    /** The qualified names of the properties created. */
+    private final List<String> createdProperties;
+
+    /** The names of the indexes created. */
+    private final List<String> createdIndexes;
+
+    /** The time in nanoseconds the bootstrap took. */
+    private final long durationNanos;
+
+
+    /**
+     * Constructor allowing the changes and duration to be specified.
+     *
+     * @param createdClasses the names of the classes created
+     * @param createdProperties the qualified names of the properties created
+     * @param createdIndexes the names of the indexes created
+     * @param durationNanos the time in nanoseconds the bootstrap took
+     */
+    public SchemaBootstrapResult(final List<String> createdClasses,
+                                 final List<String> createdProperties,
+                                 final List<String> createdIndexes,
+                                 final long durationNanos) {
+        this.createdClasses = Collections.unmodifiableList(createdClasses);
+        this.createdProperties = Collections.unmodifiableList(createdProperties);
+        this.createdIndexes = Collections.unmodifiableList(createdIndexes);
+        this.durationNanos = durationNanos;
+    }
+
+
+    /**
+     * Returns the names of the classes created.
+     *
+     * @return the created classes
+     */
+    public List<String> getCreatedClasses() {
+        return createdClasses;
+    }
+
+
+    /**
+     * Returns the names of the properties created, qualified by their class names.
+     *
+     * @return the created properties
+     */
+    public List<String> getCreatedProperties() {
+        return createdProperties;
+    }
+
+
+    /**
+     * Returns the names of the indexes created.
+     *
+     * @return the created indexes
+     */
+    public List<String> getCreatedIndexes() {
+        return createdIndexes;
+    }
+
+
+    /**
+     * Returns whether the bootstrap changed the schema.
+     *
+     * @return true if any class, property or index was created
+     */
+    public boolean hasChanges() {
+        return !(createdClasses.isEmpty() && createdProperties.isEmpty() && createdIndexes.isEmpty());
+    }
+
+
+    /**
+     * Returns the time the bootstrap took.
+     *
+     * @return the duration in nanoseconds
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+
+    /**
+     * Returns a summary of the bootstrap.
+     *
+     * @return the string representation of the result
+     */
+    @Override
+    public String toString() {
+        return "SchemaBootstrapResult{createdClasses=" + createdClasses
+                + ", createdProperties=" + createdProperties
+                + ", createdIndexes=" + createdIndexes
+                + ", durationMillis=" + TimeUnit.NANOSECONDS.toMillis(durationNanos)
+                + "}";
+    }
+
+
+}
@@ -0,0 +1,732 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import com.orientechnologies.common.listener.OProgressListener;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OProperty;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+
+/**
+ * Declares classes, properties and indexes and applies the ones missing from the schema of a database.
+ *
+ * <p>Declarations are made in Java or read from a JSON resource, and applying them is additive: classes, properties
+ * and indexes that already exist are left untouched, so a bootstrap can run on every startup and only changes a
+ * database whose schema is behind.  A property that exists with a different type than declared, or an index that
+ * exists with a different type or fields, is reported as an error rather than altered.  Classes and properties are
+ * created from a single session; the missing indexes, whose builds dominate on large clusters, are then built
+ * concurrently, each from its own session of the {@link OrientDBPool}, with their progress reported as they are
+ * filled.</p>
+ *
+ * <p>The JSON form is an object with a classes array:</p>
+ * <pre>
+ * {"classes": [{"name": "Person", "superClass": "V", "abstract": false,
+ *               "properties": [{"name": "email", "type": "STRING"},
+ *                              {"name": "friends", "type": "LINKSET", "linkedClass": "Person"}],
+ *               "indexes": [{"name": "Person.email", "type": "UNIQUE", "fields": ["email"]}]}]}
+ * </pre>
+ *
+ * @author Phillip Ross
+ */
+public class SchemaBootstrapper {
+
+    /** The default number of indexes built concurrently, further limited by the maximum size of the pool. */
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    /** The static logger instance. */
+    private static final Logger logger = LoggerFactory.getLogger(SchemaBootstrapper.class);
+
+    /** The percentage of an index build between progress reports. */
+    private static final float PROGRESS_REPORT_STEP = 10f;
+
+    /** The declared classes, keyed by class name, in declaration order. */
+    private final Map<String, ClassDefinition> classDefinitions = new LinkedHashMap<>();
+
+    /** The maximum number of indexes built concurrently. */
+    private int parallelism = DEFAULT_PARALLELISM;
+
+    /** The consumer of index build progress, receiving index names and percentages. */
+    private BiConsumer<String, Float> progressConsumer;
+
+
+    /**
+     * Reads declarations from a JSON stream encoded in UTF-8.  The stream is not closed.
+     *
+     * @param inputStream the stream the declarations are read from
+     * @return a bootstrapper with the declarations
+     *
+     * @throws IOException when the stream cannot be read
+     */
+    public static SchemaBootstrapper fromJson(final InputStream inputStream) throws IOException {
+        Objects.requireNonNull(inputStream, "An input stream must be provided");
+        final StringBuilder json = new StringBuilder();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            json.append(line).append('\n');
+        }
+        final SchemaBootstrapper schemaBootstrapper = new SchemaBootstrapper();
+        final ODocument root = new ODocument().fromJSON(json.toString());
+        for (Object classNode : nodes(root, "classes")) {
+            final String className = text(classNode, "name", true);
+            schemaBootstrapper.addClass(className, text(classNode, "superClass", false));
+            if (Boolean.parseBoolean(text(classNode, "abstract", false))) {
+                schemaBootstrapper.setAbstract(className, true);
+            }
+            for (Object propertyNode : nodes(classNode, "properties")) {
+                schemaBootstrapper.addProperty(
+                        className,
+                        text(propertyNode, "name", true),
+                        OType.valueOf(text(propertyNode, "type", true).toUpperCase()),
+                        text(propertyNode, "linkedClass", false)
+                );
+            }
+            for (Object indexNode : nodes(classNode, "indexes")) {
+                final List<String> fields = new ArrayList<>();
+                for (Object field : nodes(indexNode, "fields")) {
+                    fields.add(String.valueOf(field));
+                }
+                schemaBootstrapper.addIndex(
+                        className,
+                        text(indexNode, "name", true),
+                        OClass.INDEX_TYPE.valueOf(text(indexNode, "type", true).toUpperCase()),
+                        fields.toArray(new String[fields.size()])
+                );
+            }
+        }
+        return schemaBootstrapper;
+    }
+
+
+    /**
+     * Reads declarations from a JSON resource on the classpath.
+     *
+     * @param resourceName the name of the resource
+     * @return a bootstrapper with the declarations
+     *
+     * @throws IOException when the resource cannot be read
+     */
+    public static SchemaBootstrapper fromResource(final String resourceName) throws IOException {
+        Objects.requireNonNull(resourceName, "A resource name must be provided");
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        try (InputStream inputStream = classLoader.getResourceAsStream(resourceName)) {
+            if (inputStream == null) {
+                throw new IllegalArgumentException("No resource named " + resourceName + " was found");
+            }
+            return fromJson(inputStream);
+        }
+    }
+
+
+    /**
+     * Declares a class without a superclass.
+     *
+     * @param className the name of the class
+     * @return this bootstrapper
+     */
+    public SchemaBootstrapper addClass(final String className) {
+        return addClass(className, null);
+    }
+
+
+    /**
+     * Declares a class.  Declaring a class that already exists in the schema is allowed, and lets properties and
+     * indexes be declared on it.
+     *
+     * @param className the name of the class
+     * @param superClassName the name of the superclass, or null
+     * @return this bootstrapper
+     */
+    public SchemaBootstrapper addClass(final String className, final String superClassName) {
+        Objects.requireNonNull(className, "A class name must be provided");
+        if (classDefinitions.containsKey(className)) {
+            throw new IllegalArgumentException("Class " + className + " has already been declared");
+        }
+        classDefinitions.put(className, new ClassDefinition(className, superClassName));
+        return this;
+    }
+
+
+    /**
+     * Sets whether a declared class is created abstract.
+     *
+     * @param className the name of the class
+     * @param abstractClass whether the class is abstract
+     * @return this bootstrapper
+     */
+    public SchemaBootstrapper setAbstract(final String className, final boolean abstractClass) {
+        classDefinition(className).abstractClass = abstractClass;
+        return this;
+    }
+
+
+    /**
+     * Declares a property of a declared class.
+     *
+     * @param className the name of the class
+     * @param propertyName the name of the property
+     * @param type the type of the property
+     * @return this bootstrapper
+     */
+    public SchemaBootstrapper addProperty(final String className, final String propertyName, final OType type) {
+        return addProperty(className, propertyName, type, null);
+    }
+
+
+    /**
+     * Declares a property of a declared class, linking or embedding another class.
+     *
+     * @param className the name of the class
+     * @param propertyName the name of the property
+     * @param type the type of the property
+     * @param linkedClassName the name of the linked class, or null
+     * @return this bootstrapper
+     */
+    public SchemaBootstrapper addProperty(final String className,
+                                          final String propertyName,
+                                          final OType type,
+                                          final String linkedClassName) {
+        Objects.requireNonNull(propertyName, "A property name must be provided");
+        Objects.requireNonNull(type, "A type must be provided");
+        final ClassDefinition classDefinition = classDefinition(className);
+        if (classDefinition.properties.containsKey(propertyName)) {
+            throw new IllegalArgumentException("Property " + className + "." + propertyName + " is already declared");
+        }
+        classDefinition.properties.put(propertyName, new PropertyDefinition(propertyName, type, linkedClassName));
+        return this;
+    }
+
+
+    /**
+     * Declares an index on properties of a declared class.
+     *
+     * @param className the name of the class
+     * @param indexName the name of the index
+     * @param indexType the type of the index
+     * @param fields the indexed properties
+     * @return this bootstrapper
+     */
+    public SchemaBootstrapper addIndex(final String className,
+                                       final String indexName,
+                                       final OClass.INDEX_TYPE indexType,
+                                       final String... fields) {
+        Objects.requireNonNull(indexName, "An index name must be provided");
+        Objects.requireNonNull(indexType, "An index type must be provided");
+        if ((fields == null) || (fields.length == 0)) {
+            throw new IllegalArgumentException("Index " + indexName + " must have at least one field");
+        }
+        classDefinition(className).indexes.add(new IndexDefinition(indexName, indexType, fields));
+        return this;
+    }
+
+
+    /**
+     * Sets the maximum number of indexes built concurrently.
+     *
+     * @param parallelism the number of concurrent index builds
+     * @return this bootstrapper
+     */
+    public SchemaBootstrapper setParallelism(final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+
+    /**
+     * Sets the consumer of index build progress.  It is called from the threads building indexes with the name of
+     * an index and the percentage of it built, at the start, about every ten percent and at the end of a build.
+     *
+     * @param progressConsumer the consumer of progress, or null
+     * @return this bootstrapper
+     */
+    public SchemaBootstrapper setProgressConsumer(final BiConsumer<String, Float> progressConsumer) {
+        this.progressConsumer = progressConsumer;
+        return this;
+    }
+
+
+    /**
+     * Creates the declared classes, properties and indexes missing from the schema of the database of a pool.
+     *
+     * @param pool the pool sessions are acquired from
+     * @return the changes applied
+     *
+     * @throws IllegalStateException when the schema conflicts with the declarations, or an index cannot be built
+     */
+    public SchemaBootstrapResult apply(final OrientDBPool pool) {
+        Objects.requireNonNull(pool, "A pool must be provided");
+        final long startNanos = System.nanoTime();
+        final List<String> createdClasses = new ArrayList<>();
+        final List<String> createdProperties = new ArrayList<>();
+        final Map<IndexDefinition, String> missingIndexes = new LinkedHashMap<>();
+        try (PooledSession session = pool.acquire()) {
+            final OSchema schema = session.getDatabase().getMetadata().getSchema();
+            for (ClassDefinition classDefinition : classDefinitions.values()) {
+                createClass(schema, classDefinition, createdClasses);
+            }
+            for (ClassDefinition classDefinition : classDefinitions.values()) {
+                final OClass oClass = schema.getClass(classDefinition.name);
+                for (PropertyDefinition propertyDefinition : classDefinition.properties.values()) {
+                    if (createProperty(schema, oClass, propertyDefinition)) {
+                        createdProperties.add(classDefinition.name + "." + propertyDefinition.name);
+                    }
+                }
+                for (IndexDefinition indexDefinition : classDefinition.indexes) {
+                    if (isIndexMissing(oClass, indexDefinition)) {
+                        missingIndexes.put(indexDefinition, classDefinition.name);
+                    }
+                }
+            }
+        }
+        final List<String> createdIndexes = buildIndexes(pool, missingIndexes);
+        final SchemaBootstrapResult result = new SchemaBootstrapResult(
+                createdClasses,
+                createdProperties,
+                createdIndexes,
+                System.nanoTime() - startNanos
+        );
+        logger.info("Bootstrapped schema of {}: {}", pool.getDatabaseUrl(), result);
+        return result;
+    }
+
+
+    /**
+     * Creates a declared class if it is missing, after creating its declared superclass if that is missing.
+     *
+     * @param schema the schema of the database
+     * @param classDefinition the declaration of the class
+     * @param createdClasses the names of the classes created, added to
+     * @return the class
+     */
+    private OClass createClass(final OSchema schema,
+                               final ClassDefinition classDefinition,
+                               final List<String> createdClasses) {
+        final OClass existing = schema.getClass(classDefinition.name);
+        if (existing != null) {
+            return existing;
+        }
+        OClass superClass = null;
+        if (classDefinition.superClassName != null) {
+            final ClassDefinition superClassDefinition = classDefinitions.get(classDefinition.superClassName);
+            if (superClassDefinition != null) {
+                superClass = createClass(schema, superClassDefinition, createdClasses);
+            } else {
+                superClass = schema.getClass(classDefinition.superClassName);
+            }
+            if (superClass == null) {
+                throw new IllegalStateException("Superclass " + classDefinition.superClassName + " of "
+                        + classDefinition.name + " is neither declared nor in the schema");
+            }
+        }
+        final OClass oClass;
+        if (superClass == null) {
+            oClass = schema.createClass(classDefinition.name);
+        } else {
+            oClass = schema.createClass(classDefinition.name, superClass);
+        }
+        if (classDefinition.abstractClass) {
+            oClass.setAbstract(true);
+        }
+        createdClasses.add(classDefinition.name);
+        return oClass;
+    }
+
+
+    /**
+     * Creates a declared property if it is missing from a class.
+     *
+     * @param schema the schema of the database
+     * @param oClass the class the property belongs to
+     * @param propertyDefinition the declaration of the property
+     * @return true if the property was created
+     *
+     * @throws IllegalStateException when the property exists with another type
+     */
+    private static boolean createProperty(final OSchema schema,
+                                          final OClass oClass,
+                                          final PropertyDefinition propertyDefinition) {
+        final OProperty existing = oClass.getProperty(propertyDefinition.name);
+        if (existing != null) {
+            if (existing.getType() != propertyDefinition.type) {
+                throw new IllegalStateException("Property " + oClass.getName() + "." + propertyDefinition.name
+                        + " is " + existing.getType() + " in the schema but declared " + propertyDefinition.type);
+            }
+            return false;
+        }
+        if (propertyDefinition.linkedClassName == null) {
+            oClass.createProperty(propertyDefinition.name, propertyDefinition.type);
+        } else {
+            final OClass linkedClass = schema.getClass(propertyDefinition.linkedClassName);
+            if (linkedClass == null) {
+                throw new IllegalStateException("Linked class " + propertyDefinition.linkedClassName + " of "
+                        + oClass.getName() + "." + propertyDefinition.name + " is not in the schema");
+            }
+            oClass.createProperty(propertyDefinition.name, propertyDefinition.type, linkedClass);
+        }
+        return true;
+    }
+
+
+    /**
+     * Returns whether or not a declared index is missing from a class.
+     *
+     * @param oClass the class the index belongs to
+     * @param indexDefinition the declaration of the index
+     * @return true if the index does not exist
+     *
+     * @throws IllegalStateException when the index exists with another type or other fields
+     */
+    private static boolean isIndexMissing(final OClass oClass, final IndexDefinition indexDefinition) {
+        final OIndex<?> existing = oClass.getClassIndex(indexDefinition.name);
+        if (existing == null) {
+            return true;
+        }
+        final List<String> declaredFields = Arrays.asList(indexDefinition.fields);
+        final List<String> existingFields = existing.getDefinition().getFields();
+        if ((!indexDefinition.type.name().equalsIgnoreCase(existing.getType()))
+                || (!declaredFields.equals(existingFields))) {
+            throw new IllegalStateException("Index " + indexDefinition.name + " is " + existing.getType() + " on "
+                    + existingFields + " in the schema but declared " + indexDefinition.type + " on " + declaredFields);
+        }
+        return false;
+    }
+
+
+    /**
+     * Builds indexes concurrently, each from its own session, and waits for all of them.  No more indexes are built
+     * at once than the maximum number of sessions of a bounded pool.
+     *
+     * @param pool the pool sessions are acquired from
+     * @param missingIndexes the declarations of the indexes to build, mapped to the names of their classes
+     * @return the names of the indexes built
+     *
+     * @throws IllegalStateException when an index cannot be built
+     */
+    private List<String> buildIndexes(final OrientDBPool pool, final Map<IndexDefinition, String> missingIndexes) {
+        if (missingIndexes.isEmpty()) {
+            return Collections.emptyList();
+        }
+        int threadCount = Math.min(parallelism, missingIndexes.size());
+        if (pool.getMaxSize() > 0) {
+            threadCount = Math.min(threadCount, pool.getMaxSize());
+        }
+        final ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            final List<Future<String>> futures = new ArrayList<>();
+            for (Map.Entry<IndexDefinition, String> missingIndex : missingIndexes.entrySet()) {
+                futures.add(executorService.submit(() -> buildIndex(pool, missingIndex.getValue(),
+                        missingIndex.getKey())));
+            }
+            final List<String> createdIndexes = new ArrayList<>();
+            IllegalStateException failure = null;
+            for (Future<String> future : futures) {
+                try {
+                    createdIndexes.add(future.get());
+                } catch (ExecutionException ee) {
+                    if (failure == null) {
+                        failure = new IllegalStateException("Unable to build index", ee.getCause());
+                    } else {
+                        failure.addSuppressed(ee.getCause());
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for indexes to be built", ie);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return createdIndexes;
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Builds an index from a session of its own.
+     *
+     * @param pool the pool the session is acquired from
+     * @param className the name of the class the index belongs to
+     * @param indexDefinition the declaration of the index
+     * @return the name of the index
+     */
+    private String buildIndex(final OrientDBPool pool, final String className, final IndexDefinition indexDefinition) {
+        final long startNanos = System.nanoTime();
+        try (PooledSession session = pool.acquire()) {
+            final ODatabaseDocumentTx db = session.getDatabase();
+            final OClass oClass = db.getMetadata().getSchema().getClass(className);
+            oClass.createIndex(
+                    indexDefinition.name,
+                    indexDefinition.type.name(),
+                    new IndexProgressListener(indexDefinition.name),
+                    null,
+                    indexDefinition.fields
+            );
+        }
+        logger.info("Built index {} on {}{} in {}ms", indexDefinition.name, className,
+                Arrays.toString(indexDefinition.fields), (System.nanoTime() - startNanos) / 1_000_000L);
+        return indexDefinition.name;
+    }
+
+
+    /**
+     * Returns the declaration of a declared class.
+     *
+     * @param className the name of the class
+     * @return the declaration
+     */
+    private ClassDefinition classDefinition(final String className) {
+        Objects.requireNonNull(className, "A class name must be provided");
+        final ClassDefinition classDefinition = classDefinitions.get(className);
+        if (classDefinition == null) {
+            throw new IllegalArgumentException("Class " + className + " has not been declared");
+        }
+        return classDefinition;
+    }
+
+
+    /**
+     * Returns a named attribute of a parsed JSON object, which is either a document or a map.
+     *
+     * @param node the parsed object
+     * @param name the name of the attribute
+     * @return the value of the attribute, or null
+     */
+    private static Object attribute(final Object node, final String name) {
+        if (node instanceof ODocument) {
+            return ((ODocument) node).field(name);
+        }
+        if (node instanceof Map) {
+            return ((Map<?, ?>) node).get(name);
+        }
+        throw new IllegalArgumentException("Expected a JSON object but found " + node);
+    }
+
+
+    /**
+     * Returns a named attribute of a parsed JSON object as a string.
+     *
+     * @param node the parsed object
+     * @param name the name of the attribute
+     * @param required whether a missing attribute is an error
+     * @return the value of the attribute, or null
+     */
+    private static String text(final Object node, final String name, final boolean required) {
+        final Object value = attribute(node, name);
+        if (value == null) {
+            if (required) {
+                throw new IllegalArgumentException("Missing attribute " + name + " in " + node);
+            }
+            return null;
+        }
+        return String.valueOf(value);
+    }
+
+
+    /**
+     * Returns a named array attribute of a parsed JSON object.
+     *
+     * @param node the parsed object
+     * @param name the name of the attribute
+     * @return the elements of the array, empty when the attribute is missing
+     */
+    private static Collection<?> nodes(final Object node, final String name) {
+        final Object value = attribute(node, name);
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        if (value instanceof Collection) {
+            return (Collection<?>) value;
+        }
+        throw new IllegalArgumentException("Expected attribute " + name + " to be an array in " + node);
+    }
+
+
+    /**
+     * Reports the progress of an index build to the logger and the progress consumer.
+     */
+    private final class IndexProgressListener implements OProgressListener {
+
+        /** The name of the index. */
+        private final String indexName;
+
+        /** The percentage last reported. */
+        private float reportedPercent = -PROGRESS_REPORT_STEP;
+
+
+        /**
+         * Constructor allowing the index name to be specified.
+         *
+         * @param indexName the name of the index
+         */
+        IndexProgressListener(final String indexName) {
+            this.indexName = indexName;
+        }
+
+
+        @Override
+        public void onBegin(final Object task, final long total, final Object metadata) {
+            logger.debug("Building index {} over {} records", indexName, total);
+            report(0f);
+        }
+
+
+        @Override
+        public boolean onProgress(final Object task, final long counter, final float percent) {
+            if (percent - reportedPercent >= PROGRESS_REPORT_STEP) {
+                logger.debug("Index {} is {}% built", indexName, percent);
+                report(percent);
+            }
+            return true;
+        }
+
+
+        @Override
+        public void onCompletition(final Object task, final boolean succeeded) {
+            if (succeeded) {
+                report(100f);
+            }
+        }
+
+
+        /**
+         * Passes a percentage to the progress consumer.
+         *
+         * @param percent the percentage of the index built
+         */
+        private void report(final float percent) {
+            reportedPercent = percent;
+            if (progressConsumer != null) {
+                progressConsumer.accept(indexName, percent);
+            }
+        }
+
+    }
+
+
+    /**
+     * The declaration of a class.
+     */
+    private static final class ClassDefinition {
+
+        /** The name of the class. */
+        private final String name;
+
+        /** The name of the superclass, or null. */
+        private final String superClassName;
+
+        /** The declared properties, keyed by property name. */
+        private final Map<String, PropertyDefinition> properties = new LinkedHashMap<>();
+
+        /** The declared indexes. */
+        private final List<IndexDefinition> indexes = new ArrayList<>();
+
+        /** Whether the class is created abstract. */
+        private boolean abstractClass;
+
+
+        /**
+         * Constructor allowing the names to be specified.
+         *
+         * @param name the name of the class
+         * @param superClassName the name of the superclass, or null
+         */
+        ClassDefinition(final String name, final String superClassName) {
+            this.name = name;
+            this.superClassName = superClassName;
+        }
+
+    }
+
+
+    /**
+     * The declaration of a property.
+     */
+    private static final class PropertyDefinition {
+
+        /** The name of the property. */
+        private final String name;
+
+        /** The type of the property. */
+        private final OType type;
+
+        /** The name of the linked class, or null. */
+        private final String linkedClassName;
+
+
+        /**
+         * Constructor allowing the attributes to be specified.
+         *
+         * @param name the name of the property
+         * @param type the type of the property
+         * @param linkedClassName the name of the linked class, or null
+         */
+        PropertyDefinition(final String name, final OType type, final String linkedClassName) {
+            this.name = name;
+            this.type = type;
+            this.linkedClassName = linkedClassName;
+        }
+
+    }
+
+
+    /**
+     * The declaration of an index.
+     */
+    private static final class IndexDefinition {
+
+        /** The name of the index. */
+        private final String name;
+
+        /** The type of the index. */
+        private final OClass.INDEX_TYPE type;
+
+        /** The indexed properties. */
+        private final String[] fields;
+
+
+        /**
+         * Constructor allowing the attributes to be specified.
+         *
+         * @param name the name of the index
+         * @param type the type of the index
+         * @param fields the indexed properties
+         */
+        IndexDefinition(final String name, final OClass.INDEX_TYPE type, final String[] fields) {
+            this.name = name;
+            this.type = type;
+            this.fields = fields.clone();
+        }
+
+    }
+
+
+}
@@ -0,0 +1,465 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+
+/**
+ * Runs database work on worker threads which each own a long-lived session from an {@link OrientDBPool}.
+ *
+ * <p>OrientDB sessions are bound to the thread they are used on, so work cannot simply be handed to a shared thread
+ * pool or to virtual threads without attaching and detaching a session for every call.  Each worker of this executor
+ * keeps one session for its whole life and runs the work queued for it, taking up to {@code maxBatchSize} tasks at a
+ * time off its queue.  Work is submitted as a function of the database and returns a {@link CompletableFuture}.</p>
+ *
+ * <p>Work without a key goes to the worker with the shortest queue.  Work submitted with a key always goes to the
+ * same worker, so that work for the same key runs in submission order.  When the queue of the chosen worker is full,
+ * the returned future fails with a {@link RejectedExecutionException}.</p>
+ *
+ * <p>Futures are completed on the worker thread, so dependent stages which are not asynchronous also run there and
+ * delay the work queued behind them.  Expensive continuations should use the asynchronous variants of the
+ * {@link CompletableFuture} methods.</p>
+ *
+ * @author Phillip Ross
+ */
+public class SessionExecutor implements AutoCloseable {
+
+    /** The default number of tasks waiting for each worker. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /** The default maximum number of tasks a worker takes off its queue at a time. */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+    /** The static logger instance. */
+    private static final Logger logger = LoggerFactory.getLogger(SessionExecutor.class);
+
+    /** The time in milliseconds between checks for shutdown while a worker is idle. */
+    private static final long POLL_INTERVAL_MILLIS = 100L;
+
+    /** The number of executors created so far, used for thread names. */
+    private static final AtomicInteger EXECUTOR_COUNT = new AtomicInteger();
+
+    /** The pool sessions are acquired from. */
+    private final OrientDBPool pool;
+
+    /** The maximum number of tasks a worker takes off its queue at a time. */
+    private final int maxBatchSize;
+
+    /** The workers. */
+    private final List<Worker> workers;
+
+    /** The number of tasks completed. */
+    private final LongAdder completedTaskCount = new LongAdder();
+
+    /** The number of batches taken off worker queues. */
+    private final LongAdder batchCount = new LongAdder();
+
+    /** Whether the executor has been shut down. */
+    private volatile boolean shutdown;
+
+
+    /**
+     * Constructor allowing the pool and number of workers to be specified, using the default queue capacity and
+     * batch size.
+     *
+     * @param pool the pool sessions are acquired from
+     * @param workerCount the number of workers
+     */
+    public SessionExecutor(final OrientDBPool pool, final int workerCount) {
+        this(pool, workerCount, DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+
+    /**
+     * Constructor allowing the pool, number of workers, queue capacity and batch size to be specified.
+     *
+     * @param pool the pool sessions are acquired from
+     * @param workerCount the number of workers
+     * @param queueCapacity the number of tasks waiting for each worker
+     * @param maxBatchSize the maximum number of tasks a worker takes off its queue at a time
+     */
+    public SessionExecutor(final OrientDBPool pool,
+                           final int workerCount,
+                           final int queueCapacity,
+                           final int maxBatchSize) {
+        Objects.requireNonNull(pool, "A pool must be provided");
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("workerCount must be positive");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be positive");
+        }
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        this.pool = pool;
+        this.maxBatchSize = maxBatchSize;
+        final int executorNumber = EXECUTOR_COUNT.incrementAndGet();
+        final List<Worker> workerList = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            final Worker worker = new Worker(queueCapacity);
+            final Thread thread = new Thread(worker, "orientdb-session-executor-" + executorNumber + "-" + i);
+            thread.setDaemon(true);
+            worker.thread = thread;
+            workerList.add(worker);
+        }
+        this.workers = workerList;
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+    }
+
+
+    /**
+     * Submits work to the worker with the shortest queue.
+     *
+     * @param work the work, a function of the worker's database
+     * @param <T> the type of the result of the work
+     * @return the future result of the work
+     */
+    public <T> CompletableFuture<T> submit(final Function<ODatabaseDocumentTx, T> work) {
+        Worker selected = workers.get(0);
+        for (int i = 1; i < workers.size(); i++) {
+            final Worker candidate = workers.get(i);
+            if (candidate.queue.size() < selected.queue.size()) {
+                selected = candidate;
+            }
+        }
+        return enqueue(selected, work);
+    }
+
+
+    /**
+     * Submits work to the worker assigned to a key, so that work with equal keys runs in submission order.
+     *
+     * @param key the key
+     * @param work the work, a function of the worker's database
+     * @param <T> the type of the result of the work
+     * @return the future result of the work
+     */
+    public <T> CompletableFuture<T> submit(final Object key, final Function<ODatabaseDocumentTx, T> work) {
+        Objects.requireNonNull(key, "A key must be provided");
+        return enqueue(workers.get(Math.floorMod(key.hashCode(), workers.size())), work);
+    }
+
+
+    /**
+     * Submits work without a result to the worker with the shortest queue.
+     *
+     * @param work the work, a consumer of the worker's database
+     * @return the future completed when the work has run
+     */
+    public CompletableFuture<Void> execute(final Consumer<ODatabaseDocumentTx> work) {
+        Objects.requireNonNull(work, "Work must be provided");
+        return submit(db -> {
+            work.accept(db);
+            return null;
+        });
+    }
+
+
+    /**
+     * Queues a task for a worker.
+     *
+     * @param worker the worker
+     * @param work the work
+     * @param <T> the type of the result of the work
+     * @return the future result of the work
+     */
+    private <T> CompletableFuture<T> enqueue(final Worker worker, final Function<ODatabaseDocumentTx, T> work) {
+        Objects.requireNonNull(work, "Work must be provided");
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        if (shutdown) {
+            future.completeExceptionally(new RejectedExecutionException("The executor has been shut down"));
+            return future;
+        }
+        final Task<T> task = new Task<>(work, future);
+        if (!worker.queue.offer(task)) {
+            future.completeExceptionally(new RejectedExecutionException("The queue of " + worker.thread.getName()
+                    + " is full"));
+        } else if (shutdown && worker.queue.remove(task)) {
+            // Shut down while queueing; the worker may already have found its queue empty and stopped.
+            task.fail(new RejectedExecutionException("The executor has been shut down"));
+        }
+        return future;
+    }
+
+
+    /**
+     * Returns the number of tasks waiting for a worker.
+     *
+     * @return the number of queued tasks
+     */
+    public int getQueuedTaskCount() {
+        int queued = 0;
+        for (Worker worker : workers) {
+            queued += worker.queue.size();
+        }
+        return queued;
+    }
+
+
+    /**
+     * Returns the number of tasks completed, successfully or not.
+     *
+     * @return the number of completed tasks
+     */
+    public long getCompletedTaskCount() {
+        return completedTaskCount.sum();
+    }
+
+
+    /**
+     * Returns the number of batches workers took off their queues.
+     *
+     * @return the number of batches
+     */
+    public long getBatchCount() {
+        return batchCount.sum();
+    }
+
+
+    /**
+     * Returns the number of workers.
+     *
+     * @return the worker count
+     */
+    public int getWorkerCount() {
+        return workers.size();
+    }
+
+
+    /** Stops accepting work.  Queued work still runs, after which the workers return their sessions to the pool. */
+    public void shutdown() {
+        shutdown = true;
+    }
+
+
+    /**
+     * Returns whether the executor has been shut down.
+     *
+     * @return true if the executor has been shut down
+     */
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+
+    /**
+     * Waits for the workers to finish after a shutdown.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return true if every worker finished, false if the timeout elapsed first
+     *
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Worker worker : workers) {
+            final long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis > 0) {
+                worker.thread.join(remainingMillis);
+            }
+            if (worker.thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /** Shuts down the executor and waits for the queued work to run. */
+    @Override
+    public void close() {
+        shutdown();
+        try {
+            for (Worker worker : workers) {
+                worker.thread.join();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Work and the future receiving its result.
+     *
+     * @param <T> the type of the result of the work
+     */
+    private static final class Task<T> {
+
+        /** The work. */
+        private final Function<ODatabaseDocumentTx, T> work;
+
+        /** The future receiving the result of the work. */
+        private final CompletableFuture<T> future;
+
+
+        /**
+         * Constructor allowing the work and future to be specified.
+         *
+         * @param work the work
+         * @param future the future receiving the result of the work
+         */
+        Task(final Function<ODatabaseDocumentTx, T> work, final CompletableFuture<T> future) {
+            this.work = work;
+            this.future = future;
+        }
+
+
+        /**
+         * Runs the work against a database and completes the future with its outcome.
+         *
+         * @param db the database
+         */
+        void run(final ODatabaseDocumentTx db) {
+            try {
+                future.complete(work.apply(db));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        }
+
+
+        /**
+         * Fails the future without running the work.
+         *
+         * @param cause the failure
+         */
+        void fail(final Throwable cause) {
+            future.completeExceptionally(cause);
+        }
+
+
+    }
+
+
+    /**
+     * A worker thread owning a session and a queue of tasks.
+     */
+    private final class Worker implements Runnable {
+
+        /** The tasks waiting for the worker. */
+        private final BlockingQueue<Task<?>> queue;
+
+        /** The tasks taken off the queue for the current batch. */
+        private final List<Task<?>> batch = new ArrayList<>();
+
+        /** The thread running the worker. */
+        private Thread thread;
+
+        /** The session owned by the worker, acquired on first use. */
+        private PooledSession session;
+
+
+        /**
+         * Constructor allowing the queue capacity to be specified.
+         *
+         * @param queueCapacity the number of tasks waiting for the worker
+         */
+        Worker(final int queueCapacity) {
+            this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        }
+
+
+        /** Runs batches of tasks until the executor is shut down and the queue is empty. */
+        @Override
+        public void run() {
+            try {
+                while (!(shutdown && queue.isEmpty())) {
+                    final Task<?> first = queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (first != null) {
+                        batch.add(first);
+                        queue.drainTo(batch, maxBatchSize - 1);
+                        runBatch();
+                    }
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                final RejectedExecutionException rejection = new RejectedExecutionException(
+                        "The worker was interrupted before running the task"
+                );
+                queue.drainTo(batch);
+                for (Task<?> task : batch) {
+                    task.fail(rejection);
+                }
+            } finally {
+                releaseSession();
+            }
+        }
+
+
+        /** Runs the tasks of the current batch with the worker's session. */
+        private void runBatch() {
+            batchCount.increment();
+            try {
+                final ODatabaseDocumentTx db = getDatabase();
+                for (Task<?> task : batch) {
+                    task.run(db);
+                    if (db.getTransaction().isActive()) {
+                        logger.warn("Rolling back a transaction left open by a task on {}", thread.getName());
+                        db.rollback();
+                    }
+                }
+            } catch (Throwable t) {
+                // The session could not be acquired or is unusable; fail what is left and start over next time.
+                logger.warn("Session of {} failed", thread.getName(), t);
+                for (Task<?> task : batch) {
+                    task.fail(t);
+                }
+                releaseSession();
+            } finally {
+                completedTaskCount.add(batch.size());
+                batch.clear();
+            }
+        }
+
+
+        /**
+         * Returns the database of the worker's session, acquiring a session when the worker has none.
+         *
+         * @return the database
+         */
+        private ODatabaseDocumentTx getDatabase() {
+            if ((session == null) || session.isClosed() || session.getDatabase().isClosed()) {
+                releaseSession();
+                session = pool.acquire();
+            }
+            return session.getDatabase();
+        }
+
+
+        /** Returns the worker's session to the pool. */
+        private void releaseSession() {
+            if (session != null) {
+                try {
+                    session.close();
+                } catch (Throwable t) {
+                    logger.debug("Unable to close the session of {}", thread.getName(), t);
+                }
+                session = null;
+            }
+        }
+
+
+    }
+
+
+}
@@ -0,0 +1,211 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A command captured by a {@link SlowQueryLog} because it ran longer than the threshold.
+ *
+ * @author Phillip Ross
+ */
+public final class SlowQuery {
+
+    /** The JSON format of captured commands, without record metadata. */
+    private static final String JSON_FORMAT = "";
+
+    /** The position of the command in the sequence of captured commands. */
+    private final long sequence;
+
+    /** The time the command finished, in milliseconds since the epoch. */
+    private final long timestampMillis;
+
+    /** The name of the database the command ran against. */
+    private final String databaseName;
+
+    /** The text of the command. */
+    private final String text;
+
+    /** The string forms of the parameters of the command, keyed by name or position. */
+    private final Map<String, String> parameters;
+
+    /** The time in nanoseconds the command took. */
+    private final long durationNanos;
+
+    /** The number of records returned or affected, or -1 when unknown. */
+    private final long recordCount;
+
+    /** The execution plan in JSON, or null. */
+    private final String executionPlan;
+
+    /** The name of the thread the command ran on. */
+    private final String threadName;
+
+
+    /**
+     * Constructor allowing every attribute to be specified.
+     *
+     * @param sequence the position of the command in the sequence of captured commands
+     * @param timestampMillis the time the command finished, in milliseconds since the epoch
+     * @param databaseName the name of the database the command ran against
+     * @param text the text of the command
+     * @param parameters the string forms of the parameters of the command, keyed by name or position
+     * @param durationNanos the time in nanoseconds the command took
+     * @param recordCount the number of records returned or affected, or -1 when unknown
+     * @param executionPlan the execution plan in JSON, or null
+     * @param threadName the name of the thread the command ran on
+     */
+    public SlowQuery(final long sequence,
+                     final long timestampMillis,
+                     final String databaseName,
+                     final String text,
+                     final Map<String, String> parameters,
+                     final long durationNanos,
+                     final long recordCount,
+                     final String executionPlan,
+                     final String threadName) {
+        this.sequence = sequence;
+        this.timestampMillis = timestampMillis;
+        this.databaseName = databaseName;
+        this.text = text;
+        this.parameters = Collections.unmodifiableMap(parameters);
+        this.durationNanos = durationNanos;
+        this.recordCount = recordCount;
+        this.executionPlan = executionPlan;
+        this.threadName = threadName;
+    }
+
+
+    /**
+     * Returns the position of the command in the sequence of captured commands.
+     *
+     * @return the sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+
+    /**
+     * Returns the time the command finished.
+     *
+     * @return the timestamp in milliseconds since the epoch
+     */
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+
+    /**
+     * Returns the name of the database the command ran against.
+     *
+     * @return the database name
+     */
+    public String getDatabaseName() {
+        return databaseName;
+    }
+
+
+    /**
+     * Returns the text of the command.
+     *
+     * @return the command text
+     */
+    public String getText() {
+        return text;
+    }
+
+
+    /**
+     * Returns the string forms of the parameters of the command, keyed by name or position.
+     *
+     * @return the parameters
+     */
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+
+    /**
+     * Returns the time the command took.
+     *
+     * @return the duration in nanoseconds
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+
+    /**
+     * Returns the number of records the command returned or affected.
+     *
+     * @return the record count, or -1 when unknown
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+
+    /**
+     * Returns the execution plan of the command, as returned by EXPLAIN.
+     *
+     * @return the execution plan in JSON, or null when none was captured
+     */
+    public String getExecutionPlan() {
+        return executionPlan;
+    }
+
+
+    /**
+     * Returns the name of the thread the command ran on.
+     *
+     * @return the thread name
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+
+
+    /**
+     * Returns the captured command as a JSON object.
+     *
+     * @return the JSON representation
+     */
+    public String toJson() {
+        final ODocument document = new ODocument()
+                .field("sequence", sequence)
+                .field("timestampMillis", timestampMillis)
+                .field("database", databaseName)
+                .field("text", text)
+                .field("parameters", parameters)
+                .field("durationMillis", TimeUnit.NANOSECONDS.toMillis(durationNanos))
+                .field("durationNanos", durationNanos)
+                .field("recordCount", recordCount)
+                .field("thread", threadName);
+        if (executionPlan != null) {
+            document.field("executionPlan", new ODocument().fromJSON(executionPlan));
+        }
+        return document.toJSON(JSON_FORMAT);
+    }
+
+
+    /**
+     * Returns a summary of the captured command.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+        return "SlowQuery{text=" + text
+                + ", database=" + databaseName
+                + ", durationMillis=" + TimeUnit.NANOSECONDS.toMillis(durationNanos)
+                + ", recordCount=" + recordCount
+                + "}";
+    }
+
+
+}
@@ -0,0 +1,613 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import com.orientechnologies.orient.core.Orient;
+import com.orientechnologies.orient.core.command.OCommandExecutor;
+import com.orientechnologies.orient.core.command.OCommandRequestAbstract;
+import com.orientechnologies.orient.core.command.OCommandRequestText;
+import com.orientechnologies.orient.core.db.ODatabase;
+import com.orientechnologies.orient.core.db.ODatabaseInternal;
+import com.orientechnologies.orient.core.db.ODatabaseLifecycleListener;
+import com.orientechnologies.orient.core.db.ODatabaseListener;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentInternal;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Captures the commands slower than a threshold into a bounded ring buffer.
+ *
+ * <p>The log listens to the commands executed by the databases it is registered on, timing each one on the thread
+ * executing it.  Commands below the threshold cost two reads of the clock; a slower command is captured with its
+ * text, parameters, duration and record count, and for SELECT statements with the plan returned by EXPLAIN.  EXPLAIN
+ * executes the statement again, so it only runs for commands already found slow and can be disabled.  Captured
+ * commands are written to a fixed number of slots by an atomic sequence, overwriting the oldest, so capturing never
+ * blocks the command or other captures.</p>
+ *
+ * <p>OrientDB does not notify listeners of commands which fail, so a failed command is not captured.  Its start time
+ * is dropped when an enclosing command completes, or once the failed command is discarded.</p>
+ *
+ * <p>Commands are observed where they are executed: on an embedded server, or in process for plocal and memory
+ * databases.  {@link #register(ODatabaseDocumentTx)} listens to a single database instance, while
+ * {@link #attachToAllDatabases()} listens to every database opened in this JVM from then on, which on an embedded
+ * server covers the commands of remote clients as well.</p>
+ *
+ * @author Phillip Ross
+ */
+public class SlowQueryLog {
+
+    /** The default number of captured commands kept. */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /** The static logger instance. */
+    private static final Logger logger = LoggerFactory.getLogger(SlowQueryLog.class);
+
+    /** The prefix of commands which can be explained. */
+    private static final String EXPLAINABLE_PREFIX = "select";
+
+    /** The prefix of commands which are already explanations. */
+    private static final String EXPLAIN_PREFIX = "explain";
+
+    /** The threshold in nanoseconds above which commands are captured. */
+    private final long thresholdNanos;
+
+    /** The slots of the ring buffer. */
+    private final AtomicReferenceArray<SlowQuery> slots;
+
+    /** The sequence number of the next captured command. */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /** The commands executing on each thread with their start times, innermost last. */
+    private final ThreadLocal<Deque<CommandStart>> commandStarts = ThreadLocal.withInitial(ArrayDeque::new);
+
+    /** Whether the current thread is explaining a captured command, guarding against capturing the explanation. */
+    private final ThreadLocal<Boolean> explaining = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    /** The listener registered on databases. */
+    private final CommandListener commandListener = new CommandListener();
+
+    /** The listener registering the command listener on every database opened. */
+    private final ListenerInstaller listenerInstaller = new ListenerInstaller();
+
+    /** Whether execution plans of slow SELECT statements are captured. */
+    private volatile boolean explainEnabled = true;
+
+
+    /**
+     * Constructor allowing the threshold to be specified, keeping the default number of captured commands.
+     *
+     * @param thresholdMillis the duration in milliseconds above which commands are captured
+     */
+    public SlowQueryLog(final long thresholdMillis) {
+        this(thresholdMillis, DEFAULT_CAPACITY);
+    }
+
+
+    /**
+     * Constructor allowing the threshold and capacity to be specified.
+     *
+     * @param thresholdMillis the duration in milliseconds above which commands are captured
+     * @param capacity the number of captured commands kept
+     */
+    public SlowQueryLog(final long thresholdMillis, final int capacity) {
+        if (thresholdMillis < 0) {
+            throw new IllegalArgumentException("thresholdMillis must not be negative");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+
+    /**
+     * Sets whether the execution plans of slow SELECT statements are captured.  EXPLAIN executes the statement
+     * again, doubling the cost of each captured SELECT.
+     *
+     * @param explainEnabled whether execution plans are captured
+     * @return this log
+     */
+    public SlowQueryLog setExplainEnabled(final boolean explainEnabled) {
+        this.explainEnabled = explainEnabled;
+        return this;
+    }
+
+
+    /**
+     * Listens to the commands of a database instance.
+     *
+     * @param db the database
+     */
+    public void register(final ODatabaseDocumentTx db) {
+        db.registerListener(commandListener);
+    }
+
+
+    /**
+     * Stops listening to the commands of a database instance.
+     *
+     * @param db the database
+     */
+    public void unregister(final ODatabaseDocumentTx db) {
+        db.unregisterListener(commandListener);
+    }
+
+
+    /** Listens to the commands of every database created or opened in this JVM from now on. */
+    public void attachToAllDatabases() {
+        commandListener.attached = true;
+        Orient.instance().addDbLifecycleListener(listenerInstaller);
+    }
+
+
+    /** Stops listening to databases opened from now on, and stops capturing from databases already listened to. */
+    public void detachFromAllDatabases() {
+        Orient.instance().removeDbLifecycleListener(listenerInstaller);
+        commandListener.attached = false;
+    }
+
+
+    /**
+     * Returns the number of commands captured since the log was created, including those overwritten.
+     *
+     * @return the captured count
+     */
+    public long getCapturedCount() {
+        return sequence.get();
+    }
+
+
+    /**
+     * Returns the captured commands still in the buffer, oldest first.
+     *
+     * @return the captured commands
+     */
+    public List<SlowQuery> getSlowQueries() {
+        final List<SlowQuery> slowQueries = new ArrayList<>(slots.length());
+        for (int i = 0; i < slots.length(); i++) {
+            final SlowQuery slowQuery = slots.get(i);
+            if (slowQuery != null) {
+                slowQueries.add(slowQuery);
+            }
+        }
+        slowQueries.sort(Comparator.comparingLong(SlowQuery::getSequence));
+        return slowQueries;
+    }
+
+
+    /**
+     * Writes the captured commands still in the buffer as a JSON array, oldest first.
+     *
+     * @param writer the writer the array is written to
+     *
+     * @throws IOException when the writer fails
+     */
+    public void dumpJson(final Writer writer) throws IOException {
+        writer.write('[');
+        boolean first = true;
+        for (SlowQuery slowQuery : getSlowQueries()) {
+            if (!first) {
+                writer.write(',');
+            }
+            writer.write(slowQuery.toJson());
+            first = false;
+        }
+        writer.write(']');
+        writer.flush();
+    }
+
+
+    /**
+     * Returns the captured commands still in the buffer as a JSON array, oldest first.
+     *
+     * @return the JSON array
+     */
+    public String toJson() {
+        final StringWriter writer = new StringWriter();
+        try {
+            dumpJson(writer);
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Unable to write slow queries", ioe);
+        }
+        return writer.toString();
+    }
+
+
+    /**
+     * Captures a command which ran longer than the threshold.
+     *
+     * @param command the command
+     * @param result the result of the command
+     * @param durationNanos the time in nanoseconds the command took
+     */
+    private void capture(final OCommandRequestText command, final Object result, final long durationNanos) {
+        final ODatabaseDocumentInternal db = ODatabaseRecordThreadLocal.INSTANCE.getIfDefined();
+        final Map<Object, Object> commandParameters = parametersOf(command);
+        final Map<String, String> parameters = new LinkedHashMap<>();
+        if (commandParameters != null) {
+            for (Map.Entry<Object, Object> parameter : commandParameters.entrySet()) {
+                parameters.put(String.valueOf(parameter.getKey()), String.valueOf(parameter.getValue()));
+            }
+        }
+        String databaseName = null;
+        String executionPlan = null;
+        if (db != null) {
+            databaseName = db.getName();
+            if (explainEnabled && (db instanceof ODatabaseDocumentTx)) {
+                executionPlan = explain((ODatabaseDocumentTx) db, command.getText(), commandParameters);
+            }
+        }
+        final long next = sequence.getAndIncrement();
+        final SlowQuery slowQuery = new SlowQuery(
+                next,
+                System.currentTimeMillis(),
+                databaseName,
+                command.getText(),
+                parameters,
+                durationNanos,
+                recordCount(result),
+                executionPlan,
+                Thread.currentThread().getName()
+        );
+        slots.set((int) (next % slots.length()), slowQuery);
+        logger.debug("Captured {}", slowQuery);
+    }
+
+
+    /**
+     * Returns the execution plan of a SELECT statement, guarding against capturing the explanation itself.
+     *
+     * @param db the database the statement ran against
+     * @param text the text of the statement
+     * @param parameters the parameters of the statement, or null
+     * @return the execution plan in JSON, or null when the command is not a SELECT or cannot be explained
+     */
+    private String explain(final ODatabaseDocumentTx db, final String text, final Map<Object, Object> parameters) {
+        if ((text == null) || !text.trim().toLowerCase(Locale.ROOT).startsWith(EXPLAINABLE_PREFIX)) {
+            return null;
+        }
+        explaining.set(Boolean.TRUE);
+        try {
+            final Object plan;
+            if (parameters == null) {
+                plan = db.command(new OCommandSQL(EXPLAIN_PREFIX + " " + text)).execute();
+            } else {
+                plan = db.command(new OCommandSQL(EXPLAIN_PREFIX + " " + text)).execute(parameters);
+            }
+            if (plan instanceof ODocument) {
+                return ((ODocument) plan).toJSON();
+            }
+            return null;
+        } catch (RuntimeException re) {
+            logger.debug("Unable to explain {}", text, re);
+            return null;
+        } finally {
+            explaining.set(Boolean.FALSE);
+        }
+    }
+
+
+    /**
+     * Returns the parameters of a command.
+     *
+     * @param command the command
+     * @return the parameters keyed by name or position, or null
+     */
+    private static Map<Object, Object> parametersOf(final OCommandRequestText command) {
+        if (command instanceof OCommandRequestAbstract) {
+            final Map<Object, Object> parameters = ((OCommandRequestAbstract) command).getParameters();
+            if ((parameters != null) && !parameters.isEmpty()) {
+                return parameters;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Returns the number of records a command returned or affected.
+     *
+     * @param result the result of the command
+     * @return the record count, or -1 when unknown
+     */
+    private static long recordCount(final Object result) {
+        if (result == null) {
+            return 0;
+        }
+        if (result instanceof Collection) {
+            return ((Collection<?>) result).size();
+        }
+        if (result instanceof Number) {
+            return ((Number) result).longValue();
+        }
+        if (result instanceof OIdentifiable) {
+            return 1;
+        }
+        return -1;
+    }
+
+
+    /**
+     * Times the commands of the databases it is registered on.
+     */
+    private final class CommandListener implements ODatabaseListener {
+
+        /** Whether commands are captured, cleared by {@link #detachFromAllDatabases()}. */
+        private volatile boolean attached = true;
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onBeforeCommand(final OCommandRequestText command, final OCommandExecutor executor) {
+            if (!explaining.get()) {
+                final Deque<CommandStart> starts = commandStarts.get();
+                starts.removeIf(start -> start.isFor(command) || start.isDiscarded());
+                starts.addLast(new CommandStart(command, System.nanoTime()));
+            }
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onAfterCommand(final OCommandRequestText command,
+                                   final OCommandExecutor executor,
+                                   final Object result) {
+            if (explaining.get()) {
+                return;
+            }
+            final Long startNanos = finish(command);
+            if ((startNanos == null) || !attached) {
+                return;
+            }
+            final long durationNanos = System.nanoTime() - startNanos;
+            if (durationNanos >= thresholdNanos) {
+                try {
+                    capture(command, result, durationNanos);
+                } catch (RuntimeException re) {
+                    logger.warn("Unable to capture slow command {}", command.getText(), re);
+                }
+            }
+        }
+
+
+        /**
+         * Removes the start of a completed command, along with those of the commands it enclosed which failed.
+         *
+         * @param command the completed command
+         * @return the start time in nanoseconds of the command, or null when its start was not recorded
+         */
+        private Long finish(final OCommandRequestText command) {
+            final Deque<CommandStart> starts = commandStarts.get();
+            int failedCount = 0;
+            final Iterator<CommandStart> iterator = starts.descendingIterator();
+            while (iterator.hasNext()) {
+                final CommandStart start = iterator.next();
+                if (start.isFor(command)) {
+                    iterator.remove();
+                    for (int i = 0; i < failedCount; i++) {
+                        starts.pollLast();
+                    }
+                    return start.startNanos;
+                }
+                failedCount++;
+            }
+            return null;
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onCreate(final ODatabase database) {
+            // Only commands are timed.
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onDelete(final ODatabase database) {
+            // Only commands are timed.
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onOpen(final ODatabase database) {
+            // Only commands are timed.
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onBeforeTxBegin(final ODatabase database) {
+            // Only commands are timed.
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onBeforeTxRollback(final ODatabase database) {
+            // Only commands are timed.
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onAfterTxRollback(final ODatabase database) {
+            // Only commands are timed.
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onBeforeTxCommit(final ODatabase database) {
+            // Only commands are timed.
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onAfterTxCommit(final ODatabase database) {
+            // Only commands are timed.
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onClose(final ODatabase database) {
+            // A command interrupted by the close leaves no start time behind on a pooled thread.
+            commandStarts.remove();
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean onCorruptionRepairDatabase(final ODatabase database,
+                                                  final String reason,
+                                                  final String whatWillBeFixed) {
+            return false;
+        }
+
+
+    }
+
+
+    /**
+     * The start time of an executing command.  The command is weakly referenced so that the start of a command which
+     * failed, and is never reported as completed, does not keep it reachable.
+     */
+    private static final class CommandStart {
+
+        /** The command. */
+        private final WeakReference<OCommandRequestText> command;
+
+        /** The time in nanoseconds the command started. */
+        private final long startNanos;
+
+
+        /**
+         * Constructor allowing the command and its start time to be specified.
+         *
+         * @param command the command
+         * @param startNanos the time in nanoseconds the command started
+         */
+        private CommandStart(final OCommandRequestText command, final long startNanos) {
+            this.command = new WeakReference<>(command);
+            this.startNanos = startNanos;
+        }
+
+
+        /**
+         * Returns whether this is the start of a command instance.
+         *
+         * @param other the command instance
+         * @return true when this is the start of the command
+         */
+        private boolean isFor(final OCommandRequestText other) {
+            return command.get() == other;
+        }
+
+
+        /**
+         * Returns whether the command was discarded without being reported as completed.
+         *
+         * @return true when the command is no longer reachable
+         */
+        private boolean isDiscarded() {
+            return command.get() == null;
+        }
+
+
+    }
+
+
+    /**
+     * Registers the command listener on every database created or opened.
+     */
+    private final class ListenerInstaller implements ODatabaseLifecycleListener {
+
+
+        /** {@inheritDoc} */
+        @Override
+        public PRIORITY getPriority() {
+            return PRIORITY.LAST;
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onCreate(final ODatabaseInternal database) {
+            database.registerListener(commandListener);
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onOpen(final ODatabaseInternal database) {
+            database.registerListener(commandListener);
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onClose(final ODatabaseInternal database) {
+            // Listeners are discarded with the database instance.
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onDrop(final ODatabaseInternal database) {
+            // Captured commands outlive their database.
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onCreateClass(final ODatabaseInternal database, final OClass oClass) {
+            // Schema changes are not commands.
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onDropClass(final ODatabaseInternal database, final OClass oClass) {
+            // Schema changes are not commands.
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void onLocalNodeConfigurationRequest(final ODocument configuration) {
+            // Distributed configuration is not affected by the log.
+        }
+
+
+    }
+
+
+}
@@ -0,0 +1,107 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Enumerates named presets of storage and cache settings for an embedded OrientDB server.
+ *
+ * <p>Each preset is a set of {@link OGlobalConfiguration} values which are applied when the server is started by an
+ * {@link EmbeddedServerBuilder}.  Settings specified explicitly on the builder take precedence over those of the
+ * preset.</p>
+ *
+ * @author Phillip Ross
+ */
+public enum StorageProfile {
+
+    /** The OrientDB default settings. */
+    DEFAULT("default", new String[][] {}),
+
+    /**
+     * Settings for loading large volumes of data, which trade durability for write throughput by disabling the
+     * write-ahead log and flushing the write cache less often.  A crash during the load may leave the database
+     * unusable, so the load should be repeatable.
+     */
+    BULK_LOAD("bulk-load", new String[][] {
+            {OGlobalConfiguration.USE_WAL.getKey(), "false"},
+            {OGlobalConfiguration.WAL_SYNC_ON_PAGE_FLUSH.getKey(), "false"},
+            {OGlobalConfiguration.DISK_WRITE_CACHE_PART.getKey(), "50"},
+            {OGlobalConfiguration.DISK_WRITE_CACHE_PAGE_FLUSH_INTERVAL.getKey(), "100"}
+    }),
+
+    /** Settings for read-mostly workloads, which dedicate most of the disk cache to pages being read. */
+    READ_HEAVY("read-heavy", new String[][] {
+            {OGlobalConfiguration.DISK_WRITE_CACHE_PART.getKey(), "5"},
+            {OGlobalConfiguration.WAL_SYNC_ON_PAGE_FLUSH.getKey(), "false"}
+    }),
+
+    /** Settings for constrained environments, which bound the disk cache and write-ahead log cache. */
+    LOW_MEMORY("low-memory", new String[][] {
+            {OGlobalConfiguration.DISK_CACHE_SIZE.getKey(), "256"},
+            {OGlobalConfiguration.WAL_CACHE_SIZE.getKey(), "100"},
+            {OGlobalConfiguration.DISK_WRITE_CACHE_PART.getKey(), "10"}
+    });
+
+    /** String representation of the enumerated value. */
+    private final String stringValue;
+
+    /** The settings of the profile keyed by OrientDB configuration key. */
+    private final Map<String, String> settings;
+
+    /**
+     * Constructor allowing the string value and settings to be specified.
+     *
+     * @param stringValue string value for the enumerated value
+     * @param settings pairs of OrientDB configuration keys and values
+     */
+    StorageProfile(final String stringValue, final String[][] settings) {
+        this.stringValue = stringValue;
+        Map<String, String> settingsMap = new LinkedHashMap<>();
+        for (String[] setting : settings) {
+            settingsMap.put(setting[0], setting[1]);
+        }
+        this.settings = Collections.unmodifiableMap(settingsMap);
+    }
+
+    /**
+     * Returns the string value equivalent to the enumerated value.
+     *
+     * @return the string value
+     */
+    public String toStringValue() {
+        return stringValue;
+    }
+
+    /**
+     * Returns the settings of the profile.
+     *
+     * @return an unmodifiable map of OrientDB configuration keys to values
+     */
+    public Map<String, String> getSettings() {
+        return settings;
+    }
+
+    /**
+     * Returns the enumerated value equivalent to the specified profile name.
+     *
+     * @param profileName the profile name
+     * @return the enumerated value
+     */
+    public static StorageProfile fromString(final String profileName) {
+        StorageProfile storageProfile = null;
+        if (profileName != null) {
+            for (StorageProfile validProfile : StorageProfile.values()) {
+                if (profileName.equalsIgnoreCase(validProfile.stringValue)
+                        || profileName.equalsIgnoreCase(validProfile.name())) {
+                    storageProfile = validProfile;
+                }
+            }
+        }
+        return storageProfile;
+    }
+}
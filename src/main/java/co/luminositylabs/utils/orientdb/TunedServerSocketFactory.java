@@ -0,0 +1,164 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import com.orientechnologies.orient.server.config.OServerParameterConfiguration;
+import com.orientechnologies.orient.server.network.OServerSocketFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+
+/**
+ * An OrientDB server socket factory which applies socket options to listening sockets and the connections they
+ * accept.
+ *
+ * <p>The factory is configured through the parameters of its socket factory configuration, which are set by an
+ * {@link EmbeddedServerBuilder}.  Buffer sizes of zero or less, and a missing TCP_NODELAY parameter, leave the
+ * operating system defaults in place.</p>
+ *
+ * @author Phillip Ross
+ */
+public class TunedServerSocketFactory extends OServerSocketFactory {
+
+    /** Parameter name for the send buffer size of accepted connections. */
+    public static final String PARAMETER_SEND_BUFFER_SIZE = "sendBufferSize";
+
+    /** Parameter name for the receive buffer size of accepted connections. */
+    public static final String PARAMETER_RECEIVE_BUFFER_SIZE = "receiveBufferSize";
+
+    /** Parameter name for whether or not TCP_NODELAY is enabled on accepted connections. */
+    public static final String PARAMETER_TCP_NO_DELAY = "tcpNoDelay";
+
+    /** The send buffer size of accepted connections. */
+    private int sendBufferSize;
+
+    /** The receive buffer size of accepted connections. */
+    private int receiveBufferSize;
+
+    /** Whether or not TCP_NODELAY is enabled on accepted connections, null to leave it unchanged. */
+    private Boolean tcpNoDelay;
+
+
+    /**
+     * Configures the factory from the parameters of its socket factory configuration.
+     *
+     * @param name the name of the socket factory
+     * @param parameters the socket factory parameters
+     */
+    @Override
+    public void config(final String name, final OServerParameterConfiguration[] parameters) {
+        super.config(name, parameters);
+        if (parameters != null) {
+            for (OServerParameterConfiguration parameter : parameters) {
+                if (PARAMETER_SEND_BUFFER_SIZE.equalsIgnoreCase(parameter.name)) {
+                    sendBufferSize = Integer.parseInt(parameter.value);
+                } else if (PARAMETER_RECEIVE_BUFFER_SIZE.equalsIgnoreCase(parameter.name)) {
+                    receiveBufferSize = Integer.parseInt(parameter.value);
+                } else if (PARAMETER_TCP_NO_DELAY.equalsIgnoreCase(parameter.name)) {
+                    tcpNoDelay = Boolean.valueOf(parameter.value);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Creates a server socket bound to the specified port on all addresses.
+     *
+     * @param port the port to bind to
+     * @return the server socket
+     *
+     * @throws IOException when the socket cannot be bound
+     */
+    @Override
+    public ServerSocket createServerSocket(final int port) throws IOException {
+        return createServerSocket(port, 0, null);
+    }
+
+
+    /**
+     * Creates a server socket bound to the specified port on all addresses.
+     *
+     * @param port the port to bind to
+     * @param backlog the maximum length of the queue of incoming connections
+     * @return the server socket
+     *
+     * @throws IOException when the socket cannot be bound
+     */
+    @Override
+    public ServerSocket createServerSocket(final int port, final int backlog) throws IOException {
+        return createServerSocket(port, backlog, null);
+    }
+
+
+    /**
+     * Creates a server socket bound to the specified port and address.
+     *
+     * <p>The receive buffer size is set before binding, so that it applies to the TCP window negotiated with each
+     * accepted connection.</p>
+     *
+     * @param port the port to bind to
+     * @param backlog the maximum length of the queue of incoming connections
+     * @param ifAddress the address to bind to, or null for all addresses
+     * @return the server socket
+     *
+     * @throws IOException when the socket cannot be bound
+     */
+    @Override
+    public ServerSocket createServerSocket(final int port,
+                                           final int backlog,
+                                           final InetAddress ifAddress) throws IOException {
+        final ServerSocket serverSocket = new TunedServerSocket();
+        try {
+            if (receiveBufferSize > 0) {
+                serverSocket.setReceiveBufferSize(receiveBufferSize);
+            }
+            serverSocket.bind(new InetSocketAddress(ifAddress, port), backlog);
+        } catch (IOException ioe) {
+            serverSocket.close();
+            throw ioe;
+        }
+        return serverSocket;
+    }
+
+
+    /** A server socket applying the factory's socket options to accepted connections. */
+    private class TunedServerSocket extends ServerSocket {
+
+        /**
+         * Constructs an unbound server socket.
+         *
+         * @throws IOException when the socket cannot be created
+         */
+        TunedServerSocket() throws IOException {
+            super();
+        }
+
+        /**
+         * Accepts a connection and applies the socket options to it.
+         *
+         * @return the accepted connection
+         *
+         * @throws IOException when a connection cannot be accepted
+         */
+        @Override
+        public Socket accept() throws IOException {
+            final Socket socket = super.accept();
+            if (tcpNoDelay != null) {
+                socket.setTcpNoDelay(tcpNoDelay);
+            }
+            if (sendBufferSize > 0) {
+                socket.setSendBufferSize(sendBufferSize);
+            }
+            if (receiveBufferSize > 0) {
+                socket.setReceiveBufferSize(receiveBufferSize);
+            }
+            return socket;
+        }
+    }
+
+
+}
@@ -0,0 +1,134 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * What a cache warm-up loaded and how long it took.
+ *
+ * @author Phillip Ross
+ */
+public final class WarmUpReport {
+
+    /** The number of records read from each cluster, keyed by database and cluster name. */
+    private final Map<String, Long> clusterRecordCounts;
+
+    /** The number of entries read from each index, keyed by database and index name. */
+    private final Map<String, Long> indexEntryCounts;
+
+    /** Descriptions of the clusters and indexes which could not be loaded. */
+    private final List<String> failures;
+
+    /** The time in nanoseconds the warm-up took. */
+    private final long durationNanos;
+
+
+    /**
+     * Constructor allowing the counts, failures and duration to be specified.
+     *
+     * @param clusterRecordCounts the number of records read from each cluster, keyed by database/cluster
+     * @param indexEntryCounts the number of entries read from each index, keyed by database/index
+     * @param failures descriptions of the clusters and indexes which could not be loaded
+     * @param durationNanos the time in nanoseconds the warm-up took
+     */
+    public WarmUpReport(final Map<String, Long> clusterRecordCounts,
+                        final Map<String, Long> indexEntryCounts,
+                        final List<String> failures,
+                        final long durationNanos) {
+        this.clusterRecordCounts = Collections.unmodifiableMap(clusterRecordCounts);
+        this.indexEntryCounts = Collections.unmodifiableMap(indexEntryCounts);
+        this.failures = Collections.unmodifiableList(failures);
+        this.durationNanos = durationNanos;
+    }
+
+
+    /**
+     * Returns the number of records read from each cluster, keyed by database and cluster name separated by a slash.
+     *
+     * @return the record counts
+     */
+    public Map<String, Long> getClusterRecordCounts() {
+        return clusterRecordCounts;
+    }
+
+
+    /**
+     * Returns the number of entries read from each index, keyed by database and index name separated by a slash.
+     *
+     * @return the entry counts
+     */
+    public Map<String, Long> getIndexEntryCounts() {
+        return indexEntryCounts;
+    }
+
+
+    /**
+     * Returns the total number of records read.
+     *
+     * @return the number of records
+     */
+    public long getRecordCount() {
+        long recordCount = 0;
+        for (long count : clusterRecordCounts.values()) {
+            recordCount += count;
+        }
+        return recordCount;
+    }
+
+
+    /**
+     * Returns the total number of index entries read.
+     *
+     * @return the number of index entries
+     */
+    public long getIndexEntryCount() {
+        long indexEntryCount = 0;
+        for (long count : indexEntryCounts.values()) {
+            indexEntryCount += count;
+        }
+        return indexEntryCount;
+    }
+
+
+    /**
+     * Returns descriptions of the clusters and indexes which could not be loaded.
+     *
+     * @return the failures
+     */
+    public List<String> getFailures() {
+        return failures;
+    }
+
+
+    /**
+     * Returns the time the warm-up took.
+     *
+     * @return the duration in nanoseconds
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+
+    /**
+     * Returns a summary of the warm-up.
+     *
+     * @return the string representation of the report
+     */
+    @Override
+    public String toString() {
+        return "WarmUpReport{clusters=" + clusterRecordCounts.size()
+                + ", records=" + getRecordCount()
+                + ", indexes=" + indexEntryCounts.size()
+                + ", indexEntries=" + getIndexEntryCount()
+                + ", failures=" + failures.size()
+                + ", durationMillis=" + TimeUnit.NANOSECONDS.toMillis(durationNanos)
+                + "}";
+    }
+
+
+}
@@ -0,0 +1,488 @@
+package co.luminositylabs.utils.orientdb;
+
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.exception.OConcurrentModificationException;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+
+/**
+ * Coalesces small writes from many threads into shared transactions.
+ *
+ * <p>Writes are queued and committed by a single committer thread owning a session from an {@link OrientDBPool}.  The
+ * committer takes the first waiting write, then waits up to {@code maxLingerMillis} for up to {@code maxBatchSize}
+ * writes in total and runs them all in one transaction, paying for a single commit instead of one per write.  Each
+ * caller's future is completed once the shared transaction commits.</p>
+ *
+ * <p>When the commit fails with an {@link OConcurrentModificationException} the transaction is rolled back and the
+ * whole batch is run again, up to {@code maxRetries} times.  Write functions are therefore expected to read what they
+ * modify, since a plain save of a stale document fails on every attempt.  When the retries are exhausted, or a write
+ * fails for any other reason, the writes of the batch are run again in a transaction of their own each, so that one
+ * failing write only fails its own future.  These transactions share the retries the batch left unused, and a write
+ * alone in its batch fails without being run again.</p>
+ *
+ * @author Phillip Ross
+ */
+public class WriteCoalescer implements AutoCloseable {
+
+    /** The default maximum number of writes committed in a single transaction. */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+
+    /** The default time in milliseconds the first write of a batch waits for others to join it. */
+    public static final long DEFAULT_MAX_LINGER_MILLIS = 2L;
+
+    /** The default number of retries of a transaction failing with a concurrent modification. */
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    /** The static logger instance. */
+    private static final Logger logger = LoggerFactory.getLogger(WriteCoalescer.class);
+
+    /** The time in milliseconds between checks for shutdown while the committer is idle. */
+    private static final long POLL_INTERVAL_MILLIS = 100L;
+
+    /** The number of coalescers created so far, used for thread names. */
+    private static final AtomicInteger COALESCER_COUNT = new AtomicInteger();
+
+    /** The pool the committer's session is acquired from. */
+    private final OrientDBPool pool;
+
+    /** The maximum number of writes committed in a single transaction. */
+    private final int maxBatchSize;
+
+    /** The time in nanoseconds the first write of a batch waits for others to join it. */
+    private final long maxLingerNanos;
+
+    /** The number of retries of a transaction failing with a concurrent modification. */
+    private final int maxRetries;
+
+    /** The writes waiting to be committed. */
+    private final BlockingQueue<Write<?>> queue = new LinkedBlockingQueue<>();
+
+    /** The writes of the current batch. */
+    private final List<Write<?>> batch = new ArrayList<>();
+
+    /** The committer thread. */
+    private final Thread committer;
+
+    /** The number of writes committed. */
+    private final LongAdder committedWriteCount = new LongAdder();
+
+    /** The number of transactions committed. */
+    private final LongAdder committedBatchCount = new LongAdder();
+
+    /** The number of transactions retried after a concurrent modification. */
+    private final LongAdder retryCount = new LongAdder();
+
+    /** The number of batches whose writes were run in individual transactions. */
+    private final LongAdder fallbackCount = new LongAdder();
+
+    /** Whether the coalescer has been closed. */
+    private volatile boolean closed;
+
+
+    /**
+     * Constructor allowing the pool and batching attributes to be specified.
+     *
+     * @param pool the pool the committer's session is acquired from
+     * @param maxBatchSize the maximum number of writes committed in a single transaction
+     * @param maxLingerMillis the time in milliseconds the first write of a batch waits for others to join it
+     * @param maxRetries the number of retries of a transaction failing with a concurrent modification
+     */
+    public WriteCoalescer(final OrientDBPool pool,
+                          final int maxBatchSize,
+                          final long maxLingerMillis,
+                          final int maxRetries) {
+        Objects.requireNonNull(pool, "A pool must be provided");
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        if (maxLingerMillis < 0) {
+            throw new IllegalArgumentException("maxLingerMillis must not be negative");
+        }
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries must not be negative");
+        }
+        this.pool = pool;
+        this.maxBatchSize = maxBatchSize;
+        this.maxLingerNanos = TimeUnit.MILLISECONDS.toNanos(maxLingerMillis);
+        this.maxRetries = maxRetries;
+        this.committer = new Thread(
+                this::runCommitter,
+                "orientdb-write-coalescer-" + COALESCER_COUNT.incrementAndGet()
+        );
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+
+    /**
+     * Creates a coalescer writing through the shared pool and configured by the orientdb.* properties contained in
+     * the specified properties.
+     *
+     * @param properties the properties specifying the database, credentials, pool and batching settings
+     * @return the coalescer
+     */
+    public static WriteCoalescer fromProperties(final Properties properties) {
+        return new WriteCoalescer(
+                OrientDBPoolFactory.getPool(properties),
+                OrientDBPoolFactory.intProperty(
+                        properties,
+                        OrientDBUtil.PROPERTY_NAME_ODB_WRITE_MAX_BATCH_SIZE,
+                        DEFAULT_MAX_BATCH_SIZE
+                ),
+                OrientDBPoolFactory.longProperty(
+                        properties,
+                        OrientDBUtil.PROPERTY_NAME_ODB_WRITE_MAX_LINGER,
+                        DEFAULT_MAX_LINGER_MILLIS
+                ),
+                OrientDBPoolFactory.intProperty(
+                        properties,
+                        OrientDBUtil.PROPERTY_NAME_ODB_WRITE_MAX_RETRIES,
+                        DEFAULT_MAX_RETRIES
+                )
+        );
+    }
+
+
+    /**
+     * Queues a write, which may be run more than once when its transaction is retried.
+     *
+     * @param write the write, a function of the committer's database
+     * @param <T> the type of the result of the write
+     * @return the future result of the write, completed once its transaction has committed
+     */
+    public <T> CompletableFuture<T> submit(final Function<ODatabaseDocumentTx, T> write) {
+        Objects.requireNonNull(write, "A write must be provided");
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new RejectedExecutionException("The write coalescer has been closed"));
+        } else {
+            final Write<T> queued = new Write<>(write, future);
+            queue.add(queued);
+            if (closed && queue.remove(queued)) {
+                // Closed while queueing; the committer may already have found the queue empty and stopped.
+                queued.fail(new RejectedExecutionException("The write coalescer has been closed"));
+            }
+        }
+        return future;
+    }
+
+
+    /**
+     * Queues the save of a document.
+     *
+     * @param document the document
+     * @return the future saved document, whose identity is persistent once the future completes
+     */
+    public CompletableFuture<ODocument> save(final ODocument document) {
+        Objects.requireNonNull(document, "A document must be provided");
+        return submit(db -> {
+            db.save(document);
+            return document;
+        });
+    }
+
+
+    /** Takes batches off the queue and commits them until the coalescer is closed and the queue is empty. */
+    private void runCommitter() {
+        PooledSession session = null;
+        try {
+            while (!(closed && queue.isEmpty())) {
+                if (collectBatch()) {
+                    try {
+                        if ((session == null) || session.isClosed() || session.getDatabase().isClosed()) {
+                            session = pool.acquire();
+                        }
+                        commitBatch(session.getDatabase());
+                    } catch (Throwable t) {
+                        logger.warn("Unable to commit a batch of {} writes", batch.size(), t);
+                        for (Write<?> write : batch) {
+                            write.fail(t);
+                        }
+                        if (session != null) {
+                            session.close();
+                            session = null;
+                        }
+                    } finally {
+                        batch.clear();
+                    }
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            final RejectedExecutionException rejection = new RejectedExecutionException(
+                    "The write coalescer was interrupted before committing the write"
+            );
+            queue.drainTo(batch);
+            for (Write<?> write : batch) {
+                write.fail(rejection);
+            }
+        } finally {
+            if (session != null) {
+                session.close();
+            }
+        }
+    }
+
+
+    /**
+     * Collects the next batch, waiting for the first write and then lingering for others to join it.
+     *
+     * @return true if a batch was collected
+     *
+     * @throws InterruptedException when interrupted while waiting
+     */
+    private boolean collectBatch() throws InterruptedException {
+        final Write<?> first = queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return false;
+        }
+        batch.add(first);
+        final long deadline = System.nanoTime() + maxLingerNanos;
+        while (batch.size() < maxBatchSize) {
+            queue.drainTo(batch, maxBatchSize - batch.size());
+            final long remainingNanos = deadline - System.nanoTime();
+            if ((batch.size() >= maxBatchSize) || (remainingNanos <= 0)) {
+                break;
+            }
+            final Write<?> next = queue.poll(remainingNanos, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+        return true;
+    }
+
+
+    /**
+     * Commits the current batch in a shared transaction, retrying on concurrent modifications and falling back to
+     * individual transactions.  The individual transactions only get the retries the batch left unused, and a batch
+     * of a single write fails without running the write again.
+     *
+     * @param db the database
+     */
+    private void commitBatch(final ODatabaseDocumentTx db) {
+        int retriesLeft = maxRetries;
+        Throwable failure;
+        while (true) {
+            try {
+                db.begin();
+                for (Write<?> write : batch) {
+                    write.apply(db);
+                }
+                OrientDBMetrics.getInstance().timeCommit(db::commit);
+                committedBatchCount.increment();
+                committedWriteCount.add(batch.size());
+                for (Write<?> write : batch) {
+                    write.complete();
+                }
+                return;
+            } catch (OConcurrentModificationException cme) {
+                rollback(db);
+                if (retriesLeft == 0) {
+                    failure = cme;
+                    break;
+                }
+                retriesLeft--;
+                retryCount.increment();
+                logger.debug("Concurrent modification committing {} writes, retrying", batch.size());
+            } catch (Throwable t) {
+                rollback(db);
+                failure = t;
+                break;
+            }
+        }
+        if (batch.size() == 1) {
+            batch.get(0).fail(failure);
+            return;
+        }
+        logger.debug("A batch of {} writes failed, committing individually", batch.size(), failure);
+        fallbackCount.increment();
+        for (Write<?> write : batch) {
+            commitIndividually(db, write, retriesLeft);
+        }
+    }
+
+
+    /**
+     * Commits a single write in its own transaction, retrying on concurrent modifications.
+     *
+     * @param db the database
+     * @param write the write
+     * @param maxWriteRetries the number of retries allowed after concurrent modifications
+     */
+    private void commitIndividually(final ODatabaseDocumentTx db, final Write<?> write, final int maxWriteRetries) {
+        for (int attempt = 0; attempt <= maxWriteRetries; attempt++) {
+            try {
+                db.begin();
+                write.apply(db);
+                OrientDBMetrics.getInstance().timeCommit(db::commit);
+                committedBatchCount.increment();
+                committedWriteCount.increment();
+                write.complete();
+                return;
+            } catch (OConcurrentModificationException cme) {
+                rollback(db);
+                if (attempt == maxWriteRetries) {
+                    write.fail(cme);
+                    return;
+                }
+                retryCount.increment();
+            } catch (Throwable t) {
+                rollback(db);
+                write.fail(t);
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Rolls back the open transaction, if any.
+     *
+     * @param db the database
+     */
+    private static void rollback(final ODatabaseDocumentTx db) {
+        if (db.getTransaction().isActive()) {
+            db.rollback();
+        }
+    }
+
+
+    /**
+     * Returns the number of writes waiting to be committed.
+     *
+     * @return the number of queued writes
+     */
+    public int getQueuedWriteCount() {
+        return queue.size();
+    }
+
+
+    /**
+     * Returns the number of writes committed.
+     *
+     * @return the committed write count
+     */
+    public long getCommittedWriteCount() {
+        return committedWriteCount.sum();
+    }
+
+
+    /**
+     * Returns the number of transactions committed.
+     *
+     * @return the committed transaction count
+     */
+    public long getCommittedBatchCount() {
+        return committedBatchCount.sum();
+    }
+
+
+    /**
+     * Returns the number of transactions retried after a concurrent modification.
+     *
+     * @return the retry count
+     */
+    public long getRetryCount() {
+        return retryCount.sum();
+    }
+
+
+    /**
+     * Returns the number of batches whose writes were run in individual transactions.
+     *
+     * @return the fallback count
+     */
+    public long getFallbackCount() {
+        return fallbackCount.sum();
+    }
+
+
+    /** Stops accepting writes, commits the writes already queued and returns the committer's session to the pool. */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            committer.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * A queued write and the future receiving its result.
+     *
+     * @param <T> the type of the result of the write
+     */
+    private static final class Write<T> {
+
+        /** The write. */
+        private final Function<ODatabaseDocumentTx, T> function;
+
+        /** The future receiving the result of the write. */
+        private final CompletableFuture<T> future;
+
+        /** The result of the latest run of the write. */
+        private T result;
+
+
+        /**
+         * Constructor allowing the write and future to be specified.
+         *
+         * @param function the write
+         * @param future the future receiving the result of the write
+         */
+        Write(final Function<ODatabaseDocumentTx, T> function, final CompletableFuture<T> future) {
+            this.function = function;
+            this.future = future;
+        }
+
+
+        /**
+         * Runs the write, keeping its result until the transaction commits.
+         *
+         * @param db the database
+         */
+        void apply(final ODatabaseDocumentTx db) {
+            result = function.apply(db);
+        }
+
+
+        /** Completes the future with the result of the latest run. */
+        void complete() {
+            future.complete(result);
+        }
+
+
+        /**
+         * Fails the future.
+         *
+         * @param cause the failure
+         */
+        void fail(final Throwable cause) {
+            future.completeExceptionally(cause);
+        }
+
+
+    }
+
+
+}
@@ -0,0 +1,158 @@
+package co.luminositylabs.utils.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import com.orientechnologies.orient.server.OServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Tests the streaming import functionality of BulkDocumentImporter class.
+ *
+ * @author Phillip Ross
+ */
+public class BulkDocumentImporterTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkDocumentImporterTest.class);
+
+    private static final String DB_USERNAME = "user1";
+    private static final String DB_PASSWORD = "user1password";
+    private static final int RECORD_COUNT = 2500;
+
+    private OServer oServer;
+    private ODatabaseDocumentTx oDatabaseDocumentTx;
+    private OrientDBPool pool;
+
+
+    @BeforeClass
+    public void createDatabase() throws Exception {
+        oServer = OrientDBUtil.startInMemoryEmbeddedServer(DB_USERNAME, DB_PASSWORD);
+        final String dbUrl = OrientDBUtil.buildDatabaseUrl("importdb", OrientDBUtil.Engine.MEMORY, null, null, null);
+        oDatabaseDocumentTx = new ODatabaseDocumentTx(dbUrl).create();
+        OClass person = oDatabaseDocumentTx.getMetadata().getSchema().createClass("Person");
+        person.addCluster("person_import");
+        OClass city = oDatabaseDocumentTx.getMetadata().getSchema().createClass("City");
+        city.createProperty("population", OType.INTEGER);
+        pool = new OrientDBPool(dbUrl, "admin", "admin", 8, 8, 5000);
+    }
+
+
+    @AfterClass(alwaysRun = true)
+    public void dropDatabase() {
+        if (pool != null) {
+            pool.close();
+        }
+        if ((oDatabaseDocumentTx != null) && (!(oDatabaseDocumentTx.isClosed()))) {
+            oDatabaseDocumentTx.activateOnCurrentThread();
+            oDatabaseDocumentTx.drop();
+        }
+        if ((oServer != null) && (oServer.isActive())) {
+            oServer.shutdown();
+        }
+    }
+
+
+    private static InputStream stream(final String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+
+    @Test
+    public void testImportNewlineDelimitedJson() throws Exception {
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            json.append("{\"key\": ").append(i).append(", \"name\": \"person {").append(i).append("}\"}\n");
+        }
+        BulkImportResult result = new BulkDocumentImporter(pool, "Person")
+                .setBatchSize(100)
+                .setQueueCapacity(16)
+                .importJson(stream(json.toString()));
+        logger.info("Imported newline-delimited json: {}", result);
+        Assert.assertEquals(result.getRecordsRead(), RECORD_COUNT);
+        Assert.assertEquals(result.getRecordsImported(), RECORD_COUNT);
+        Assert.assertTrue(result.getBatchesCommitted() >= RECORD_COUNT / 100);
+        oDatabaseDocumentTx.activateOnCurrentThread();
+        Assert.assertEquals(oDatabaseDocumentTx.countClass("Person"), RECORD_COUNT);
+        Assert.assertTrue(oDatabaseDocumentTx.countClusterElements("person_import") > 0);
+    }
+
+
+    @Test
+    public void testImportCsvWithQuotedValues() throws Exception {
+        String csv = "name,population,motto\n"
+                + "Springfield,30720,\"Embiggens, the smallest man\"\n"
+                + "\n"
+                + "Shelbyville,25000,\"Said \"\"no\"\"\nto progress\"\r\n"
+                + "Ogdenville,,\n";
+        BulkImportResult result = new BulkDocumentImporter(pool, "City")
+                .setWorkerCount(2)
+                .setMassiveInsert(false)
+                .importCsv(stream(csv));
+        Assert.assertEquals(result.getRecordsImported(), 3L);
+        oDatabaseDocumentTx.activateOnCurrentThread();
+        List<ODocument> cities = oDatabaseDocumentTx.query(
+                new OSQLSynchQuery<ODocument>("select from City where name = 'Shelbyville'")
+        );
+        Assert.assertEquals(cities.size(), 1);
+        Assert.assertEquals(cities.get(0).<Object>field("population"), 25000);
+        Assert.assertEquals(cities.get(0).<String>field("motto"), "Said \"no\"\nto progress");
+        cities = oDatabaseDocumentTx.query(new OSQLSynchQuery<ODocument>("select from City where name = 'Ogdenville'"));
+        Assert.assertFalse(cities.get(0).containsField("population"));
+    }
+
+
+    @Test
+    public void testImportRejectsMissingClass() throws Exception {
+        boolean exceptionOccurred = false;
+        try {
+            new BulkDocumentImporter(pool, "Missing").importJson(stream("{\"a\": 1}"));
+        } catch (IllegalStateException ise) {
+            exceptionOccurred = true;
+        }
+        Assert.assertTrue(exceptionOccurred);
+    }
+
+
+    @Test
+    public void testJsonRecordReaderSplitsArrays() throws Exception {
+        BulkDocumentImporter.JsonRecordReader reader = new BulkDocumentImporter.JsonRecordReader(
+                new StringReader("[{\"a\": {\"b\": \"}\"}}, {\"c\": \"\\\"{\"}]")
+        );
+        Assert.assertEquals(reader.next(), "{\"a\": {\"b\": \"}\"}}");
+        Assert.assertEquals(reader.next(), "{\"c\": \"\\\"{\"}");
+        Assert.assertNull(reader.next());
+    }
+
+
+    @Test
+    public void testCsvRecordReaderRejectsUnterminatedQuotes() throws Exception {
+        BulkDocumentImporter.CsvRecordReader reader = new BulkDocumentImporter.CsvRecordReader(
+                new BufferedReader(new StringReader("a,b\n1,\"2\n")), ','
+        );
+        Assert.assertEquals(reader.next(), Arrays.asList("a", "b"));
+        boolean exceptionOccurred = false;
+        try {
+            reader.next();
+        } catch (IllegalArgumentException iae) {
+            exceptionOccurred = true;
+        }
+        Assert.assertTrue(exceptionOccurred);
+    }
+
+}
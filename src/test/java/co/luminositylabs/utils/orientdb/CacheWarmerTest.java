@@ -0,0 +1,97 @@
+package co.luminositylabs.utils.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.server.OServer;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Tests the disk cache warm-up functionality of CacheWarmer class.
+ *
+ * @author Phillip Ross
+ */
+public class CacheWarmerTest {
+
+    private static final String SERVER_USERNAME = "warmer";
+    private static final String SERVER_PASSWORD = "warmerpassword";
+    private static final String DB_NAME = "warmdb";
+    private static final int RECORD_COUNT = 2000;
+
+    private final List<String> itemClusterNames = new ArrayList<>();
+    private EmbeddedServerBuilder embeddedServerBuilder;
+    private OServer oServer;
+
+
+    @BeforeClass
+    public void startServer() throws Exception {
+        final String databasePath = new File("target/warmup-dbs").getAbsolutePath();
+        ODatabaseDocumentTx db = new ODatabaseDocumentTx("plocal:" + databasePath + "/" + DB_NAME).create();
+        try {
+            OClass item = db.getMetadata().getSchema().createClass("Item");
+            item.createProperty("key", OType.INTEGER);
+            item.createIndex("Item.key", OClass.INDEX_TYPE.UNIQUE, "key");
+            for (int i = 0; i < RECORD_COUNT; i++) {
+                db.save(new ODocument("Item").field("key", i));
+            }
+            // The class gets a cluster per core, so its records are spread over all of them.
+            for (int clusterId : item.getClusterIds()) {
+                itemClusterNames.add(db.getClusterNameById(clusterId));
+            }
+        } finally {
+            db.close();
+        }
+        embeddedServerBuilder = new EmbeddedServerBuilder(SERVER_USERNAME, SERVER_PASSWORD)
+                .setNetworkEnabled(false)
+                .setDatabasePath(databasePath)
+                .setCacheWarmer(new CacheWarmer().addDatabase(DB_NAME).setParallelism(4));
+        oServer = embeddedServerBuilder.start();
+    }
+
+
+    @AfterClass(alwaysRun = true)
+    public void stopServer() {
+        if ((oServer != null) && (oServer.isActive())) {
+            ((ODatabaseDocumentTx) oServer.openDatabase(DB_NAME, SERVER_USERNAME, SERVER_PASSWORD)).drop();
+            oServer.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testWarmUpRunsOnStart() {
+        WarmUpReport report = embeddedServerBuilder.getWarmUpReport();
+        Assert.assertNotNull(report);
+        Assert.assertTrue(report.getFailures().isEmpty(), report.getFailures().toString());
+        long itemRecordCount = 0;
+        for (String clusterName : itemClusterNames) {
+            itemRecordCount += report.getClusterRecordCounts().get(DB_NAME + "/" + clusterName);
+        }
+        Assert.assertEquals(itemRecordCount, RECORD_COUNT);
+        Assert.assertEquals(report.getIndexEntryCounts().get(DB_NAME + "/Item.key").longValue(), RECORD_COUNT);
+        Assert.assertTrue(report.getRecordCount() >= RECORD_COUNT);
+    }
+
+
+    @Test
+    public void testConfiguredClustersAndIndexesOnly() {
+        WarmUpReport report = new CacheWarmer()
+                .addClusters(DB_NAME, "item")
+                .addIndexes(DB_NAME, "Item.key", "Item.missing")
+                .warmUp(oServer, SERVER_USERNAME, SERVER_PASSWORD);
+        Assert.assertEquals(report.getClusterRecordCounts().size(), 1);
+        Assert.assertEquals(report.getIndexEntryCount(), RECORD_COUNT);
+        Assert.assertEquals(report.getFailures().size(), 1);
+        Assert.assertTrue(report.getFailures().get(0).startsWith(DB_NAME + "/Item.missing"));
+    }
+
+}
@@ -201,4 +201,19 @@ public class DBUrlBuildingTest {
     }
 
 
+    @Test
+    public void testBuildDatabaseUrlMemoryEngine() {
+        final String dbName = "validDatabaseName";
+        final String engine = "memory";
+
+        // Without a dbpath, the url refers to the storage by name alone.
+        String url = OrientDBUtil.buildDatabaseUrl(dbName, OrientDBUtil.Engine.MEMORY, null, null, null);
+        Assert.assertEquals(url, engine + ":" + dbName);
+
+        // A dbpath is prepended as with the other engines.
+        url = OrientDBUtil.buildDatabaseUrl(dbName, OrientDBUtil.Engine.MEMORY, null, null, "validPath");
+        Assert.assertEquals(url, engine + ":" + "validPath/" + dbName);
+    }
+
+
 }
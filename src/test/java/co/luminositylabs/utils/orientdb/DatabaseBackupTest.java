@@ -0,0 +1,275 @@
+package co.luminositylabs.utils.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.tool.ODatabaseImport;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Tests the full and incremental backup functionality of DatabaseBackup class.
+ *
+ * @author Phillip Ross
+ */
+public class DatabaseBackupTest {
+
+    private static final int RECORD_COUNT = 500;
+
+    private final Path backupDirectory = Paths.get("target/backup-test");
+    private ODatabaseDocumentTx oDatabaseDocumentTx;
+    private OrientDBPool pool;
+
+
+    @BeforeClass
+    public void createDatabase() throws IOException {
+        Files.createDirectories(backupDirectory);
+        final String dbUrl = OrientDBUtil.buildDatabaseUrl("backupdb", OrientDBUtil.Engine.MEMORY, null, null, null);
+        oDatabaseDocumentTx = new ODatabaseDocumentTx(dbUrl).create();
+        oDatabaseDocumentTx.getMetadata().getSchema().createClass("Item");
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            oDatabaseDocumentTx.save(new ODocument("Item").field("key", i));
+        }
+        pool = new OrientDBPool(dbUrl, "admin", "admin", 4, 4, 5000);
+    }
+
+
+    @AfterClass(alwaysRun = true)
+    public void dropDatabase() {
+        if (pool != null) {
+            pool.close();
+        }
+        if ((oDatabaseDocumentTx != null) && (!(oDatabaseDocumentTx.isClosed()))) {
+            oDatabaseDocumentTx.activateOnCurrentThread();
+            oDatabaseDocumentTx.drop();
+        }
+    }
+
+
+    @Test
+    public void testFullThenIncrementalBackups() throws Exception {
+        final Path backupFile = backupDirectory.resolve("full.json.gz");
+        final Path manifest = backupDirectory.resolve("full.manifest");
+        Files.deleteIfExists(manifest);
+        final DatabaseBackup databaseBackup = new DatabaseBackup(pool).setBufferSize(8192);
+
+        BackupResult full = databaseBackup.backup(backupFile, manifest);
+        Assert.assertFalse(full.isIncremental());
+        Assert.assertTrue(full.getRecordCount() >= RECORD_COUNT);
+        Assert.assertEquals(full.getByteCount(), Files.size(backupFile));
+        Assert.assertTrue(Files.exists(manifest));
+        Assert.assertFalse(Files.exists(backupDirectory.resolve("full.manifest.tmp")));
+
+        final String restoreUrl = OrientDBUtil.buildDatabaseUrl(
+                "backuprestoredb",
+                OrientDBUtil.Engine.MEMORY,
+                null,
+                null,
+                null
+        );
+        ODatabaseDocumentTx restored = new ODatabaseDocumentTx(restoreUrl).create();
+        try (InputStream inputStream = new GZIPInputStream(Files.newInputStream(backupFile))) {
+            final ODatabaseImport databaseImport = new ODatabaseImport(restored, inputStream, message -> { });
+            databaseImport.importDatabase();
+            databaseImport.close();
+            Assert.assertEquals(restored.countClass("Item"), RECORD_COUNT);
+        } finally {
+            restored.activateOnCurrentThread();
+            restored.drop();
+        }
+
+        oDatabaseDocumentTx.activateOnCurrentThread();
+        List<ODocument> items = oDatabaseDocumentTx.query(
+                new OSQLSynchQuery<ODocument>("select from Item where key < 2 order by key")
+        );
+        oDatabaseDocumentTx.save(items.get(0).field("key", -1));
+        oDatabaseDocumentTx.delete(items.get(1).getIdentity());
+        oDatabaseDocumentTx.save(new ODocument("Item").field("key", RECORD_COUNT));
+
+        ByteArrayOutputStream changes = new ByteArrayOutputStream();
+        BackupResult incremental = databaseBackup.backupIncremental(Channels.newChannel(changes), manifest);
+        Assert.assertTrue(incremental.isIncremental());
+        Assert.assertEquals(incremental.getRecordCount(), 2);
+        Assert.assertEquals(incremental.getDeletionCount(), 1);
+        Assert.assertEquals(incremental.getByteCount(), changes.size());
+        List<String> lines = readLines(changes.toByteArray());
+        Assert.assertEquals(lines.size(), 4);
+        Assert.assertTrue(lines.get(0).contains("\"incremental\":true"), lines.get(0));
+        Assert.assertEquals(lines.stream().filter(line -> line.startsWith("{\"op\":\"put\"")).count(), 2);
+        Assert.assertEquals(lines.stream().filter(line -> line.startsWith("{\"op\":\"delete\"")).count(), 1);
+
+        changes = new ByteArrayOutputStream();
+        incremental = databaseBackup.backupIncremental(Channels.newChannel(changes), manifest);
+        Assert.assertEquals(incremental.getRecordCount(), 0);
+        Assert.assertEquals(incremental.getDeletionCount(), 0);
+        Assert.assertEquals(readLines(changes.toByteArray()).size(), 1);
+    }
+
+
+    @Test
+    public void testRestoreFullThenIncrementalBackups() throws Exception {
+        final String sourceUrl = OrientDBUtil.buildDatabaseUrl(
+                "roundtripdb",
+                OrientDBUtil.Engine.MEMORY,
+                null,
+                null,
+                null
+        );
+        final String targetUrl = OrientDBUtil.buildDatabaseUrl(
+                "roundtriprestoredb",
+                OrientDBUtil.Engine.MEMORY,
+                null,
+                null,
+                null
+        );
+        final Path backupFile = backupDirectory.resolve("roundtrip.json.gz");
+        final Path incrementalFile = backupDirectory.resolve("roundtrip.jsonl.gz");
+        final Path manifest = backupDirectory.resolve("roundtrip.manifest");
+        Files.deleteIfExists(manifest);
+        ODatabaseDocumentTx source = new ODatabaseDocumentTx(sourceUrl).create();
+        ODatabaseDocumentTx target = null;
+        OrientDBPool sourcePool = null;
+        try {
+            source.getMetadata().getSchema().createClass("Item");
+            for (int i = 0; i < 100; i++) {
+                source.save(new ODocument("Item").field("key", i));
+            }
+            sourcePool = new OrientDBPool(sourceUrl, "admin", "admin", 2, 2, 5000);
+            final DatabaseBackup databaseBackup = new DatabaseBackup(sourcePool);
+            databaseBackup.backup(backupFile, manifest);
+
+            source.activateOnCurrentThread();
+            List<ODocument> items = source.query(
+                    new OSQLSynchQuery<ODocument>("select from Item where key < 2 order by key")
+            );
+            source.save(items.get(0).field("key", -1));
+            source.delete(items.get(1).getIdentity());
+            source.save(new ODocument("Item").field("key", 100));
+            BackupResult incremental = databaseBackup.backupIncremental(incrementalFile, manifest);
+            Assert.assertEquals(incremental.getRecordCount(), 2);
+            Assert.assertEquals(incremental.getDeletionCount(), 1);
+
+            target = new ODatabaseDocumentTx(targetUrl).create();
+            databaseBackup.restore(target, backupFile, incrementalFile);
+
+            target.activateOnCurrentThread();
+            Assert.assertEquals(target.countClass("Item"), 100);
+            source.activateOnCurrentThread();
+            List<ODocument> expected = source.query(new OSQLSynchQuery<ODocument>("select from Item"));
+            Assert.assertEquals(expected.size(), 100);
+            target.activateOnCurrentThread();
+            for (ODocument document : expected) {
+                ODocument restored = target.load(document.getIdentity());
+                Assert.assertNotNull(restored);
+                Assert.assertEquals(restored.<Integer>field("key"), document.<Integer>field("key"));
+            }
+            Assert.assertNull(target.load(items.get(1).getIdentity()));
+        } finally {
+            if (sourcePool != null) {
+                sourcePool.close();
+            }
+            if (target != null) {
+                target.activateOnCurrentThread();
+                target.drop();
+            }
+            source.activateOnCurrentThread();
+            source.drop();
+        }
+    }
+
+
+    @Test
+    public void testIncrementalBackupWithoutManifestWritesEveryRecord() throws Exception {
+        final Path manifest = backupDirectory.resolve("first.manifest");
+        Files.deleteIfExists(manifest);
+        final Path backupFile = backupDirectory.resolve("first.jsonl.gz");
+        BackupResult result = new DatabaseBackup(pool).backupIncremental(backupFile, manifest);
+        Assert.assertTrue(result.getRecordCount() >= RECORD_COUNT);
+        Assert.assertEquals(result.getDeletionCount(), 0);
+        Assert.assertTrue(Files.exists(manifest));
+        Assert.assertEquals(readLines(Files.readAllBytes(backupFile)).size(), result.getRecordCount() + 1);
+    }
+
+
+    @Test
+    public void testThrottledBackup() throws Exception {
+        final long maxBytesPerSecond = 1024L * 1024L;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final long startMillis = System.currentTimeMillis();
+        BackupResult result = new DatabaseBackup(pool)
+                .setMaxBytesPerSecond(maxBytesPerSecond)
+                .setBufferSize(1024)
+                .backup(Channels.newChannel(output), null);
+        final long elapsedMillis = System.currentTimeMillis() - startMillis;
+        Assert.assertEquals(result.getClusterCount(), 0);
+        Assert.assertEquals(result.getByteCount(), output.size());
+        Assert.assertTrue(elapsedMillis >= (result.getByteCount() * 1000L / maxBytesPerSecond) - 50L);
+    }
+
+
+    @Test
+    public void testInvalidManifestIsRejected() throws Exception {
+        final Path manifest = backupDirectory.resolve("invalid.manifest");
+        try (OutputStream outputStream = new GZIPOutputStream(Files.newOutputStream(manifest))) {
+            outputStream.write("not a manifest".getBytes(StandardCharsets.UTF_8));
+        }
+        boolean exceptionOccurred = false;
+        try {
+            new DatabaseBackup(pool).backupIncremental(Channels.newChannel(new ByteArrayOutputStream()), manifest);
+        } catch (IOException e) {
+            exceptionOccurred = true;
+        }
+        Assert.assertTrue(exceptionOccurred);
+        Assert.assertFalse(Files.exists(backupDirectory.resolve("invalid.manifest.tmp")));
+    }
+
+
+    @Test
+    public void testInvalidBufferSizeIsRejected() {
+        boolean exceptionOccurred = false;
+        try {
+            new DatabaseBackup(pool).setBufferSize(0);
+        } catch (IllegalArgumentException e) {
+            exceptionOccurred = true;
+        }
+        Assert.assertTrue(exceptionOccurred);
+    }
+
+
+    private static List<String> readLines(final byte[] compressed) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(compressed)),
+                StandardCharsets.UTF_8
+        ))) {
+            String line = reader.readLine();
+            while (line != null) {
+                lines.add(line);
+                line = reader.readLine();
+            }
+        }
+        return lines;
+    }
+
+
+}
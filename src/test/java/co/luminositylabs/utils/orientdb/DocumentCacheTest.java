@@ -0,0 +1,186 @@
+package co.luminositylabs.utils.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+
+/**
+ * Tests the caching functionality of DocumentCache class.
+ *
+ * @author Phillip Ross
+ */
+public class DocumentCacheTest {
+
+    private String dbUrl;
+    private ODatabaseDocumentTx oDatabaseDocumentTx;
+
+
+    @BeforeMethod
+    public void createDatabase() {
+        dbUrl = OrientDBUtil.buildDatabaseUrl("cachedb", OrientDBUtil.Engine.MEMORY, null, null, null);
+        oDatabaseDocumentTx = new ODatabaseDocumentTx(dbUrl).create();
+        oDatabaseDocumentTx.getMetadata().getSchema().createClass("Product");
+        oDatabaseDocumentTx.getMetadata().getSchema().createClass("Session");
+    }
+
+
+    @AfterMethod(alwaysRun = true)
+    public void dropDatabase() {
+        if ((oDatabaseDocumentTx != null) && (!(oDatabaseDocumentTx.isClosed()))) {
+            oDatabaseDocumentTx.activateOnCurrentThread();
+            oDatabaseDocumentTx.drop();
+        }
+    }
+
+
+    private ORID saveProduct(final String name) {
+        ODocument product = new ODocument("Product").field("name", name);
+        oDatabaseDocumentTx.save(product);
+        return product.getIdentity();
+    }
+
+
+    @Test
+    public void testReadThroughReturnsCopies() {
+        DocumentCache cache = new DocumentCache(100);
+        ORID rid = saveProduct("widget");
+        ODocument loaded = cache.get(oDatabaseDocumentTx, rid);
+        Assert.assertEquals(cache.getMissCount(), 1L);
+        Assert.assertEquals(loaded.<String>field("name"), "widget");
+        loaded.field("name", "changed");
+        ODocument stored = oDatabaseDocumentTx.load(rid);
+        Assert.assertEquals(stored.<String>field("name"), "widget");
+        Assert.assertEquals(cache.get(oDatabaseDocumentTx, rid).<String>field("name"), "widget");
+        Assert.assertEquals(cache.getHitCount(), 1L);
+
+        ODocument copy = cache.get(oDatabaseDocumentTx, rid);
+        Assert.assertEquals(cache.getHitCount(), 2L);
+        copy.field("name", "modified");
+        Assert.assertEquals(cache.get(oDatabaseDocumentTx, rid).<String>field("name"), "widget");
+    }
+
+
+    @Test
+    public void testHookInvalidatesUpdatedAndDeletedRecords() {
+        DocumentCache cache = new DocumentCache(100);
+        cache.register(oDatabaseDocumentTx);
+        ORID rid = saveProduct("widget");
+        ODocument product = cache.get(oDatabaseDocumentTx, rid);
+        product.field("name", "gadget");
+        oDatabaseDocumentTx.save(product);
+        Assert.assertNull(cache.getIfPresent(oDatabaseDocumentTx, rid));
+        Assert.assertEquals(cache.get(oDatabaseDocumentTx, rid).<String>field("name"), "gadget");
+
+        oDatabaseDocumentTx.delete(rid);
+        Assert.assertNull(cache.getIfPresent(oDatabaseDocumentTx, rid));
+        Assert.assertTrue(cache.getInvalidationCount() >= 2);
+    }
+
+
+    @Test
+    public void testAttachedHookSeesChangesFromOtherSessions() {
+        DocumentCache cache = new DocumentCache(100);
+        ORID rid = saveProduct("widget");
+        cache.attachToAllDatabases();
+        try (OrientDBPool pool = new OrientDBPool(dbUrl, "admin", "admin", 2, 2, 5000)) {
+            cache.get(oDatabaseDocumentTx, rid);
+            Assert.assertNotNull(cache.getIfPresent(oDatabaseDocumentTx, rid));
+            try (PooledSession session = pool.acquire()) {
+                ODocument product = session.getDatabase().load(rid);
+                product.field("name", "gadget");
+                session.getDatabase().save(product);
+            }
+            Assert.assertNull(cache.getIfPresent(oDatabaseDocumentTx, rid));
+        } finally {
+            cache.detachFromAllDatabases();
+            oDatabaseDocumentTx.activateOnCurrentThread();
+        }
+    }
+
+
+    @Test
+    public void testDatabasesWithTheSameRecordIdsDoNotShareEntries() {
+        DocumentCache cache = new DocumentCache(100);
+        ORID rid = saveProduct("widget");
+        ODatabaseDocumentTx other = new ODatabaseDocumentTx(
+                OrientDBUtil.buildDatabaseUrl("othercachedb", OrientDBUtil.Engine.MEMORY, null, null, null)
+        ).create();
+        try {
+            other.getMetadata().getSchema().createClass("Product");
+            other.getMetadata().getSchema().createClass("Session");
+            ODocument otherProduct = new ODocument("Product").field("name", "gadget");
+            other.save(otherProduct);
+            Assert.assertEquals(otherProduct.getIdentity(), rid);
+            cache.register(other);
+
+            Assert.assertEquals(cache.get(other, rid).<String>field("name"), "gadget");
+            oDatabaseDocumentTx.activateOnCurrentThread();
+            Assert.assertEquals(cache.get(oDatabaseDocumentTx, rid).<String>field("name"), "widget");
+            Assert.assertEquals(cache.size(), 2);
+
+            other.activateOnCurrentThread();
+            other.save(otherProduct.field("name", "gizmo"));
+            Assert.assertNull(cache.getIfPresent(other, rid));
+            Assert.assertEquals(cache.getIfPresent(oDatabaseDocumentTx, rid).<String>field("name"), "widget");
+        } finally {
+            other.activateOnCurrentThread();
+            other.drop();
+            oDatabaseDocumentTx.activateOnCurrentThread();
+        }
+    }
+
+
+    @Test
+    public void testSegmentedCacheRespectsMaximumWeight() {
+        DocumentCache cache = new DocumentCache(1000);
+        for (int i = 0; i < 1500; i++) {
+            cache.get(oDatabaseDocumentTx, saveProduct("product" + i));
+        }
+        Assert.assertTrue(cache.size() <= 1000);
+        Assert.assertEquals(cache.getWeight(), cache.size());
+        Assert.assertEquals(cache.getEvictionCount(), 1500L - cache.size());
+    }
+
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() {
+        DocumentCache cache = new DocumentCache(2);
+        ORID first = saveProduct("first");
+        ORID second = saveProduct("second");
+        ORID third = saveProduct("third");
+        cache.get(oDatabaseDocumentTx, first);
+        cache.get(oDatabaseDocumentTx, second);
+        cache.get(oDatabaseDocumentTx, first);
+        cache.get(oDatabaseDocumentTx, third);
+        Assert.assertEquals(cache.size(), 2);
+        Assert.assertEquals(cache.getEvictionCount(), 1L);
+        Assert.assertNotNull(cache.getIfPresent(oDatabaseDocumentTx, first));
+        Assert.assertNull(cache.getIfPresent(oDatabaseDocumentTx, second));
+        Assert.assertNotNull(cache.getIfPresent(oDatabaseDocumentTx, third));
+    }
+
+
+    @Test
+    public void testClassPoliciesAndExpiry() throws Exception {
+        DocumentCache cache = new DocumentCache(100)
+                .setClassPolicy("Session", CachePolicy.NEVER)
+                .setClassPolicy("Product", CachePolicy.expireAfter(50));
+        ODocument session = new ODocument("Session").field("token", "abc");
+        oDatabaseDocumentTx.save(session);
+        cache.get(oDatabaseDocumentTx, session.getIdentity());
+        Assert.assertNull(cache.getIfPresent(oDatabaseDocumentTx, session.getIdentity()));
+
+        ORID rid = saveProduct("widget");
+        cache.get(oDatabaseDocumentTx, rid);
+        Assert.assertNotNull(cache.getIfPresent(oDatabaseDocumentTx, rid));
+        Thread.sleep(100);
+        Assert.assertNull(cache.getIfPresent(oDatabaseDocumentTx, rid));
+        Assert.assertEquals(cache.getWeight(), 0L);
+    }
+
+}
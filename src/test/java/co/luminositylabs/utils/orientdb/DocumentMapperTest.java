@@ -0,0 +1,298 @@
+package co.luminositylabs.utils.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Tests the object to document conversion functionality of DocumentMapper class.
+ *
+ * @author Phillip Ross
+ */
+public class DocumentMapperTest {
+
+    private static final String DB_NAME = "mapperdb";
+
+    private ODatabaseDocumentTx oDatabaseDocumentTx;
+
+
+    public enum Status { ACTIVE, RETIRED }
+
+
+    public static class Address {
+        private String street;
+        private String city;
+
+        public String getStreet() {
+            return street;
+        }
+
+        public void setStreet(final String street) {
+            this.street = street;
+        }
+
+        public String getCity() {
+            return city;
+        }
+
+        public void setCity(final String city) {
+            this.city = city;
+        }
+    }
+
+
+    public static class Person {
+        @RecordId
+        private ORID id;
+        private String name;
+        private int age;
+        private boolean verified;
+        private Date born;
+        private Status status;
+        private Address home;
+        private List<String> tags = new ArrayList<>();
+        private Set<Address> previous = new LinkedHashSet<>();
+        private Map<String, Integer> scores = new LinkedHashMap<>();
+        @Link
+        private Person manager;
+        @Link
+        private List<Person> reports = new ArrayList<>();
+        private transient String ignored;
+
+        public ORID getId() {
+            return id;
+        }
+
+        public void setId(final ORID id) {
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(final String name) {
+            this.name = name;
+        }
+
+        public int getAge() {
+            return age;
+        }
+
+        public void setAge(final int age) {
+            this.age = age;
+        }
+
+        public boolean isVerified() {
+            return verified;
+        }
+
+        public void setVerified(final boolean verified) {
+            this.verified = verified;
+        }
+    }
+
+
+    static class FieldsOnly {
+        private long counter;
+        private Double ratio;
+    }
+
+
+    static class UnsupportedKeys {
+        private Map<Integer, String> values;
+    }
+
+
+    static class DocumentRecordId {
+        @RecordId
+        private ODocument id;
+    }
+
+
+    static class Catalog {
+        static class Widget {
+            private String name;
+        }
+    }
+
+
+    static class Inventory {
+        static class Widget {
+            private int count;
+        }
+    }
+
+
+    static class Warehouse {
+        @DocumentClass("StoredWidget")
+        static class Widget {
+            private int count;
+        }
+    }
+
+
+    @BeforeClass
+    public void createDatabase() {
+        final String dbUrl = OrientDBUtil.buildDatabaseUrl(DB_NAME, OrientDBUtil.Engine.MEMORY, null, null, null);
+        oDatabaseDocumentTx = new ODatabaseDocumentTx(dbUrl).create();
+    }
+
+
+    @AfterClass(alwaysRun = true)
+    public void dropDatabase() {
+        if ((oDatabaseDocumentTx != null) && (!(oDatabaseDocumentTx.isClosed()))) {
+            oDatabaseDocumentTx.activateOnCurrentThread();
+            oDatabaseDocumentTx.drop();
+        }
+    }
+
+
+    private static Address address(final String street, final String city) {
+        Address address = new Address();
+        address.setStreet(street);
+        address.setCity(city);
+        return address;
+    }
+
+
+    @Test
+    public void testRoundTripOfValuesEmbeddedObjectsAndCollections() {
+        oDatabaseDocumentTx.activateOnCurrentThread();
+        DocumentMapper<Person> mapper = DocumentMapper.forClass(Person.class);
+        Assert.assertSame(DocumentMapper.forClass(Person.class), mapper);
+        Person person = new Person();
+        person.setName("Ada");
+        person.setAge(36);
+        person.setVerified(true);
+        person.born = new Date(0L);
+        person.status = Status.RETIRED;
+        person.home = address("1 Analytical Way", "London");
+        person.tags.addAll(Arrays.asList("math", "engines"));
+        person.previous.add(address("2 Difference Row", "Marylebone"));
+        person.scores.put("notes", 7);
+        person.ignored = "ignored";
+
+        ODocument saved = mapper.save(oDatabaseDocumentTx, person);
+        Assert.assertEquals(saved.getClassName(), "Person");
+        Assert.assertNotNull(person.getId());
+        Assert.assertTrue(person.getId().isPersistent());
+        Assert.assertFalse(saved.containsField("ignored"));
+        Assert.assertFalse(saved.containsField("id"));
+
+        ODocument loaded = oDatabaseDocumentTx.load(person.getId());
+        Person read = mapper.fromDocument(loaded);
+        Assert.assertEquals(read.getId(), person.getId());
+        Assert.assertEquals(read.getName(), "Ada");
+        Assert.assertEquals(read.getAge(), 36);
+        Assert.assertTrue(read.isVerified());
+        Assert.assertEquals(read.born, new Date(0L));
+        Assert.assertEquals(read.status, Status.RETIRED);
+        Assert.assertEquals(read.home.getCity(), "London");
+        Assert.assertEquals(read.tags, Arrays.asList("math", "engines"));
+        Assert.assertEquals(read.previous.size(), 1);
+        Assert.assertEquals(read.previous.iterator().next().getStreet(), "2 Difference Row");
+        Assert.assertEquals(read.scores.get("notes").intValue(), 7);
+        Assert.assertNull(read.ignored);
+        Assert.assertNull(read.manager);
+    }
+
+
+    @Test
+    public void testLinksAreSavedAndResolvedOnce() {
+        oDatabaseDocumentTx.activateOnCurrentThread();
+        DocumentMapper<Person> mapper = DocumentMapper.forClass(Person.class);
+        Person manager = new Person();
+        manager.setName("Grace");
+        Person report = new Person();
+        report.setName("Alan");
+        report.manager = manager;
+        manager.reports.add(report);
+
+        mapper.save(oDatabaseDocumentTx, manager);
+        Assert.assertTrue(manager.getId().isPersistent());
+        Assert.assertTrue(report.getId().isPersistent());
+        Assert.assertNotEquals(report.getId(), manager.getId());
+
+        Person read = mapper.fromDocument((ODocument) oDatabaseDocumentTx.load(manager.getId()));
+        Assert.assertEquals(read.reports.size(), 1);
+        Person readReport = read.reports.get(0);
+        Assert.assertEquals(readReport.getName(), "Alan");
+        Assert.assertSame(readReport.manager, read);
+
+        read.setName("Grace Hopper");
+        mapper.save(oDatabaseDocumentTx, read);
+        Assert.assertEquals(read.getId(), manager.getId());
+        ODocument updated = oDatabaseDocumentTx.load(manager.getId());
+        Assert.assertEquals(updated.field("name"), "Grace Hopper");
+    }
+
+
+    @Test
+    public void testFieldsWithoutAccessors() {
+        DocumentMapper<FieldsOnly> mapper = DocumentMapper.forClass(FieldsOnly.class);
+        FieldsOnly fieldsOnly = new FieldsOnly();
+        fieldsOnly.counter = 42L;
+        fieldsOnly.ratio = 0.5d;
+        FieldsOnly read = mapper.fromDocument(mapper.toDocument(fieldsOnly));
+        Assert.assertEquals(read.counter, 42L);
+        Assert.assertEquals(read.ratio, 0.5d);
+    }
+
+
+    @Test
+    public void testUnsupportedMapKeysAreRejected() {
+        boolean exceptionOccurred = false;
+        try {
+            DocumentMapper.forClass(UnsupportedKeys.class);
+        } catch (IllegalArgumentException iae) {
+            exceptionOccurred = true;
+            Assert.assertTrue(iae.getMessage().contains("keys must be strings"));
+        }
+        Assert.assertTrue(exceptionOccurred);
+    }
+
+
+    @Test
+    public void testRecordIdMustHoldAnOrid() {
+        boolean exceptionOccurred = false;
+        try {
+            DocumentMapper.forClass(DocumentRecordId.class);
+        } catch (IllegalArgumentException iae) {
+            exceptionOccurred = true;
+            Assert.assertTrue(iae.getMessage().contains("must be an ORID"));
+        }
+        Assert.assertTrue(exceptionOccurred);
+    }
+
+
+    @Test
+    public void testDocumentClassNamesAreNotShared() {
+        Assert.assertEquals(DocumentMapper.forClass(Catalog.Widget.class).getClassName(), "Widget");
+        Assert.assertEquals(DocumentMapper.forClass(Warehouse.Widget.class).getClassName(), "StoredWidget");
+        boolean exceptionOccurred = false;
+        try {
+            DocumentMapper.forClass(Inventory.Widget.class);
+        } catch (IllegalArgumentException iae) {
+            exceptionOccurred = true;
+            Assert.assertTrue(iae.getMessage().contains(Catalog.Widget.class.getName()));
+        }
+        Assert.assertTrue(exceptionOccurred);
+    }
+
+
+}
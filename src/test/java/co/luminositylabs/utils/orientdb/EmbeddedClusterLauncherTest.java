@@ -0,0 +1,125 @@
+package co.luminositylabs.utils.orientdb;
+
+import com.orientechnologies.orient.core.Orient;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.List;
+
+
+/**
+ * Tests the replicated databases of clusters started by the EmbeddedClusterLauncher class.
+ *
+ * @author Phillip Ross
+ */
+public class EmbeddedClusterLauncherTest {
+
+    private static final String SERVER_USERNAME = "cluster";
+    private static final String SERVER_PASSWORD = "clusterpassword";
+    private static final String DB_NAME = "clusterdb";
+
+    private EmbeddedClusterLauncher launcher;
+
+
+    @BeforeClass
+    public void startCluster() throws Exception {
+        launcher = new EmbeddedClusterLauncher(SERVER_USERNAME, SERVER_PASSWORD)
+                .setNodeCount(2)
+                .setBasePath("target/cluster-it")
+                .setBinaryPort(2624)
+                .setHazelcastPort(2634)
+                .setClusterName("orientdb-utils-it")
+                .setWriteQuorum(EmbeddedClusterLauncher.WRITE_QUORUM_ALL)
+                .start();
+        launcher.createDatabase(DB_NAME);
+    }
+
+
+    @AfterClass(alwaysRun = true)
+    public void stopCluster() {
+        if (launcher != null) {
+            launcher.close();
+        }
+    }
+
+
+    @Test
+    public void testNodesStarted() {
+        Assert.assertEquals(launcher.getNodeCount(), 2);
+        Assert.assertEquals(launcher.getNodeName(0), "node0");
+        Assert.assertNotNull(launcher.getServer(1));
+        Assert.assertEquals(launcher.getRemoteUrl(1, DB_NAME), "remote:127.0.0.1:2625/" + DB_NAME);
+        Assert.assertEquals(launcher.getRemoteUrl(DB_NAME), "remote:127.0.0.1:2624;127.0.0.1:2625/" + DB_NAME);
+    }
+
+
+    @Test
+    public void testNodesHaveTheirOwnStorages() {
+        Assert.assertTrue(Orient.isRegisterDatabaseByPath());
+        for (int i = 0; i < launcher.getNodeCount(); i++) {
+            File databaseDirectory = new File("target/cluster-it/" + launcher.getNodeName(i) + "/databases/" + DB_NAME);
+            Assert.assertTrue(databaseDirectory.isDirectory(), databaseDirectory.getPath());
+        }
+    }
+
+
+    @Test
+    public void testWriteIsReplicated() {
+        ODatabaseDocumentTx db = new ODatabaseDocumentTx(launcher.getRemoteUrl(0, DB_NAME));
+        db.open(SERVER_USERNAME, SERVER_PASSWORD);
+        try {
+            db.save(new ODocument("Replicated").field("key", "replicated"));
+        } finally {
+            db.close();
+        }
+        db = new ODatabaseDocumentTx(launcher.getRemoteUrl(1, DB_NAME));
+        db.open(SERVER_USERNAME, SERVER_PASSWORD);
+        try {
+            List<ODocument> documents = db.query(
+                    new OSQLSynchQuery<ODocument>("select from Replicated where key = ?"),
+                    "replicated"
+            );
+            Assert.assertEquals(documents.size(), 1);
+        } finally {
+            db.close();
+        }
+    }
+
+
+    @Test
+    public void testGeneratedConfiguration() {
+        EmbeddedClusterLauncher configured = new EmbeddedClusterLauncher(SERVER_USERNAME, SERVER_PASSWORD)
+                .setNodeCount(3)
+                .setHazelcastPort(3000)
+                .setReadQuorum(2)
+                .setWriteQuorum(2);
+        String hazelcast = configured.buildHazelcastConfiguration();
+        Assert.assertTrue(hazelcast.contains("<member>127.0.0.1:3002</member>"), hazelcast);
+        Assert.assertTrue(hazelcast.contains("<multicast enabled=\"false\"/>"), hazelcast);
+        String database = configured.buildDatabaseConfiguration();
+        Assert.assertTrue(database.contains("\"readQuorum\": 2,"), database);
+        Assert.assertTrue(database.contains("\"writeQuorum\": 2,"), database);
+        configured.setWriteQuorum(EmbeddedClusterLauncher.WRITE_QUORUM_MAJORITY);
+        Assert.assertTrue(configured.buildDatabaseConfiguration().contains("\"writeQuorum\": \"majority\","));
+    }
+
+
+    @Test
+    public void testInvalidWriteQuorum() {
+        boolean exceptionOccurred = false;
+        try {
+            new EmbeddedClusterLauncher(SERVER_USERNAME, SERVER_PASSWORD).setWriteQuorum("most");
+        } catch (IllegalArgumentException iae) {
+            exceptionOccurred = true;
+        }
+        Assert.assertTrue(exceptionOccurred);
+    }
+
+
+}
@@ -0,0 +1,190 @@
+package co.luminositylabs.utils.orientdb;
+
+import com.orientechnologies.orient.client.remote.OServerAdmin;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.server.OServer;
+import com.orientechnologies.orient.server.config.OServerConfiguration;
+import com.orientechnologies.orient.server.config.OServerEntryConfiguration;
+import com.orientechnologies.orient.server.config.OServerHandlerConfiguration;
+import com.orientechnologies.orient.server.config.OServerNetworkListenerConfiguration;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+
+
+/**
+ * Tests the configuration functionality of EmbeddedServerBuilder and StorageProfile classes.
+ *
+ * @author Phillip Ross
+ */
+public class EmbeddedServerBuilderTest {
+
+
+    @Test
+    public void testStorageProfileValueConversions() {
+        for (StorageProfile validProfile : StorageProfile.values()) {
+            Assert.assertEquals(StorageProfile.fromString(validProfile.toStringValue()), validProfile);
+            Assert.assertEquals(StorageProfile.fromString(validProfile.toString()), validProfile);
+        }
+        Assert.assertEquals(StorageProfile.fromString("bulk-load"), StorageProfile.BULK_LOAD);
+        Assert.assertNull(StorageProfile.fromString("invalidProfile"));
+    }
+
+
+    @Test
+    public void testBuilderRequiresCredentials() {
+        boolean exceptionOccurred = false;
+        try {
+            new EmbeddedServerBuilder("user1", null);
+        } catch (NullPointerException npe) {
+            exceptionOccurred = true;
+            Assert.assertTrue(npe.getMessage().contains("Password must be specified"));
+        }
+        Assert.assertTrue(exceptionOccurred);
+    }
+
+
+    @Test
+    public void testExplicitSettingsOverrideProfile() {
+        final String writeCacheKey = OGlobalConfiguration.DISK_WRITE_CACHE_PART.getKey();
+        EmbeddedServerBuilder builder = new EmbeddedServerBuilder("user1", "user1password")
+                .setStorageProfile(StorageProfile.BULK_LOAD)
+                .setWriteCachePercentage(30)
+                .setDiskCacheSizeMb(512);
+        Map<String, String> settings = builder.getEffectiveStorageSettings();
+        Assert.assertEquals(settings.get(writeCacheKey), "30");
+        Assert.assertEquals(settings.get(OGlobalConfiguration.USE_WAL.getKey()), "false");
+        Assert.assertEquals(settings.get(OGlobalConfiguration.DISK_CACHE_SIZE.getKey()), "512");
+    }
+
+
+    @Test
+    public void testUnknownSettingIsRejected() {
+        boolean exceptionOccurred = false;
+        try {
+            new EmbeddedServerBuilder("user1", "user1password").setStorageSetting("invalid.key", "1");
+        } catch (IllegalArgumentException iae) {
+            exceptionOccurred = true;
+            Assert.assertTrue(iae.getMessage().contains("Unknown OrientDB configuration key"));
+        }
+        Assert.assertTrue(exceptionOccurred);
+    }
+
+
+    @Test
+    public void testConfigurationContainsDatabasePathAndSettings() {
+        OServerConfiguration serverConfig = new EmbeddedServerBuilder("user1", "user1password")
+                .setDatabasePath("target/builderdbs")
+                .setStorageProfile(StorageProfile.LOW_MEMORY)
+                .setNetworkEnabled(false)
+                .buildConfiguration();
+        Assert.assertTrue(serverConfig.network.listeners.isEmpty());
+        String databasePath = null;
+        String diskCacheSize = null;
+        for (OServerEntryConfiguration property : serverConfig.properties) {
+            if (property.name.equals(EmbeddedServerBuilder.SERVER_PROPERTY_DATABASE_PATH)) {
+                databasePath = property.value;
+            } else if (property.name.equals(OGlobalConfiguration.DISK_CACHE_SIZE.getKey())) {
+                diskCacheSize = property.value;
+            }
+        }
+        Assert.assertEquals(databasePath, "target/builderdbs");
+        Assert.assertEquals(diskCacheSize, "256");
+    }
+
+
+    @Test
+    public void testConfigurationContainsDistributedPlugin() {
+        OServerConfiguration serverConfig = new EmbeddedServerBuilder("user1", "user1password")
+                .setDistributed("node1", "target/hazelcast.xml", "target/default-distributed-db-config.json")
+                .buildConfiguration();
+        Assert.assertEquals(serverConfig.handlers.size(), 1);
+        OServerHandlerConfiguration handlerConfig = serverConfig.handlers.get(0);
+        Assert.assertTrue(handlerConfig.clazz.endsWith("OHazelcastPlugin"));
+        Assert.assertEquals(handlerConfig.parameters[1].value, "node1");
+        Assert.assertNull(new EmbeddedServerBuilder("user1", "user1password").buildConfiguration().handlers);
+    }
+
+
+    @Test
+    public void testConfigurationContainsListenersAndSocketOptions() {
+        OServerConfiguration serverConfig = new EmbeddedServerBuilder("user1", "user1password")
+                .addListener("127.0.0.1", "7657")
+                .addListener("127.0.0.1", "7658")
+                .setSocketSendBufferSize(65536)
+                .setSocketReceiveBufferSize(65536)
+                .setTcpNoDelay(true)
+                .setMaxConcurrentSessions(200)
+                .buildConfiguration();
+        Assert.assertEquals(serverConfig.network.listeners.size(), 2);
+        for (OServerNetworkListenerConfiguration listener : serverConfig.network.listeners) {
+            Assert.assertEquals(listener.socket, EmbeddedServerBuilder.TUNED_SOCKET_NAME);
+        }
+        Assert.assertEquals(serverConfig.network.sockets.size(), 1);
+        Assert.assertEquals(
+                serverConfig.network.sockets.get(0).implementation,
+                TunedServerSocketFactory.class.getName()
+        );
+        String maxConcurrentSessions = null;
+        for (OServerEntryConfiguration property : serverConfig.properties) {
+            if (property.name.equals(OGlobalConfiguration.NETWORK_MAX_CONCURRENT_SESSIONS.getKey())) {
+                maxConcurrentSessions = property.value;
+            }
+        }
+        Assert.assertEquals(maxConcurrentSessions, "200");
+    }
+
+
+    @Test
+    public void testGlobalSettingsAreRestoredOnShutdown() throws Exception {
+        final Object previousUseWal = OGlobalConfiguration.USE_WAL.getValue();
+        OServer oServer = null;
+        try {
+            oServer = new EmbeddedServerBuilder("user1", "user1password")
+                    .setNetworkEnabled(false)
+                    .setStorageProfile(StorageProfile.BULK_LOAD)
+                    .start();
+            Assert.assertEquals(OGlobalConfiguration.USE_WAL.getValueAsString(), "false");
+        } finally {
+            if ((oServer != null) && (oServer.isActive())) {
+                oServer.shutdown();
+            }
+        }
+        Assert.assertEquals(OGlobalConfiguration.USE_WAL.getValue(), previousUseWal);
+    }
+
+
+    @Test
+    public void testServerAcceptsConnectionsOnEachListener() throws Exception {
+        final String dbUsername = "user1";
+        final String dbPassword = "user1password";
+        final String[] listenerPorts = {"7657", "7658"};
+        OServer oServer = null;
+        try {
+            oServer = new EmbeddedServerBuilder(dbUsername, dbPassword)
+                    .addListener("127.0.0.1", listenerPorts[0])
+                    .addListener("127.0.0.1", listenerPorts[1])
+                    .setSocketSendBufferSize(65536)
+                    .setSocketReceiveBufferSize(65536)
+                    .setTcpNoDelay(true)
+                    .start();
+            for (String listenerPort : listenerPorts) {
+                OServerAdmin oServerAdmin = new OServerAdmin(OrientDBUtil.buildDatabaseUrl(
+                        "db1", OrientDBUtil.Engine.REMOTE, "127.0.0.1", listenerPort, null
+                ));
+                try {
+                    oServerAdmin.connect(dbUsername, dbPassword);
+                    Assert.assertTrue(oServerAdmin.isConnected());
+                } finally {
+                    oServerAdmin.close();
+                }
+            }
+        } finally {
+            if ((oServer != null) && (oServer.isActive())) {
+                oServer.shutdown();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+package co.luminositylabs.utils.orientdb;
+
+import com.orientechnologies.orient.core.Orient;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+
+/**
+ * Tests the template database functionality of EmbeddedServerFixture class.
+ *
+ * @author Phillip Ross
+ */
+public class EmbeddedServerFixtureTest {
+
+    private static final String TEMPLATE_NAME = "catalog";
+
+    private EmbeddedServerFixture fixture;
+
+
+    @BeforeClass
+    public void startFixture() {
+        fixture = EmbeddedServerFixture.getInstance().defineTemplate(TEMPLATE_NAME, db -> {
+            OClass product = db.getMetadata().getSchema().createClass("Product");
+            product.createProperty("sku", OType.STRING);
+            product.createIndex("Product.sku", OClass.INDEX_TYPE.UNIQUE, "sku");
+            for (int i = 0; i < 10; i++) {
+                db.save(new ODocument("Product").field("sku", "sku-" + i));
+            }
+        });
+    }
+
+
+    @Test
+    public void testFixtureIsSharedAndTemplatesAreBuiltOnce() {
+        Assert.assertSame(EmbeddedServerFixture.getInstance(), fixture);
+        Assert.assertTrue(fixture.getServer().isActive());
+        Assert.assertTrue(fixture.hasTemplate(TEMPLATE_NAME));
+        fixture.defineTemplate(TEMPLATE_NAME, db -> Assert.fail("A defined template must not be rebuilt"));
+    }
+
+
+    @Test
+    public void testDatabasesAreRestoredIndependently() {
+        String firstName = fixture.createDatabase(TEMPLATE_NAME);
+        String secondName = fixture.createDatabase(TEMPLATE_NAME);
+        Assert.assertNotEquals(firstName, secondName);
+        ODatabaseDocumentTx first = new ODatabaseDocumentTx(fixture.getLocalUrl(firstName))
+                .open(EmbeddedServerFixture.DATABASE_USERNAME, EmbeddedServerFixture.DATABASE_PASSWORD);
+        try {
+            Assert.assertEquals(first.countClass("Product"), 10L);
+            Assert.assertNotNull(first.getMetadata().getIndexManager().getIndex("Product.sku"));
+            first.save(new ODocument("Product").field("sku", "sku-extra"));
+            Assert.assertEquals(first.countClass("Product"), 11L);
+        } finally {
+            first.close();
+        }
+        ODatabaseDocumentTx second = new ODatabaseDocumentTx(fixture.getLocalUrl(secondName))
+                .open(EmbeddedServerFixture.DATABASE_USERNAME, EmbeddedServerFixture.DATABASE_PASSWORD);
+        try {
+            Assert.assertEquals(second.countClass("Product"), 10L);
+        } finally {
+            second.close();
+        }
+        fixture.dropDatabase(firstName);
+        fixture.dropDatabase(secondName);
+    }
+
+
+    @Test
+    public void testFixtureIsRestartedAfterTheEngineIsShutDown() {
+        // Other servers of the JVM shut the engine down when they are shut down.
+        Orient.instance().shutdown();
+        EmbeddedServerFixture restarted = EmbeddedServerFixture.getInstance();
+        Assert.assertNotSame(restarted, fixture);
+        Assert.assertTrue(restarted.getServer().isActive());
+        Assert.assertTrue(restarted.hasTemplate(TEMPLATE_NAME));
+        String databaseName = restarted.createDatabase(TEMPLATE_NAME);
+        ODatabaseDocumentTx db = new ODatabaseDocumentTx(restarted.getLocalUrl(databaseName))
+                .open(EmbeddedServerFixture.DATABASE_USERNAME, EmbeddedServerFixture.DATABASE_PASSWORD);
+        try {
+            Assert.assertEquals(db.countClass("Product"), 10L);
+        } finally {
+            db.close();
+        }
+        restarted.dropDatabase(databaseName);
+        fixture = restarted;
+    }
+
+
+    @Test
+    public void testUnknownTemplateIsRejected() {
+        boolean exceptionOccurred = false;
+        try {
+            fixture.createDatabase("missing");
+        } catch (IllegalArgumentException iae) {
+            exceptionOccurred = true;
+        }
+        Assert.assertTrue(exceptionOccurred);
+    }
+
+}
@@ -1,27 +1,21 @@
 package co.luminositylabs.utils.orientdb;
 
-import com.orientechnologies.orient.client.remote.OServerAdmin;
 import com.orientechnologies.orient.core.db.OPartitionedDatabasePool;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
 import com.orientechnologies.orient.core.metadata.OMetadata;
 import com.orientechnologies.orient.core.metadata.schema.OSchema;
-import com.orientechnologies.orient.server.OServer;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
 
 /**
- * Tests the embedded server functionality of OrientDBUtil class.
+ * Tests the embedded server functionality of OrientDBUtil class, using the shared server of
+ * EmbeddedServerFixture for remote access.
  *
  * @author Phillip Ross
  */
 public class EmbeddedServerTest {
 
-    private static final Logger logger = LoggerFactory.getLogger(DBUrlBuildingTest.class);
-
-
     @Test
     public void testStartServerRequiresUsername() throws Exception {
         boolean exceptionOccurred = false;
@@ -49,32 +43,22 @@ public class EmbeddedServerTest {
 
 
     @Test
-    public void testStartStopServer() throws Exception {
-        logger.debug("testing");
-        final String dbName = "db1";
-        final OrientDBUtil.Engine dbEngine = OrientDBUtil.Engine.REMOTE;
-        final String dbHostname = "localhost";
-        final String dbPortRange = "7654";
-        final String dbUsername = "user1";
-        final String dbPassword = "user1password";
+    public void testRemoteDatabaseAccess() throws Exception {
+        final EmbeddedServerFixture fixture = EmbeddedServerFixture.getInstance().defineTemplate("empty", db -> { });
+        final String dbName = fixture.createDatabase("empty");
 
-        OServer oServer = null;
-        OServerAdmin oServerAdmin = null;
         OPartitionedDatabasePool databasePool = null;
         ODatabaseDocumentTx oDatabaseDocumentTx = null;
         OMetadata oMetadata = null;
         OSchema oSchema = null;
 
         try {
-            oServer = OrientDBUtil.startEmbeddedServer(dbUsername, dbPassword, dbPortRange);
-            String dbUrl = OrientDBUtil.buildDatabaseUrl(dbName, dbEngine, dbHostname, dbPortRange, null);
-            oServerAdmin = new OServerAdmin(dbUrl);
-            oServerAdmin.connect(dbUsername, dbPassword);
-            if (!oServerAdmin.existsDatabase()) {
-                oServerAdmin.createDatabase("graph", "plocal");
-            }
-
-            databasePool = new OPartitionedDatabasePool(dbUrl, dbUsername, dbPassword);
+            Assert.assertTrue(fixture.getServer().isActive());
+            databasePool = new OPartitionedDatabasePool(
+                    fixture.getRemoteUrl(dbName),
+                    EmbeddedServerFixture.DATABASE_USERNAME,
+                    EmbeddedServerFixture.DATABASE_PASSWORD
+            );
             oDatabaseDocumentTx = databasePool.acquire();
             oMetadata = oDatabaseDocumentTx.getMetadata();
             oSchema = oMetadata.getSchema();
@@ -89,12 +73,7 @@ public class EmbeddedServerTest {
             if ((databasePool != null) && (!(databasePool.isClosed()))) {
                 databasePool.close();
             }
-            if (oServerAdmin != null) {
-                oServerAdmin.close();
-            }
-            if ((oServer != null) && (oServer.isActive())) {
-                oServer.shutdown();
-            }
+            fixture.dropDatabase(dbName);
         }
 
     }
@@ -0,0 +1,131 @@
+package co.luminositylabs.utils.orientdb;
+
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.impls.orient.OrientGraphFactory;
+import com.tinkerpop.blueprints.impls.orient.OrientGraphNoTx;
+import com.tinkerpop.blueprints.impls.orient.OrientVertex;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+
+
+/**
+ * Tests the graph loading functionality of GraphBulkLoader and LongRidMap classes.
+ *
+ * @author Phillip Ross
+ */
+public class GraphBulkLoaderTest {
+
+    private static final int VERTEX_COUNT = 1000;
+    private static final int EDGES_PER_VERTEX = 3;
+
+    private OrientGraphFactory graphFactory;
+
+
+    @BeforeMethod
+    public void createGraph() {
+        graphFactory = new OrientGraphFactory(
+                OrientDBUtil.buildDatabaseUrl("graphdb", OrientDBUtil.Engine.MEMORY, null, null, null)
+        );
+    }
+
+
+    @AfterMethod(alwaysRun = true)
+    public void dropGraph() {
+        if (graphFactory != null) {
+            graphFactory.drop();
+            graphFactory.close();
+        }
+    }
+
+
+    private void loadGraph(final GraphBulkLoader loader) {
+        for (long id = 0; id < VERTEX_COUNT; id++) {
+            loader.addVertex(id * 7919L, "Account", Collections.singletonMap("externalId", id * 7919L));
+        }
+        for (long id = 0; id < VERTEX_COUNT; id++) {
+            for (int e = 1; e <= EDGES_PER_VERTEX; e++) {
+                long target = ((id + e) % VERTEX_COUNT) * 7919L;
+                loader.addEdge(id * 7919L, target, "Transfer", Collections.singletonMap("amount", e));
+            }
+        }
+    }
+
+
+    private void assertGraphLoaded(final GraphBulkLoader loader) {
+        OrientGraphNoTx graph = graphFactory.getNoTx();
+        try {
+            Assert.assertEquals(graph.countVertices("Account"), VERTEX_COUNT);
+            Assert.assertEquals(graph.countEdges("Transfer"), VERTEX_COUNT * EDGES_PER_VERTEX);
+            OrientVertex vertex = graph.getVertex(loader.getRid(42 * 7919L));
+            Assert.assertEquals(vertex.<Long>getProperty("externalId"), Long.valueOf(42 * 7919L));
+            Assert.assertEquals(vertex.countEdges(Direction.OUT, "Transfer"), EDGES_PER_VERTEX);
+        } finally {
+            graph.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testNonTransactionalLoad() {
+        try (GraphBulkLoader loader = new GraphBulkLoader(graphFactory, VERTEX_COUNT)) {
+            loadGraph(loader);
+            Assert.assertEquals(loader.getVertexCount(), VERTEX_COUNT);
+            Assert.assertEquals(loader.getEdgeCount(), VERTEX_COUNT * EDGES_PER_VERTEX);
+            assertGraphLoaded(loader);
+        }
+    }
+
+
+    @Test
+    public void testTransactionalEdgeLoad() {
+        try (GraphBulkLoader loader = new GraphBulkLoader(graphFactory).setTransactionalEdges(true).setBatchSize(250)) {
+            loadGraph(loader);
+            loader.flush();
+            assertGraphLoaded(loader);
+        }
+    }
+
+
+    @Test
+    public void testEdgeToUnknownVertexIsRejected() {
+        try (GraphBulkLoader loader = new GraphBulkLoader(graphFactory)) {
+            loader.addVertex(1L, "Account", null);
+            boolean exceptionOccurred = false;
+            try {
+                loader.addEdge(1L, 2L, "Transfer", null);
+            } catch (IllegalArgumentException iae) {
+                exceptionOccurred = true;
+                Assert.assertTrue(iae.getMessage().contains("external id 2"));
+            }
+            Assert.assertTrue(exceptionOccurred);
+        }
+    }
+
+
+    @Test
+    public void testLongRidMapGrowsAndKeepsEntries() {
+        LongRidMap map = new LongRidMap(4);
+        int entries = 100000;
+        for (int i = 0; i < entries; i++) {
+            map.put(i * 31L - 50000L, new ORecordId(i % 17, i));
+        }
+        Assert.assertEquals(map.size(), entries);
+        Assert.assertTrue(map.getCapacity() >= entries);
+        for (int i = 0; i < entries; i++) {
+            ORID rid = map.get(i * 31L - 50000L);
+            Assert.assertEquals(rid.getClusterId(), i % 17);
+            Assert.assertEquals(rid.getClusterPosition(), i);
+        }
+        Assert.assertNull(map.get(1L));
+        map.put(-50000L, new ORecordId(3, 3));
+        Assert.assertEquals(map.size(), entries);
+        Assert.assertEquals(map.get(-50000L).getClusterId(), 3);
+    }
+
+}
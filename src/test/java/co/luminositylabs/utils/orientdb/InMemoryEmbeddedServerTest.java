@@ -0,0 +1,88 @@
+package co.luminositylabs.utils.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.server.OServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Tests the in-memory embedded server functionality of OrientDBUtil class.
+ *
+ * @author Phillip Ross
+ */
+public class InMemoryEmbeddedServerTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(InMemoryEmbeddedServerTest.class);
+
+    private static final String DB_USERNAME = "user1";
+    private static final String DB_PASSWORD = "user1password";
+    private static final int STARTUP_ITERATIONS = 5;
+
+
+    @Test
+    public void testStartServerRequiresUsername() throws Exception {
+        boolean exceptionOccurred = false;
+        try {
+            OrientDBUtil.startInMemoryEmbeddedServer(null, "password");
+        } catch (NullPointerException npe) {
+            exceptionOccurred = true;
+            Assert.assertTrue(npe.getMessage().contains("Username must be specified"));
+        }
+        Assert.assertTrue(exceptionOccurred);
+    }
+
+
+    @Test
+    public void testInMemoryDatabase() throws Exception {
+        final String dbUrl = OrientDBUtil.buildDatabaseUrl("memdb1", OrientDBUtil.Engine.MEMORY, null, null, null);
+        OServer oServer = null;
+        ODatabaseDocumentTx oDatabaseDocumentTx = null;
+        try {
+            oServer = OrientDBUtil.startInMemoryEmbeddedServer(DB_USERNAME, DB_PASSWORD);
+            Assert.assertTrue(oServer.getNetworkListeners().isEmpty());
+            oDatabaseDocumentTx = new ODatabaseDocumentTx(dbUrl).create();
+            oDatabaseDocumentTx.save(new ODocument("Item").field("name", "item1"));
+            Assert.assertEquals(oDatabaseDocumentTx.countClass("Item"), 1L);
+        } finally {
+            if ((oDatabaseDocumentTx != null) && (!(oDatabaseDocumentTx.isClosed()))) {
+                oDatabaseDocumentTx.activateOnCurrentThread();
+                oDatabaseDocumentTx.drop();
+            }
+            if ((oServer != null) && (oServer.isActive())) {
+                oServer.shutdown();
+            }
+        }
+    }
+
+
+    @Test
+    public void testRepeatedStartupsBindNoListeners() throws Exception {
+        long inMemoryNanos = 0;
+        for (int i = 0; i < STARTUP_ITERATIONS; i++) {
+            OServer oServer = null;
+            try {
+                final long start = System.nanoTime();
+                oServer = OrientDBUtil.startInMemoryEmbeddedServer(DB_USERNAME, DB_PASSWORD);
+                inMemoryNanos += System.nanoTime() - start;
+                Assert.assertTrue(oServer.isActive());
+                Assert.assertTrue(oServer.getNetworkListeners().isEmpty());
+            } finally {
+                if ((oServer != null) && (oServer.isActive())) {
+                    oServer.shutdown();
+                }
+            }
+        }
+        logger.info(
+                "Mean in-memory embedded server startup over {} iterations: {}ms",
+                STARTUP_ITERATIONS,
+                TimeUnit.NANOSECONDS.toMillis(inMemoryNanos / STARTUP_ITERATIONS)
+        );
+    }
+
+}
@@ -0,0 +1,92 @@
+package co.luminositylabs.utils.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.server.OServer;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+
+/**
+ * Tests the histograms of LatencyHistogram class and the JMX publication of OrientDBMetrics class.
+ *
+ * @author Phillip Ross
+ */
+public class OrientDBMetricsTest {
+
+    @Test
+    public void testHistogramPercentilesAreWithinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1000);
+        }
+        Assert.assertEquals(histogram.getCount(), 100_000L);
+        Assert.assertEquals(histogram.getMaxNanos(), 100_000_000L);
+        Assert.assertEquals(histogram.getMeanNanos(), 50_000_500L);
+        for (double percentile : new double[] {50d, 90d, 99d, 99.9d}) {
+            double expected = percentile * 1_000_000d;
+            double actual = histogram.getValueAtPercentile(percentile);
+            Assert.assertTrue(actual >= expected, percentile + " percentile " + actual + " below " + expected);
+            Assert.assertTrue(actual <= expected * 1.0625d, percentile + " percentile " + actual + " too high");
+        }
+        Assert.assertEquals(histogram.getValueAtPercentile(100d), 100_000_000L);
+        histogram.reset();
+        Assert.assertEquals(histogram.getCount(), 0L);
+        Assert.assertEquals(histogram.getValueAtPercentile(99d), 0L);
+    }
+
+
+    @Test
+    public void testBucketsCoverTheRangeOfLongs() {
+        for (long value : new long[] {0L, 15L, 16L, 17L, 1023L, 1L << 40, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.bucketIndex(value);
+            Assert.assertTrue(LatencyHistogram.bucketHighestValue(index) >= value);
+            if (index > 0) {
+                Assert.assertTrue(LatencyHistogram.bucketHighestValue(index - 1) < value);
+            }
+        }
+    }
+
+
+    @Test
+    public void testPoolAcquisitionsAndCommitsAreRecorded() {
+        OrientDBMetrics metrics = OrientDBMetrics.getInstance();
+        long acquireCount = metrics.getPoolAcquireCount();
+        long commitCount = metrics.getCommitCount();
+        final String dbUrl = OrientDBUtil.buildDatabaseUrl("metricsdb", OrientDBUtil.Engine.MEMORY, null, null, null);
+        ODatabaseDocumentTx oDatabaseDocumentTx = new ODatabaseDocumentTx(dbUrl).create();
+        try (OrientDBPool pool = new OrientDBPool(dbUrl, "admin", "admin", 2, 2, 5000)) {
+            for (int i = 0; i < 5; i++) {
+                try (PooledSession session = pool.acquire()) {
+                    ODatabaseDocumentTx db = session.getDatabase();
+                    db.begin();
+                    metrics.timeCommit(db::commit);
+                }
+            }
+        } finally {
+            oDatabaseDocumentTx.activateOnCurrentThread();
+            oDatabaseDocumentTx.drop();
+        }
+        Assert.assertTrue(metrics.getPoolAcquireCount() >= acquireCount + 5);
+        Assert.assertTrue(metrics.getCommitCount() >= commitCount + 5);
+    }
+
+
+    @Test
+    public void testMBeanIsPublishedWhileServerIsActive() throws Exception {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(OrientDBMetrics.OBJECT_NAME);
+        OServer oServer = OrientDBUtil.startInMemoryEmbeddedServer("metrics", "metricspassword");
+        try {
+            Assert.assertTrue(mBeanServer.isRegistered(objectName));
+            Assert.assertTrue(((Long) mBeanServer.getAttribute(objectName, "PoolAcquireCount")) >= 0L);
+        } finally {
+            oServer.shutdown();
+        }
+        Assert.assertFalse(mBeanServer.isRegistered(objectName));
+    }
+
+}
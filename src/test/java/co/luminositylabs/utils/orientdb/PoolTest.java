@@ -0,0 +1,137 @@
+package co.luminositylabs.utils.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+
+/**
+ * Tests the pool functionality of OrientDBPool and OrientDBPoolFactory classes.
+ *
+ * @author Phillip Ross
+ */
+public class PoolTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(PoolTest.class);
+
+    private static final String TEMPLATE_NAME = "empty";
+    private static final String DB_HOSTNAME = "localhost";
+    private static final String DB_USERNAME = EmbeddedServerFixture.DATABASE_USERNAME;
+    private static final String DB_PASSWORD = EmbeddedServerFixture.DATABASE_PASSWORD;
+
+    private EmbeddedServerFixture fixture;
+    private String dbName;
+
+
+    @BeforeClass
+    public void createDatabase() {
+        fixture = EmbeddedServerFixture.getInstance().defineTemplate(TEMPLATE_NAME, db -> { });
+        dbName = fixture.createDatabase(TEMPLATE_NAME);
+    }
+
+
+    @AfterClass(alwaysRun = true)
+    public void dropDatabase() {
+        OrientDBPoolFactory.closeAll();
+        if (dbName != null) {
+            fixture.dropDatabase(dbName);
+        }
+    }
+
+
+    private Properties poolProperties(final String maxSize) {
+        Properties properties = new Properties();
+        properties.setProperty(OrientDBUtil.PROPERTY_NAME_ODB_DATABASE_NAME, dbName);
+        properties.setProperty(OrientDBUtil.PROPERTY_NAME_ODB_SERVER_ENGINE, "remote");
+        properties.setProperty(OrientDBUtil.PROPERTY_NAME_ODB_SERVER_REMOTE_HOSTNAME, DB_HOSTNAME);
+        properties.setProperty(
+                OrientDBUtil.PROPERTY_NAME_ODB_SERVER_REMOTE_PORT_RANGE,
+                String.valueOf(fixture.getPort())
+        );
+        properties.setProperty(OrientDBUtil.PROPERTY_NAME_ODB_USERNAME, DB_USERNAME);
+        properties.setProperty(OrientDBUtil.PROPERTY_NAME_ODB_PASSWORD, DB_PASSWORD);
+        properties.setProperty(OrientDBUtil.PROPERTY_NAME_ODB_POOL_MAX_SIZE, maxSize);
+        properties.setProperty(OrientDBUtil.PROPERTY_NAME_ODB_POOL_ACQUIRE_TIMEOUT, "500");
+        properties.setProperty(OrientDBUtil.PROPERTY_NAME_ODB_POOL_WARM_UP_SIZE, "2");
+        return properties;
+    }
+
+
+    @Test
+    public void testFactoryReturnsSharedPool() {
+        OrientDBPool pool = OrientDBPoolFactory.getPool(poolProperties("4"));
+        Assert.assertSame(OrientDBPoolFactory.getPool(poolProperties("4")), pool);
+        Assert.assertEquals(pool.getMaxSize(), 4);
+        Assert.assertTrue(pool.getCreatedConnections() >= 2);
+        try (PooledSession session = pool.acquire()) {
+            Assert.assertTrue(session.getDatabase().getMetadata().getSchema().countClasses() > 0);
+        }
+        Assert.assertTrue(pool.getAcquireCount() >= 1);
+        Assert.assertTrue(pool.getMaxAcquireWaitNanos() >= pool.getMeanAcquireWaitNanos());
+    }
+
+
+    @Test
+    public void testFactoryDoesNotSharePoolsAcrossPasswords() {
+        OrientDBPool pool = OrientDBPoolFactory.getPool(poolProperties("4"));
+        Properties wrongPassword = poolProperties("4");
+        wrongPassword.setProperty(OrientDBUtil.PROPERTY_NAME_ODB_PASSWORD, "wrongpassword");
+        wrongPassword.setProperty(OrientDBUtil.PROPERTY_NAME_ODB_POOL_WARM_UP_SIZE, "0");
+        OrientDBPool otherPool = OrientDBPoolFactory.getPool(wrongPassword);
+        Assert.assertNotSame(otherPool, pool);
+        boolean exceptionOccurred = false;
+        try (PooledSession session = otherPool.acquire()) {
+            Assert.assertNotNull(session.getDatabase());
+        } catch (RuntimeException re) {
+            exceptionOccurred = true;
+        }
+        Assert.assertTrue(exceptionOccurred);
+    }
+
+
+    @Test
+    public void testSessionsAreReentrantPerThread() {
+        OrientDBPool pool = OrientDBPoolFactory.getPool(poolProperties("4"));
+        final long acquireCount = pool.getAcquireCount();
+        try (PooledSession outer = pool.acquire()) {
+            try (PooledSession inner = pool.acquire()) {
+                Assert.assertSame(inner.getDatabase(), outer.getDatabase());
+            }
+            ODatabaseDocumentTx database = outer.getDatabase();
+            Assert.assertFalse(database.isClosed());
+        }
+        Assert.assertEquals(pool.getAcquireCount(), acquireCount + 1);
+    }
+
+
+    @Test
+    public void testAcquireTimesOutWhenPoolIsExhausted() throws Exception {
+        try (OrientDBPool pool = new OrientDBPool(
+                OrientDBUtil.buildDatabaseUrl(poolProperties("1")), DB_USERNAME, DB_PASSWORD, 1, 1, 200
+        )) {
+            try (PooledSession session = pool.acquire()) {
+                Assert.assertFalse(session.isClosed());
+                CompletableFuture<PooledSession> otherThreadAcquire = CompletableFuture.supplyAsync(pool::acquire);
+                boolean exceptionOccurred = false;
+                try {
+                    otherThreadAcquire.get();
+                } catch (ExecutionException ee) {
+                    exceptionOccurred = true;
+                    Assert.assertTrue(ee.getCause() instanceof IllegalStateException);
+                    Assert.assertTrue(ee.getCause().getMessage().contains("Timed out"));
+                }
+                Assert.assertTrue(exceptionOccurred);
+                Assert.assertEquals(pool.getAcquireTimeoutCount(), 1);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+package co.luminositylabs.utils.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.server.OServer;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+/**
+ * Tests the streaming query functionality of QueryStream and QueryResultIterator classes.
+ *
+ * @author Phillip Ross
+ */
+public class QueryStreamTest {
+
+    private static final String DB_USERNAME = "user1";
+    private static final String DB_PASSWORD = "user1password";
+    private static final int RECORD_COUNT = 5000;
+
+    private OServer oServer;
+    private ODatabaseDocumentTx oDatabaseDocumentTx;
+    private OrientDBPool pool;
+
+
+    @BeforeClass
+    public void createDatabase() throws Exception {
+        oServer = OrientDBUtil.startInMemoryEmbeddedServer(DB_USERNAME, DB_PASSWORD);
+        final String dbUrl = OrientDBUtil.buildDatabaseUrl("streamdb", OrientDBUtil.Engine.MEMORY, null, null, null);
+        oDatabaseDocumentTx = new ODatabaseDocumentTx(dbUrl).create();
+        oDatabaseDocumentTx.getMetadata().getSchema().createClass("Reading");
+        oDatabaseDocumentTx.begin();
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            oDatabaseDocumentTx.save(new ODocument("Reading").field("sequence", i).field("value", i % 10));
+        }
+        oDatabaseDocumentTx.commit();
+        pool = new OrientDBPool(dbUrl, "admin", "admin", 4, 4, 5000);
+    }
+
+
+    @AfterClass(alwaysRun = true)
+    public void dropDatabase() {
+        if (pool != null) {
+            pool.close();
+        }
+        if ((oDatabaseDocumentTx != null) && (!(oDatabaseDocumentTx.isClosed()))) {
+            oDatabaseDocumentTx.activateOnCurrentThread();
+            oDatabaseDocumentTx.drop();
+        }
+        if ((oServer != null) && (oServer.isActive())) {
+            oServer.shutdown();
+        }
+    }
+
+
+    private void awaitNoActiveSessions() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((pool.getActiveSessions() > 0) && (System.nanoTime() < deadline)) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(pool.getActiveSessions(), 0);
+    }
+
+
+    @Test
+    public void testStreamVisitsEveryResult() throws Exception {
+        try (Stream<ODocument> stream = QueryStream.stream(pool, 16, "select from Reading where value = ?", 3)) {
+            List<Integer> sequences = stream.map(document -> document.<Integer>field("sequence"))
+                    .collect(Collectors.toList());
+            Assert.assertEquals(sequences.size(), RECORD_COUNT / 10);
+            Assert.assertTrue(sequences.stream().allMatch(sequence -> sequence % 10 == 3));
+        }
+        awaitNoActiveSessions();
+    }
+
+
+    @Test
+    public void testClosingIteratorCancelsQuery() throws Exception {
+        int consumed = 0;
+        QueryResultIterator iterator = QueryStream.iterator(pool, 8, "select from Reading");
+        try {
+            while (iterator.hasNext() && (consumed < 20)) {
+                Assert.assertNotNull(iterator.next().field("sequence"));
+                consumed++;
+            }
+        } finally {
+            iterator.close();
+        }
+        Assert.assertEquals(consumed, 20);
+        Assert.assertTrue(iterator.isCancelled());
+        Assert.assertFalse(iterator.hasNext());
+        awaitNoActiveSessions();
+    }
+
+
+    @Test
+    public void testQueryFailureIsRethrown() throws Exception {
+        boolean exceptionOccurred = false;
+        try (Stream<ODocument> stream = QueryStream.stream(pool, "select from NoSuchClass")) {
+            stream.count();
+        } catch (IllegalStateException ise) {
+            exceptionOccurred = true;
+        }
+        Assert.assertTrue(exceptionOccurred);
+        awaitNoActiveSessions();
+    }
+
+
+    @Test
+    public void testErrorIsRethrownRatherThanEndingTheResults() {
+        final OrientDBPool failingPool = new OrientDBPool(pool.getDatabaseUrl(), "admin", "admin", 1, 1, 5000) {
+            @Override
+            public PooledSession acquire() {
+                throw new AssertionError("acquire failed");
+            }
+        };
+        boolean errorOccurred = false;
+        try {
+            QueryResultIterator iterator = new QueryResultIterator(4, "select from Reading");
+            iterator.run(failingPool);
+            iterator.hasNext();
+        } catch (AssertionError ae) {
+            errorOccurred = true;
+            Assert.assertEquals(ae.getMessage(), "acquire failed");
+        } finally {
+            failingPool.close();
+        }
+        Assert.assertTrue(errorOccurred);
+    }
+
+}
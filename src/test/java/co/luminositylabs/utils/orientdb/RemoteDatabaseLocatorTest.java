@@ -0,0 +1,139 @@
+package co.luminositylabs.utils.orientdb;
+
+import com.orientechnologies.orient.client.remote.OServerAdmin;
+import com.orientechnologies.orient.server.OServer;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Tests the multi-address, load-balancing functionality of RemoteDatabaseLocator and LoadBalancedPool classes.
+ *
+ * @author Phillip Ross
+ */
+public class RemoteDatabaseLocatorTest {
+
+
+    @Test
+    public void testParseKeepsEveryHostAndPort() {
+        RemoteDatabaseLocator locator = RemoteDatabaseLocator.parse("host1,host2:9999", "2424-2426", null, "db1");
+        List<RemoteAddress> addresses = locator.getAddresses();
+        Assert.assertEquals(addresses, Arrays.asList(
+                new RemoteAddress("host1", 2424),
+                new RemoteAddress("host1", 2425),
+                new RemoteAddress("host1", 2426),
+                new RemoteAddress("host2", 9999)
+        ));
+        Assert.assertEquals(
+                locator.getDatabaseUrl(),
+                "remote:host1:2424;host1:2425;host1:2426;host2:9999/db1"
+        );
+        Assert.assertEquals(
+                locator.getDatabaseUrl(new RemoteAddress("host2", 9999)),
+                "remote:host2:9999;host1:2424;host1:2425;host1:2426/db1"
+        );
+    }
+
+
+    @Test
+    public void testParseRejectsInvalidPortRanges() {
+        String[] invalidPortRangeSpecifications = new String[] {"A123", "-1234", "2430-2424"};
+        for (String portRangeSpecification : invalidPortRangeSpecifications) {
+            boolean exceptionOccurred = false;
+            try {
+                RemoteDatabaseLocator.parse("host1", portRangeSpecification, null, "db1");
+            } catch (IllegalArgumentException iae) {
+                exceptionOccurred = true;
+            }
+            Assert.assertTrue(exceptionOccurred);
+        }
+    }
+
+
+    @Test
+    public void testRoundRobinSelectionVisitsEveryAddress() {
+        RemoteDatabaseLocator locator = RemoteDatabaseLocator.parse("host1,host2,host3", "2424", null, "db1");
+        Set<RemoteAddress> selected = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            selected.add(locator.select(RemoteDatabaseLocator.Strategy.ROUND_ROBIN, address -> 0));
+        }
+        Assert.assertEquals(selected.size(), 3);
+    }
+
+
+    @Test
+    public void testLeastLoadedSelectionAndFailureCooldown() {
+        RemoteDatabaseLocator locator = RemoteDatabaseLocator.parse("host1,host2", "2424", null, "db1");
+        RemoteAddress host1 = new RemoteAddress("host1", 2424);
+        RemoteAddress host2 = new RemoteAddress("host2", 2424);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(
+                    locator.select(RemoteDatabaseLocator.Strategy.LEAST_LOADED, a -> a.equals(host1) ? 5 : 1),
+                    host2
+            );
+        }
+        locator.markFailed(host2);
+        Assert.assertFalse(locator.isAvailable(host2));
+        Assert.assertEquals(
+                locator.select(RemoteDatabaseLocator.Strategy.LEAST_LOADED, a -> a.equals(host1) ? 5 : 1),
+                host1
+        );
+        locator.markAvailable(host2);
+        Assert.assertTrue(locator.isAvailable(host2));
+    }
+
+
+    @Test
+    public void testPoolFailsOverFromUnreachableAddress() throws Exception {
+        final String dbUsername = "user1";
+        final String dbPassword = "user1password";
+        final String livePort = "7659";
+        final String deadPort = "7660";
+        OServer oServer = null;
+        try {
+            oServer = new EmbeddedServerBuilder(dbUsername, dbPassword)
+                    .addListener("127.0.0.1", livePort)
+                    .start();
+            OServerAdmin oServerAdmin = new OServerAdmin(OrientDBUtil.buildDatabaseUrl(
+                    "lbdb", OrientDBUtil.Engine.REMOTE, "127.0.0.1", livePort, null
+            ));
+            try {
+                oServerAdmin.connect(dbUsername, dbPassword);
+                if (!oServerAdmin.existsDatabase()) {
+                    oServerAdmin.createDatabase("document", "plocal");
+                }
+            } finally {
+                oServerAdmin.close();
+            }
+
+            RemoteDatabaseLocator locator = RemoteDatabaseLocator.parse(
+                    "127.0.0.1:" + deadPort + ",127.0.0.1:" + livePort, null, null, "lbdb"
+            );
+            try (LoadBalancedPool pool = new LoadBalancedPool(
+                    locator, RemoteDatabaseLocator.Strategy.ROUND_ROBIN, dbUsername, dbPassword, 4, 4, 1000
+            )) {
+                for (int i = 0; i < 3; i++) {
+                    try (PooledSession session = pool.acquire()) {
+                        Assert.assertTrue(session.getDatabase().getURL().contains(livePort));
+                    }
+                }
+                Assert.assertFalse(locator.isAvailable(new RemoteAddress("127.0.0.1", Integer.parseInt(deadPort))));
+
+                try (PooledSession session = pool.acquire()) {
+                    pool.reportFailure(session);
+                }
+                Assert.assertFalse(locator.isAvailable(new RemoteAddress("127.0.0.1", Integer.parseInt(livePort))));
+            }
+        } finally {
+            if ((oServer != null) && (oServer.isActive())) {
+                oServer.shutdown();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+package co.luminositylabs.utils.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Tests the diff-only schema application of SchemaBootstrapper class.
+ *
+ * @author Phillip Ross
+ */
+public class SchemaBootstrapperTest {
+
+    private static final int RECORD_COUNT = 1000;
+
+    private ODatabaseDocumentTx oDatabaseDocumentTx;
+    private OrientDBPool pool;
+
+
+    @BeforeClass
+    public void createDatabase() {
+        final String dbUrl = OrientDBUtil.buildDatabaseUrl("bootstrapdb", OrientDBUtil.Engine.MEMORY, null, null, null);
+        oDatabaseDocumentTx = new ODatabaseDocumentTx(dbUrl).create();
+        oDatabaseDocumentTx.getMetadata().getSchema().createClass("Invoice");
+        oDatabaseDocumentTx.getMetadata().getSchema().createClass("Shipment");
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            oDatabaseDocumentTx.save(new ODocument("Invoice").field("number", i));
+            oDatabaseDocumentTx.save(new ODocument("Shipment").field("tracking", "track-" + i));
+        }
+        pool = new OrientDBPool(dbUrl, "admin", "admin", 4, 4, 5000);
+    }
+
+
+    @AfterClass(alwaysRun = true)
+    public void dropDatabase() {
+        if (pool != null) {
+            pool.close();
+        }
+        if ((oDatabaseDocumentTx != null) && (!(oDatabaseDocumentTx.isClosed()))) {
+            oDatabaseDocumentTx.activateOnCurrentThread();
+            oDatabaseDocumentTx.drop();
+        }
+    }
+
+
+    @Test
+    public void testResourceDeclarationsAreAppliedOnce() throws Exception {
+        SchemaBootstrapResult first = SchemaBootstrapper.fromResource("bootstrap-schema.json").apply(pool);
+        Assert.assertEquals(first.getCreatedClasses(), Arrays.asList("Party", "Customer"));
+        Assert.assertEquals(
+                first.getCreatedProperties(),
+                Arrays.asList("Party.name", "Customer.email", "Customer.referrer")
+        );
+        Assert.assertEquals(first.getCreatedIndexes(), Arrays.asList("Customer.email"));
+        oDatabaseDocumentTx.activateOnCurrentThread();
+        oDatabaseDocumentTx.getMetadata().getSchema().reload();
+        OClass customer = oDatabaseDocumentTx.getMetadata().getSchema().getClass("Customer");
+        Assert.assertEquals(customer.getSuperClass().getName(), "Party");
+        Assert.assertTrue(customer.getSuperClass().isAbstract());
+        Assert.assertEquals(customer.getProperty("referrer").getLinkedClass().getName(), "Customer");
+
+        SchemaBootstrapResult second = SchemaBootstrapper.fromResource("bootstrap-schema.json").apply(pool);
+        Assert.assertFalse(second.hasChanges());
+    }
+
+
+    @Test
+    public void testIndexesAreBuiltInParallelWithProgress() {
+        Map<String, Float> progress = new ConcurrentHashMap<>();
+        SchemaBootstrapResult result = new SchemaBootstrapper()
+                .addClass("Invoice")
+                .addProperty("Invoice", "number", OType.INTEGER)
+                .addIndex("Invoice", "Invoice.number", OClass.INDEX_TYPE.UNIQUE, "number")
+                .addClass("Shipment")
+                .addProperty("Shipment", "tracking", OType.STRING)
+                .addIndex("Shipment", "Shipment.tracking", OClass.INDEX_TYPE.NOTUNIQUE_HASH_INDEX, "tracking")
+                .setParallelism(2)
+                .setProgressConsumer(progress::put)
+                .apply(pool);
+        Assert.assertTrue(result.getCreatedClasses().isEmpty());
+        Assert.assertEquals(result.getCreatedIndexes().size(), 2);
+        Assert.assertEquals(progress.get("Invoice.number"), 100f);
+        Assert.assertEquals(progress.get("Shipment.tracking"), 100f);
+        oDatabaseDocumentTx.activateOnCurrentThread();
+        oDatabaseDocumentTx.getMetadata().getIndexManager().reload();
+        Assert.assertEquals(
+                oDatabaseDocumentTx.getMetadata().getIndexManager().getIndex("Invoice.number").getSize(),
+                RECORD_COUNT
+        );
+    }
+
+
+    @Test
+    public void testConflictingPropertyTypeIsRejected() {
+        boolean exceptionOccurred = false;
+        try {
+            new SchemaBootstrapper()
+                    .addClass("Conflict")
+                    .addProperty("Conflict", "value", OType.STRING)
+                    .apply(pool);
+            new SchemaBootstrapper()
+                    .addClass("Conflict")
+                    .addProperty("Conflict", "value", OType.LONG)
+                    .apply(pool);
+        } catch (IllegalStateException ise) {
+            exceptionOccurred = true;
+        }
+        Assert.assertTrue(exceptionOccurred);
+    }
+
+
+    @Test
+    public void testConflictingIndexIsRejected() {
+        new SchemaBootstrapper()
+                .addClass("IndexConflict")
+                .addProperty("IndexConflict", "code", OType.STRING)
+                .addProperty("IndexConflict", "region", OType.STRING)
+                .addIndex("IndexConflict", "IndexConflict.code", OClass.INDEX_TYPE.UNIQUE, "code")
+                .apply(pool);
+        boolean exceptionOccurred = false;
+        try {
+            new SchemaBootstrapper()
+                    .addClass("IndexConflict")
+                    .addIndex("IndexConflict", "IndexConflict.code", OClass.INDEX_TYPE.UNIQUE, "code", "region")
+                    .apply(pool);
+        } catch (IllegalStateException ise) {
+            exceptionOccurred = true;
+        }
+        Assert.assertTrue(exceptionOccurred);
+        exceptionOccurred = false;
+        try {
+            new SchemaBootstrapper()
+                    .addClass("IndexConflict")
+                    .addIndex("IndexConflict", "IndexConflict.code", OClass.INDEX_TYPE.NOTUNIQUE, "code")
+                    .apply(pool);
+        } catch (IllegalStateException ise) {
+            exceptionOccurred = true;
+        }
+        Assert.assertTrue(exceptionOccurred);
+        SchemaBootstrapResult result = new SchemaBootstrapper()
+                .addClass("IndexConflict")
+                .addIndex("IndexConflict", "IndexConflict.code", OClass.INDEX_TYPE.UNIQUE, "code")
+                .apply(pool);
+        Assert.assertTrue(result.getCreatedIndexes().isEmpty());
+    }
+
+
+    @Test
+    public void testUndeclaredClassIsRejected() {
+        boolean exceptionOccurred = false;
+        try {
+            new SchemaBootstrapper().addProperty("Missing", "value", OType.STRING);
+        } catch (IllegalArgumentException iae) {
+            exceptionOccurred = true;
+        }
+        Assert.assertTrue(exceptionOccurred);
+    }
+
+}
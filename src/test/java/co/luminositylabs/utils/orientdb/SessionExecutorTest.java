@@ -0,0 +1,180 @@
+package co.luminositylabs.utils.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Tests the session-owning worker functionality of SessionExecutor class.
+ *
+ * @author Phillip Ross
+ */
+public class SessionExecutorTest {
+
+    private ODatabaseDocumentTx oDatabaseDocumentTx;
+    private OrientDBPool pool;
+
+
+    @BeforeClass
+    public void createDatabase() {
+        final String dbUrl = OrientDBUtil.buildDatabaseUrl("executordb", OrientDBUtil.Engine.MEMORY, null, null, null);
+        oDatabaseDocumentTx = new ODatabaseDocumentTx(dbUrl).create();
+        oDatabaseDocumentTx.getMetadata().getSchema().createClass("Event");
+        pool = new OrientDBPool(dbUrl, "admin", "admin", 8, 8, 5000);
+    }
+
+
+    @AfterClass(alwaysRun = true)
+    public void dropDatabase() {
+        if (pool != null) {
+            pool.close();
+        }
+        if ((oDatabaseDocumentTx != null) && (!(oDatabaseDocumentTx.isClosed()))) {
+            oDatabaseDocumentTx.activateOnCurrentThread();
+            oDatabaseDocumentTx.drop();
+        }
+    }
+
+
+    @Test
+    public void testWorkersKeepTheirSessions() throws Exception {
+        Set<ODatabaseDocumentTx> databases = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        try (SessionExecutor executor = new SessionExecutor(pool, 3)) {
+            List<CompletableFuture<Long>> futures = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                final int sequence = i;
+                futures.add(executor.submit(db -> {
+                    databases.add(db);
+                    db.save(new ODocument("Event").field("sequence", sequence));
+                    return db.countClass("Event");
+                }));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+            Assert.assertEquals(executor.getCompletedTaskCount(), 300L);
+            Assert.assertTrue(executor.getBatchCount() <= 300L);
+            Assert.assertTrue(databases.size() <= 3);
+            Assert.assertEquals(pool.getActiveSessions(), databases.size());
+        }
+        Assert.assertEquals(pool.getActiveSessions(), 0);
+        oDatabaseDocumentTx.activateOnCurrentThread();
+        Assert.assertEquals(oDatabaseDocumentTx.countClass("Event"), 300L);
+    }
+
+
+    @Test
+    public void testKeyedWorkRunsInOrder() throws Exception {
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        try (SessionExecutor executor = new SessionExecutor(pool, 4)) {
+            CompletableFuture<Void> last = null;
+            for (int i = 0; i < 100; i++) {
+                final int sequence = i;
+                last = executor.submit("account-1", db -> {
+                    order.add(sequence);
+                    return null;
+                }).thenApply(result -> null);
+            }
+            last.get(30, TimeUnit.SECONDS);
+        }
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(order.get(i).intValue(), i);
+        }
+    }
+
+
+    @Test
+    public void testFailuresCompleteFuturesExceptionally() throws Exception {
+        try (SessionExecutor executor = new SessionExecutor(pool, 1)) {
+            CompletableFuture<Object> failed = executor.submit(db -> {
+                throw new IllegalArgumentException("boom");
+            });
+            boolean exceptionOccurred = false;
+            try {
+                failed.get(30, TimeUnit.SECONDS);
+            } catch (ExecutionException ee) {
+                exceptionOccurred = ee.getCause() instanceof IllegalArgumentException;
+            }
+            Assert.assertTrue(exceptionOccurred);
+            Assert.assertEquals(executor.submit(db -> db.getName()).get(30, TimeUnit.SECONDS), "executordb");
+        }
+    }
+
+
+    @Test
+    public void testErrorsDoNotStopTheWorker() throws Exception {
+        try (SessionExecutor executor = new SessionExecutor(pool, 1, 16, 8)) {
+            CountDownLatch blocker = new CountDownLatch(1);
+            executor.execute(db -> {
+                try {
+                    blocker.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            CompletableFuture<Object> failed = executor.submit(db -> {
+                throw new AssertionError("boom");
+            });
+            CompletableFuture<String> next = executor.submit(db -> db.getName());
+            blocker.countDown();
+            boolean exceptionOccurred = false;
+            try {
+                failed.get(30, TimeUnit.SECONDS);
+            } catch (ExecutionException ee) {
+                exceptionOccurred = ee.getCause() instanceof AssertionError;
+            }
+            Assert.assertTrue(exceptionOccurred);
+            Assert.assertEquals(next.get(30, TimeUnit.SECONDS), "executordb");
+            Assert.assertEquals(executor.submit(db -> db.getName()).get(30, TimeUnit.SECONDS), "executordb");
+        }
+    }
+
+
+    @Test
+    public void testFullQueueAndShutdownRejectWork() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        try (SessionExecutor executor = new SessionExecutor(pool, 1, 1, 1)) {
+            executor.execute(db -> {
+                try {
+                    blocker.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            CompletableFuture<Void> rejected = null;
+            for (int i = 0; (i < 3) && (rejected == null); i++) {
+                CompletableFuture<Void> future = executor.execute(db -> { });
+                if (future.isCompletedExceptionally()) {
+                    rejected = future;
+                }
+            }
+            Assert.assertNotNull(rejected);
+            blocker.countDown();
+            executor.shutdown();
+            boolean exceptionOccurred = false;
+            try {
+                executor.execute(db -> { }).get();
+            } catch (ExecutionException ee) {
+                exceptionOccurred = ee.getCause() instanceof RejectedExecutionException;
+            }
+            Assert.assertTrue(exceptionOccurred);
+            Assert.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        } finally {
+            blocker.countDown();
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+package co.luminositylabs.utils.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+
+/**
+ * Tests the slow command capture of SlowQueryLog class.
+ *
+ * @author Phillip Ross
+ */
+public class SlowQueryLogTest {
+
+    private ODatabaseDocumentTx oDatabaseDocumentTx;
+
+
+    @BeforeClass
+    public void createDatabase() {
+        final String dbUrl = OrientDBUtil.buildDatabaseUrl("slowquerydb", OrientDBUtil.Engine.MEMORY, null, null, null);
+        oDatabaseDocumentTx = new ODatabaseDocumentTx(dbUrl).create();
+        oDatabaseDocumentTx.getMetadata().getSchema().createClass("Reading");
+        for (int i = 0; i < 100; i++) {
+            oDatabaseDocumentTx.save(new ODocument("Reading").field("value", i));
+        }
+    }
+
+
+    @AfterClass(alwaysRun = true)
+    public void dropDatabase() {
+        if ((oDatabaseDocumentTx != null) && (!(oDatabaseDocumentTx.isClosed()))) {
+            oDatabaseDocumentTx.activateOnCurrentThread();
+            oDatabaseDocumentTx.drop();
+        }
+    }
+
+
+    @Test
+    public void testSlowQueriesAreCapturedWithPlans() {
+        SlowQueryLog slowQueryLog = new SlowQueryLog(0);
+        oDatabaseDocumentTx.activateOnCurrentThread();
+        slowQueryLog.register(oDatabaseDocumentTx);
+        try {
+            List<ODocument> results = oDatabaseDocumentTx.query(
+                    new OSQLSynchQuery<ODocument>("select from Reading where value < ?"), 10
+            );
+            Assert.assertEquals(results.size(), 10);
+        } finally {
+            slowQueryLog.unregister(oDatabaseDocumentTx);
+        }
+        List<SlowQuery> slowQueries = slowQueryLog.getSlowQueries();
+        Assert.assertEquals(slowQueries.size(), 1);
+        SlowQuery slowQuery = slowQueries.get(0);
+        Assert.assertEquals(slowQuery.getText(), "select from Reading where value < ?");
+        Assert.assertEquals(slowQuery.getDatabaseName(), "slowquerydb");
+        Assert.assertEquals(slowQuery.getRecordCount(), 10L);
+        Assert.assertEquals(slowQuery.getParameters().get("0"), "10");
+        Assert.assertNotNull(slowQuery.getExecutionPlan());
+        String json = slowQueryLog.toJson();
+        Assert.assertTrue(json.startsWith("[{"));
+        Assert.assertTrue(json.contains("select from Reading"));
+    }
+
+
+    @Test
+    public void testFastCommandsAreIgnoredAndBufferIsBounded() {
+        SlowQueryLog ignoring = new SlowQueryLog(60_000L);
+        SlowQueryLog bounded = new SlowQueryLog(0, 4).setExplainEnabled(false);
+        oDatabaseDocumentTx.activateOnCurrentThread();
+        ignoring.register(oDatabaseDocumentTx);
+        bounded.register(oDatabaseDocumentTx);
+        try {
+            for (int i = 0; i < 10; i++) {
+                OCommandSQL update = new OCommandSQL("update Reading set seen = ? where value = ?");
+                oDatabaseDocumentTx.command(update).execute(i, i);
+            }
+        } finally {
+            ignoring.unregister(oDatabaseDocumentTx);
+            bounded.unregister(oDatabaseDocumentTx);
+        }
+        Assert.assertEquals(ignoring.getCapturedCount(), 0L);
+        Assert.assertEquals(bounded.getCapturedCount(), 10L);
+        List<SlowQuery> slowQueries = bounded.getSlowQueries();
+        Assert.assertEquals(slowQueries.size(), 4);
+        Assert.assertEquals(slowQueries.get(0).getSequence(), 6L);
+        Assert.assertEquals(slowQueries.get(3).getRecordCount(), 1L);
+        Assert.assertNull(slowQueries.get(3).getExecutionPlan());
+    }
+
+
+    @Test
+    public void testFailedCommandsDoNotAffectLaterCaptures() {
+        SlowQueryLog slowQueryLog = new SlowQueryLog(0).setExplainEnabled(false);
+        oDatabaseDocumentTx.activateOnCurrentThread();
+        slowQueryLog.register(oDatabaseDocumentTx);
+        try {
+            for (int i = 0; i < 3; i++) {
+                boolean exceptionOccurred = false;
+                try {
+                    oDatabaseDocumentTx.command(new OCommandSQL("update NoSuchClass set seen = true")).execute();
+                } catch (RuntimeException re) {
+                    exceptionOccurred = true;
+                }
+                Assert.assertTrue(exceptionOccurred);
+            }
+            oDatabaseDocumentTx.command(new OCommandSQL("update Reading set seen = true where value = 0")).execute();
+        } finally {
+            slowQueryLog.unregister(oDatabaseDocumentTx);
+        }
+        List<SlowQuery> slowQueries = slowQueryLog.getSlowQueries();
+        Assert.assertEquals(slowQueries.size(), 1);
+        Assert.assertEquals(slowQueries.get(0).getText(), "update Reading set seen = true where value = 0");
+        Assert.assertEquals(slowQueries.get(0).getRecordCount(), 1L);
+    }
+
+}
@@ -0,0 +1,172 @@
+package co.luminositylabs.utils.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Tests the group commit functionality of WriteCoalescer class.
+ *
+ * @author Phillip Ross
+ */
+public class WriteCoalescerTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteCoalescerTest.class);
+
+    private static final String DB_NAME = "coalescedb";
+    private static final int THREAD_COUNT = 16;
+    private static final int WRITES_PER_THREAD = 50;
+
+    private ODatabaseDocumentTx oDatabaseDocumentTx;
+    private OrientDBPool pool;
+
+
+    @BeforeClass
+    public void createDatabase() {
+        final String dbUrl = OrientDBUtil.buildDatabaseUrl(DB_NAME, OrientDBUtil.Engine.MEMORY, null, null, null);
+        oDatabaseDocumentTx = new ODatabaseDocumentTx(dbUrl).create();
+        oDatabaseDocumentTx.getMetadata().getSchema().createClass("Order");
+        oDatabaseDocumentTx.getMetadata().getSchema().createClass("Audit");
+        oDatabaseDocumentTx.getMetadata().getSchema().createClass("Setting");
+        pool = new OrientDBPool(dbUrl, "admin", "admin", 4, 4, 5000);
+    }
+
+
+    @AfterClass(alwaysRun = true)
+    public void dropDatabase() {
+        OrientDBPoolFactory.closeAll();
+        if (pool != null) {
+            pool.close();
+        }
+        if ((oDatabaseDocumentTx != null) && (!(oDatabaseDocumentTx.isClosed()))) {
+            oDatabaseDocumentTx.activateOnCurrentThread();
+            oDatabaseDocumentTx.drop();
+        }
+    }
+
+
+    @Test
+    public void testConcurrentSavesShareTransactions() throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(THREAD_COUNT);
+        try (WriteCoalescer coalescer = new WriteCoalescer(pool, 64, 5, 3)) {
+            List<Future<List<CompletableFuture<ODocument>>>> submissions = new ArrayList<>();
+            for (int t = 0; t < THREAD_COUNT; t++) {
+                final int thread = t;
+                submissions.add(callers.submit(() -> {
+                    List<CompletableFuture<ODocument>> futures = new ArrayList<>();
+                    for (int i = 0; i < WRITES_PER_THREAD; i++) {
+                        futures.add(coalescer.save(new ODocument("Order").field("thread", thread).field("item", i)));
+                    }
+                    return futures;
+                }));
+            }
+            for (Future<List<CompletableFuture<ODocument>>> submission : submissions) {
+                for (CompletableFuture<ODocument> future : submission.get(30, TimeUnit.SECONDS)) {
+                    Assert.assertTrue(future.get(30, TimeUnit.SECONDS).getIdentity().isPersistent());
+                }
+            }
+            logger.info(
+                    "Committed {} writes in {} transactions",
+                    coalescer.getCommittedWriteCount(),
+                    coalescer.getCommittedBatchCount()
+            );
+            Assert.assertEquals(coalescer.getCommittedWriteCount(), THREAD_COUNT * WRITES_PER_THREAD);
+            Assert.assertTrue(coalescer.getCommittedBatchCount() < THREAD_COUNT * WRITES_PER_THREAD);
+        } finally {
+            callers.shutdown();
+        }
+        oDatabaseDocumentTx.activateOnCurrentThread();
+        Assert.assertEquals(oDatabaseDocumentTx.countClass("Order"), THREAD_COUNT * WRITES_PER_THREAD);
+    }
+
+
+    @Test
+    public void testFailingWriteOnlyFailsItsOwnFuture() throws Exception {
+        try (WriteCoalescer coalescer = new WriteCoalescer(pool, 10, 50, 0)) {
+            CompletableFuture<ODocument> before = coalescer.save(new ODocument("Audit").field("entry", "before"));
+            CompletableFuture<Object> failing = coalescer.submit(db -> {
+                throw new IllegalStateException("rejected write");
+            });
+            CompletableFuture<ODocument> after = coalescer.save(new ODocument("Audit").field("entry", "after"));
+            Assert.assertTrue(before.get(30, TimeUnit.SECONDS).getIdentity().isPersistent());
+            Assert.assertTrue(after.get(30, TimeUnit.SECONDS).getIdentity().isPersistent());
+            boolean exceptionOccurred = false;
+            try {
+                failing.get(30, TimeUnit.SECONDS);
+            } catch (ExecutionException ee) {
+                exceptionOccurred = ee.getCause() instanceof IllegalStateException;
+            }
+            Assert.assertTrue(exceptionOccurred);
+        }
+        oDatabaseDocumentTx.activateOnCurrentThread();
+        Assert.assertEquals(oDatabaseDocumentTx.countClass("Audit"), 2L);
+    }
+
+
+    @Test
+    public void testErrorInWriteDoesNotStopTheCommitter() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        try (WriteCoalescer coalescer = new WriteCoalescer(pool, 10, 50, 0)) {
+            CompletableFuture<Object> failing = coalescer.submit(db -> {
+                attempts.incrementAndGet();
+                throw new AssertionError("broken write");
+            });
+            boolean exceptionOccurred = false;
+            try {
+                failing.get(30, TimeUnit.SECONDS);
+            } catch (ExecutionException ee) {
+                exceptionOccurred = ee.getCause() instanceof AssertionError;
+            }
+            Assert.assertTrue(exceptionOccurred);
+            Assert.assertEquals(attempts.get(), 1);
+            CompletableFuture<ODocument> after = coalescer.save(new ODocument("Setting").field("name", "after"));
+            Assert.assertTrue(after.get(30, TimeUnit.SECONDS).getIdentity().isPersistent());
+        }
+    }
+
+
+    @Test
+    public void testCoalescerFromProperties() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(OrientDBUtil.PROPERTY_NAME_ODB_DATABASE_NAME, DB_NAME);
+        properties.setProperty(OrientDBUtil.PROPERTY_NAME_ODB_SERVER_ENGINE, "memory");
+        properties.setProperty(OrientDBUtil.PROPERTY_NAME_ODB_USERNAME, "admin");
+        properties.setProperty(OrientDBUtil.PROPERTY_NAME_ODB_PASSWORD, "admin");
+        properties.setProperty(OrientDBUtil.PROPERTY_NAME_ODB_WRITE_MAX_BATCH_SIZE, "8");
+        properties.setProperty(OrientDBUtil.PROPERTY_NAME_ODB_WRITE_MAX_LINGER, "1");
+        try (WriteCoalescer coalescer = WriteCoalescer.fromProperties(properties)) {
+            ODocument saved = coalescer.submit(db -> {
+                ODocument document = new ODocument("Setting").field("entry", "configured");
+                db.save(document);
+                return document;
+            }).get(30, TimeUnit.SECONDS);
+            Assert.assertTrue(saved.getIdentity().isPersistent());
+        }
+        boolean exceptionOccurred = false;
+        properties.setProperty(OrientDBUtil.PROPERTY_NAME_ODB_WRITE_MAX_RETRIES, "many");
+        try {
+            WriteCoalescer.fromProperties(properties);
+        } catch (IllegalArgumentException iae) {
+            exceptionOccurred = true;
+        }
+        Assert.assertTrue(exceptionOccurred);
+    }
+
+}